@@ -67,10 +67,12 @@ import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.WireCodec;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.host.Host;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.PropertiesUtil;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.StringUtils;
 import com.cloud.utils.backoff.BackoffAlgorithm;
 import com.cloud.utils.concurrency.NamedThreadFactory;
@@ -126,6 +128,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource _resource;
     Link _link;
     Long _id;
+    // whether the management server of the link advertised the binary codec in its startup answer
+    volatile boolean _binaryCodec = false;
 
     Timer _timer = new Timer("Agent Timer");
     Timer certTimer;
@@ -190,6 +194,10 @@ public class Agent implements HandlerFactory, IAgentControl {
             throw new ConfigurationException("Unable to configure " + _resource.getName());
         }
 
+        final String binaryCodec = _shell.getProperties().getProperty("binary.codec.enabled");
+        WireCodec.configure(binaryCodec == null || Boolean.parseBoolean(binaryCodec),
+                NumbersUtil.parseInt(_shell.getProperties().getProperty("binary.codec.compression.threshold"), WireCodec.DEFAULT_COMPRESSION_THRESHOLD));
+
         final String host = _shell.getNextHost();
         _connection = new NioClient("Agent", host, _shell.getPort(), _shell.getWorkers(), this);
 
@@ -229,6 +237,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     protected void setLink(final Link link) {
         _link = link;
+        _binaryCodec = false;
     }
 
     public ServerResource getResource() {
@@ -558,6 +567,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         s_logger.info("Proccess agent startup answer, agent id = " + startup.getHostId());
 
         setId(startup.getHostId());
+        _binaryCodec = WireCodec.isEnabled() && response.isBinaryCodecSupported();
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
 
         setLastPingResponseTime();
@@ -836,7 +846,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
 
             try {
-                task.getLink().send(request.toBytes());
+                task.getLink().send(request.toBytes(_binaryCodec));
                 //if i can send pingcommand out, means the link is ok
                 setLastPingResponseTime();
             } catch (final ClosedChannelException e) {
@@ -929,7 +939,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(final Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
-                _link.send(request.toBytes());
+                _link.send(request.toBytes(_binaryCodec));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
                 throw new AgentControlChannelException("Unable to post agent control request due to " + e.getMessage());
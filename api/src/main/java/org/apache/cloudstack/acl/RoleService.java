@@ -27,6 +27,11 @@ public interface RoleService {
     ConfigKey<Boolean> EnableDynamicApiChecker = new ConfigKey<>("Advanced", Boolean.class, "dynamic.apichecker.enabled", "false",
             "If set to true, this enables the dynamic role-based api access checker and disables the default static role-based api access checker.", true);
 
+    /**
+     * Message bus subject published after the permissions of a role changed, the role id is passed as argument.
+     */
+    String ROLE_PERMISSIONS_CHANGED = "role.permissions.changed";
+
     boolean isEnabled();
 
     /**
@@ -19,6 +19,7 @@ package org.apache.cloudstack.api;
 import java.net.InetAddress;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import com.cloud.exception.CloudAuthenticationException;
@@ -41,6 +42,13 @@ public interface ApiServerService {
 
     public String handleRequest(Map params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Handles the request as handleRequest does, but writes the response of a command
+     * to resp while it is serialized, instead of returning it.  The errors of the
+     * command are thrown as ServerApiException before anything is written.
+     */
+    public void handleRequest(Map params, String responseType, StringBuilder auditTrailSb, HttpServletResponse resp) throws ServerApiException;
+
     public Class<?> getCmdClass(String cmdName);
 
 }
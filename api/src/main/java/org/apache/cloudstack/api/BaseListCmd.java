@@ -40,6 +40,10 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.START_AFTER, type = CommandType.STRING, description = "list the page after the one that returned this nextcursor, "
+            + "instead of specifying the page. Supported by the lists that return a nextcursor", since = "4.14")
+    private String startAfter;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -117,6 +121,11 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return startIndex;
     }
 
+    @Override
+    public String getStartAfter() {
+        return startAfter;
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.None;
@@ -132,7 +141,14 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
-        if (params.get(ApiConstants.PAGE) == null &&
+        if (params.get(ApiConstants.START_AFTER) != null) {
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter can't be specified together with \"startafter\"");
+            }
+            if (pageSize != null && pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"startafter\" parameter can't be specified when pagesize is -1 (Unlimited)");
+            }
+        } else if (params.get(ApiConstants.PAGE) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
@@ -24,9 +24,17 @@ import java.util.Map;
 import com.cloud.host.Host;
 
 public class PingRoutingCommand extends PingCommand {
+    /**
+     * Upper bounds, in milliseconds, of the buckets of the storage heartbeat
+     * latency histograms; the last count of a histogram is of the writes that
+     * took longer or failed.
+     */
+    public static final long[] HEARTBEAT_LATENCY_BUCKETS_MS = {10, 50, 100, 500, 1000, 5000, 30000};
 
     Map<String, HostVmStateReportEntry> _hostVmStateReport;
 
+    Map<String, long[]> _storageHeartbeatLatencies;
+
     boolean _gatewayAccessible = true;
     boolean _vnetAccessible = true;
 
@@ -42,6 +50,18 @@ public class PingRoutingCommand extends PingCommand {
         return this._hostVmStateReport;
     }
 
+    /**
+     * @return the storage heartbeat write latency histogram of each pool by
+     * its uuid, counting since the agent started, null if not reported.
+     */
+    public Map<String, long[]> getStorageHeartbeatLatencies() {
+        return _storageHeartbeatLatencies;
+    }
+
+    public void setStorageHeartbeatLatencies(Map<String, long[]> storageHeartbeatLatencies) {
+        _storageHeartbeatLatencies = storageHeartbeatLatencies;
+    }
+
     public boolean isGatewayAccessible() {
         return _gatewayAccessible;
     }
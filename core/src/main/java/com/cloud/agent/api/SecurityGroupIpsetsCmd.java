@@ -0,0 +1,119 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.agent.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.agent.api.LogLevel.Log4jLevel;
+
+/**
+ * Security group rules of the vms of a host, applied together with the
+ * changes to the ipsets holding the members of the groups they allow.
+ * The rules of the vms match the members of an allowed group by the name
+ * of its ipset, {@link SecurityGroupRulesCmd#IPSET_PREFIX} followed by
+ * {@link #ipsetName(long)}, so that a vm joining or leaving a group only
+ * changes the ipset on each host instead of the rules of every vm.
+ */
+public class SecurityGroupIpsetsCmd extends Command {
+    private static final String IPSET_NAME_PREFIX = "cs-sg-";
+
+    public static class IpsetDelta {
+        private final String name;
+        private final boolean full;
+        @LogLevel(Log4jLevel.Trace)
+        private final List<String> added;
+        @LogLevel(Log4jLevel.Trace)
+        private final List<String> removed;
+
+        /**
+         * @param full whether added is the whole set, replacing what the host has
+         */
+        public IpsetDelta(final String name, final boolean full, final List<String> added, final List<String> removed) {
+            this.name = name;
+            this.full = full;
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+    }
+
+    private final List<IpsetDelta> ipsets;
+    private final List<SecurityGroupRulesCmd> ruleCmds;
+    private Long msId;
+
+    public SecurityGroupIpsetsCmd(final List<IpsetDelta> ipsets, final List<SecurityGroupRulesCmd> ruleCmds) {
+        this.ipsets = ipsets == null ? new ArrayList<IpsetDelta>() : ipsets;
+        this.ruleCmds = ruleCmds == null ? new ArrayList<SecurityGroupRulesCmd>() : ruleCmds;
+    }
+
+    public static String ipsetName(final long securityGroupId) {
+        return IPSET_NAME_PREFIX + securityGroupId;
+    }
+
+    /**
+     * @return the id of the group of the ipset a rule target refers to, null if the target is a cidr.
+     */
+    public static Long securityGroupIdOf(final String ruleTarget) {
+        final String prefix = SecurityGroupRulesCmd.IPSET_PREFIX + IPSET_NAME_PREFIX;
+        if (ruleTarget == null || !ruleTarget.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(ruleTarget.substring(prefix.length()));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return true;
+    }
+
+    public List<IpsetDelta> getIpsets() {
+        return ipsets;
+    }
+
+    public List<SecurityGroupRulesCmd> getRuleCmds() {
+        return ruleCmds;
+    }
+
+    public void setMsId(final long msId) {
+        this.msId = msId;
+    }
+
+    public Long getMsId() {
+        return msId;
+    }
+}
@@ -37,6 +37,10 @@ public class SecurityGroupRulesCmd extends Command {
     private static final String CIDR_LENGTH_SEPARATOR = "/";
     public static final char RULE_TARGET_SEPARATOR = ',';
     public static final char RULE_COMMAND_SEPARATOR = ';';
+    /**
+     * Prefix of the rule targets that are the name of an ipset instead of a cidr.
+     */
+    public static final String IPSET_PREFIX = "ipset:";
     protected static final String EGRESS_RULE = "E:";
     protected static final String INGRESS_RULE = "I:";
     private static final Logger LOGGER = Logger.getLogger(SecurityGroupRulesCmd.class);
@@ -210,7 +214,7 @@ public class SecurityGroupRulesCmd extends Command {
     }
 
     private String represent(final String cidr, final boolean compressed) {
-        if (compressed) {
+        if (compressed && !cidr.startsWith(IPSET_PREFIX)) {
             return compressCidrToHexRepresentation(cidr);
         } else {
             return cidr;
@@ -0,0 +1,322 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.resource.virtualnetwork.model.ConfigBase;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * ConfigDeltaTracker keeps the version of the configuration each router
+ * acknowledged, to send it only the changes to the lists of rules instead of
+ * the whole configuration every time a rule changes.
+ *
+ * The version of a json file is the hash of its contents, and each element of
+ * its lists is identified by the hash of the element.  A full file tells the
+ * router the version and the ids of the elements, in delta_version, for
+ * merge.py to keep them as the base of the next changes.  A delta file has the
+ * version it was made from and the fields of the new file, except that each
+ * list is the order of the ids of its elements, with only the elements the
+ * router does not have yet.  The router rebuilds the full file from its base,
+ * or fails if its base is not the version the delta was made from, for
+ * example because it was rebooted or another management server changed it.
+ * The caller then sends the full configuration again.
+ */
+public class ConfigDeltaTracker {
+    private static final Logger s_logger = Logger.getLogger(ConfigDeltaTracker.class);
+
+    public static final String DELTA = "delta";
+    public static final String DELTA_VERSION = "delta_version";
+
+    // types of the files with lists worth sending the changes of, with the field a router has a file of that type for
+    private static final Map<String, String> s_deltaTypes = new HashMap<String, String>();
+
+    static {
+        s_deltaTypes.put(ConfigBase.NETWORK_ACL, "device");
+        s_deltaTypes.put(ConfigBase.FIREWALL_RULES, null);
+        s_deltaTypes.put(ConfigBase.FORWARDING_RULES, null);
+        s_deltaTypes.put(ConfigBase.STATICNAT_RULES, null);
+        s_deltaTypes.put(ConfigBase.LOAD_BALANCER, null);
+        s_deltaTypes.put(ConfigBase.STATIC_ROUTES, null);
+        s_deltaTypes.put(ConfigBase.VPN_USER_LIST, null);
+    }
+
+    private static class Version {
+        private final String _version;
+        // sorted ids of the elements of each list
+        private final Map<String, long[]> _ids;
+
+        Version(final String version, final Map<String, long[]> ids) {
+            _version = version;
+            _ids = ids;
+        }
+    }
+
+    /**
+     * Config items to apply to a router, with the versions it has once it applied them.
+     */
+    public static class Update {
+        private final String _router;
+        private final List<ConfigItem> _configItems;
+        private final Map<String, Version> _versions;
+        private final boolean _delta;
+
+        Update(final String router, final List<ConfigItem> configItems, final Map<String, Version> versions, final boolean delta) {
+            _router = router;
+            _configItems = configItems;
+            _versions = versions;
+            _delta = delta;
+        }
+
+        public List<ConfigItem> getConfigItems() {
+            return _configItems;
+        }
+
+        /**
+         * @return true if any of the items only has the changes, so they fail if the router does not have the version they were made from.
+         */
+        public boolean hasDeltas() {
+            return _delta;
+        }
+    }
+
+    // versions each router acknowledged, by type and key
+    private final ConcurrentHashMap<String, Map<String, Version>> _acknowledged = new ConcurrentHashMap<String, Map<String, Version>>();
+
+    /**
+     * @param delta false to send the whole configuration, so the router has a new base for the next changes.
+     */
+    public Update prepare(final String router, final List<ConfigItem> cfg, final boolean delta) {
+        final Map<String, Version> acknowledged = _acknowledged.get(router);
+        final Map<String, Version> versions = new LinkedHashMap<String, Version>();
+        final List<ConfigItem> items = new ArrayList<ConfigItem>(cfg.size());
+        boolean hasDeltas = false;
+        for (final ConfigItem item : cfg) {
+            final JsonObject json = parseDeltaFile(item);
+            if (json == null) {
+                items.add(item);
+                continue;
+            }
+            final FileConfigItem file = (FileConfigItem)item;
+            final String type = json.get("type").getAsString();
+            final String keyField = s_deltaTypes.get(type);
+            final String key = keyField == null ? type : json.get(keyField).getAsString();
+
+            final String version = hash(json.toString());
+            final Map<String, long[]> ids = new HashMap<String, long[]>();
+            final Map<String, long[]> listIds = new LinkedHashMap<String, long[]>();
+            for (final Map.Entry<String, JsonElement> field : json.entrySet()) {
+                if (field.getValue().isJsonArray()) {
+                    final JsonArray list = field.getValue().getAsJsonArray();
+                    final long[] elements = new long[list.size()];
+                    for (int i = 0; i < elements.length; i++) {
+                        elements[i] = id(list.get(i));
+                    }
+                    listIds.put(field.getKey(), elements);
+                    final long[] sorted = elements.clone();
+                    Arrays.sort(sorted);
+                    ids.put(field.getKey(), sorted);
+                }
+            }
+            final String versionKey = type + ":" + key;
+            versions.put(versionKey, new Version(version, ids));
+
+            final Version base = delta && acknowledged != null ? acknowledged.get(versionKey) : null;
+            final JsonObject deltaJson = base != null ? toDelta(json, key, base, version, listIds) : null;
+            final String contents;
+            if (deltaJson != null) {
+                contents = deltaJson.toString();
+                hasDeltas = true;
+            } else {
+                json.add(DELTA_VERSION, toDeltaVersion(key, version, listIds));
+                contents = json.toString();
+            }
+            items.add(new FileConfigItem(file.getFilePath(), file.getFileName(), contents));
+        }
+        return new Update(router, items, versions, hasDeltas);
+    }
+
+    /**
+     * Records the versions of an update the router applied.
+     */
+    public void acknowledge(final Update update) {
+        if (update._versions.isEmpty()) {
+            return;
+        }
+        Map<String, Version> acknowledged = _acknowledged.get(update._router);
+        if (acknowledged == null) {
+            _acknowledged.putIfAbsent(update._router, new ConcurrentHashMap<String, Version>());
+            acknowledged = _acknowledged.get(update._router);
+        }
+        acknowledged.putAll(update._versions);
+    }
+
+    /**
+     * Forgets the versions of a router, for the next update to send it the whole configuration.
+     */
+    public void forget(final String router) {
+        _acknowledged.remove(router);
+    }
+
+    private static JsonObject parseDeltaFile(final ConfigItem item) {
+        if (!(item instanceof FileConfigItem)) {
+            return null;
+        }
+        final FileConfigItem file = (FileConfigItem)item;
+        if (file.getFileName() == null || !file.getFileName().contains(".json")) {
+            return null;
+        }
+        try {
+            final JsonElement json = new JsonParser().parse(file.getFileContents());
+            if (!json.isJsonObject() || !json.getAsJsonObject().has("type")) {
+                return null;
+            }
+            final String type = json.getAsJsonObject().get("type").getAsString();
+            if (!s_deltaTypes.containsKey(type)) {
+                return null;
+            }
+            final String keyField = s_deltaTypes.get(type);
+            if (keyField != null && !json.getAsJsonObject().has(keyField)) {
+                return null;
+            }
+            return json.getAsJsonObject();
+        } catch (final JsonParseException | IllegalStateException e) {
+            s_logger.debug("Not tracking the versions of " + file.getFileName() + ", it is not a json object: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the delta, or null if it would not be smaller than the whole file.
+     */
+    private static JsonObject toDelta(final JsonObject json, final String key, final Version base, final String version, final Map<String, long[]> listIds) {
+        final JsonObject fields = new JsonObject();
+        final JsonObject lists = new JsonObject();
+        int elements = 0;
+        int added = 0;
+        for (final Map.Entry<String, JsonElement> field : json.entrySet()) {
+            if (!field.getValue().isJsonArray()) {
+                if (!"type".equals(field.getKey())) {
+                    fields.add(field.getKey(), field.getValue());
+                }
+                continue;
+            }
+            final JsonArray list = field.getValue().getAsJsonArray();
+            final long[] ids = listIds.get(field.getKey());
+            final long[] baseIds = base._ids.get(field.getKey());
+            final JsonArray order = new JsonArray();
+            final JsonObject addedElements = new JsonObject();
+            for (int i = 0; i < ids.length; i++) {
+                final String id = toHex(ids[i]);
+                order.add(new JsonPrimitive(id));
+                if (baseIds == null || Arrays.binarySearch(baseIds, ids[i]) < 0) {
+                    addedElements.add(id, list.get(i));
+                    added++;
+                }
+            }
+            elements += ids.length;
+            final JsonObject change = new JsonObject();
+            change.add("order", order);
+            change.add("added", addedElements);
+            lists.add(field.getKey(), change);
+        }
+        if (elements == 0 || added == elements) {
+            return null;
+        }
+
+        final JsonObject delta = new JsonObject();
+        delta.addProperty("key", key);
+        delta.addProperty("base", base._version);
+        delta.addProperty("version", version);
+        delta.add("fields", fields);
+        delta.add("lists", lists);
+
+        final JsonObject file = new JsonObject();
+        file.add("type", json.get("type"));
+        file.add(DELTA, delta);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Sending " + added + " of the " + elements + " elements of " + json.get("type").getAsString() + " " + key + ", changing version " + base._version + " to " + version);
+        }
+        return file;
+    }
+
+    private static JsonObject toDeltaVersion(final String key, final String version, final Map<String, long[]> listIds) {
+        final JsonObject ids = new JsonObject();
+        for (final Map.Entry<String, long[]> list : listIds.entrySet()) {
+            final JsonArray elements = new JsonArray();
+            for (final long id : list.getValue()) {
+                elements.add(new JsonPrimitive(toHex(id)));
+            }
+            ids.add(list.getKey(), elements);
+        }
+        final JsonObject deltaVersion = new JsonObject();
+        deltaVersion.addProperty("key", key);
+        deltaVersion.addProperty("version", version);
+        deltaVersion.add("ids", ids);
+        return deltaVersion;
+    }
+
+    private static long id(final JsonElement element) {
+        final byte[] digest = digest(element.toString());
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (digest[i] & 0xff);
+        }
+        return id;
+    }
+
+    private static String toHex(final long id) {
+        return String.format("%016x", id);
+    }
+
+    private static String hash(final String contents) {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : digest(contents)) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] digest(final String contents) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(contents.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unable to hash the configuration", e);
+        }
+    }
+}
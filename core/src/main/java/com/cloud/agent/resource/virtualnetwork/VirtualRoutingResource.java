@@ -90,6 +90,7 @@ public class VirtualRoutingResource {
     private Map<String, Object> _params;
 
     private String _cfgVersion = "1.0";
+    private final ConfigDeltaTracker _configDeltas = new ConfigDeltaTracker();
 
     public VirtualRoutingResource(VirtualRouterDeployer deployer) {
         _vrDeployer = deployer;
@@ -145,7 +146,21 @@ public class VirtualRoutingResource {
                 return Answer.createUnsupportedCommandAnswer(cmd);
             }
 
-            return applyConfig(cmd, cfg);
+            ConfigDeltaTracker.Update update = _configDeltas.prepare(routerName, cfg, true);
+            Answer answer = applyConfig(cmd, update.getConfigItems());
+            if (!answer.getResult() && update.hasDeltas()) {
+                // the router may not have the configuration the changes were made from
+                s_logger.info("Failed to apply the changes of the configuration to " + routerName + ", applying the whole configuration: " + answer.getDetails());
+                _configDeltas.forget(routerName);
+                update = _configDeltas.prepare(routerName, generateCommandCfg(cmd), false);
+                answer = applyConfig(cmd, update.getConfigItems());
+            }
+            if (answer.getResult()) {
+                _configDeltas.acknowledge(update);
+            } else {
+                _configDeltas.forget(routerName);
+            }
+            return answer;
         } catch (final IllegalArgumentException e) {
             return new Answer(cmd, false, e.getMessage());
         } finally {
@@ -506,6 +521,8 @@ public class VirtualRoutingResource {
         } else if (action == Action.Finish) {
             Queue<NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
             int answerCounts = 0;
+            // the aggregated commands set the router up from scratch, so they send the whole configuration
+            List<ConfigDeltaTracker.Update> updates = new ArrayList<>();
             try {
                 StringBuilder sb = new StringBuilder();
                 sb.append("#Apache CloudStack Virtual Router Config File\n");
@@ -517,8 +534,10 @@ public class VirtualRoutingResource {
                         s_logger.warn("Unknown commands for VirtualRoutingResource, but continue: " + cmd.toString());
                         continue;
                     }
+                    ConfigDeltaTracker.Update update = _configDeltas.prepare(routerName, cfg, false);
+                    updates.add(update);
 
-                    for (ConfigItem c : cfg) {
+                    for (ConfigItem c : update.getConfigItems()) {
                         sb.append(c.getAggregateCommand());
                     }
                 }
@@ -533,6 +552,7 @@ public class VirtualRoutingResource {
                     s_logger.debug("Aggregate action timeout in seconds is " + timeout.getStandardSeconds());
                 }
 
+                _configDeltas.forget(routerName);
                 ExecutionResult result = applyConfigToVR(cmd.getRouterAccessIp(), fileConfigItem, timeout);
                 if (!result.isSuccess()) {
                     return new Answer(cmd, false, result.getDetails());
@@ -543,6 +563,9 @@ public class VirtualRoutingResource {
                     return new Answer(cmd, false, result.getDetails());
                 }
 
+                for (ConfigDeltaTracker.Update update : updates) {
+                    _configDeltas.acknowledge(update);
+                }
                 return new Answer(cmd, true, "Command aggregation finished");
             } finally {
                 queue.clear();
@@ -71,7 +71,8 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 4. Length - 4 bytes;
  * 5. ManagementServerId - 8 bytes;
  * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 7. Via - 8 bytes;
+ * 8. Data Package, JSON text or with version v4 the encoding of WireCodec.
  *
  */
 public class Request {
@@ -84,7 +85,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // Binary encoding of the commands, see WireCodec. Only sent to peers that set FLAG_BINARY_CODEC.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -103,6 +105,8 @@ public class Request {
     protected static final short FLAG_FROM_SERVER = 0x20;
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
+    // Set by peers that can parse v4, older peers ignore it.
+    protected static final short FLAG_BINARY_CODEC = 0x100;
 
     protected Version _ver;
     protected long _session;
@@ -113,6 +117,7 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected ByteBuffer _payload;
     protected String _agentName;
 
     protected Request() {
@@ -138,6 +143,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final ByteBuffer payload) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _payload = payload;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -238,6 +248,13 @@ public class Request {
         return (_flags & FLAG_STOP_ON_ERROR) > 0;
     }
 
+    /**
+     * @return true if the peer that sent this request can parse requests with version v4.
+     */
+    public boolean isBinaryCodecSupported() {
+        return (_flags & FLAG_BINARY_CODEC) > 0;
+    }
+
     public Command getCommand() {
         getCommands();
         return _cmds[0];
@@ -246,10 +263,14 @@ public class Request {
     public Command[] getCommands() {
         if (_cmds == null) {
             try {
-                StringReader reader = new StringReader(_content);
-                JsonReader jsonReader = new JsonReader(reader);
-                jsonReader.setLenient(true);
-                _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
+                if (_payload != null) {
+                    _cmds = s_gson.fromJson(WireCodec.decode(_payload), (Type)Command[].class);
+                } else {
+                    StringReader reader = new StringReader(_content);
+                    JsonReader jsonReader = new JsonReader(reader);
+                    jsonReader.setLenient(true);
+                    _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
+                }
             } catch (JsonParseException e) {
                 _cmds = new Command[] { new BadCommand() };
             } catch (RuntimeException e) {
@@ -265,10 +286,14 @@ public class Request {
     }
 
     protected ByteBuffer serializeHeader(final int contentSize) {
+        return serializeHeader(getVersionInByte(), getFlags(), contentSize);
+    }
+
+    protected ByteBuffer serializeHeader(final byte version, final short flags, final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
-        buffer.put(getVersionInByte());
+        buffer.put(version);
         buffer.put((byte)0);
-        buffer.putShort(getFlags());
+        buffer.putShort(flags);
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
         buffer.putInt(contentSize);
@@ -326,10 +351,24 @@ public class Request {
     }
 
     public ByteBuffer[] toBytes() {
+        return toBytes(_ver == Version.v4);
+    }
+
+    /**
+     * @param binaryCodec encode this request with version v4, only if the peer advertised it.
+     */
+    public ByteBuffer[] toBytes(boolean binaryCodec) {
+        if (binaryCodec) {
+            return toBinaryBytes();
+        }
+
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
         if (_content == null) {
+            if (_cmds == null) {
+                _cmds = deserializeContent();
+            }
             _content = s_gson.toJson(_cmds, _cmds.getClass());
         }
         tmp = ByteBuffer.wrap(_content.getBytes());
@@ -340,11 +379,41 @@ public class Request {
             _flags |= FLAG_COMPRESSED;
         }
         buffers[1] = tmp;
-        buffers[0] = serializeHeader(capacity);
+        if (_ver == Version.v4) {
+            // json content can not be sent as v4
+            buffers[0] = serializeHeader((byte)Version.v1.ordinal(), getFlags(), capacity);
+        } else {
+            buffers[0] = serializeHeader(capacity);
+        }
 
         return buffers;
     }
 
+    protected ByteBuffer[] toBinaryBytes() {
+        final ByteBuffer[] buffers = new ByteBuffer[2];
+        final short flags = (short)(getFlags() & ~FLAG_COMPRESSED);
+        if (_payload != null && _payload.remaining() < WireCodec.getCompressionThreshold()) {
+            // a parsed request that is sent on as is
+            buffers[1] = _payload.duplicate();
+            buffers[0] = serializeHeader((byte)Version.v4.ordinal(), flags, _payload.remaining());
+            return buffers;
+        }
+
+        if (_cmds == null) {
+            _cmds = deserializeContent();
+        }
+        final WireCodec.Encoder encoder = WireCodec.encode(s_gson.toJsonTree(_cmds, _cmds.getClass()));
+        final int size = encoder.size();
+        if (size >= WireCodec.getCompressionThreshold()) {
+            buffers[1] = encoder.toDeflatedBuffer();
+            buffers[0] = serializeHeader((byte)Version.v4.ordinal(), (short)(flags | FLAG_COMPRESSED), size);
+        } else {
+            buffers[1] = encoder.toBuffer();
+            buffers[0] = serializeHeader((byte)Version.v4.ordinal(), flags, size);
+        }
+        return buffers;
+    }
+
     public byte[] getBytes() {
         final ByteBuffer[] buffers = toBytes();
         final int len1 = buffers[0].remaining();
@@ -360,7 +429,7 @@ public class Request {
     }
 
     protected short getFlags() {
-        return (short)(((this instanceof Response) ? FLAG_RESPONSE : FLAG_REQUEST) | _flags);
+        return (short)(((this instanceof Response) ? FLAG_RESPONSE : FLAG_REQUEST) | (WireCodec.isEnabled() ? FLAG_BINARY_CODEC : 0) | _flags);
     }
 
     public void logD(String msg) {
@@ -400,7 +469,7 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = deserializeContent();
                 } catch (RuntimeException e) {
                     s_logger.error("Unable to deserialize from json: " + _content);
                     throw e;
@@ -422,7 +491,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = deserializeContent();
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -455,6 +524,14 @@ public class Request {
         return buf.toString();
     }
 
+    protected Command[] deserializeContent() {
+        final Type type = this instanceof Response ? Answer[].class : Command[].class;
+        if (_payload != null) {
+            return s_gson.fromJson(WireCodec.decode(_payload), type);
+        }
+        return s_gson.fromJson(_content, type);
+    }
+
     public static String cleanPassword(String logString) {
         String cleanLogString = null;
         if (logString != null) {
@@ -489,7 +566,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -503,12 +580,22 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() != Version.v3.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
         }
 
+        if (version == Version.v4) {
+            final ByteBuffer payload = (flags & FLAG_COMPRESSED) != 0 ? WireCodec.inflate(buff, size) : buff.slice();
+            final short payloadFlags = (short)(flags & ~FLAG_COMPRESSED);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, payloadFlags, payload);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, payloadFlags, payload);
+            }
+        }
+
         if ((flags & FLAG_COMPRESSED) != 0) {
             buff = doDecompress(buff, size);
         }
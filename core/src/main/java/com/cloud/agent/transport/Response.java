@@ -19,6 +19,8 @@
 
 package com.cloud.agent.transport;
 
+import java.nio.ByteBuffer;
+
 import com.cloud.agent.api.Answer;
 import com.cloud.exception.UnsupportedVersionException;
 
@@ -51,6 +53,10 @@ public class Response extends Request {
         super(ver, seq, agentId, mgmtId, via, flags, ans);
     }
 
+    protected Response(Version ver, long seq, long agentId, long mgmtId, long via, short flags, ByteBuffer payload) {
+        super(ver, seq, agentId, mgmtId, via, flags, payload);
+    }
+
     public Answer getAnswer() {
         Answer[] answers = getAnswers();
         return answers[0];
@@ -58,7 +64,7 @@ public class Response extends Request {
 
     public Answer[] getAnswers() {
         if (_cmds == null) {
-            _cmds = s_gson.fromJson(_content, Answer[].class);
+            _cmds = deserializeContent();
         }
         return (Answer[])_cmds;
     }
@@ -0,0 +1,404 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * WireCodec is the binary encoding of the commands and answers of a Request
+ * with version v4. The commands are still mapped by the Gson type adapters
+ * of Request, so every command and answer is supported without any schema
+ * of its own, but the resulting tree is written as tagged binary values
+ * instead of JSON text:
+ *
+ * 1. Numbers are written as zig-zag varints or as 8 byte doubles;
+ * 2. Strings are written as UTF-8 with a varint length. Member names and
+ *    short strings, like the class names written by the type adapters, are
+ *    written once per message and referenced by index afterwards;
+ * 3. Arrays and objects are written with their element count up front.
+ *
+ * Content that reaches the compression threshold is deflated with a deflater
+ * kept per thread. Both ends must advertise the codec before it is used,
+ * see Request.FLAG_BINARY_CODEC. *
+ * The codec works on the JsonElement tree because the Gson version in use
+ * has no streaming type adapters: its JsonReader and JsonWriter are final,
+ * toJson builds the tree before it writes the text and fromJson parses the
+ * text into a tree first. The JSON path pays for the same tree, the codec
+ * only replaces the text written from it and parsed into it, see
+ * WireCodecBenchmark for the comparison.
+ */
+public final class WireCodec {
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 8192;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_NUMBER = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_STRING_REF = 7;
+    private static final byte TAG_ARRAY = 8;
+    private static final byte TAG_OBJECT = 9;
+
+    // Strings up to this many bytes are added to the string table of the message.
+    private static final int MAX_SHARED_STRING_LENGTH = 128;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    // Buffers that grew beyond this size are not kept for the next message of the thread.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static volatile boolean s_enabled = true;
+    private static volatile int s_compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private static final ThreadLocal<Encoder> s_encoder = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private static final ThreadLocal<Inflater> s_inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private WireCodec() {
+    }
+
+    /**
+     * @param enabled whether this end advertises the codec and uses it with peers that advertise it too.
+     * @param compressionThreshold encoded content of at least this many bytes is deflated.
+     */
+    public static void configure(final boolean enabled, final int compressionThreshold) {
+        s_enabled = enabled;
+        s_compressionThreshold = compressionThreshold > 0 ? compressionThreshold : Integer.MAX_VALUE;
+    }
+
+    public static boolean isEnabled() {
+        return s_enabled;
+    }
+
+    public static int getCompressionThreshold() {
+        return s_compressionThreshold;
+    }
+
+    /**
+     * Encodes the tree with the buffer of the calling thread.
+     *
+     * @return the encoder holding the encoded content, valid until the thread encodes again.
+     */
+    static Encoder encode(final JsonElement element) {
+        final Encoder encoder = s_encoder.get();
+        encoder.reset();
+        encoder.write(element);
+        return encoder;
+    }
+
+    public static JsonElement decode(final ByteBuffer content) {
+        return new Decoder(content.duplicate()).read();
+    }
+
+    /**
+     * @param size the size of the content before it was deflated, as carried in the header.
+     */
+    public static ByteBuffer inflate(final ByteBuffer content, final int size) {
+        final Inflater inflater = s_inflater.get();
+        inflater.reset();
+        final byte[] input;
+        final int offset;
+        if (content.hasArray()) {
+            input = content.array();
+            offset = content.arrayOffset() + content.position();
+        } else {
+            input = new byte[content.remaining()];
+            content.duplicate().get(input);
+            offset = 0;
+        }
+        inflater.setInput(input, offset, content.remaining());
+
+        final byte[] output = new byte[size];
+        try {
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                final int inflated = inflater.inflate(output, length, size - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != size) {
+                throw new CloudRuntimeException("Inflated " + length + " bytes, expected " + size);
+            }
+        } catch (final DataFormatException e) {
+            throw new CloudRuntimeException("Unable to inflate the request", e);
+        }
+        return ByteBuffer.wrap(output);
+    }
+
+    static final class Encoder {
+        private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+        private final Deflater _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private byte[] _buffer = new byte[INITIAL_BUFFER_SIZE];
+        private int _count;
+        private byte[] _deflated = new byte[INITIAL_BUFFER_SIZE];
+
+        private void reset() {
+            _strings.clear();
+            _count = 0;
+            if (_buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                _buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+            if (_deflated.length > MAX_RETAINED_BUFFER_SIZE) {
+                _deflated = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        int size() {
+            return _count;
+        }
+
+        /**
+         * @return a copy of the encoded content.
+         */
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(_buffer, _count));
+        }
+
+        /**
+         * @return a copy of the encoded content, deflated.
+         */
+        ByteBuffer toDeflatedBuffer() {
+            _deflater.reset();
+            _deflater.setInput(_buffer, 0, _count);
+            _deflater.finish();
+            int length = 0;
+            while (!_deflater.finished()) {
+                if (length == _deflated.length) {
+                    _deflated = Arrays.copyOf(_deflated, _deflated.length * 2);
+                }
+                length += _deflater.deflate(_deflated, length, _deflated.length - length);
+            }
+            return ByteBuffer.wrap(Arrays.copyOf(_deflated, length));
+        }
+
+        private void write(final JsonElement element) {
+            if (element == null || element.isJsonNull()) {
+                writeByte(TAG_NULL);
+            } else if (element.isJsonObject()) {
+                final JsonObject object = element.getAsJsonObject();
+                writeByte(TAG_OBJECT);
+                writeVarint(object.entrySet().size());
+                for (final Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                    writeString(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if (element.isJsonArray()) {
+                final JsonArray array = element.getAsJsonArray();
+                writeByte(TAG_ARRAY);
+                writeVarint(array.size());
+                for (final JsonElement item : array) {
+                    write(item);
+                }
+            } else {
+                writePrimitive(element.getAsJsonPrimitive());
+            }
+        }
+
+        private void writePrimitive(final JsonPrimitive primitive) {
+            if (primitive.isBoolean()) {
+                writeByte(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if (primitive.isNumber()) {
+                final Number number = primitive.getAsNumber();
+                if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+                    writeByte(TAG_LONG);
+                    final long value = number.longValue();
+                    writeVarint((value << 1) ^ (value >> 63));
+                } else if (number instanceof Double || number instanceof Float) {
+                    writeByte(TAG_DOUBLE);
+                    writeLong(Double.doubleToRawLongBits(number.doubleValue()));
+                } else {
+                    // BigDecimal, BigInteger or a number parsed lazily from JSON, kept exact
+                    writeByte(TAG_NUMBER);
+                    writeBytes(number.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                writeString(primitive.getAsString());
+            }
+        }
+
+        private void writeString(final String value) {
+            final Integer index = _strings.get(value);
+            if (index != null) {
+                writeByte(TAG_STRING_REF);
+                writeVarint(index);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeByte(TAG_STRING);
+            writeBytes(bytes);
+            if (bytes.length <= MAX_SHARED_STRING_LENGTH) {
+                _strings.put(value, _strings.size());
+            }
+        }
+
+        private void writeBytes(final byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, _buffer, _count, bytes.length);
+            _count += bytes.length;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                _buffer[_count++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buffer[_count++] = (byte)value;
+        }
+
+        private void writeLong(final long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                _buffer[_count++] = (byte)(value >>> shift);
+            }
+        }
+
+        private void writeByte(final byte value) {
+            ensureCapacity(1);
+            _buffer[_count++] = value;
+        }
+
+        private void ensureCapacity(final int length) {
+            if (_count + length > _buffer.length) {
+                _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _count + length));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer _buffer;
+        private final List<String> _strings = new ArrayList<String>();
+
+        private Decoder(final ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        private JsonElement read() {
+            final byte tag = _buffer.get();
+            switch (tag) {
+            case TAG_NULL:
+                return new JsonNull();
+            case TAG_TRUE:
+                return new JsonPrimitive(Boolean.TRUE);
+            case TAG_FALSE:
+                return new JsonPrimitive(Boolean.FALSE);
+            case TAG_LONG:
+                final long value = readVarint();
+                return new JsonPrimitive((value >>> 1) ^ -(value & 1));
+            case TAG_DOUBLE:
+                return new JsonPrimitive(Double.longBitsToDouble(_buffer.getLong()));
+            case TAG_NUMBER:
+                return new JsonPrimitive(new BigDecimal(readUtf8()));
+            case TAG_ARRAY:
+                final int size = (int)readVarint();
+                final JsonArray array = new JsonArray();
+                for (int i = 0; i < size; i++) {
+                    array.add(read());
+                }
+                return array;
+            case TAG_OBJECT:
+                final int members = (int)readVarint();
+                final JsonObject object = new JsonObject();
+                for (int i = 0; i < members; i++) {
+                    final String name = readString(_buffer.get());
+                    object.add(name, read());
+                }
+                return object;
+            default:
+                return new JsonPrimitive(readString(tag));
+            }
+        }
+
+        private String readString(final byte tag) {
+            if (tag == TAG_STRING_REF) {
+                return _strings.get((int)readVarint());
+            }
+            if (tag != TAG_STRING) {
+                throw new CloudRuntimeException("Unexpected tag " + tag + " at " + (_buffer.position() - 1));
+            }
+            final int length = (int)readVarint();
+            final String value = readUtf8(length);
+            if (length <= MAX_SHARED_STRING_LENGTH) {
+                _strings.add(value);
+            }
+            return value;
+        }
+
+        private String readUtf8() {
+            return readUtf8((int)readVarint());
+        }
+
+        private String readUtf8(final int length) {
+            final String value;
+            if (_buffer.hasArray()) {
+                value = new String(_buffer.array(), _buffer.arrayOffset() + _buffer.position(), length, StandardCharsets.UTF_8);
+                _buffer.position(_buffer.position() + length);
+            } else {
+                final byte[] bytes = new byte[length];
+                _buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = _buffer.get();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CloudRuntimeException("Malformed varint at " + _buffer.position());
+        }
+    }
+}
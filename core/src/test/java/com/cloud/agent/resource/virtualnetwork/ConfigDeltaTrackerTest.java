@@ -0,0 +1,130 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloud.agent.resource.virtualnetwork.model.AclRule;
+import com.cloud.agent.resource.virtualnetwork.model.AllAclRule;
+import com.cloud.agent.resource.virtualnetwork.model.ConfigBase;
+import com.cloud.agent.resource.virtualnetwork.model.NetworkACL;
+import com.cloud.agent.resource.virtualnetwork.model.TcpAclRule;
+import com.cloud.agent.resource.virtualnetwork.model.VmPassword;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class ConfigDeltaTrackerTest {
+    private static final String ROUTER = "r-4-VM";
+
+    private final Gson gson = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    private final ConfigDeltaTracker tracker = new ConfigDeltaTracker();
+
+    private List<ConfigItem> config(final ConfigBase configuration) {
+        final List<ConfigItem> cfg = new ArrayList<>();
+        cfg.add(new FileConfigItem(VRScripts.CONFIG_PERSIST_LOCATION, "network_acl.json.1", gson.toJson(configuration)));
+        cfg.add(new ScriptConfigItem(VRScripts.UPDATE_CONFIG, "network_acl.json.1"));
+        return cfg;
+    }
+
+    private NetworkACL acl(final AclRule... ingressRules) {
+        return new NetworkACL("eth2", "02:00:00:00:00:01", false, "10.1.1.1", "24", ingressRules, new AclRule[0]);
+    }
+
+    private static JsonObject contents(final ConfigDeltaTracker.Update update) {
+        return new JsonParser().parse(((FileConfigItem)update.getConfigItems().get(0)).getFileContents()).getAsJsonObject();
+    }
+
+    @Test
+    public void testFirstUpdateIsFull() {
+        final ConfigDeltaTracker.Update update = tracker.prepare(ROUTER, config(acl(new AllAclRule("10.0.0.0/8", true))), true);
+
+        assertFalse(update.hasDeltas());
+        final JsonObject json = contents(update);
+        assertTrue(json.has(ConfigDeltaTracker.DELTA_VERSION));
+        assertEquals("eth2", json.getAsJsonObject(ConfigDeltaTracker.DELTA_VERSION).get("key").getAsString());
+        assertEquals(1, json.getAsJsonObject(ConfigDeltaTracker.DELTA_VERSION).getAsJsonObject("ids").getAsJsonArray("ingress_rules").size());
+        assertEquals(2, update.getConfigItems().size());
+    }
+
+    @Test
+    public void testAcknowledgedUpdateGivesDelta() {
+        final AclRule kept = new AllAclRule("10.0.0.0/8", true);
+        tracker.acknowledge(tracker.prepare(ROUTER, config(acl(kept, new TcpAclRule("192.168.0.0/16", false, 22, 22))), true));
+
+        final ConfigDeltaTracker.Update update = tracker.prepare(ROUTER, config(acl(kept, new TcpAclRule("172.16.0.0/12", true, 80, 80))), true);
+
+        assertTrue(update.hasDeltas());
+        final JsonObject delta = contents(update).getAsJsonObject(ConfigDeltaTracker.DELTA);
+        assertEquals("eth2", delta.get("key").getAsString());
+        assertEquals("eth2", delta.getAsJsonObject("fields").get("device").getAsString());
+        final JsonObject ingress = delta.getAsJsonObject("lists").getAsJsonObject("ingress_rules");
+        assertEquals(2, ingress.getAsJsonArray("order").size());
+        // only the new rule is sent
+        assertEquals(1, ingress.getAsJsonObject("added").entrySet().size());
+    }
+
+    @Test
+    public void testUnacknowledgedUpdateStaysFull() {
+        final AclRule kept = new AllAclRule("10.0.0.0/8", true);
+        tracker.prepare(ROUTER, config(acl(kept, new TcpAclRule("192.168.0.0/16", false, 22, 22))), true);
+
+        assertFalse(tracker.prepare(ROUTER, config(acl(kept)), true).hasDeltas());
+    }
+
+    @Test
+    public void testForgottenRouterGetsFullUpdate() {
+        final AclRule kept = new AllAclRule("10.0.0.0/8", true);
+        tracker.acknowledge(tracker.prepare(ROUTER, config(acl(kept, new TcpAclRule("192.168.0.0/16", false, 22, 22))), true));
+        tracker.forget(ROUTER);
+
+        assertFalse(tracker.prepare(ROUTER, config(acl(kept)), true).hasDeltas());
+    }
+
+    @Test
+    public void testFullUpdateRequested() {
+        final AclRule kept = new AllAclRule("10.0.0.0/8", true);
+        tracker.acknowledge(tracker.prepare(ROUTER, config(acl(kept, new TcpAclRule("192.168.0.0/16", false, 22, 22))), true));
+
+        assertFalse(tracker.prepare(ROUTER, config(acl(kept)), false).hasDeltas());
+    }
+
+    @Test
+    public void testOtherFilesUntouched() {
+        final List<ConfigItem> cfg = config(new VmPassword("10.1.1.2", "secret"));
+        final String contents = ((FileConfigItem)cfg.get(0)).getFileContents();
+
+        final ConfigDeltaTracker.Update update = tracker.prepare(ROUTER, cfg, true);
+
+        assertFalse(update.hasDeltas());
+        assertEquals(contents, ((FileConfigItem)update.getConfigItems().get(0)).getFileContents());
+        assertEquals(Arrays.asList(cfg.get(0), cfg.get(1)), update.getConfigItems());
+    }
+}
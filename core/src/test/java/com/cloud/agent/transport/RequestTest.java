@@ -235,6 +235,65 @@ public class RequestTest extends TestCase {
         logger.setLevel(level);
     }
 
+    public void testBinaryCodecSerDeser() throws Exception {
+        s_logger.info("Testing serializing and deserializing with the binary codec");
+        SecStorageFirewallCfgCommand cmd1 = new SecStorageFirewallCfgCommand();
+        cmd1.addPortConfig("abc", "24", true, "eth0");
+        GetHostStatsCommand cmd2 = new GetHostStatsCommand("hostguid", "hostname", 101);
+        Request sreq = new Request(2, 3, new Command[] {cmd1, cmd2}, true, true);
+        sreq.setSequence(892403717);
+
+        byte[] bytes = toArray(sreq.toBytes(true));
+
+        assertEquals(Version.v4, Request.getVersion(bytes));
+        assertEquals(892403717, Request.getSequence(bytes));
+        assertEquals(2, Request.getAgentId(bytes));
+        assertEquals(2, Request.getViaAgentId(bytes));
+
+        Request creq = Request.parse(bytes);
+        assertEquals(Version.v4, creq.getVersion());
+        assertTrue(creq.isBinaryCodecSupported());
+        compareRequest(creq, sreq);
+        assertEquals(1, ((SecStorageFirewallCfgCommand)creq.getCommands()[0]).getPortConfigs().size());
+        assertEquals("hostguid", ((GetHostStatsCommand)creq.getCommands()[1]).getHostGuid());
+
+        // the response is sent in the version of the request
+        Response cresp = new Response(creq, new Answer(cmd1, true, "No Problem"));
+        Response sresp = Response.parse(cresp.getBytes());
+        assertEquals(Version.v4, sresp.getVersion());
+        assertEquals("No Problem", sresp.getAnswer().getDetails());
+
+        // a parsed v4 request can still be sent on as json
+        Request jreq = Request.parse(toArray(creq.toBytes(false)));
+        assertEquals(Version.v1, jreq.getVersion());
+        compareRequest(jreq, creq);
+    }
+
+    public void testBinaryCodecCompression() throws Exception {
+        WireCodec.configure(true, 16);
+        try {
+            GetHostStatsCommand cmd = new GetHostStatsCommand("hostguid", "hostname", 101);
+            Request sreq = new Request(2, 3, new Command[] {cmd}, true, true);
+            ByteBuffer[] buffers = sreq.toBytes(true);
+            assertTrue((buffers[0].getShort(2) & Request.FLAG_COMPRESSED) != 0);
+            assertTrue(buffers[1].remaining() < buffers[0].getInt(12));
+
+            Request creq = Request.parse(toArray(buffers));
+            compareRequest(creq, sreq);
+            assertEquals("hostname", ((GetHostStatsCommand)creq.getCommand()).getHostName());
+        } finally {
+            WireCodec.configure(true, WireCodec.DEFAULT_COMPRESSION_THRESHOLD);
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer[] buffers) {
+        byte[] bytes = new byte[buffers[0].remaining() + buffers[1].remaining()];
+        int header = buffers[0].remaining();
+        buffers[0].get(bytes, 0, header);
+        buffers[1].get(bytes, header, bytes.length - header);
+        return bytes;
+    }
+
     protected void compareRequest(Request req1, Request req2) {
         assert req1.getSequence() == req2.getSequence();
         assert req1.getAgentId() == req2.getAgentId();
@@ -0,0 +1,98 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.SecStorageFirewallCfgCommand;
+
+/**
+ * Compares sending and parsing requests as JSON text, version v1, against the
+ * binary encoding of WireCodec, version v4.  Every request is built anew, so
+ * the JSON content cached by a request is not reused.  Both paths map the
+ * commands through the same Gson type adapters.  Not run as part of the unit
+ * tests, start it with
+ *
+ *   java -cp ... com.cloud.agent.transport.WireCodecBenchmark [requests] [port-configs] [rounds]
+ */
+public class WireCodecBenchmark {
+    private final Command[] _cmds;
+
+    private WireCodecBenchmark(int portConfigs) {
+        SecStorageFirewallCfgCommand firewall = new SecStorageFirewallCfgCommand();
+        for (int i = 0; i < portConfigs; i++) {
+            firewall.addPortConfig("10.1." + (i / 256) + "." + (i % 256), "80", true, "eth1");
+        }
+        _cmds = new Command[] {firewall, new GetHostStatsCommand("hostguid", "hostname", 101)};
+    }
+
+    private Request newRequest(int seq) {
+        Request request = new Request(2, 3, _cmds, true, true);
+        request.setSequence(seq);
+        return request;
+    }
+
+    private static byte[] toArray(ByteBuffer[] buffers) {
+        byte[] bytes = new byte[buffers[0].remaining() + buffers[1].remaining()];
+        int header = buffers[0].remaining();
+        buffers[0].get(bytes, 0, header);
+        buffers[1].get(bytes, header, bytes.length - header);
+        return bytes;
+    }
+
+    private void run(String name, boolean binaryCodec, int requests) throws Exception {
+        byte[][] sent = new byte[requests][];
+        long size = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            sent[i] = toArray(newRequest(i).toBytes(binaryCodec));
+            size += sent[i].length;
+        }
+        long encoded = System.nanoTime() - start;
+
+        int commands = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            commands += Request.parse(sent[i]).getCommands().length;
+        }
+        long decoded = System.nanoTime() - start;
+        if (commands != requests * _cmds.length) {
+            throw new IllegalStateException("Parsed " + commands + " commands, expected " + requests * _cmds.length);
+        }
+
+        System.out.println(String.format("%-6s encode %8.1f ms %10.0f req/s   decode %8.1f ms %10.0f req/s   %8d bytes/req", name, encoded / 1e6,
+                requests * 1e9 / encoded, decoded / 1e6, requests * 1e9 / decoded, size / requests));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int portConfigs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        WireCodecBenchmark benchmark = new WireCodecBenchmark(portConfigs);
+        for (int round = 0; round < rounds; round++) {
+            System.out.println("Round " + (round + 1) + " of " + rounds + ", " + requests + " requests with " + portConfigs + " port configs");
+            benchmark.run("json", false, requests);
+            benchmark.run("binary", true, requests);
+        }
+    }
+}
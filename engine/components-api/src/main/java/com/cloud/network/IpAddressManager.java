@@ -116,6 +116,11 @@ public interface IpAddressManager {
 
     String acquireGuestIpAddressByPlacement(Network network, String requestedIp);
 
+    /**
+     * Marks a guest ip address acquired from the network as free again.
+     */
+    void releaseGuestIpAddress(Network network, String ipAddress);
+
     boolean applyStaticNats(List<? extends StaticNat> staticNats, boolean continueOnError, boolean forRevoke) throws ResourceUnavailableException;
 
     IpAddress assignSystemIp(long networkId, Account owner, boolean forElasticLb, boolean forElasticIp) throws InsufficientAddressCapacityException;
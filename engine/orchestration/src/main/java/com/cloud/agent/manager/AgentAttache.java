@@ -18,18 +18,20 @@ package com.cloud.agent.manager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.cloud.agent.api.ModifySshKeysCommand;
 import com.cloud.agent.api.ModifyStoragePoolCommand;
@@ -62,6 +64,7 @@ import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
 import com.cloud.host.Status;
+import com.cloud.utils.concurrency.HashedWheelTimer;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
@@ -70,7 +73,11 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 public abstract class AgentAttache {
     private static final Logger s_logger = Logger.getLogger(AgentAttache.class);
 
-    private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    private static final ExecutorService s_listenerExecutor = Executors.newFixedThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    // listener timeouts are in seconds, a tenth of a second is precise enough and a turn of the wheel covers most of them
+    private static final HashedWheelTimer s_listenerTimer = new HashedWheelTimer("ListenerTimerWheel", 100, TimeUnit.MILLISECONDS, 1024, s_listenerExecutor);
+    // taken while the next request in sequence is picked, no request has this sequence
+    private static final Long CLAIMED = new Long(-1L);
     private static final Random s_rand = new Random(System.currentTimeMillis());
 
     protected static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
@@ -88,26 +95,21 @@ public abstract class AgentAttache {
         }
     };
 
-    protected static final Comparator<Object> s_seqComparator = new Comparator<Object>() {
-        @Override
-        public int compare(final Object o1, final Object o2) {
-            long seq1 = ((Request)o1).getSequence();
-            long seq2 = (Long)o2;
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
-    protected final LinkedList<Request> _requests;
-    protected Long _currentSequence;
+    /**
+     * Requests that execute in sequence and wait for the current one to be answered, in the order of their sequence numbers.
+     */
+    protected final ConcurrentSkipListMap<Long, QueuedRequest> _requests;
+    /**
+     * Sequence of the request in sequence that is with the agent, null if there is none.
+     */
+    protected final AtomicReference<Long> _currentSequence;
+    private final AtomicInteger _queueDepth = new AtomicInteger();
+    private final AtomicLong _queuedCount = new AtomicLong();
+    private final AtomicLong _queueWaitNanos = new AtomicLong();
+    private final AtomicLong _maxQueueWaitNanos = new AtomicLong();
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
@@ -129,9 +131,9 @@ public abstract class AgentAttache {
         _id = id;
         _name = name;
         _waitForList = new ConcurrentHashMap<Long, Listener>();
-        _currentSequence = null;
+        _currentSequence = new AtomicReference<Long>();
         _maintenance = maintenance;
-        _requests = new LinkedList<Request>();
+        _requests = new ConcurrentSkipListMap<Long, QueuedRequest>();
         _agentMgr = agentMgr;
         _nextSequence = new Long(s_rand.nextInt(Short.MAX_VALUE)).longValue() << 48;
     }
@@ -182,10 +184,43 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void addRequest(final Request req) {
-        int index = findRequest(req);
-        assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
-        _requests.add(-index - 1, req);
+    protected void addRequest(final Request req) {
+        final QueuedRequest previous = _requests.put(req.getSequence(), new QueuedRequest(req));
+        assert (previous == null) : "How can we get the sequence again? " + req.toString();
+        if (previous == null) {
+            _queueDepth.incrementAndGet();
+        }
+    }
+
+    private QueuedRequest removeRequest(final long seq) {
+        final QueuedRequest queued = _requests.remove(seq);
+        if (queued != null) {
+            _queueDepth.decrementAndGet();
+        }
+        return queued;
+    }
+
+    private QueuedRequest pollRequest() {
+        final Map.Entry<Long, QueuedRequest> entry = _requests.pollFirstEntry();
+        if (entry == null) {
+            return null;
+        }
+        _queueDepth.decrementAndGet();
+        final QueuedRequest queued = entry.getValue();
+        final long waited = System.nanoTime() - queued.queuedAt;
+        _queuedCount.incrementAndGet();
+        _queueWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = _maxQueueWaitNanos.get()) && !_maxQueueWaitNanos.compareAndSet(max, waited)) {
+            // another request updated the maximum, check against the new one
+        }
+        return queued;
+    }
+
+    protected void clearRequests() {
+        while (_requests.pollFirstEntry() != null) {
+            _queueDepth.decrementAndGet();
+        }
     }
 
     protected void cancel(final Request req) {
@@ -193,7 +228,7 @@ public abstract class AgentAttache {
         cancel(seq);
     }
 
-    protected synchronized void cancel(final long seq) {
+    protected void cancel(final long seq) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(seq, "Cancelling."));
         }
@@ -201,18 +236,7 @@ public abstract class AgentAttache {
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
         }
-        int index = findRequest(seq);
-        if (index >= 0) {
-            _requests.remove(index);
-        }
-    }
-
-    protected synchronized int findRequest(final Request req) {
-        return Collections.binarySearch(_requests, req, s_reqComparator);
-    }
-
-    protected synchronized int findRequest(final long seq) {
-        return Collections.binarySearch(_requests, seq, s_seqComparator);
+        removeRequest(seq);
     }
 
     protected String log(final long seq, final String msg) {
@@ -224,7 +248,7 @@ public abstract class AgentAttache {
             s_logger.trace(log(seq, "Registering listener"));
         }
         if (listener.getTimeout() != -1) {
-            s_listenerExecutor.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS);
+            s_listenerTimer.newTimeout(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS);
         }
         _waitForList.put(seq, listener);
     }
@@ -249,7 +273,43 @@ public abstract class AgentAttache {
     }
 
     public int getQueueSize() {
-        return _requests.size();
+        return _queueDepth.get();
+    }
+
+    /**
+     * @return the sequence of the request in sequence that is with the agent, or null if there is none.
+     */
+    public Long getCurrentSequence() {
+        final Long current = _currentSequence.get();
+        return current == CLAIMED ? null : current;
+    }
+
+    /**
+     * @return the number of listener timeouts of all the agents that have not fired yet.
+     */
+    public static int getPendingListenerTimeouts() {
+        return s_listenerTimer.getPendingCount();
+    }
+
+    /**
+     * @return the number of requests in sequence that went through the queue, including those sent without waiting.
+     */
+    public long getQueuedCount() {
+        return _queuedCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds that requests waited in the queue.
+     */
+    public long getQueueWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(_queueWaitNanos.get());
+    }
+
+    /**
+     * @return the longest time in milliseconds that a request waited in the queue.
+     */
+    public long getMaxQueueWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(_maxQueueWaitNanos.get());
     }
 
     public int getNonRecurringListenersSize() {
@@ -331,7 +391,7 @@ public abstract class AgentAttache {
 
     public void cleanup(final Status state) {
         cancelAllCommands(state, true);
-        _requests.clear();
+        clearRequests();
     }
 
     @Override
@@ -358,38 +418,82 @@ public abstract class AgentAttache {
             s_logger.debug(log(seq, "Routed from " + req.getManagementServerId()));
         }
 
-        synchronized (this) {
-            try {
-                if (isClosed()) {
-                    throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
-                }
+        try {
+            if (isClosed()) {
+                throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
+            }
+
+            if (!req.executeInSequence()) {
+                req.logD("Sending ", true);
+                send(req);
+                return;
+            }
 
-                if (req.executeInSequence() && _currentSequence != null) {
-                    req.logD("Waiting for Seq " + _currentSequence + " Scheduling: ", true);
-                    addRequest(req);
+            // Every request in sequence goes through the queue, whoever finds no
+            // current sequence sends the first one queued.
+            addRequest(req);
+            final Long current = getCurrentSequence();
+            if (current != null && req.getSequence() != current && s_logger.isDebugEnabled()) {
+                req.logD("Waiting for Seq " + current + " Scheduling: ", true);
+            }
+            sendQueued(seq);
+        } catch (AgentUnavailableException e) {
+            s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
+            cancel(seq);
+            throw e;
+        } catch (Exception e) {
+            s_logger.warn(log(seq, "Unable to send due to "), e);
+            cancel(seq);
+            throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
+        }
+    }
+
+    /**
+     * Sends the first request queued if there is no current sequence, and
+     * makes it the current sequence. The current sequence is claimed with a
+     * compare and set so only one thread picks the next request.
+     *
+     * @param seq sequence of the request the caller queued. A failure to send
+     *        it is thrown, a failure to send any other request cancels it.
+     */
+    protected void sendQueued(final long seq) throws AgentUnavailableException {
+        while (_currentSequence.compareAndSet(null, CLAIMED)) {
+            final QueuedRequest queued = pollRequest();
+            if (queued == null) {
+                _currentSequence.set(null);
+                if (_requests.isEmpty()) {
                     return;
                 }
+                // a request was queued after the poll and its sender saw the claim, pick it up
+                continue;
+            }
 
-                // If we got to here either we're not suppose to set
-                // the _currentSequence or it is null already.
-
+            final Request req = queued.request;
+            final Long current = req.getSequence();
+            _currentSequence.set(current);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace(log(current, " is current sequence"));
+            }
+            try {
                 req.logD("Sending ", true);
                 send(req);
-
-                if (req.executeInSequence() && _currentSequence == null) {
-                    _currentSequence = seq;
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace(log(seq, " is current sequence"));
-                    }
-                }
+                return;
             } catch (AgentUnavailableException e) {
-                s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
-                cancel(seq);
-                throw e;
-            } catch (Exception e) {
-                s_logger.warn(log(seq, "Unable to send due to "), e);
-                cancel(seq);
-                throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
+                _currentSequence.compareAndSet(current, null);
+                if (current == seq) {
+                    throw e;
+                }
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug(log(current, "Unable to send the next sequence"));
+                }
+                cancel(current);
+            } catch (RuntimeException e) {
+                _currentSequence.compareAndSet(current, null);
+                if (current == seq) {
+                    throw e;
+                }
+                s_logger.warn(log(current, "Unable to send the next sequence"), e);
+                cancel(current);
             }
         }
     }
@@ -425,7 +529,7 @@ public abstract class AgentAttache {
                     return answers;
                 }
 
-                final Long current = _currentSequence;
+                final Long current = getCurrentSequence();
                 if (current != null && seq != current) {
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug(log(seq, "Waited too long."));
@@ -443,7 +547,7 @@ public abstract class AgentAttache {
         } catch (OperationTimedoutException e) {
             s_logger.warn(log(seq, "Timed out on " + req.toString()));
             cancel(seq);
-            final Long current = _currentSequence;
+            final Long current = getCurrentSequence();
             if (req.executeInSequence() && (current != null && current == seq)) {
                 sendNext(seq);
             }
@@ -451,7 +555,7 @@ public abstract class AgentAttache {
         } catch (Exception e) {
             s_logger.warn(log(seq, "Exception while waiting for answer"), e);
             cancel(seq);
-            final Long current = _currentSequence;
+            final Long current = getCurrentSequence();
             if (req.executeInSequence() && (current != null && current == seq)) {
                 sendNext(seq);
             }
@@ -461,8 +565,16 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void sendNext(final long seq) {
-        _currentSequence = null;
+    /**
+     * Ends the current sequence if it is seq and sends the next request queued.
+     */
+    protected void sendNext(final long seq) {
+        final Long current = _currentSequence.get();
+        if (current != null && current != CLAIMED && current == seq) {
+            _currentSequence.compareAndSet(current, null);
+        } else if (current != null && s_logger.isDebugEnabled()) {
+            s_logger.debug(log(seq, "Is not the current sequence, leaving the queue to " + current));
+        }
         if (_requests.isEmpty()) {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug(log(seq, "No more commands found"));
@@ -470,19 +582,12 @@ public abstract class AgentAttache {
             return;
         }
 
-        Request req = _requests.pop();
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
-        }
         try {
-            send(req);
+            // seq is no longer queued, so there is nothing to throw
+            sendQueued(seq);
         } catch (AgentUnavailableException e) {
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug(log(req.getSequence(), "Unable to send the next sequence"));
-            }
-            cancel(req.getSequence());
+            s_logger.warn(log(seq, "Unable to send the next sequence"), e);
         }
-        _currentSequence = req.getSequence();
     }
 
     public void process(final Answer[] answers) {
@@ -509,6 +614,16 @@ public abstract class AgentAttache {
      */
     protected abstract boolean isClosed();
 
+    protected static class QueuedRequest {
+        final Request request;
+        final long queuedAt;
+
+        QueuedRequest(final Request request) {
+            this.request = request;
+            queuedAt = System.nanoTime();
+        }
+    }
+
     protected class Alarm extends ManagedContextRunnable {
         long _seq;
 
@@ -75,6 +75,7 @@ import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
+import com.cloud.agent.transport.WireCodec;
 import com.cloud.alert.AlertManager;
 import com.cloud.configuration.ManagementServiceConfiguration;
 import com.cloud.dc.ClusterVO;
@@ -113,6 +114,7 @@ import com.cloud.utils.exception.NioConnectionException;
 import com.cloud.utils.exception.TaskExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
@@ -199,6 +201,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Default size for DirectAgentPool", false);
     protected final ConfigKey<Float> DirectAgentThreadCap = new ConfigKey<Float>("Advanced", Float.class, "direct.agent.thread.cap", "1",
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
+    protected final ConfigKey<Integer> IoSelectors = new ConfigKey<Integer>("Advanced", Integer.class, "agent.io.selectors", "0",
+            "Number of selector threads serving the I/O of remote agent connections, 0 to serve it on the thread that accepts the connections.", false);
+    protected final ConfigKey<Boolean> BinaryCodec = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.binary.codec.enabled", "true",
+            "Use the binary encoding for the requests exchanged with agents that support it, instead of JSON.", false);
+    protected final ConfigKey<Integer> BinaryCodecCompressionThreshold = new ConfigKey<Integer>("Advanced", Integer.class, "agent.binary.codec.compression.threshold",
+            String.valueOf(WireCodec.DEFAULT_COMPRESSION_THRESHOLD), "Requests in the binary encoding of at least this many bytes are compressed, 0 to never compress.", false);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>("Developer", Boolean.class, "check.txn.before.sending.agent.commands", "false",
             "This parameter allows developers to enable a check to see if a transaction wraps commands that are sent to the resource.  This is not to be enabled on production systems.", true);
 
@@ -212,6 +220,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         _nodeId = ManagementServerNode.getManagementServerId();
         s_logger.info("Configuring AgentManagerImpl. management server node id(msid): " + _nodeId);
 
+        WireCodec.configure(BinaryCodec.value(), BinaryCodecCompressionThreshold.value());
+
         final long lastPing = (System.currentTimeMillis() >> 10) - mgmtServiceConf.getTimeout();
         _hostDao.markHostsAsDisconnected(_nodeId, lastPing);
 
@@ -226,6 +236,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         _connectExecutor.allowCoreThreadTimeOut(true);
 
         _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, caService);
+        _connection.setIoSelectorCount(IoSelectors.value());
         s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
 
         // executes all agent commands other than cron and ping
@@ -612,9 +623,37 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), mgmtServiceConf.getPingInterval(), mgmtServiceConf.getPingInterval(), TimeUnit.SECONDS);
 
+        try {
+            JmxUtil.registerMBean("AgentManager", "Queues", new AgentQueueMBeanImpl(this));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register agent queue statistics for JMX", e);
+        }
+
         return true;
     }
 
+    /**
+     * One entry per host attached to this management server with the depth of
+     * its queue of requests in sequence and the time requests waited in it.
+     */
+    public List<Map<String, String>> getQueueStatistics() {
+        final List<Map<String, String>> stats = new ArrayList<Map<String, String>>(_agents.size());
+        for (final AgentAttache attache : _agents.values()) {
+            final long queued = attache.getQueuedCount();
+            final long waited = attache.getQueueWaitTime();
+            final Map<String, String> stat = new HashMap<String, String>();
+            stat.put("hostId", String.valueOf(attache.getId()));
+            stat.put("name", attache.getName());
+            stat.put("queueDepth", String.valueOf(attache.getQueueSize()));
+            stat.put("queued", String.valueOf(queued));
+            stat.put("totalWaitMs", String.valueOf(waited));
+            stat.put("averageWaitMs", String.valueOf(queued == 0 ? 0 : waited / queued));
+            stat.put("maxWaitMs", String.valueOf(attache.getMaxQueueWaitTime()));
+            stats.add(stat);
+        }
+        return stats;
+    }
+
     public void startDirectlyConnectedHosts() {
         final List<HostVO> hosts = _resourceMgr.findDirectlyConnectedHosts();
         for (final HostVO host : hosts) {
@@ -771,6 +810,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _connectExecutor.shutdownNow();
         _monitorExecutor.shutdownNow();
+
+        try {
+            JmxUtil.unregisterMBean("AgentManager", "Queues");
+        } catch (final Exception e) {
+            s_logger.warn("Unable to unregister agent queue statistics from JMX", e);
+        }
         return true;
     }
 
@@ -1100,6 +1145,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
 
                 attache = createAttacheForConnect(host, link);
+                if (attache instanceof ConnectedAgentAttache) {
+                    ((ConnectedAgentAttache)attache).setBinaryCodec(WireCodec.isEnabled() && request.isBinaryCodecSupported());
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1718,7 +1766,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
-            DirectAgentThreadCap };
+            DirectAgentThreadCap, BinaryCodec, BinaryCodecCompressionThreshold, IoSelectors };
     }
 
     protected class SetHostParamsListener implements Listener {
@@ -0,0 +1,41 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+public class AgentQueueMBeanImpl extends StandardMBean implements AgentQueueMBean {
+    private final AgentManagerImpl _agentMgr;
+
+    public AgentQueueMBeanImpl(final AgentManagerImpl agentMgr) {
+        super(AgentQueueMBean.class, false);
+        _agentMgr = agentMgr;
+    }
+
+    @Override
+    public List<Map<String, String>> getHostQueueStatistics() {
+        return _agentMgr.getQueueStatistics();
+    }
+
+    @Override
+    public int getPendingListenerTimeouts() {
+        return AgentAttache.getPendingListenerTimeouts();
+    }
+}
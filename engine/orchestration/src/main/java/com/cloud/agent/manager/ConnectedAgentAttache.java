@@ -32,6 +32,7 @@ public class ConnectedAgentAttache extends AgentAttache {
     private static final Logger s_logger = Logger.getLogger(ConnectedAgentAttache.class);
 
     protected Link _link;
+    protected volatile boolean _binaryCodec;
 
     public ConnectedAgentAttache(final AgentManagerImpl agentMgr, final long id, final String name, final Link link, final boolean maintenance) {
         super(agentMgr, id, name, maintenance);
@@ -41,12 +42,20 @@ public class ConnectedAgentAttache extends AgentAttache {
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
         try {
-            _link.send(req.toBytes());
+            // requests relayed for another management server stay in the version it can parse
+            _link.send(req.toBytes(_binaryCodec && req.getManagementServerId() == _agentMgr._nodeId));
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
         }
     }
 
+    /**
+     * @param binaryCodec whether the agent advertised the binary codec when it connected.
+     */
+    public void setBinaryCodec(final boolean binaryCodec) {
+        _binaryCodec = binaryCodec;
+    }
+
     @Override
     public synchronized boolean isClosed() {
         return _link == null;
@@ -63,7 +72,7 @@ public class ConnectedAgentAttache extends AgentAttache {
             _link = null;
         }
         cancelAllCommands(state, true);
-        _requests.clear();
+        clearRequests();
     }
 
     @Override
@@ -17,10 +17,12 @@
 package com.cloud.vm;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
@@ -41,12 +43,19 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     @Inject VMInstanceDao _instanceDao;
     @Inject ManagementServiceConfiguration mgmtServiceConf;
 
+    /**
+     * VM power states and processing time of the last ping report of each host that changed nothing, an
+     * identical report is skipped until the graceful period of the missing VM detection has passed.
+     */
+    private final Map<Long, ReportDigest> _stableReports = new ConcurrentHashMap<Long, ReportDigest>();
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
+        _stableReports.remove(hostId);
         _instanceDao.resetHostPowerStateTracking(hostId);
     }
 
@@ -54,8 +63,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     public void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report) {
             s_logger.debug("Process host VM state report. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processReport(hostId, report, reportedStates(report));
     }
 
     @Override
@@ -63,32 +71,53 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        final Map<String, VirtualMachine.PowerState> reportedStates = reportedStates(report);
+        final ReportDigest lastReport = _stableReports.get(hostId);
+        if (lastReport != null && lastReport.states.equals(reportedStates)
+                && System.currentTimeMillis() - lastReport.processed < mgmtServiceConf.getPingInterval() * 2000L) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("VM state report of host " + hostId + " did not change since the last report, skip processing");
+            }
+            return;
+        }
+        processReport(hostId, report, reportedStates);
     }
 
-    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+    private void processReport(long hostId, Map<String, HostVmStateReportEntry> report, Map<String, VirtualMachine.PowerState> reportedStates) {
+        final long processed = System.currentTimeMillis();
+        final List<VMInstanceVO> reportedInstances = report == null ? new ArrayList<VMInstanceVO>() : _instanceDao.listByInstanceNames(report.keySet());
+        final Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, reportedInstances);
 
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
+        final boolean stable = processReport(hostId, translatedInfo, reportedInstances);
+        if (stable) {
+            _stableReports.put(hostId, new ReportDigest(reportedStates, processed));
+        } else {
+            _stableReports.remove(hostId);
         }
+    }
 
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
+    /**
+     * @return true if the report changed nothing and no VM is missing from it
+     */
+    private boolean processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo, List<VMInstanceVO> reportedInstances) {
 
-            if (s_logger.isDebugEnabled())
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
+            for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
                 s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
+            }
+        }
 
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue(), DateUtil.currentGMTTime())) {
-                if (s_logger.isInfoEnabled()) {
-                    s_logger.info("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-                }
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
-                }
+        final List<Long> updatedInstances = _instanceDao.updatePowerStates(hostId, reportedInstances, translatedInfo);
+        for (Long instanceId : updatedInstances) {
+            if (s_logger.isInfoEnabled()) {
+                s_logger.info("VM state report is updated. host: " + hostId + ", vm id: " + instanceId + ", power state: " + translatedInfo.get(instanceId));
             }
+
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, instanceId);
+        }
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("VM power state of " + (translatedInfo.size() - updatedInstances.size()) + " VMs does not change, skip DB writing. host: " + hostId);
         }
 
         // any state outdates should be checked against the time before this list was retrieved
@@ -175,17 +204,30 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Done with process of VM state report. host: " + hostId);
+
+        return updatedInstances.isEmpty() && vmsThatAreMissingReport.isEmpty();
     }
 
     @Override
     public Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states) {
+        if (states == null) {
+            return new HashMap<Long, VirtualMachine.PowerState>();
+        }
+        return convertVmStateReport(states, _instanceDao.listByInstanceNames(states.keySet()));
+    }
+
+    private Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states, List<VMInstanceVO> instances) {
         final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
         if (states == null) {
             return map;
         }
 
+        final Map<String, VMInstanceVO> instancesByName = new HashMap<String, VMInstanceVO>();
+        for (VMInstanceVO instance : instances) {
+            instancesByName.put(instance.getInstanceName(), instance);
+        }
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
+            VMInstanceVO vm = instancesByName.get(entry.getKey());
             if (vm != null) {
                 map.put(vm.getId(), entry.getValue().getState());
             } else {
@@ -196,7 +238,26 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         return map;
     }
 
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
+    /**
+     * VM names and power states in the report, compared whole with the last report of the host.
+     */
+    private static Map<String, VirtualMachine.PowerState> reportedStates(Map<String, HostVmStateReportEntry> report) {
+        final Map<String, VirtualMachine.PowerState> states = new HashMap<String, VirtualMachine.PowerState>();
+        if (report != null) {
+            for (Map.Entry<String, HostVmStateReportEntry> entry : report.entrySet()) {
+                states.put(entry.getKey(), entry.getValue().getState());
+            }
+        }
+        return states;
+    }
+
+    private static class ReportDigest {
+        final Map<String, VirtualMachine.PowerState> states;
+        final long processed;
+
+        ReportDigest(Map<String, VirtualMachine.PowerState> states, long processed) {
+            this.states = states;
+            this.processed = processed;
+        }
     }
 }
@@ -2111,9 +2111,13 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
             }
         }
 
+        final String nicIp4Address = nic.getIPv4Address();
         final NetworkGuru guru = AdapterBase.getAdapterByName(networkGurus, network.getGuruName());
         guru.deallocate(network, profile, vm);
         _nicDao.remove(nic.getId());
+        if (network.getTrafficType() == TrafficType.Guest) {
+            _ipAddrMgr.releaseGuestIpAddress(network, nicIp4Address);
+        }
 
         s_logger.debug("Removed nic id=" + nic.getId());
         //remove the secondary ip addresses corresponding to to this nic
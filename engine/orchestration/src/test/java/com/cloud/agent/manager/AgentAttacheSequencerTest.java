@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.transport.Request;
+import com.cloud.exception.AgentUnavailableException;
+import com.cloud.host.Status;
+
+public class AgentAttacheSequencerTest {
+
+    private final List<Long> sent = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> failing = Collections.synchronizedList(new ArrayList<Long>());
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+    private final AgentAttache attache = new AgentAttache(null, 1, "host1", false) {
+        @Override
+        public void send(final Request req) throws AgentUnavailableException {
+            if (failing.contains(req.getSequence())) {
+                throw new AgentUnavailableException("Link is closed", _id);
+            }
+            final int current = outstanding.incrementAndGet();
+            if (current > maxOutstanding.get()) {
+                maxOutstanding.set(current);
+            }
+            sent.add(req.getSequence());
+        }
+
+        @Override
+        public void disconnect(final Status state) {
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return false;
+        }
+    };
+
+    private static Request request(final long seq) {
+        final Request req = Mockito.mock(Request.class);
+        Mockito.when(req.getSequence()).thenReturn(seq);
+        Mockito.when(req.executeInSequence()).thenReturn(true);
+        Mockito.when(req.getCommands()).thenReturn(new Command[0]);
+        return req;
+    }
+
+    private void answer(final long seq) {
+        outstanding.decrementAndGet();
+        attache.sendNext(seq);
+    }
+
+    @Test
+    public void testRequestsSentInSequence() throws Exception {
+        attache.send(request(10), null);
+        attache.send(request(12), null);
+        attache.send(request(11), null);
+
+        Assert.assertEquals(Collections.singletonList(10L), sent);
+        Assert.assertEquals(Long.valueOf(10), attache.getCurrentSequence());
+        Assert.assertEquals(2, attache.getQueueSize());
+
+        answer(10);
+        answer(11);
+        answer(12);
+
+        Assert.assertEquals(Arrays.asList(10L, 11L, 12L), sent);
+        Assert.assertNull(attache.getCurrentSequence());
+        Assert.assertEquals(0, attache.getQueueSize());
+        Assert.assertEquals(3, attache.getQueuedCount());
+    }
+
+    @Test
+    public void testFailedNextRequestIsSkipped() throws Exception {
+        attache.send(request(10), null);
+        attache.send(request(11), null);
+        attache.send(request(12), null);
+        failing.add(11L);
+
+        answer(10);
+
+        Assert.assertEquals(Arrays.asList(10L, 12L), sent);
+        Assert.assertEquals(Long.valueOf(12), attache.getCurrentSequence());
+        Assert.assertEquals(0, attache.getQueueSize());
+    }
+
+    @Test(expected = AgentUnavailableException.class)
+    public void testFailedOwnRequestIsThrown() throws Exception {
+        failing.add(10L);
+        try {
+            attache.send(request(10), null);
+        } finally {
+            Assert.assertNull(attache.getCurrentSequence());
+            Assert.assertEquals(0, attache.getQueueSize());
+        }
+    }
+
+    @Test
+    public void testStaleAnswerKeepsCurrentSequence() throws Exception {
+        attache.send(request(10), null);
+        attache.send(request(11), null);
+
+        attache.sendNext(9);
+
+        Assert.assertEquals(Collections.singletonList(10L), sent);
+        Assert.assertEquals(Long.valueOf(10), attache.getCurrentSequence());
+    }
+
+    @Test
+    public void testConcurrentSendersKeepOneRequestOutstanding() throws Exception {
+        final int senders = 8;
+        final int perSender = 500;
+        final AtomicLong sequence = new AtomicLong(1000);
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(senders + 1);
+        try {
+            for (int i = 0; i < senders; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int j = 0; j < perSender; j++) {
+                                attache.send(request(sequence.incrementAndGet()), null);
+                            }
+                        } catch (final Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+            start.countDown();
+
+            // plays the agent, answering whatever is current
+            final long deadline = System.currentTimeMillis() + 30000;
+            int answered = 0;
+            while (answered < senders * perSender && System.currentTimeMillis() < deadline) {
+                final Long current = attache.getCurrentSequence();
+                if (current == null) {
+                    Thread.yield();
+                    continue;
+                }
+                answer(current);
+                answered++;
+            }
+
+            Assert.assertEquals(senders * perSender, answered);
+            Assert.assertEquals(senders * perSender, sent.size());
+            Assert.assertEquals(senders * perSender, new HashSet<Long>(sent).size());
+            Assert.assertEquals(1, maxOutstanding.get());
+            Assert.assertEquals(0, attache.getQueueSize());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
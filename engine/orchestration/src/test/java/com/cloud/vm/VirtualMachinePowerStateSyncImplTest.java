@@ -0,0 +1,127 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.configuration.ManagementServiceConfiguration;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class VirtualMachinePowerStateSyncImplTest {
+    private static final long HOST_ID = 1L;
+
+    private final VirtualMachinePowerStateSyncImpl powerStateSync = new VirtualMachinePowerStateSyncImpl();
+    private final List<VMInstanceVO> instances = new ArrayList<VMInstanceVO>();
+
+    @Before
+    public void setUp() {
+        powerStateSync._messageBus = Mockito.mock(MessageBus.class);
+        powerStateSync._instanceDao = Mockito.mock(VMInstanceDao.class);
+        powerStateSync.mgmtServiceConf = Mockito.mock(ManagementServiceConfiguration.class);
+        Mockito.when(powerStateSync.mgmtServiceConf.getPingInterval()).thenReturn(60);
+
+        instances.add(new VMInstanceVO(10L, 1L, "vm-10", "i-2-10-VM", VirtualMachine.Type.User, 1L, HypervisorType.KVM, 1L, 1L, 2L, 2L, false));
+        instances.add(new VMInstanceVO(11L, 1L, "vm-11", "i-2-11-VM", VirtualMachine.Type.User, 1L, HypervisorType.KVM, 1L, 1L, 2L, 2L, false));
+        Mockito.when(powerStateSync._instanceDao.listByInstanceNames(Mockito.anyCollection())).thenReturn(instances);
+    }
+
+    private static Map<String, HostVmStateReportEntry> report(VirtualMachine.PowerState state) {
+        final Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        report.put("i-2-10-VM", new HostVmStateReportEntry(state, "host1"));
+        report.put("i-2-11-VM", new HostVmStateReportEntry(state, "host1"));
+        report.put("i-2-99-VM", new HostVmStateReportEntry(state, "host1"));
+        return report;
+    }
+
+    @Test
+    public void testChangedVmsPublished() {
+        Mockito.when(powerStateSync._instanceDao.updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap())).thenReturn(Arrays.asList(10L));
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(1)).listByInstanceNames(Mockito.anyCollection());
+        Mockito.verify(powerStateSync._instanceDao, Mockito.never()).findVMByInstanceName(Mockito.anyString());
+        Mockito.verify(powerStateSync._messageBus).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, 10L);
+        Mockito.verify(powerStateSync._messageBus, Mockito.never()).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, 11L);
+    }
+
+    @Test
+    public void testUnchangedReportSkipped() {
+        Mockito.when(powerStateSync._instanceDao.updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap())).thenReturn(new ArrayList<Long>());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(1)).updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOff));
+
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(2)).updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap());
+    }
+
+    @Test
+    public void testReportWithSwappedStatesProcessed() {
+        Mockito.when(powerStateSync._instanceDao.updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap())).thenReturn(new ArrayList<Long>());
+
+        final Map<String, HostVmStateReportEntry> report = report(VirtualMachine.PowerState.PowerOn);
+        report.put("i-2-11-VM", new HostVmStateReportEntry(VirtualMachine.PowerState.PowerOff, "host1"));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        // same names and states, but the two VMs swapped their states
+        final Map<String, HostVmStateReportEntry> swapped = report(VirtualMachine.PowerState.PowerOn);
+        swapped.put("i-2-10-VM", new HostVmStateReportEntry(VirtualMachine.PowerState.PowerOff, "host1"));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, swapped);
+
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(2)).updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap());
+    }
+
+    @Test
+    public void testReportProcessedAgainAfterChange() {
+        Mockito.when(powerStateSync._instanceDao.updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap()))
+                .thenReturn(Arrays.asList(10L, 11L)).thenReturn(new ArrayList<Long>());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+
+        // the first report changed the VMs, so the same report is processed once more before it is skipped
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(2)).updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap());
+    }
+
+    @Test
+    public void testResetHostSyncStateForgetsReport() {
+        Mockito.when(powerStateSync._instanceDao.updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap())).thenReturn(new ArrayList<Long>());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+        powerStateSync.resetHostSyncState(HOST_ID);
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report(VirtualMachine.PowerState.PowerOn));
+
+        Mockito.verify(powerStateSync._instanceDao, Mockito.times(2)).updatePowerStates(Mockito.eq(HOST_ID), Mockito.anyList(), Mockito.anyMap());
+    }
+}
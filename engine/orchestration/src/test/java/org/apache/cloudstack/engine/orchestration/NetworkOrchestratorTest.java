@@ -46,6 +46,7 @@ import com.cloud.network.Network;
 import com.cloud.network.Network.GuestType;
 import com.cloud.network.Network.Service;
 import com.cloud.network.NetworkModel;
+import com.cloud.network.IpAddressManager;
 import com.cloud.network.IpAddress.State;
 import com.cloud.network.Networks.TrafficType;
 import com.cloud.network.dao.IPAddressDao;
@@ -98,6 +99,7 @@ public class NetworkOrchestratorTest extends TestCase {
         testOrchastrator._nicIpAliasDao = mock(NicIpAliasDao.class);
         testOrchastrator._ipAddressDao = mock(IPAddressDao.class);
         testOrchastrator._vlanDao = mock(VlanDao.class);
+        testOrchastrator._ipAddrMgr = mock(IpAddressManager.class);
         DhcpServiceProvider provider = mock(DhcpServiceProvider.class);
 
         Map<Network.Capability, String> capabilities = new HashMap<Network.Capability, String>();
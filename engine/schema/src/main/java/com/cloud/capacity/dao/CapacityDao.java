@@ -27,6 +27,12 @@ import com.cloud.utils.db.GenericDao;
 public interface CapacityDao extends GenericDao<CapacityVO, Long> {
     CapacityVO findByHostIdType(Long hostId, short capacityType);
 
+    /**
+     * Lists the capacities of the given types for every host or pool in the zone with a single query,
+     * instead of calling findByHostIdType for each of them.
+     */
+    List<CapacityVO> listByZoneAndTypes(long zoneId, Short... capacityTypes);
+
     List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone);
 
     List<Long> listHostsWithEnoughCapacity(int requiredCpu, long requiredRam, Long clusterId, String hostType);
@@ -57,4 +63,20 @@ public interface CapacityDao extends GenericDao<CapacityVO, Long> {
     float findClusterConsumption(Long clusterId, short capacityType, long computeRequested);
 
     List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, short capacityType);
+
+    /**
+     * Adds to the used and reserved capacity of a host with a single update,
+     * without reading and locking the row first.
+     */
+    void addUsedAndReservedCapacity(long hostId, short capacityType, long usedCapacity, long reservedCapacity);
+
+    /**
+     * Adds to the used capacity of a host if the host still has room for it, checked
+     * by the same update so another management server cannot take the room in between.
+     * @param fromReserved take the capacity from the reserved capacity of the host
+     *        instead of from its free capacity
+     * @param overcommitRatio overcommit ratio applied to the total capacity of the host
+     * @return false if the host does not have the capacity, nothing is changed then
+     */
+    boolean allocateCapacityIfAvailable(long hostId, short capacityType, long capacity, boolean fromReserved, float overcommitRatio);
 }
@@ -54,6 +54,16 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
     private static final String ADD_ALLOCATED_SQL = "UPDATE `cloud`.`op_host_capacity` SET used_capacity = used_capacity + ? WHERE host_id = ? AND capacity_type = ?";
     private static final String SUBTRACT_ALLOCATED_SQL =
             "UPDATE `cloud`.`op_host_capacity` SET used_capacity = used_capacity - ? WHERE host_id = ? AND capacity_type = ?";
+    private static final String ADD_USED_AND_RESERVED_SQL =
+            "UPDATE `cloud`.`op_host_capacity` SET used_capacity = used_capacity + ?, reserved_capacity = reserved_capacity + ? WHERE host_id = ? AND capacity_type = ?";
+
+    private static final String ALLOCATE_FROM_FREE_SQL =
+            "UPDATE `cloud`.`op_host_capacity` SET used_capacity = used_capacity + ? WHERE host_id = ? AND capacity_type = ? " +
+            "AND used_capacity + reserved_capacity + ? <= total_capacity * ?";
+
+    private static final String ALLOCATE_FROM_RESERVED_SQL =
+            "UPDATE `cloud`.`op_host_capacity` SET used_capacity = used_capacity + ?, reserved_capacity = reserved_capacity - ? WHERE host_id = ? AND capacity_type = ? " +
+            "AND reserved_capacity >= ?";
 
     private static final String LIST_CLUSTERSINZONE_BY_HOST_CAPACITIES_PART1 =
             "SELECT DISTINCT capacity.cluster_id  FROM `cloud`.`op_host_capacity` capacity INNER JOIN `cloud`.`cluster` cluster on (cluster.id = capacity.cluster_id AND cluster.removed is NULL)   INNER JOIN `cloud`.`cluster_details` cluster_details ON (cluster.id = cluster_details.cluster_id ) WHERE ";
@@ -64,6 +74,7 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
 
     private final SearchBuilder<CapacityVO> _hostIdTypeSearch;
     private final SearchBuilder<CapacityVO> _hostOrPoolIdSearch;
+    private final SearchBuilder<CapacityVO> _zoneTypesSearch;
     private final SearchBuilder<CapacityVO> _allFieldsSearch;
     @Inject
     protected PrimaryDataStoreDao _storagePoolDao;
@@ -208,6 +219,11 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         _hostOrPoolIdSearch.and("hostId", _hostOrPoolIdSearch.entity().getHostOrPoolId(), SearchCriteria.Op.EQ);
         _hostOrPoolIdSearch.done();
 
+        _zoneTypesSearch = createSearchBuilder();
+        _zoneTypesSearch.and("zoneId", _zoneTypesSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
+        _zoneTypesSearch.and("types", _zoneTypesSearch.entity().getCapacityType(), SearchCriteria.Op.IN);
+        _zoneTypesSearch.done();
+
         _allFieldsSearch = createSearchBuilder();
         _allFieldsSearch.and("id", _allFieldsSearch.entity().getId(), SearchCriteria.Op.EQ);
         _allFieldsSearch.and("hostId", _allFieldsSearch.entity().getHostOrPoolId(), SearchCriteria.Op.EQ);
@@ -563,6 +579,47 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         }
     }
 
+    @Override
+    public void addUsedAndReservedCapacity(long hostId, short capacityType, long usedCapacity, long reservedCapacity) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(ADD_USED_AND_RESERVED_SQL);
+            pstmt.setLong(1, usedCapacity);
+            pstmt.setLong(2, reservedCapacity);
+            pstmt.setLong(3, hostId);
+            pstmt.setShort(4, capacityType);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception updating capacity for host: " + hostId, e);
+        }
+    }
+
+    @Override
+    public boolean allocateCapacityIfAvailable(long hostId, short capacityType, long capacity, boolean fromReserved, float overcommitRatio) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt;
+            if (fromReserved) {
+                pstmt = txn.prepareAutoCloseStatement(ALLOCATE_FROM_RESERVED_SQL);
+                pstmt.setLong(1, capacity);
+                pstmt.setLong(2, capacity);
+                pstmt.setLong(3, hostId);
+                pstmt.setShort(4, capacityType);
+                pstmt.setLong(5, capacity);
+            } else {
+                pstmt = txn.prepareAutoCloseStatement(ALLOCATE_FROM_FREE_SQL);
+                pstmt.setLong(1, capacity);
+                pstmt.setLong(2, hostId);
+                pstmt.setShort(3, capacityType);
+                pstmt.setLong(4, capacity);
+                pstmt.setFloat(5, overcommitRatio);
+            }
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception updating capacity for host: " + hostId, e);
+        }
+    }
+
     @Override
     public CapacityVO findByHostIdType(Long hostId, short capacityType) {
         SearchCriteria<CapacityVO> sc = _hostIdTypeSearch.create();
@@ -571,6 +628,14 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         return findOneBy(sc);
     }
 
+    @Override
+    public List<CapacityVO> listByZoneAndTypes(long zoneId, Short... capacityTypes) {
+        SearchCriteria<CapacityVO> sc = _zoneTypesSearch.create();
+        sc.setParameters("zoneId", zoneId);
+        sc.setParameters("types", (Object[])capacityTypes);
+        return listBy(sc);
+    }
+
     @Override
     public List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -17,6 +17,7 @@
 package com.cloud.dc.dao;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -304,11 +305,15 @@ public class DataCenterDaoImpl extends GenericDaoBase<DataCenterVO, Long> implem
         String value = (String)params.get("mac.address.prefix");
         _prefix = (long)NumbersUtil.parseInt(value, 06) << 40;
 
-        if (!_ipAllocDao.configure("Ip Alloc", params)) {
+        // the allocation tables are changed with plain sql, so they must not share the entity cache
+        final Map<String, Object> allocParams = new HashMap<String, Object>(params);
+        allocParams.remove("cache.size");
+
+        if (!_ipAllocDao.configure("Ip Alloc", allocParams)) {
             return false;
         }
 
-        if (!_vnetAllocDao.configure("vnet Alloc", params)) {
+        if (!_vnetAllocDao.configure("vnet Alloc", allocParams)) {
             return false;
         }
         return true;
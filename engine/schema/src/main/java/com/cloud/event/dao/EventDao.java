@@ -35,4 +35,9 @@ public interface EventDao extends GenericDao<EventVO, Long> {
 
     public void archiveEvents(List<EventVO> events);
 
+    /**
+     * Inserts the events with a single multi-row insert, the ids of the events are not set.
+     */
+    void persistEvents(List<EventVO> events);
+
 }
@@ -16,21 +16,24 @@
 // under the License.
 package com.cloud.event.dao;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 
-
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import com.cloud.event.Event.State;
 import com.cloud.event.EventVO;
+import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
 public class EventDaoImpl extends GenericDaoBase<EventVO, Long> implements EventDao {
@@ -38,6 +41,10 @@ public class EventDaoImpl extends GenericDaoBase<EventVO, Long> implements Event
     protected final SearchBuilder<EventVO> CompletedEventSearch;
     protected final SearchBuilder<EventVO> ToArchiveOrDeleteEventSearch;
 
+    private static final String INSERT_EVENTS = "INSERT INTO `cloud`.`event` (uuid, type, state, description, user_id, account_id, domain_id, created, level, "
+            + "start_id, parameters, archived, display) VALUES ";
+    private static final String INSERT_EVENT_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     public EventDaoImpl() {
         CompletedEventSearch = createSearchBuilder();
         CompletedEventSearch.and("state", CompletedEventSearch.entity().getState(), SearchCriteria.Op.EQ);
@@ -114,4 +121,44 @@ public class EventDaoImpl extends GenericDaoBase<EventVO, Long> implements Event
             txn.close();
         }
     }
+
+    @Override
+    public void persistEvents(List<EventVO> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder sql = new StringBuilder(INSERT_EVENTS);
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(INSERT_EVENT_VALUES);
+        }
+
+        final Date now = new Date();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            int i = 1;
+            for (EventVO event : events) {
+                pstmt.setString(i++, event.getUuid());
+                pstmt.setString(i++, event.getType());
+                pstmt.setString(i++, event.getState().toString());
+                pstmt.setString(i++, event.getDescription());
+                pstmt.setLong(i++, event.getUserId());
+                pstmt.setLong(i++, event.getAccountId());
+                pstmt.setLong(i++, event.getDomainId());
+                pstmt.setString(i++, DateUtil.getDateDisplayString(s_gmtTimeZone, event.getCreateDate() != null ? event.getCreateDate() : now));
+                pstmt.setString(i++, event.getLevel());
+                pstmt.setLong(i++, event.getStartId());
+                pstmt.setString(i++, event.getParameters());
+                pstmt.setBoolean(i++, event.getArchived());
+                pstmt.setBoolean(i++, event.isDisplay());
+            }
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to insert " + events.size() + " events", e);
+        }
+    }
 }
@@ -18,6 +18,7 @@ package com.cloud.storage.dao;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.storage.ScopeType;
@@ -56,6 +57,11 @@ public interface VolumeDao extends GenericDao<VolumeVO, Long>, StateDao<Volume.S
 
     List<VolumeVO> findByDc(long dcId);
 
+    /**
+     * @return number of non-removed volumes in the zone for each state, states without volumes are absent
+     */
+    Map<Volume.State, Long> countByDcGroupByState(long dcId);
+
     List<VolumeVO> findByAccountAndPod(long accountId, long podId);
 
     List<VolumeVO> findByTemplateAndZone(long templateId, long zoneId);
@@ -21,7 +21,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -80,6 +82,7 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
             + " AND pool.pod_id = ? AND pool.cluster_id = ? " + " GROUP BY pool.id ORDER BY 2 ASC ";
     private static final String ORDER_ZONE_WIDE_POOLS_NUMBER_OF_VOLUMES_FOR_ACCOUNT = "SELECT pool.id, SUM(IF(vol.state='Ready' AND vol.account_id = ?, 1, 0)) FROM `cloud`.`storage_pool` pool LEFT JOIN `cloud`.`volumes` vol ON pool.id = vol.pool_id WHERE pool.data_center_id = ? "
             + " AND pool.scope = 'ZONE' AND pool.status='Up' " + " GROUP BY pool.id ORDER BY 2 ASC ";
+    private static final String COUNT_VOLUMES_BY_STATE_IN_ZONE = "SELECT state, COUNT(*) FROM `cloud`.`volumes` WHERE data_center_id = ? AND removed IS NULL GROUP BY state";
 
     @Override
     public List<VolumeVO> findDetachedByAccount(long accountId) {
@@ -233,6 +236,23 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
         return listBy(sc);
     }
 
+    @Override
+    public Map<Volume.State, Long> countByDcGroupByState(long dcId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Map<Volume.State, Long> result = new HashMap<Volume.State, Long>();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(COUNT_VOLUMES_BY_STATE_IN_ZONE);
+            pstmt.setLong(1, dcId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.put(Volume.State.valueOf(rs.getString(1)), rs.getLong(2));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + COUNT_VOLUMES_BY_STATE_IN_ZONE, e);
+        }
+    }
+
     @Override
     public List<VolumeVO> findByAccountAndPod(long accountId, long podId) {
         SearchCriteria<VolumeVO> sc = AllFieldsSearch.create();
@@ -25,6 +25,7 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.SearchCriteria;
 
+import java.util.Date;
 import java.util.List;
 
 public interface UsageDao extends GenericDao<UsageVO, Long> {
@@ -54,6 +55,12 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
 
     void saveUsageRecords(List<UsageVO> usageRecords);
 
+    /**
+     * Deletes the usage records of the accounts for exactly the given aggregation period, in the current transaction.
+     * Used to make re-parsing a period that was partially committed by a failed usage job idempotent.
+     */
+    void deleteRecordsForAccountsInPeriod(List<Long> accountIds, Date startDate, Date endDate);
+
     void removeOldUsageRecords(int days);
 
     UsageVO persistUsage(final UsageVO usage);
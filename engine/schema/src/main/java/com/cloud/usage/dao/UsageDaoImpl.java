@@ -69,7 +69,8 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             + "net_bytes_read=?, net_bytes_write=?, current_bytes_read=?, current_bytes_write=?, agg_bytes_read=?, agg_bytes_write=?  WHERE id=?";
     private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
             + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
-            + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+            + "usage_id, type, size, network_id, start_date, end_date, virtual_size, cpu_cores, memory, cpu_speed) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?,?,?,?)";
+    private static final String DELETE_BY_ACCOUNTS_AND_PERIOD = "DELETE FROM cloud_usage.cloud_usage WHERE start_date = ? AND end_date = ? AND account_id IN (";
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -447,6 +448,21 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
                 } else {
                     pstmt.setNull(18, Types.BIGINT);
                 }
+                if (usageRecord.getCpuCores() != null) {
+                    pstmt.setLong(19, usageRecord.getCpuCores());
+                } else {
+                    pstmt.setNull(19, Types.BIGINT);
+                }
+                if (usageRecord.getMemory() != null) {
+                    pstmt.setLong(20, usageRecord.getMemory());
+                } else {
+                    pstmt.setNull(20, Types.BIGINT);
+                }
+                if (usageRecord.getCpuSpeed() != null) {
+                    pstmt.setLong(21, usageRecord.getCpuSpeed());
+                } else {
+                    pstmt.setNull(21, Types.BIGINT);
+                }
                 pstmt.addBatch();
             }
             pstmt.executeBatch();
@@ -458,6 +474,32 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
         }
     }
 
+    @Override
+    public void deleteRecordsForAccountsInPeriod(List<Long> accountIds, Date startDate, Date endDate) {
+        if (accountIds.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(DELETE_BY_ACCOUNTS_AND_PERIOD);
+        for (int i = 0; i < accountIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            pstmt.setString(1, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(2, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            for (int i = 0; i < accountIds.size(); i++) {
+                pstmt.setLong(3 + i, accountIds.get(i));
+            }
+            pstmt.executeUpdate();
+        } catch (Exception ex) {
+            s_logger.error("error deleting usage records between " + startDate + " and " + endDate + " for accounts " + accountIds, ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+    }
+
     @Override
     public void removeOldUsageRecords(int days) {
         String sql = DELETE_ALL_BY_INTERVAL;
@@ -31,6 +31,13 @@ public interface UserDao extends GenericDao<UserVO, Long> {
 
     UserVO getUser(long userId);
 
+    /**
+     * Lists the users with the ids, with one query.
+     * @param userIds
+     * @return the users found, not removed
+     */
+    List<UserVO> listByIds(List<Long> userIds);
+
     List<UserVO> findUsersLike(String username);
 
     List<UserVO> listByAccount(long accountId);
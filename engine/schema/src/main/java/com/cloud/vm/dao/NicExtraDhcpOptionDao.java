@@ -24,6 +24,8 @@ import com.cloud.vm.NicExtraDhcpOptionVO;
 public interface NicExtraDhcpOptionDao extends GenericDao<NicExtraDhcpOptionVO, Long> {
     List<NicExtraDhcpOptionVO> listByNicId(long nicId);
 
+    List<NicExtraDhcpOptionVO> listByNicIds(List<Long> nicIds);
+
     /**
      * Persists list of NicExtraDhcpOptionVO
      * @param extraDhcpOptions
@@ -18,6 +18,7 @@ package com.cloud.vm.dao;
 
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.cloud.utils.db.DB;
@@ -31,6 +32,7 @@ import com.cloud.vm.NicExtraDhcpOptionVO;
 @Component
 public class NicExtraDhcpOptionDaoImpl  extends GenericDaoBase<NicExtraDhcpOptionVO, Long> implements NicExtraDhcpOptionDao {
     private SearchBuilder<NicExtraDhcpOptionVO> AllFieldsSearch;
+    private SearchBuilder<NicExtraDhcpOptionVO> NicIdsSearch;
 
     protected NicExtraDhcpOptionDaoImpl() {
         super();
@@ -40,6 +42,10 @@ public class NicExtraDhcpOptionDaoImpl  extends GenericDaoBase<NicExtraDhcpOptio
         AllFieldsSearch.and("code", AllFieldsSearch.entity().getCode(), SearchCriteria.Op.IN);
 
         AllFieldsSearch.done();
+
+        NicIdsSearch = createSearchBuilder();
+        NicIdsSearch.and("nic_ids", NicIdsSearch.entity().getNicId(), SearchCriteria.Op.IN);
+        NicIdsSearch.done();
     }
 
     @DB()
@@ -51,6 +57,18 @@ public class NicExtraDhcpOptionDaoImpl  extends GenericDaoBase<NicExtraDhcpOptio
         return listBy(sc);
     }
 
+    @DB()
+    @Override
+    public List<NicExtraDhcpOptionVO> listByNicIds(List<Long> nicIds) {
+        if (nicIds == null || nicIds.isEmpty()) {
+            return new ArrayList<NicExtraDhcpOptionVO>();
+        }
+        SearchCriteria<NicExtraDhcpOptionVO> sc = NicIdsSearch.create();
+        sc.setParameters("nic_ids", nicIds.toArray());
+
+        return listBy(sc);
+    }
+
     @DB()
     @Override
     public void saveExtraDhcpOptions(List<NicExtraDhcpOptionVO> extraDhcpOptions) {
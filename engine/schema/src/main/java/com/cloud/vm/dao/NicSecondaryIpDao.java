@@ -40,6 +40,8 @@ public interface NicSecondaryIpDao extends GenericDao<NicSecondaryIpVO, Long> {
 
     List<NicSecondaryIpVO> listByNicId(long nicId);
 
+    List<NicSecondaryIpVO> listByNicIds(List<Long> nicIds);
+
     List<NicSecondaryIpVO> listByNicIdAndVmid(long nicId, long vmId);
 
     NicSecondaryIpVO findByIp4AddressAndNicId(String ip4Address, long nicId);
@@ -33,6 +33,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long> implements NicSecondaryIpDao {
 
     private final SearchBuilder<NicSecondaryIpVO> AllFieldsSearch;
+    private final SearchBuilder<NicSecondaryIpVO> NicIdsSearch;
     private final GenericSearchBuilder<NicSecondaryIpVO, String> IpSearch;
     protected GenericSearchBuilder<NicSecondaryIpVO, Long> CountByNicId;
 
@@ -46,6 +47,10 @@ public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long
         AllFieldsSearch.and("nicId", AllFieldsSearch.entity().getNicId(), Op.EQ);
         AllFieldsSearch.done();
 
+        NicIdsSearch = createSearchBuilder();
+        NicIdsSearch.and("nicIds", NicIdsSearch.entity().getNicId(), Op.IN);
+        NicIdsSearch.done();
+
         IpSearch = createSearchBuilder(String.class);
         IpSearch.select(null, Func.DISTINCT, IpSearch.entity().getIp4Address());
         IpSearch.and("network", IpSearch.entity().getNetworkId(), Op.EQ);
@@ -72,6 +77,16 @@ public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long
         return listBy(sc);
     }
 
+    @Override
+    public List<NicSecondaryIpVO> listByNicIds(List<Long> nicIds) {
+        if (nicIds == null || nicIds.isEmpty()) {
+            return new ArrayList<NicSecondaryIpVO>();
+        }
+        SearchCriteria<NicSecondaryIpVO> sc = NicIdsSearch.create();
+        sc.setParameters("nicIds", nicIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public List<String> listSecondaryIpAddressInNetwork(long networkId) {
         SearchCriteria<String> sc = IpSearch.create();
@@ -34,6 +34,13 @@ public interface UserVmDao extends GenericDao<UserVmVO, Long> {
 
     List<UserVmVO> listByAccountAndDataCenter(long accountId, long dcId);
 
+    /**
+     * Lists the vms with the ids, with one query.
+     * @param ids
+     * @return the vms found, not removed
+     */
+    List<UserVmVO> listByIds(List<Long> ids);
+
     List<UserVmVO> listByHostId(Long hostId);
 
     List<UserVmVO> listByLastHostId(Long hostId);
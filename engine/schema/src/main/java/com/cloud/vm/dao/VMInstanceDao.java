@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -88,6 +89,8 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     VMInstanceVO findVMByInstanceNameIncludingRemoved(String name);
 
+    List<VMInstanceVO> listByInstanceNames(Collection<String> names);
+
     VMInstanceVO findVMByHostName(String hostName);
 
     void updateProxyId(long id, Long proxyId, Date time);
@@ -132,6 +135,16 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     Long countByZoneAndState(long zoneId, State state);
 
+    /**
+     * @return number of non-removed vms in the zone for each state, states without vms are absent
+     */
+    Map<State, Long> countByZoneGroupByState(long zoneId);
+
+    /**
+     * @return number of non-removed vms in the zone for each host id, hosts without vms are absent
+     */
+    Map<Long, Long> countByZoneGroupByHostId(long zoneId);
+
     List<VMInstanceVO> listNonRemovedVmsByTypeAndNetwork(long networkId, VirtualMachine.Type... types);
 
     /**
@@ -147,6 +160,14 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState, Date wisdomEra);
 
+    /**
+     * Applies the power states a host reported to the given instances, loaded beforehand, and writes
+     * the rows that change with a single batched update.
+     *
+     * @return the ids of the instances whose power state row was updated
+     */
+    List<Long> updatePowerStates(long powerHostId, List<VMInstanceVO> instances, Map<Long, VirtualMachine.PowerState> powerStates);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
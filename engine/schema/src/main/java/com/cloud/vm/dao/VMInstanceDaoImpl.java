@@ -19,7 +19,10 @@ package com.cloud.vm.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -83,6 +86,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostIdUpTypesSearch;
     protected SearchBuilder<VMInstanceVO> HostUpSearch;
     protected SearchBuilder<VMInstanceVO> InstanceNameSearch;
+    protected SearchBuilder<VMInstanceVO> InstanceNamesSearch;
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostNameAndZoneSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
@@ -126,6 +130,16 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES2 =
             "GROUP BY offering.service_offering_id) results GROUP BY pci, type";
 
+    private static final String COUNT_VMS_BY_STATE_IN_ZONE =
+            "SELECT state, COUNT(*) FROM `cloud`.`vm_instance` WHERE data_center_id = ? AND removed IS NULL GROUP BY state";
+
+    private static final String COUNT_VMS_BY_HOST_IN_ZONE =
+            "SELECT host_id, COUNT(*) FROM `cloud`.`vm_instance` WHERE data_center_id = ? AND host_id IS NOT NULL AND removed IS NULL GROUP BY host_id";
+
+    private static final String UPDATE_POWER_STATE =
+            "UPDATE `cloud`.`vm_instance` SET power_state = ?, power_host_id = ?, power_state_update_count = ?, power_state_update_time = ? "
+            + "WHERE id = ? AND power_state_update_time <=> ?";
+
     @Inject
     protected HostDao _hostDao;
 
@@ -225,6 +239,10 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         InstanceNameSearch.and("instanceName", InstanceNameSearch.entity().getInstanceName(), Op.EQ);
         InstanceNameSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
         HostNameSearch = createSearchBuilder();
         HostNameSearch.and("hostName", HostNameSearch.entity().getHostName(), Op.EQ);
         HostNameSearch.done();
@@ -463,6 +481,16 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return findOneBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return new ArrayList<VMInstanceVO>();
+        }
+        SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+        sc.setParameters("instanceNames", names.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public VMInstanceVO findVMByInstanceNameIncludingRemoved(String name) {
         SearchCriteria<VMInstanceVO> sc = InstanceNameSearch.create();
@@ -802,6 +830,40 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public Map<State, Long> countByZoneGroupByState(long zoneId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Map<State, Long> result = new HashMap<State, Long>();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(COUNT_VMS_BY_STATE_IN_ZONE);
+            pstmt.setLong(1, zoneId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.put(State.valueOf(rs.getString(1)), rs.getLong(2));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + COUNT_VMS_BY_STATE_IN_ZONE, e);
+        }
+    }
+
+    @Override
+    public Map<Long, Long> countByZoneGroupByHostId(long zoneId) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(COUNT_VMS_BY_HOST_IN_ZONE);
+            pstmt.setLong(1, zoneId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.put(rs.getLong(1), rs.getLong(2));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + COUNT_VMS_BY_HOST_IN_ZONE, e);
+        }
+    }
+
     @Override
     public List<VMInstanceVO> listNonRemovedVmsByTypeAndNetwork(long networkId, VirtualMachine.Type... types) {
         if (NetworkTypeSearch == null) {
@@ -899,6 +961,73 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public List<Long> updatePowerStates(final long powerHostId, final List<VMInstanceVO> instances, final Map<Long, VirtualMachine.PowerState> powerStates) {
+        final Date now = DateUtil.currentGMTTime();
+        final List<VMInstanceVO> changed = new ArrayList<VMInstanceVO>();
+        final List<Date> loadedUpdateTimes = new ArrayList<Date>();
+        for (VMInstanceVO instance : instances) {
+            final VirtualMachine.PowerState powerState = powerStates.get(instance.getId());
+            if (powerState == null || (instance.getPowerStateUpdateTime() != null && !instance.getPowerStateUpdateTime().before(now))) {
+                continue;
+            }
+            final Long savedPowerHostId = instance.getPowerHostId();
+            final Date loadedUpdateTime = instance.getPowerStateUpdateTime();
+            if (instance.getPowerState() != powerState || savedPowerHostId == null || savedPowerHostId.longValue() != powerHostId) {
+                instance.setPowerState(powerState);
+                instance.setPowerHostId(powerHostId);
+                instance.setPowerStateUpdateCount(1);
+            } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                // to reduce DB updates, consecutive same state update for more than 3 times
+                instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
+            } else {
+                continue;
+            }
+            instance.setPowerStateUpdateTime(now);
+            changed.add(instance);
+            loadedUpdateTimes.add(loadedUpdateTime);
+        }
+
+        if (changed.isEmpty()) {
+            return new ArrayList<Long>();
+        }
+
+        // a row that was updated since it was loaded is skipped, the next report picks it up again
+        return Transaction.execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                TransactionLegacy txn = TransactionLegacy.currentTxn();
+                try {
+                    PreparedStatement pstmt = txn.prepareAutoCloseStatement(UPDATE_POWER_STATE);
+                    for (int i = 0; i < changed.size(); i++) {
+                        final VMInstanceVO instance = changed.get(i);
+                        pstmt.setString(1, instance.getPowerState().toString());
+                        pstmt.setLong(2, instance.getPowerHostId());
+                        pstmt.setInt(3, instance.getPowerStateUpdateCount());
+                        pstmt.setString(4, DateUtil.getDateDisplayString(s_gmtTimeZone, instance.getPowerStateUpdateTime()));
+                        pstmt.setLong(5, instance.getId());
+                        if (loadedUpdateTimes.get(i) != null) {
+                            pstmt.setString(6, DateUtil.getDateDisplayString(s_gmtTimeZone, loadedUpdateTimes.get(i)));
+                        } else {
+                            pstmt.setNull(6, Types.VARCHAR);
+                        }
+                        pstmt.addBatch();
+                    }
+                    final int[] counts = pstmt.executeBatch();
+                    final List<Long> updated = new ArrayList<Long>(changed.size());
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                            updated.add(changed.get(i).getId());
+                        }
+                    }
+                    return updated;
+                } catch (SQLException e) {
+                    throw new CloudRuntimeException("DB Exception on: " + UPDATE_POWER_STATE, e);
+                }
+            }
+        });
+    }
+
     @Override
     public boolean isPowerStateUpToDate(final long instanceId) {
         VMInstanceVO instance = findById(instanceId);
@@ -86,6 +86,15 @@ public interface ResourceDetailsDao<R extends ResourceDetail> extends GenericDao
      */
     public List<R> listDetails(long resourceId, boolean forDisplay);
 
+    /**
+     * Lists the details of several resources with one query
+     * @param resourceIds
+     * @param name only details having this key, all if null
+     * @param forDisplay only details having display field = forDisplay, all if null
+     * @return
+     */
+    public List<R> listDetails(List<Long> resourceIds, String name, Boolean forDisplay);
+
     public Map<String, String> listDetailsKeyPairs(long resourceId);
 
     public Map<String, String> listDetailsKeyPairs(long resourceId, boolean forDisplay);
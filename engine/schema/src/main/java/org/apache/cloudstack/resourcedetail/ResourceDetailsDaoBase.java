@@ -16,6 +16,7 @@
 // under the License.
 package org.apache.cloudstack.resourcedetail;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,7 @@ import com.cloud.utils.db.TransactionLegacy;
 
 public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends GenericDaoBase<R, Long> implements ResourceDetailsDao<R> {
     private SearchBuilder<R> AllFieldsSearch;
+    private SearchBuilder<R> ResourceIdsSearch;
 
     public ResourceDetailsDaoBase() {
         AllFieldsSearch = createSearchBuilder();
@@ -40,6 +42,14 @@ public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends G
             AllFieldsSearch.and("display", AllFieldsSearch.entity().isDisplay(), SearchCriteria.Op.EQ);
         }
         AllFieldsSearch.done();
+
+        ResourceIdsSearch = createSearchBuilder();
+        ResourceIdsSearch.and("resourceIds", ResourceIdsSearch.entity().getResourceId(), SearchCriteria.Op.IN);
+        ResourceIdsSearch.and("name", ResourceIdsSearch.entity().getName(), SearchCriteria.Op.EQ);
+        if (_allAttributes.containsKey("display")) {
+            ResourceIdsSearch.and("display", ResourceIdsSearch.entity().isDisplay(), SearchCriteria.Op.EQ);
+        }
+        ResourceIdsSearch.done();
     }
 
     public R findDetail(long resourceId, String name) {
@@ -182,4 +192,20 @@ public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends G
         List<R> results = search(sc, null);
         return results;
     }
+
+    public List<R> listDetails(List<Long> resourceIds, String name, Boolean forDisplay) {
+        if (resourceIds == null || resourceIds.isEmpty()) {
+            return new ArrayList<R>();
+        }
+        SearchCriteria<R> sc = ResourceIdsSearch.create();
+        sc.setParameters("resourceIds", resourceIds.toArray());
+        if (name != null) {
+            sc.setParameters("name", name);
+        }
+        if (forDisplay != null) {
+            sc.setParameters("display", forDisplay);
+        }
+
+        return search(sc, null);
+    }
 }
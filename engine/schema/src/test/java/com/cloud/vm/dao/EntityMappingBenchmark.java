@@ -0,0 +1,216 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.vm.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.host.HostVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.vm.VMInstanceVO;
+
+/**
+ * Compares mapping rows into entities through GenericDaoBase.setField, which
+ * looks up the column and tests the field type for every column of every
+ * row, against the column mappers resolved once per result set.  Rows come
+ * from an in memory result set of VMInstanceVO and HostVO columns, no
+ * database is involved.  Not run as part of the unit tests, start it with
+ *
+ *   java -cp ... com.cloud.vm.dao.EntityMappingBenchmark [rows] [rounds]
+ */
+public class EntityMappingBenchmark {
+
+    static class MappingDao<T> extends GenericDaoBase<T, Long> {
+        List<Pair<String, String>> columns() {
+            List<Pair<String, String>> columns = new ArrayList<Pair<String, String>>();
+            for (Map.Entry<Pair<String, String>, Attribute> entry : _allColumns.entrySet()) {
+                if (entry.getValue().getField() != null && entry.getValue().isSelectable()) {
+                    columns.add(entry.getKey());
+                }
+            }
+            return columns;
+        }
+
+        Object[] values() {
+            List<Pair<String, String>> columns = columns();
+            Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = sampleValue(_allColumns.get(columns.get(i)));
+            }
+            return values;
+        }
+
+        T mapWithSetField(ResultSet rs) throws SQLException {
+            T entity = createForUpdate();
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
+                setField(entity, rs, meta, index);
+            }
+            return entity;
+        }
+
+        T mapWithColumnMappers(ResultSet rs) throws SQLException {
+            return toEntityBean(rs, false);
+        }
+    }
+
+    static class VMInstanceMappingDao extends MappingDao<VMInstanceVO> {
+    }
+
+    static class HostMappingDao extends MappingDao<HostVO> {
+    }
+
+    private static Object sampleValue(Attribute attr) {
+        Class<?> type = attr.getField().getType();
+        if (attr.isEncrypted()) {
+            // the encryptor is not set up here
+            return null;
+        } else if (type == String.class) {
+            return "value-" + attr.getColumnName();
+        } else if (type == long.class || type == Long.class) {
+            return 42L;
+        } else if (type == int.class || type == Integer.class || type == short.class || type == Short.class) {
+            return 7;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.TRUE;
+        } else if (type == Date.class) {
+            return "2020-01-01 10:00:00";
+        } else if (type.isEnum()) {
+            return ((Enum<?>)type.getEnumConstants()[0]).name();
+        }
+        return null;
+    }
+
+    /**
+     * A forward only result set over the same row repeated, answering the
+     * getters the mappers use.
+     */
+    static class RepeatedRowResultSet implements InvocationHandler {
+        private final List<Pair<String, String>> _columns;
+        private final Object[] _values;
+        private final int _rows;
+        private final ResultSetMetaData _meta;
+        private int _row;
+        private boolean _wasNull;
+
+        RepeatedRowResultSet(List<Pair<String, String>> columns, Object[] values, int rows) {
+            _columns = columns;
+            _values = values;
+            _rows = rows;
+            _meta = (ResultSetMetaData)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSetMetaData.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("getColumnCount")) {
+                        return _columns.size();
+                    } else if (name.equals("getTableName")) {
+                        return _columns.get((Integer)args[0] - 1).first();
+                    } else if (name.equals("getColumnName") || name.equals("getColumnLabel")) {
+                        return _columns.get((Integer)args[0] - 1).second();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ResultSet create() {
+            return (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            String name = method.getName();
+            if (name.equals("next")) {
+                return _row++ < _rows;
+            } else if (name.equals("getMetaData")) {
+                return _meta;
+            } else if (name.equals("wasNull")) {
+                return _wasNull;
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (args == null || !(args[0] instanceof Integer)) {
+                return null;
+            }
+
+            Object value = _values[(Integer)args[0] - 1];
+            _wasNull = value == null;
+            if (name.equals("getLong")) {
+                return value instanceof Number ? ((Number)value).longValue() : 0L;
+            } else if (name.equals("getInt")) {
+                return value instanceof Number ? ((Number)value).intValue() : 0;
+            } else if (name.equals("getShort")) {
+                return value instanceof Number ? ((Number)value).shortValue() : (short)0;
+            } else if (name.equals("getBoolean")) {
+                return Boolean.TRUE.equals(value);
+            } else if (name.equals("getDate")) {
+                return value == null ? null : new java.sql.Date(0);
+            } else if (name.equals("getString")) {
+                return value == null ? null : value.toString();
+            } else if (name.equals("getBytes")) {
+                return value == null ? null : value.toString().getBytes("UTF-8");
+            } else if (name.equals("getObject")) {
+                return value;
+            }
+            return null;
+        }
+    }
+
+    private static <T> void run(String name, MappingDao<T> dao, int rows, int rounds) throws SQLException {
+        List<Pair<String, String>> columns = dao.columns();
+        Object[] values = dao.values();
+
+        for (int round = 0; round < rounds; round++) {
+            ResultSet rs = new RepeatedRowResultSet(columns, values, rows).create();
+            long start = System.nanoTime();
+            while (rs.next()) {
+                dao.mapWithSetField(rs);
+            }
+            long setField = System.nanoTime() - start;
+
+            rs = new RepeatedRowResultSet(columns, values, rows).create();
+            start = System.nanoTime();
+            while (rs.next()) {
+                dao.mapWithColumnMappers(rs);
+            }
+            long mappers = System.nanoTime() - start;
+
+            System.out.println(String.format("%s round %d, %d rows of %d columns: setField %d ms, column mappers %d ms",
+                    name, round + 1, rows, columns.size(), setField / 1000000, mappers / 1000000));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        run("VMInstanceVO", new VMInstanceMappingDao(), rows, rounds);
+        run("HostVO", new HostMappingDao(), rows, rounds);
+    }
+}
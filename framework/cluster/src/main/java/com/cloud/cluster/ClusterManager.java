@@ -27,6 +27,12 @@ public interface ClusterManager extends Manager {
         "Interval to check for the heart beat between management server nodes", false);
     final ConfigKey<Integer> HeartbeatThreshold = new ConfigKey<Integer>(Integer.class, "cluster.heartbeat.threshold", "management-server", "150000",
         "Threshold before self-fence the management server", true);
+    final ConfigKey<Boolean> ClusterPduBatchEnabled = new ConfigKey<Boolean>(Boolean.class, "cluster.pdu.batch.enabled", "management-server", "false",
+        "Send cluster PDUs through per peer queues, coalescing them into batches for peers that accept them and one at a time for the others; takes effect after a restart", false);
+    final ConfigKey<Integer> ClusterPduBatchSendersPerPeer = new ConfigKey<Integer>(Integer.class, "cluster.pdu.batch.senders.per.peer", "management-server", "4",
+        "Number of parallel senders per peer when cluster.pdu.batch.enabled is true", false);
+    final ConfigKey<Integer> ClusterPduBatchMaxSize = new ConfigKey<Integer>(Integer.class, "cluster.pdu.batch.max.size", "management-server", "100",
+        "Maximum number of cluster PDUs sent in one batch when cluster.pdu.batch.enabled is true", false);
 
     void OnReceiveClusterServicePdu(ClusterServicePdu pdu);
 
@@ -47,6 +53,25 @@ public interface ClusterManager extends Manager {
      */
     void broadcast(long agentId, String cmds);
 
+    /**
+     * Drops the cached value of a config on this management server and asks all
+     * active peers to do the same.  Must be called after the change is committed.
+     * @param name config name
+     * @param scope scope of the changed value, null or Global for the global value
+     * @param scopeId id of the scoped resource, null for all resources of the scope
+     */
+    void publishConfigChange(String name, ConfigKey.Scope scope, Long scopeId);
+
+    /**
+     * Sends a message on a topic to all active peers without waiting for them.
+     * Each peer hands it to the listener registered for the topic, if any.
+     * @param topic topic the peers listen on
+     * @param message message for the listener
+     */
+    void notifyPeers(String topic, String message);
+
+    void registerNotificationListener(String topic, NotificationListener listener);
+
     void registerListener(ClusterManagerListener listener);
 
     void unregisterListener(ClusterManagerListener listener);
@@ -68,4 +93,8 @@ public interface ClusterManager extends Manager {
 
         String dispatch(ClusterServicePdu pdu);
     }
+
+    public interface NotificationListener {
+        void onNotification(String sourcePeer, String message);
+    }
 }
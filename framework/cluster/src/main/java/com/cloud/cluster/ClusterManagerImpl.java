@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -58,6 +59,7 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.EntityCacheCoordinator;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
@@ -67,6 +69,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.NetUtils;
+import com.google.gson.Gson;
 
 public class ClusterManagerImpl extends ManagerBase implements ClusterManager, Configurable {
     private static final Logger s_logger = Logger.getLogger(ClusterManagerImpl.class);
@@ -74,6 +77,10 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private static final int EXECUTOR_SHUTDOWN_TIMEOUT = 1000; // 1 second
     private static final int DEFAULT_OUTGOING_WORKERS = 5;
 
+    private static final Gson s_gson = new Gson();
+
+    private static final String ENTITY_CACHE_TOPIC = "entity.cache.invalidation";
+
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
     private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
 
@@ -100,6 +107,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, NotificationListener> _notificationListeners = new ConcurrentHashMap<String, NotificationListener>();
 
     //
     // pay attention to _mshostId and _msid
@@ -117,6 +125,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
     private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
+    private ClusterPduBatchTransport _batchTransport;
 
     public ClusterManagerImpl() {
         _clusterPeers = new HashMap<String, ClusterService>();
@@ -174,6 +183,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
+        if (_batchTransport != null) {
+            _batchTransport.send(pdu);
+            return;
+        }
+
         synchronized (_clusterPduOutgoingQueue) {
             _clusterPduOutgoingQueue.add(pdu);
             _clusterPduOutgoingQueue.notifyAll();
@@ -302,7 +316,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 _executor.execute(new ManagedContextRunnable() {
                     @Override
                     protected void runInContext() {
-                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
+                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_CONFIG_CHANGE) {
+                            onConfigChange(pdu);
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_NOTIFICATION) {
+                            onNotification(pdu);
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
                             final ClusterServiceRequestPdu requestPdu = popRequestPdu(pdu.getAckSequenceId());
                             if (requestPdu != null) {
                                 requestPdu.setResponseResult(pdu.getJsonPackage());
@@ -375,6 +393,121 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
+    public void publishConfigChange(final String name, final ConfigKey.Scope scope, final Long scopeId) {
+        _configDepot.invalidateConfigCache(name, scope, scopeId);
+
+        sendToActivePeers(ClusterServicePdu.PDU_TYPE_CONFIG_CHANGE, s_gson.toJson(new ConfigChange(name, scope, scopeId)));
+    }
+
+    @Override
+    public void notifyPeers(final String topic, final String message) {
+        sendToActivePeers(ClusterServicePdu.PDU_TYPE_NOTIFICATION, s_gson.toJson(new Notification(topic, message)));
+    }
+
+    @Override
+    public void registerNotificationListener(final String topic, final NotificationListener listener) {
+        _notificationListeners.put(topic, listener);
+    }
+
+    private void sendToActivePeers(final int pduType, final String json) {
+        final Date cutTime = DateUtil.currentGMTTime();
+        final List<ManagementServerHostVO> peers = _mshostDao.getActiveList(new Date(cutTime.getTime() - HeartbeatThreshold.value()));
+        for (final ManagementServerHostVO peer : peers) {
+            final String peerName = Long.toString(peer.getMsid());
+            if (getSelfPeerName().equals(peerName)) {
+                continue;
+            }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Notifying " + peer.getMsid() + " of " + json);
+            }
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(pduType);
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peerName);
+            pdu.setJsonPackage(json);
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
+    private void onNotification(final ClusterServicePdu pdu) {
+        try {
+            final Notification notification = s_gson.fromJson(pdu.getJsonPackage(), Notification.class);
+            final NotificationListener listener = _notificationListeners.get(notification.topic);
+            if (listener == null) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("No listener for notification from " + pdu.getSourcePeer() + ": " + pdu.getJsonPackage());
+                }
+                return;
+            }
+            listener.onNotification(pdu.getSourcePeer(), notification.message);
+        } catch (final RuntimeException e) {
+            s_logger.warn("Unable to process notification from " + pdu.getSourcePeer() + ": " + pdu.getJsonPackage(), e);
+        }
+    }
+
+    private void onConfigChange(final ClusterServicePdu pdu) {
+        try {
+            final ConfigChange change = s_gson.fromJson(pdu.getJsonPackage(), ConfigChange.class);
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Config change from " + pdu.getSourcePeer() + ": " + pdu.getJsonPackage());
+            }
+            _configDepot.invalidateConfigCache(change.name, change.scope, change.scopeId);
+        } catch (final RuntimeException e) {
+            s_logger.warn("Unable to process config change from " + pdu.getSourcePeer() + ", dropping all cached config values", e);
+            _configDepot.invalidateConfigCache();
+        }
+    }
+
+    private static class Notification {
+        String topic;
+        String message;
+
+        public Notification(final String topic, final String message) {
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+
+    // sends the rows evicted from the entity caches to the peers, and evicts the rows the peers changed
+    private class EntityCacheTransport implements EntityCacheCoordinator.Transport, NotificationListener {
+        @Override
+        public void publish(final String table, final List<String> ids) {
+            notifyPeers(ENTITY_CACHE_TOPIC, s_gson.toJson(new CacheInvalidation(table, ids)));
+        }
+
+        @Override
+        public void onNotification(final String sourcePeer, final String message) {
+            final CacheInvalidation invalidation = s_gson.fromJson(message, CacheInvalidation.class);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Entity cache invalidation from " + sourcePeer + ": " + message);
+            }
+            EntityCacheCoordinator.getInstance().receive(invalidation.table, invalidation.ids);
+        }
+    }
+
+    private static class CacheInvalidation {
+        String table;
+        List<String> ids;
+
+        public CacheInvalidation(final String table, final List<String> ids) {
+            this.table = table;
+            this.ids = ids;
+        }
+    }
+
+    private static class ConfigChange {
+        String name;
+        ConfigKey.Scope scope;
+        Long scopeId;
+
+        public ConfigChange(final String name, final ConfigKey.Scope scope, final Long scopeId) {
+            this.name = name;
+            this.scope = scope;
+            this.scopeId = scopeId;
+        }
+    }
+
     public void executeAsync(final String strPeer, final long agentId, final String cmds, final boolean stopOnError) {
         final ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -989,6 +1122,10 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
 
+        final EntityCacheTransport cacheTransport = new EntityCacheTransport();
+        registerNotificationListener(ENTITY_CACHE_TOPIC, cacheTransport);
+        EntityCacheCoordinator.getInstance().setTransport(cacheTransport);
+
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Cluster manager was started successfully");
         }
@@ -1003,6 +1140,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             s_logger.info("Stopping Cluster manager, msid : " + _msId);
         }
 
+        EntityCacheCoordinator.getInstance().setTransport(null);
+
         if (_mshostId != null) {
             final ManagementServerHostVO mshost = _mshostDao.findByMsid(_msId);
             mshost.setState(ManagementServerHost.State.Down);
@@ -1031,6 +1170,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             s_logger.info("Start configuring cluster manager : " + name);
         }
 
+        _configDepot.setConfigChangePublisher(this::publishConfigChange);
+
         final Properties dbProps = DbProperties.getDbProperties();
         _clusterNodeIP = dbProps.getProperty("cluster.node.IP");
         if (_clusterNodeIP == null) {
@@ -1046,8 +1187,29 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
-        for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
-            _executor.execute(getClusterPduSendingTask());
+        if (ClusterPduBatchEnabled.value()) {
+            _batchTransport = new ClusterPduBatchTransport(new ClusterPduBatchTransport.PeerServiceLocator() {
+                @Override
+                public ClusterService getPeerService(final String strPeer) throws RemoteException {
+                    return ClusterManagerImpl.this.getPeerService(strPeer);
+                }
+
+                @Override
+                public void invalidatePeerService(final String strPeer) {
+                    ClusterManagerImpl.this.invalidatePeerService(strPeer);
+                }
+            }, _executor, ClusterPduBatchSendersPerPeer.value(), ClusterPduBatchMaxSize.value());
+            try {
+                JmxUtil.registerMBean("ClusterManager", "PduTransport", _batchTransport);
+            } catch (final Exception e) {
+                s_logger.warn("Unable to register cluster PDU transport MBean", e);
+            }
+            s_logger.info("Cluster PDUs are sent in batches of up to " + _batchTransport.getMaxBatchSize() + " with " + _batchTransport.getSendersPerPeer() +
+                    " senders per peer");
+        } else {
+            for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
+                _executor.execute(getClusterPduSendingTask());
+            }
         }
 
         // notification task itself in turn works as a task dispatcher
@@ -1116,7 +1278,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, ClusterPduBatchEnabled, ClusterPduBatchSendersPerPeer, ClusterPduBatchMaxSize};
     }
 
     private boolean pingManagementNode(final ManagementServerHostVO mshost) {
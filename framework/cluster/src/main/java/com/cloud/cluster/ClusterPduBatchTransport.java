@@ -0,0 +1,293 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends cluster PDUs through a queue per destination peer.  Up to sendersPerPeer
+ * senders drain a peer queue in parallel and each of them coalesces whatever is
+ * queued, up to maxBatchSize PDUs, into one framed request, so a burst of agent
+ * commands forwarded to the same peer costs a handful of round trips instead of
+ * one HTTP POST per PDU.
+ *
+ * Senders are only scheduled while a queue has work, an idle peer costs nothing.
+ *
+ * Each peer is asked for the batch frame version it accepts before the first
+ * batch is sent to it.  Peers that do not accept our version, like peers that
+ * were not upgraded yet, get the PDUs one at a time and are asked again after
+ * BATCH_VERSION_RECHECK_INTERVAL_MS, so a cluster can be upgraded node by node.
+ */
+public class ClusterPduBatchTransport extends StandardMBean implements ClusterPduBatchTransportMBean {
+    private static final Logger s_logger = Logger.getLogger(ClusterPduBatchTransport.class);
+
+    static final long BATCH_VERSION_RECHECK_INTERVAL_MS = 60000;
+
+    public interface PeerServiceLocator {
+        ClusterService getPeerService(String strPeer) throws RemoteException;
+
+        void invalidatePeerService(String strPeer);
+    }
+
+    private final PeerServiceLocator _locator;
+    private final Executor _executor;
+    private final int _sendersPerPeer;
+    private final int _maxBatchSize;
+    private final Map<String, PeerChannel> _channels = new ConcurrentHashMap<String, PeerChannel>();
+
+    public ClusterPduBatchTransport(final PeerServiceLocator locator, final Executor executor, final int sendersPerPeer, final int maxBatchSize) {
+        super(ClusterPduBatchTransportMBean.class, false);
+        _locator = locator;
+        _executor = executor;
+        _sendersPerPeer = Math.max(1, sendersPerPeer);
+        _maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public void send(final ClusterServicePdu pdu) {
+        final PeerChannel channel = _channels.computeIfAbsent(pdu.getDestPeer(), PeerChannel::new);
+        channel.queue.add(pdu);
+        channel.depth.incrementAndGet();
+        channel.scheduleSender();
+    }
+
+    public int getQueueDepth(final String strPeer) {
+        final PeerChannel channel = _channels.get(strPeer);
+        return channel == null ? 0 : channel.depth.get();
+    }
+
+    @Override
+    public int getSendersPerPeer() {
+        return _sendersPerPeer;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return _maxBatchSize;
+    }
+
+    @Override
+    public List<Map<String, String>> getPeerStatistics() {
+        final List<Map<String, String>> stats = new ArrayList<Map<String, String>>();
+        for (final PeerChannel channel : _channels.values()) {
+            stats.add(channel.getStatistics());
+        }
+        return stats;
+    }
+
+    private class PeerChannel {
+        final String peer;
+        final ConcurrentLinkedQueue<ClusterServicePdu> queue = new ConcurrentLinkedQueue<ClusterServicePdu>();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger senders = new AtomicInteger();
+
+        final AtomicLong batchesSent = new AtomicLong();
+        final AtomicLong pdusSent = new AtomicLong();
+        final AtomicLong batchesFailed = new AtomicLong();
+        final AtomicLong pdusFailed = new AtomicLong();
+        final AtomicInteger maxBatchSize = new AtomicInteger();
+        final AtomicLong totalRoundTripMs = new AtomicLong();
+        volatile long lastRoundTripMs;
+
+        // batch frame version of the peer, 0 if it only accepts single PDUs, -1 until it was asked
+        volatile int batchVersion = -1;
+        volatile long batchVersionCheckedAt;
+
+        PeerChannel(final String peer) {
+            this.peer = peer;
+        }
+
+        void scheduleSender() {
+            while (true) {
+                final int current = senders.get();
+                if (current >= _sendersPerPeer) {
+                    return;
+                }
+                if (senders.compareAndSet(current, current + 1)) {
+                    _executor.execute(new ManagedContextRunnable() {
+                        @Override
+                        protected void runInContext() {
+                            drain();
+                        }
+                    });
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final List<ClusterServicePdu> batch = new ArrayList<ClusterServicePdu>();
+                ClusterServicePdu pdu;
+                while (batch.size() < _maxBatchSize && (pdu = queue.poll()) != null) {
+                    batch.add(pdu);
+                }
+
+                if (batch.isEmpty()) {
+                    senders.decrementAndGet();
+                    // a PDU queued after our last poll may have seen all senders busy
+                    if (queue.isEmpty() || !tryReclaimSender()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                depth.addAndGet(-batch.size());
+                try {
+                    sendBatch(batch);
+                } catch (final Throwable e) {
+                    s_logger.error("Unexpected exception sending cluster PDU batch to " + peer, e);
+                }
+            }
+        }
+
+        private boolean tryReclaimSender() {
+            while (true) {
+                final int current = senders.get();
+                if (current >= _sendersPerPeer) {
+                    return false;
+                }
+                if (senders.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void sendBatch(final List<ClusterServicePdu> batch) {
+            for (int i = 0; i < 2; i++) {
+                ClusterService peerService = null;
+                try {
+                    peerService = _locator.getPeerService(peer);
+                } catch (final RemoteException e) {
+                    s_logger.error("Unable to get cluster service on peer : " + peer);
+                }
+
+                if (peerService != null) {
+                    try {
+                        if (!acceptsBatches(peerService, batch.get(0).getSourcePeer())) {
+                            if (sendOneByOne(peerService, batch)) {
+                                return;
+                            }
+                            // the answer of the peer may have been lost, ask it again
+                            batchVersion = -1;
+                            continue;
+                        }
+
+                        final long start = System.currentTimeMillis();
+                        final String strResult = peerService.executeBatch(batch);
+                        final long roundTrip = System.currentTimeMillis() - start;
+
+                        if (s_logger.isDebugEnabled()) {
+                            s_logger.debug("Cluster PDU batch -> " + peer + " completed. time: " + roundTrip + "ms, pdus: " + batch.size() + ", first pdu seq: " +
+                                    batch.get(0).getSequenceId());
+                        }
+
+                        if ("true".equals(strResult)) {
+                            recordSent(batch.size(), roundTrip);
+                            return;
+                        }
+                        // the peer may have been replaced by one without batch support
+                        batchVersion = -1;
+                    } catch (final RemoteException e) {
+                        batchVersion = -1;
+                        _locator.invalidatePeerService(peer);
+                        if (s_logger.isInfoEnabled()) {
+                            s_logger.info("Exception on remote execution, peer: " + peer + ", iteration: " + i + ", exception message :" + e.getMessage());
+                        }
+                    }
+                }
+            }
+
+            batchesFailed.incrementAndGet();
+            pdusFailed.addAndGet(batch.size());
+            s_logger.warn("Unable to deliver " + batch.size() + " cluster PDUs to peer " + peer);
+        }
+
+        private boolean acceptsBatches(final ClusterService peerService, final String callingPeer) throws RemoteException {
+            final long now = System.currentTimeMillis();
+            if (batchVersion < 0 || batchVersion != ClusterServicePduCodec.VERSION && now - batchVersionCheckedAt >= BATCH_VERSION_RECHECK_INTERVAL_MS) {
+                final int version = peerService.getPduBatchVersion(callingPeer);
+                if (version != ClusterServicePduCodec.VERSION) {
+                    s_logger.info("Peer " + peer + " accepts cluster PDU batch version " + version + " instead of " + ClusterServicePduCodec.VERSION +
+                            ", sending it one PDU at a time");
+                }
+                batchVersionCheckedAt = now;
+                batchVersion = version;
+            }
+            return batchVersion == ClusterServicePduCodec.VERSION;
+        }
+
+        /**
+         * Sends the PDUs of the batch one at a time, removing every delivered PDU from the batch.
+         *
+         * @return true if all of them were delivered
+         */
+        private boolean sendOneByOne(final ClusterService peerService, final List<ClusterServicePdu> batch) throws RemoteException {
+            final Iterator<ClusterServicePdu> it = batch.iterator();
+            while (it.hasNext()) {
+                final long start = System.currentTimeMillis();
+                final String strResult = peerService.execute(it.next());
+                if (!"true".equals(strResult)) {
+                    return false;
+                }
+                recordSent(1, System.currentTimeMillis() - start);
+                it.remove();
+            }
+            return true;
+        }
+
+        private void recordSent(final int size, final long roundTripMs) {
+            batchesSent.incrementAndGet();
+            pdusSent.addAndGet(size);
+            totalRoundTripMs.addAndGet(roundTripMs);
+            lastRoundTripMs = roundTripMs;
+            maxBatchSize.accumulateAndGet(size, Math::max);
+        }
+
+        Map<String, String> getStatistics() {
+            final long batches = batchesSent.get();
+            final Map<String, String> map = new HashMap<String, String>();
+            map.put("peer", peer);
+            map.put("batchVersion", Integer.toString(batchVersion));
+            map.put("queueDepth", Integer.toString(depth.get()));
+            map.put("activeSenders", Integer.toString(senders.get()));
+            map.put("batchesSent", Long.toString(batches));
+            map.put("pdusSent", Long.toString(pdusSent.get()));
+            map.put("batchesFailed", Long.toString(batchesFailed.get()));
+            map.put("pdusFailed", Long.toString(pdusFailed.get()));
+            map.put("avgBatchSize", batches == 0 ? "0" : String.format("%.2f", (double)pdusSent.get() / batches));
+            map.put("maxBatchSize", Integer.toString(maxBatchSize.get()));
+            map.put("lastRoundTripMs", Long.toString(lastRoundTripMs));
+            map.put("avgRoundTripMs", batches == 0 ? "0" : String.format("%.2f", (double)totalRoundTripMs.get() / batches));
+            return map;
+        }
+    }
+}
@@ -18,9 +18,22 @@ package com.cloud.cluster;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ClusterService extends Remote {
     String execute(ClusterServicePdu pdu) throws RemoteException;
 
+    /**
+     * Delivers all PDUs in one request, used by {@link ClusterPduBatchTransport}.
+     * Returns "true" once the peer has queued all of them.
+     */
+    String executeBatch(List<ClusterServicePdu> pdus) throws RemoteException;
+
     boolean ping(String callingPeer) throws RemoteException;
+
+    /**
+     * Returns the version of the batch frame the peer accepts, see {@link ClusterServicePduCodec}.
+     * Returns 0 if the peer only accepts single PDUs, which is what peers without batch support answer.
+     */
+    int getPduBatchVersion(String callingPeer) throws RemoteException;
 }
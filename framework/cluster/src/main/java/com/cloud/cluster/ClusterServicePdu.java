@@ -20,6 +20,8 @@ public class ClusterServicePdu {
     public final static int PDU_TYPE_MESSAGE = 0;
     public final static int PDU_TYPE_REQUEST = 1;
     public final static int PDU_TYPE_RESPONSE = 2;
+    public final static int PDU_TYPE_CONFIG_CHANGE = 3;
+    public final static int PDU_TYPE_NOTIFICATION = 4;
 
     private long sequenceId;
     private long ackSequenceId;
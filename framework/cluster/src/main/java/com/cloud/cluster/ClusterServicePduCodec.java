@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames a batch of cluster PDUs into a single binary request body.
+ *
+ * Layout: magic, version, PDU count, then per PDU the sequence id, ack sequence id,
+ * agent id, PDU type, stop-on-error flag and the length prefixed UTF-8 source peer,
+ * destination peer and json package.  A null string is written with length -1.
+ */
+public final class ClusterServicePduCodec {
+    public static final String CONTENT_TYPE = "application/x-cloudstack-pdu-batch";
+
+    private static final int MAGIC = 0x43505542; // "CPUB"
+    public static final int VERSION = 1;
+
+    private ClusterServicePduCodec() {
+    }
+
+    public static byte[] encode(final List<ClusterServicePdu> pdus) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * pdus.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pdus.size());
+            for (final ClusterServicePdu pdu : pdus) {
+                out.writeLong(pdu.getSequenceId());
+                out.writeLong(pdu.getAckSequenceId());
+                out.writeLong(pdu.getAgentId());
+                out.writeInt(pdu.getPduType());
+                out.writeBoolean(pdu.isStopOnError());
+                writeString(out, pdu.getSourcePeer());
+                writeString(out, pdu.getDestPeer());
+                writeString(out, pdu.getJsonPackage());
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to encode cluster PDU batch", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<ClusterServicePdu> decode(final byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cluster PDU batch");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cluster PDU batch version " + version);
+            }
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid cluster PDU batch size " + count);
+            }
+
+            final List<ClusterServicePdu> pdus = new ArrayList<ClusterServicePdu>(count);
+            for (int i = 0; i < count; i++) {
+                final ClusterServicePdu pdu = new ClusterServicePdu();
+                pdu.setSequenceId(in.readLong());
+                pdu.setAckSequenceId(in.readLong());
+                pdu.setAgentId(in.readLong());
+                pdu.setPduType(in.readInt());
+                pdu.setStopOnError(in.readBoolean());
+                pdu.setSourcePeer(readString(in));
+                pdu.setDestPeer(readString(in));
+                pdu.setJsonPackage(readString(in));
+                pdus.add(pdu);
+            }
+            return pdus;
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -19,7 +19,10 @@ package com.cloud.cluster;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URLDecoder;
+import java.util.List;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
@@ -48,8 +51,12 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
                 s_logger.trace("Start Handling cluster HTTP request");
             }
 
-            parseRequest(request);
-            handleRequest(request, response);
+            if (isPduBatch(request)) {
+                handlePduBatch((HttpEntityEnclosingRequest)request, response);
+            } else {
+                parseRequest(request);
+                handleRequest(request, response);
+            }
 
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Handle cluster HTTP request done");
@@ -70,6 +77,30 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         }
     }
 
+    private boolean isPduBatch(HttpRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return false;
+        }
+        final HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+        if (entity == null) {
+            return false;
+        }
+        final Header contentType = entity.getContentType();
+        return contentType != null && contentType.getValue() != null && contentType.getValue().startsWith(ClusterServicePduCodec.CONTENT_TYPE);
+    }
+
+    private void handlePduBatch(HttpEntityEnclosingRequest request, HttpResponse response) throws IOException {
+        final List<ClusterServicePdu> pdus = ClusterServicePduCodec.decode(EntityUtils.toByteArray(request.getEntity()));
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Received cluster PDU batch of " + pdus.size() + " PDUs");
+        }
+
+        for (final ClusterServicePdu pdu : pdus) {
+            manager.OnReceiveClusterServicePdu(pdu);
+        }
+        writeResponse(response, HttpStatus.SC_OK, "true");
+    }
+
     @SuppressWarnings("deprecation")
     private void parseRequest(HttpRequest request) throws IOException {
         if (request instanceof HttpEntityEnclosingRequest) {
@@ -131,6 +162,10 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
                     responseContent = handlePingMethodCall(req);
                     break;
 
+                case RemoteMethodConstants.METHOD_PDU_BATCH_VERSION:
+                    responseContent = Integer.toString(ClusterServicePduCodec.VERSION);
+                    break;
+
                 case RemoteMethodConstants.METHOD_UNKNOWN:
                 default:
                     assert false;
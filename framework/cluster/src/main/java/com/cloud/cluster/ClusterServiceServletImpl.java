@@ -18,15 +18,18 @@ package com.cloud.cluster;
 
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.params.HttpClientParams;
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Profiler;
 
 public class ClusterServiceServletImpl implements ClusterService {
@@ -66,6 +69,17 @@ public class ClusterServiceServletImpl implements ClusterService {
         return executePostMethod(client, method);
     }
 
+    @Override
+    public String executeBatch(final List<ClusterServicePdu> pdus) throws RemoteException {
+
+        final HttpClient client = getHttpClient();
+        final PostMethod method = new PostMethod(_serviceUrl);
+
+        method.setRequestEntity(new ByteArrayRequestEntity(ClusterServicePduCodec.encode(pdus), ClusterServicePduCodec.CONTENT_TYPE));
+
+        return executePostMethod(client, method);
+    }
+
     @Override
     public boolean ping(final String callingPeer) throws RemoteException {
         if (s_logger.isDebugEnabled()) {
@@ -85,6 +99,18 @@ public class ClusterServiceServletImpl implements ClusterService {
         return false;
     }
 
+    @Override
+    public int getPduBatchVersion(final String callingPeer) throws RemoteException {
+        final HttpClient client = getHttpClient();
+        final PostMethod method = new PostMethod(_serviceUrl);
+
+        method.addParameter("method", Integer.toString(RemoteMethodConstants.METHOD_PDU_BATCH_VERSION));
+        method.addParameter("callingPeer", callingPeer);
+
+        // peers without batch support reject the unknown method
+        return NumbersUtil.parseInt(executePostMethod(client, method), 0);
+    }
+
     private String executePostMethod(final HttpClient client, final PostMethod method) {
         int response = 0;
         String result = null;
@@ -120,7 +146,8 @@ public class ClusterServiceServletImpl implements ClusterService {
 
         if (s_client == null) {
             final MultiThreadedHttpConnectionManager mgr = new MultiThreadedHttpConnectionManager();
-            mgr.getParams().setDefaultMaxConnectionsPerHost(4);
+            // batch senders keep their connections alive, give each of them one
+            mgr.getParams().setDefaultMaxConnectionsPerHost(Math.max(4, ClusterManager.ClusterPduBatchSendersPerPeer.value()));
 
             // TODO make it configurable
             mgr.getParams().setMaxTotalConnections(1000);
@@ -0,0 +1,253 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterPduBatchTransportTest {
+
+    private ExecutorService _executor;
+
+    /**
+     * Peer service that decodes every batch the way the servlet handler does
+     */
+    static class LoopbackClusterService implements ClusterService {
+        final List<ClusterServicePdu> received = Collections.synchronizedList(new ArrayList<ClusterServicePdu>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        final AtomicInteger versionRequests = new AtomicInteger();
+        volatile int batchVersion = ClusterServicePduCodec.VERSION;
+
+        @Override
+        public String execute(ClusterServicePdu pdu) throws RemoteException {
+            received.add(pdu);
+            return "true";
+        }
+
+        @Override
+        public String executeBatch(List<ClusterServicePdu> pdus) throws RemoteException {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new RemoteException("connection reset");
+            }
+            try {
+                List<ClusterServicePdu> decoded = ClusterServicePduCodec.decode(ClusterServicePduCodec.encode(pdus));
+                batchSizes.add(decoded.size());
+                received.addAll(decoded);
+            } catch (IOException e) {
+                throw new RemoteException("decode failed", e);
+            }
+            return "true";
+        }
+
+        @Override
+        public boolean ping(String callingPeer) throws RemoteException {
+            return true;
+        }
+
+        @Override
+        public int getPduBatchVersion(String callingPeer) throws RemoteException {
+            versionRequests.incrementAndGet();
+            return batchVersion;
+        }
+    }
+
+    static class Locator implements ClusterPduBatchTransport.PeerServiceLocator {
+        final ClusterService service;
+        final AtomicInteger invalidations = new AtomicInteger();
+
+        Locator(ClusterService service) {
+            this.service = service;
+        }
+
+        @Override
+        public ClusterService getPeerService(String strPeer) throws RemoteException {
+            return service;
+        }
+
+        @Override
+        public void invalidatePeerService(String strPeer) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        _executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    private static ClusterServicePdu createPdu(String destPeer, long agentId, String json) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer(destPeer);
+        pdu.setAgentId(agentId);
+        pdu.setJsonPackage(json);
+        return pdu;
+    }
+
+    private static void waitFor(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws IOException {
+        ClusterServicePdu request = createPdu("2", 42, "[{\"com.cloud.agent.api.ReadyCommand\":{\"wait\":0}}] \u00e9");
+        request.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        request.setStopOnError(true);
+        ClusterServicePdu response = createPdu("2", 0, null);
+        response.setPduType(ClusterServicePdu.PDU_TYPE_RESPONSE);
+        response.setAckSequenceId(request.getSequenceId());
+        response.setSourcePeer(null);
+
+        List<ClusterServicePdu> decoded = ClusterServicePduCodec.decode(ClusterServicePduCodec.encode(Arrays.asList(request, response)));
+
+        assertEquals(2, decoded.size());
+        ClusterServicePdu first = decoded.get(0);
+        assertEquals(request.getSequenceId(), first.getSequenceId());
+        assertEquals(42, first.getAgentId());
+        assertEquals(ClusterServicePdu.PDU_TYPE_REQUEST, first.getPduType());
+        assertTrue(first.isStopOnError());
+        assertEquals("1", first.getSourcePeer());
+        assertEquals("2", first.getDestPeer());
+        assertEquals(request.getJsonPackage(), first.getJsonPackage());
+
+        ClusterServicePdu second = decoded.get(1);
+        assertEquals(request.getSequenceId(), second.getAckSequenceId());
+        assertEquals(ClusterServicePdu.PDU_TYPE_RESPONSE, second.getPduType());
+        assertNull(second.getSourcePeer());
+        assertNull(second.getJsonPackage());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeRejectsGarbage() throws IOException {
+        ClusterServicePduCodec.decode("method=5&pduSeq=1".getBytes());
+    }
+
+    @Test
+    public void testAllPdusDeliveredInBatches() throws InterruptedException {
+        LoopbackClusterService peer = new LoopbackClusterService();
+        ClusterPduBatchTransport transport = new ClusterPduBatchTransport(new Locator(peer), _executor, 2, 50);
+
+        Set<Long> sent = new HashSet<Long>();
+        for (int i = 0; i < 1000; i++) {
+            ClusterServicePdu pdu = createPdu("2", i, "{}");
+            sent.add(pdu.getSequenceId());
+            transport.send(pdu);
+        }
+        waitFor(peer.received, 1000);
+        _executor.shutdown();
+        assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Set<Long> received = new HashSet<Long>();
+        for (ClusterServicePdu pdu : peer.received) {
+            received.add(pdu.getSequenceId());
+        }
+        assertEquals(sent, received);
+        assertTrue(peer.batchSizes.size() < 1000);
+        for (int size : peer.batchSizes) {
+            assertTrue(size <= 50);
+        }
+        assertEquals(0, transport.getQueueDepth("2"));
+
+        Map<String, String> stats = transport.getPeerStatistics().get(0);
+        assertEquals("2", stats.get("peer"));
+        assertEquals("1000", stats.get("pdusSent"));
+        assertEquals(Integer.toString(peer.batchSizes.size()), stats.get("batchesSent"));
+    }
+
+    @Test
+    public void testRetryOnceAfterRemoteException() throws InterruptedException {
+        LoopbackClusterService peer = new LoopbackClusterService();
+        peer.failuresLeft.set(1);
+        Locator locator = new Locator(peer);
+        ClusterPduBatchTransport transport = new ClusterPduBatchTransport(locator, _executor, 1, 10);
+
+        transport.send(createPdu("3", 1, "{}"));
+        waitFor(peer.received, 1);
+
+        assertEquals(1, peer.received.size());
+        assertEquals(1, locator.invalidations.get());
+        _executor.shutdown();
+        assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals("0", transport.getPeerStatistics().get(0).get("batchesFailed"));
+    }
+
+    @Test
+    public void testPeerWithoutBatchSupportGetsSinglePdus() throws InterruptedException {
+        LoopbackClusterService peer = new LoopbackClusterService();
+        peer.batchVersion = 0;
+        ClusterPduBatchTransport transport = new ClusterPduBatchTransport(new Locator(peer), _executor, 2, 50);
+
+        for (int i = 0; i < 100; i++) {
+            transport.send(createPdu("2", i, "{}"));
+        }
+        waitFor(peer.received, 100);
+        _executor.shutdown();
+        assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100, peer.received.size());
+        assertTrue(peer.batchSizes.isEmpty());
+        // the answer is kept until the recheck interval has passed
+        assertTrue(peer.versionRequests.get() <= 2);
+        Map<String, String> stats = transport.getPeerStatistics().get(0);
+        assertEquals("0", stats.get("batchVersion"));
+        assertEquals("100", stats.get("pdusSent"));
+    }
+
+    @Test
+    public void testPeerIsAskedAgainAfterFailedBatch() throws InterruptedException {
+        LoopbackClusterService peer = new LoopbackClusterService();
+        peer.failuresLeft.set(1);
+        ClusterPduBatchTransport transport = new ClusterPduBatchTransport(new Locator(peer), _executor, 1, 10);
+
+        transport.send(createPdu("3", 1, "{}"));
+        waitFor(peer.received, 1);
+        _executor.shutdown();
+        assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, peer.received.size());
+        assertEquals(Arrays.asList(1), peer.batchSizes);
+        assertEquals(2, peer.versionRequests.get());
+    }
+}
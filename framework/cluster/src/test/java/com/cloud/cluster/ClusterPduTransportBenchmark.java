@@ -0,0 +1,165 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback comparison of the legacy cluster PDU sending, five workers taking one PDU
+ * at a time from a shared queue, against ClusterPduBatchTransport.  Peers are in
+ * process services that decode the batch frame and park for a simulated round trip,
+ * no network is involved.  Not run as part of the unit tests, start it with
+ *
+ *   java -cp ... com.cloud.cluster.ClusterPduTransportBenchmark [pdus] [round-trip-micros]
+ */
+public class ClusterPduTransportBenchmark {
+    private static final int LEGACY_WORKERS = 5;
+    private static final String[] PEERS = {"2", "3", "4"};
+
+    static class LoopbackPeer implements ClusterService {
+        private final long _roundTripNanos;
+        private final CountDownLatch _delivered;
+
+        LoopbackPeer(long roundTripNanos, CountDownLatch delivered) {
+            _roundTripNanos = roundTripNanos;
+            _delivered = delivered;
+        }
+
+        @Override
+        public String execute(ClusterServicePdu pdu) throws RemoteException {
+            LockSupport.parkNanos(_roundTripNanos);
+            _delivered.countDown();
+            return "true";
+        }
+
+        @Override
+        public String executeBatch(List<ClusterServicePdu> pdus) throws RemoteException {
+            try {
+                List<ClusterServicePdu> decoded = ClusterServicePduCodec.decode(ClusterServicePduCodec.encode(pdus));
+                LockSupport.parkNanos(_roundTripNanos);
+                for (int i = 0; i < decoded.size(); i++) {
+                    _delivered.countDown();
+                }
+            } catch (IOException e) {
+                throw new RemoteException("decode failed", e);
+            }
+            return "true";
+        }
+
+        @Override
+        public boolean ping(String callingPeer) throws RemoteException {
+            return true;
+        }
+
+        @Override
+        public int getPduBatchVersion(String callingPeer) throws RemoteException {
+            return ClusterServicePduCodec.VERSION;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pdus = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long roundTripNanos = (args.length > 1 ? Long.parseLong(args[1]) : 500) * 1000L;
+
+        System.out.println(String.format("%-10s %8s %12s %14s", "transport", "pdus", "millis", "pdus/sec"));
+        report("legacy", pdus, runLegacy(pdus, roundTripNanos));
+        report("batched", pdus, runBatched(pdus, roundTripNanos));
+    }
+
+    private static void report(String name, int pdus, long nanos) {
+        System.out.println(String.format("%-10s %8d %12d %14.0f", name, pdus, nanos / 1000000, pdus * 1e9 / nanos));
+    }
+
+    private static ClusterServicePdu createPdu(int i) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer(PEERS[i % PEERS.length]);
+        pdu.setAgentId(i);
+        pdu.setJsonPackage("[{\"com.cloud.agent.api.CheckHealthCommand\":{\"wait\":50}}]");
+        return pdu;
+    }
+
+    private static long runLegacy(int pdus, long roundTripNanos) throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(pdus);
+        final ClusterService peer = new LoopbackPeer(roundTripNanos, delivered);
+        final LinkedBlockingQueue<ClusterServicePdu> queue = new LinkedBlockingQueue<ClusterServicePdu>();
+        ExecutorService workers = Executors.newFixedThreadPool(LEGACY_WORKERS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LEGACY_WORKERS; i++) {
+            workers.execute(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        ClusterServicePdu pdu = queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (pdu != null) {
+                            peer.execute(pdu);
+                        }
+                    }
+                } catch (InterruptedException | RemoteException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (int i = 0; i < pdus; i++) {
+            queue.add(createPdu(i));
+        }
+        delivered.await();
+        long elapsed = System.nanoTime() - start;
+
+        workers.shutdownNow();
+        return elapsed;
+    }
+
+    private static long runBatched(int pdus, long roundTripNanos) throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(pdus);
+        final ClusterService peer = new LoopbackPeer(roundTripNanos, delivered);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        ClusterPduBatchTransport transport = new ClusterPduBatchTransport(new ClusterPduBatchTransport.PeerServiceLocator() {
+            @Override
+            public ClusterService getPeerService(String strPeer) {
+                return peer;
+            }
+
+            @Override
+            public void invalidatePeerService(String strPeer) {
+            }
+        }, executor, ClusterManager.ClusterPduBatchSendersPerPeer.value(), ClusterManager.ClusterPduBatchMaxSize.value());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < pdus; i++) {
+            transport.send(createPdu(i));
+        }
+        delivered.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (Map<String, String> stats : transport.getPeerStatistics()) {
+            System.out.println("  peer " + stats.get("peer") + ": batches " + stats.get("batchesSent") + ", avg batch " + stats.get("avgBatchSize") + ", avg rtt " +
+                    stats.get("avgRoundTripMs") + "ms");
+        }
+        executor.shutdownNow();
+        return elapsed;
+    }
+}
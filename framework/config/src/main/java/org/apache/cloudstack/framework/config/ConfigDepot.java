@@ -31,4 +31,31 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached value of a config on this management server.  Callers that
+     * change a value must invoke this after the change is committed.
+     * @param name config name
+     * @param scope scope of the changed value, null or Global for the global value
+     * @param scopeId id of the scoped resource, null to drop the value for all resources of the scope
+     */
+    void invalidateConfigCache(String name, ConfigKey.Scope scope, Long scopeId);
+
+    /**
+     * Drops all cached config values on this management server.
+     */
+    void invalidateConfigCache();
+
+    /**
+     * Sets who tells the other management servers about values changed through
+     * set(), the cluster manager registers itself here when it is configured.
+     */
+    void setConfigChangePublisher(ConfigChangePublisher publisher);
+
+    interface ConfigChangePublisher {
+        /**
+         * Drops the cached value of a config on this and all peer management servers.
+         */
+        void publishConfigChange(String name, ConfigKey.Scope scope, Long scopeId);
+    }
 }
@@ -19,7 +19,6 @@ package org.apache.cloudstack.framework.config;
 import java.sql.Date;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
-import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
 import com.cloud.utils.exception.CloudRuntimeException;
 
@@ -84,6 +83,17 @@ public class ConfigKey<T> {
         s_depot = depot;
     }
 
+    /**
+     * Drops the cached global value of a config on this management server, for
+     * code that writes the configuration table without going through the depot.
+     * @param name config name
+     */
+    static public void invalidateCachedValue(String name) {
+        if (s_depot != null) {
+            s_depot.invalidateConfigCache(name, Scope.Global, null);
+        }
+    }
+
     public ConfigKey(String category, Class<T> type, String name, String defaultValue, String description, boolean isDynamic, Scope scope) {
         this(type, name, category, defaultValue, description, isDynamic, scope, null);
     }
@@ -139,8 +149,10 @@ public class ConfigKey<T> {
 
     public T value() {
         if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            final String value = (vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue();
+            String value = s_depot != null ? s_depot.getConfigStringValue(this, null) : null;
+            if (value == null) {
+                value = defaultValue();
+            }
             _value = ((value == null) ? (T)defaultValue() : valueOf(value));
         }
 
@@ -152,7 +164,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.findScopedConfigStorage(this).getConfigValue(id, this) : null;
+        String value = s_depot != null ? s_depot.getConfigStringValue(this, id) : null;
         if (value == null) {
             return value();
         } else {
@@ -24,6 +24,7 @@ import java.util.Map;
 import javax.annotation.PostConstruct;
 import javax.naming.ConfigurationException;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -143,6 +144,7 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
             stmt.setString(1, value);
             stmt.setString(2, name);
             stmt.executeUpdate();
+            invalidateCachedValue(txn, name);
             return true;
         } catch (Exception e) {
             s_logger.warn("Unable to update Configuration Value", e);
@@ -159,6 +161,7 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
                 stmt.setString(1, value);
                 stmt.setString(2, name);
                 stmt.executeUpdate();
+                invalidateCachedValue(txn, name);
                 return true;
             }
         } catch (Exception e) {
@@ -167,6 +170,21 @@ public class ConfigurationDaoImpl extends GenericDaoBase<ConfigurationVO, String
         return false;
     }
 
+    /**
+     * Drops the value from the config cache now, so this thread reads it back, and
+     * again when the transaction completes, as another thread may have cached the
+     * old value before the update was committed.
+     */
+    private void invalidateCachedValue(TransactionLegacy txn, final String name) {
+        ConfigKey.invalidateCachedValue(name);
+        txn.runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                ConfigKey.invalidateCachedValue(name);
+            }
+        });
+    }
+
     @Override
     public String getValue(String name) {
         ConfigurationVO config = findByName(name);
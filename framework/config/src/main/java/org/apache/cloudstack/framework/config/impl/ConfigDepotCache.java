@@ -0,0 +1,183 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.StandardMBean;
+
+/**
+ * Versioned in-memory snapshot of configuration values, keyed by config name
+ * (global values) or by scope, scope id and name (scoped values).
+ *
+ * Every invalidation bumps the snapshot version. A value loaded from the database
+ * is tagged with the version seen before the load started and is never allowed to
+ * replace a tombstone written by a later invalidation, so a slow reader cannot put
+ * back a value that was changed while it was reading. Entries also expire after a
+ * time-to-live as a safety net for writes that bypass the invalidation path.
+ */
+public class ConfigDepotCache extends StandardMBean implements ConfigDepotCacheMBean {
+    public static final long DEFAULT_TTL_MILLIS = 30000;
+
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>(1007);
+    private final AtomicLong _version = new AtomicLong(0);
+    private volatile long _clearedAtVersion = 0;
+    private volatile long _ttlMillis = DEFAULT_TTL_MILLIS;
+    private volatile long _lastPurge = System.currentTimeMillis();
+
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _invalidations = new LongAdder();
+
+    public ConfigDepotCache() {
+        super(ConfigDepotCacheMBean.class, false);
+    }
+
+    public static String globalKey(String name) {
+        return name;
+    }
+
+    public static String scopedKey(String scope, long scopeId, String name) {
+        return scope + "/" + scopeId + "/" + name;
+    }
+
+    public String get(String cacheKey, Supplier<String> loader) {
+        final long now = System.currentTimeMillis();
+        Entry entry = _entries.get(cacheKey);
+        if (entry != null && entry.isUsable(_clearedAtVersion, now, _ttlMillis)) {
+            _hits.increment();
+            return entry._value;
+        }
+
+        _misses.increment();
+        if (now - _lastPurge > _ttlMillis) {
+            _lastPurge = now;
+            purgeExpired();
+        }
+
+        final long version = _version.get();
+        final String value = loader.get();
+        final Entry loaded = new Entry(value, version, now, false);
+        _entries.compute(cacheKey, (key, existing) -> (existing != null && existing._version > version) ? existing : loaded);
+        return value;
+    }
+
+    public void invalidate(String cacheKey) {
+        long version = _version.incrementAndGet();
+        _entries.put(cacheKey, new Entry(null, version, System.currentTimeMillis(), true));
+        _invalidations.increment();
+    }
+
+    /**
+     * Invalidates every scoped value of the given config name, regardless of the scope id.
+     */
+    public void invalidateScoped(String scope, String name) {
+        long version = _version.incrementAndGet();
+        String prefix = scope + "/";
+        String suffix = "/" + name;
+        for (Map.Entry<String, Entry> mapEntry : _entries.entrySet()) {
+            String key = mapEntry.getKey();
+            if (key.startsWith(prefix) && key.endsWith(suffix)) {
+                mapEntry.setValue(new Entry(null, version, System.currentTimeMillis(), true));
+            }
+        }
+        _invalidations.increment();
+    }
+
+    @Override
+    public void invalidateAll() {
+        _clearedAtVersion = _version.incrementAndGet();
+        _entries.clear();
+        _invalidations.increment();
+    }
+
+    /**
+     * Drops expired entries and tombstones. Expired entries are never served, this only
+     * bounds the memory used by values that are no longer read. Tombstones are kept for
+     * a full time-to-live so they still fence off loads that started before them. Runs
+     * at most once per time-to-live from the miss path.
+     */
+    public void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext();) {
+            if (it.next().isExpired(_clearedAtVersion, now, _ttlMillis)) {
+                it.remove();
+            }
+        }
+    }
+
+    public void setTimeToLiveMillis(long ttlMillis) {
+        _ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public long getTimeToLiveMillis() {
+        return _ttlMillis;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.sum();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return _invalidations.sum();
+    }
+
+    @Override
+    public long getVersion() {
+        return _version.get();
+    }
+
+    @Override
+    public int getSize() {
+        return _entries.size();
+    }
+
+    private static class Entry {
+        private final String _value;
+        private final long _version;
+        private final long _loadedAt;
+        private final boolean _tombstone;
+
+        public Entry(String value, long version, long loadedAt, boolean tombstone) {
+            _value = value;
+            _version = version;
+            _loadedAt = loadedAt;
+            _tombstone = tombstone;
+        }
+
+        public boolean isUsable(long clearedAtVersion, long now, long ttlMillis) {
+            return !_tombstone && !isExpired(clearedAtVersion, now, ttlMillis);
+        }
+
+        public boolean isExpired(long clearedAtVersion, long now, long ttlMillis) {
+            return _version < clearedAtVersion || now - _loadedAt >= ttlMillis;
+        }
+    }
+}
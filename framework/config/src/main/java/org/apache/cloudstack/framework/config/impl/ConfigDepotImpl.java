@@ -37,12 +37,17 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
  * Its functionalities include:
- *   - Control how dynamic config values are cached and refreshed.
+ *   - Control how dynamic config values are cached and refreshed.  Global and
+ *     scoped values are served from a versioned in-memory snapshot which is
+ *     invalidated through invalidateConfigCache() when a value is updated, and
+ *     by the cluster manager when a peer management server updates a value.
  *   - Control how scoped config values are stored.
  *   - Gather all of the Configurable interfaces and insert their config
  *     variables into the config table.
@@ -78,6 +83,9 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    private final ConfigDepotCache _configCache = new ConfigDepotCache();
+    private volatile ConfigChangePublisher _configChangePublisher;
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         createEmptyScopeLevelMappings();
@@ -107,6 +115,12 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @PostConstruct
     @Override
     public void populateConfigurations() {
+        try {
+            JmxUtil.registerMBean("ConfigDepot", "Cache", _configCache);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register config cache for JMX", e);
+        }
+
         Date date = new Date();
         for (Configurable configurable : _configurables) {
             populateConfiguration(date, configurable);
@@ -147,6 +161,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setValue(value);
             }
             _configDao.persist(vo);
+            _configCache.invalidate(ConfigDepotCache.globalKey(key.key()));
         } else {
             if (vo.isDynamic() != key.isDynamic() || !ObjectUtils.equals(vo.getDescription(), key.description()) || !ObjectUtils.equals(vo.getDefaultValue(), key.defaultValue()) ||
                 !ObjectUtils.equals(vo.getScope(), key.scope().toString()) ||
@@ -158,6 +173,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setComponent(componentName);
                 vo.setUpdated(date);
                 _configDao.persist(vo);
+                _configCache.invalidate(ConfigDepotCache.globalKey(key.key()));
             }
         }
     }
@@ -176,6 +192,49 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * Returns the raw value of the config, either the global value or, when scopeId is
+     * given, the value stored for that scope.  Values are served from the in-memory
+     * snapshot and only read from the database on a miss.
+     *
+     * @return the stored value, null if no value is stored
+     */
+    public String getConfigStringValue(ConfigKey<?> key, Long scopeId) {
+        if (scopeId == null) {
+            return _configCache.get(ConfigDepotCache.globalKey(key.key()), () -> {
+                ConfigurationVO vo = _configDao.findById(key.key());
+                return vo != null ? vo.getValue() : null;
+            });
+        }
+
+        final ScopedConfigStorage storage = findScopedConfigStorage(key);
+        return _configCache.get(ConfigDepotCache.scopedKey(key.scope().toString(), scopeId, key.key()), () -> storage.getConfigValue(scopeId, key));
+    }
+
+    @Override
+    public void invalidateConfigCache(String name, ConfigKey.Scope scope, Long scopeId) {
+        if (scope == null || scope == ConfigKey.Scope.Global) {
+            _configCache.invalidate(ConfigDepotCache.globalKey(name));
+        } else if (scopeId != null) {
+            _configCache.invalidate(ConfigDepotCache.scopedKey(scope.toString(), scopeId, name));
+        } else {
+            _configCache.invalidateScoped(scope.toString(), name);
+        }
+    }
+
+    @Override
+    public void invalidateConfigCache() {
+        _configCache.invalidateAll();
+    }
+
+    public ConfigDepotCache getConfigCache() {
+        return _configCache;
+    }
+
+    public void setConfigCacheTtl(long ttlMillis) {
+        _configCache.setTimeToLiveMillis(ttlMillis);
+    }
+
     public ScopedConfigStorage findScopedConfigStorage(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
@@ -210,8 +269,30 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     }
 
     @Override
-    public <T> void set(ConfigKey<T> key, T value) {
+    public <T> void set(final ConfigKey<T> key, T value) {
+        // the dao drops the local value, the peers are told once the change is committed
         _configDao.update(key.key(), value.toString());
+        final ConfigChangePublisher publisher = _configChangePublisher;
+        if (publisher == null) {
+            return;
+        }
+        final Runnable publish = new Runnable() {
+            @Override
+            public void run() {
+                publisher.publishConfigChange(key.key(), ConfigKey.Scope.Global, null);
+            }
+        };
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn != null) {
+            txn.runAfterCommit(publish);
+        } else {
+            publish.run();
+        }
+    }
+
+    @Override
+    public void setConfigChangePublisher(ConfigChangePublisher publisher) {
+        _configChangePublisher = publisher;
     }
 
     @Override
@@ -0,0 +1,98 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.dao;
+
+import java.sql.PreparedStatement;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
+import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import com.cloud.utils.db.TransactionLegacy;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionLegacy.class)
+@PowerMockIgnore("javax.management.*")
+public class ConfigurationDaoImplTest {
+
+    private static final String NAME = "test.key";
+
+    @Mock
+    private TransactionLegacy transactionMock;
+
+    @Mock
+    private PreparedStatement preparedStatementMock;
+
+    @Mock
+    private ConfigurationDao depotConfigDaoMock;
+
+    private final ConfigurationDaoImpl configurationDao = new ConfigurationDaoImpl();
+
+    private final ConfigKey<String> key = new ConfigKey<String>("Advanced", String.class, NAME, "default", "test key", true);
+
+    private ConfigDepotImpl configDepot;
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TransactionLegacy.class);
+        Mockito.when(TransactionLegacy.currentTxn()).thenReturn(transactionMock);
+        Mockito.when(transactionMock.prepareStatement(Mockito.anyString())).thenReturn(preparedStatementMock);
+
+        configDepot = new ConfigDepotImpl();
+        Whitebox.setInternalState(configDepot, "_configDao", depotConfigDaoMock);
+        Mockito.when(depotConfigDaoMock.findById(NAME)).thenReturn(
+                new ConfigurationVO("Advanced", "DEFAULT", "test", NAME, null, "test key"),
+                new ConfigurationVO("Advanced", "DEFAULT", "test", NAME, "saved", "test key"));
+        Assert.assertNull(configDepot.getConfigStringValue(key, null));
+    }
+
+    private void assertValueReadBackAndDroppedOnCompletion() {
+        Assert.assertEquals("saved", configDepot.getConfigStringValue(key, null));
+
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(transactionMock).runAfterCompletion(completion.capture());
+        completion.getValue().run();
+        Assert.assertEquals("saved", configDepot.getConfigStringValue(key, null));
+        Assert.assertEquals(3, configDepot.getConfigCache().getMissCount());
+    }
+
+    @Test
+    public void testUpdateDropsCachedValue() throws Exception {
+        Assert.assertTrue(configurationDao.update(NAME, "saved"));
+
+        assertValueReadBackAndDroppedOnCompletion();
+    }
+
+    @Test
+    public void testUpdateWithCategoryDropsCachedValue() throws Exception {
+        Assert.assertTrue(configurationDao.update(NAME, "Advanced", "saved"));
+
+        assertValueReadBackAndDroppedOnCompletion();
+    }
+}
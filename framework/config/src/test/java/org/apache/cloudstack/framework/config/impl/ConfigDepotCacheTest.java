@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConfigDepotCacheTest {
+
+    @Test
+    public void cachedValueIsServedUntilInvalidated() {
+        ConfigDepotCache cache = new ConfigDepotCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertEquals("1", cache.get("key", () -> String.valueOf(loads.incrementAndGet())));
+        Assert.assertEquals("1", cache.get("key", () -> String.valueOf(loads.incrementAndGet())));
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        cache.invalidate("key");
+        Assert.assertEquals("2", cache.get("key", () -> String.valueOf(loads.incrementAndGet())));
+        Assert.assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void nullValuesAreCached() {
+        ConfigDepotCache cache = new ConfigDepotCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertNull(cache.get("key", () -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        Assert.assertNull(cache.get("key", () -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void loadRacingWithInvalidationIsNotCached() {
+        final ConfigDepotCache cache = new ConfigDepotCache();
+
+        // the value changes while the first reader is still loading the old one
+        Assert.assertEquals("old", cache.get("key", () -> {
+            cache.invalidate("key");
+            return "old";
+        }));
+        Assert.assertEquals("new", cache.get("key", () -> "new"));
+    }
+
+    @Test
+    public void loadRacingWithInvalidateAllIsNotCached() {
+        final ConfigDepotCache cache = new ConfigDepotCache();
+
+        Assert.assertEquals("old", cache.get("key", () -> {
+            cache.invalidateAll();
+            return "old";
+        }));
+        Assert.assertEquals("new", cache.get("key", () -> "new"));
+    }
+
+    @Test
+    public void invalidateScopedDropsAllScopeIds() {
+        ConfigDepotCache cache = new ConfigDepotCache();
+        cache.get(ConfigDepotCache.scopedKey("Zone", 1, "key"), () -> "1");
+        cache.get(ConfigDepotCache.scopedKey("Zone", 2, "key"), () -> "2");
+        cache.get(ConfigDepotCache.scopedKey("Zone", 1, "other.key"), () -> "3");
+
+        cache.invalidateScoped("Zone", "key");
+
+        Assert.assertEquals("10", cache.get(ConfigDepotCache.scopedKey("Zone", 1, "key"), () -> "10"));
+        Assert.assertEquals("20", cache.get(ConfigDepotCache.scopedKey("Zone", 2, "key"), () -> "20"));
+        Assert.assertEquals("3", cache.get(ConfigDepotCache.scopedKey("Zone", 1, "other.key"), () -> "30"));
+    }
+
+    @Test
+    public void expiredValuesAreReloaded() {
+        ConfigDepotCache cache = new ConfigDepotCache();
+        cache.setTimeToLiveMillis(0);
+
+        Assert.assertEquals("1", cache.get("key", () -> "1"));
+        Assert.assertEquals("2", cache.get("key", () -> "2"));
+    }
+}
@@ -18,9 +18,12 @@
 //
 package org.apache.cloudstack.framework.config.impl;
 
+import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 public class ConfigDepotImplTest {
 
@@ -40,4 +43,32 @@ public class ConfigDepotImplTest {
         }
     }
 
+    @Test
+    public void setPublishesChangeToPeersTest() {
+        ConfigKey<String> key = new ConfigKey<String>("Advanced", String.class, "test.key", "default", "test key", true);
+        ConfigDepot.ConfigChangePublisher publisher = Mockito.mock(ConfigDepot.ConfigChangePublisher.class);
+        configDepotImpl._configDao = Mockito.mock(ConfigurationDao.class);
+        configDepotImpl.setConfigChangePublisher(publisher);
+
+        configDepotImpl.set(key, "changed");
+
+        Mockito.verify(configDepotImpl._configDao).update("test.key", "changed");
+        Mockito.verify(publisher).publishConfigChange("test.key", ConfigKey.Scope.Global, null);
+    }
+
+    @Test
+    public void invalidateCachedValueDropsGlobalValueTest() {
+        ConfigKey<String> key = new ConfigKey<String>("Advanced", String.class, "test.key", "default", "test key", true);
+        configDepotImpl._configDao = Mockito.mock(ConfigurationDao.class);
+        Mockito.when(configDepotImpl._configDao.findById("test.key")).thenReturn(
+                new ConfigurationVO("Advanced", "DEFAULT", "test", "test.key", "old", "test key"),
+                new ConfigurationVO("Advanced", "DEFAULT", "test", "test.key", "new", "test key"));
+
+        Assert.assertEquals("old", configDepotImpl.getConfigStringValue(key, null));
+        Assert.assertEquals("old", configDepotImpl.getConfigStringValue(key, null));
+
+        ConfigKey.invalidateCachedValue("test.key");
+
+        Assert.assertEquals("new", configDepotImpl.getConfigStringValue(key, null));
+    }
 }
@@ -0,0 +1,419 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * ColumnMapper copies one column of a result set into a field of an entity.
+ * A mapper is built once per field, picking the conversion for the field type,
+ * the @Encrypt flag and the @Enumerated type up front, so mapping a row does
+ * not look at annotations or test the field type again. Fields are written
+ * through method handles. The conversions are the ones of
+ * GenericDaoBase.setField.
+ */
+public abstract class ColumnMapper {
+    private static final TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
+    protected final Field _field;
+    protected final MethodHandle _setter;
+
+    protected ColumnMapper(Field field, Class<?> valueType) throws IllegalAccessException {
+        _field = field;
+        _field.setAccessible(true);
+        _setter = MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, valueType));
+    }
+
+    public abstract void map(Object entity, ResultSet rs, int index) throws SQLException;
+
+    public Field getField() {
+        return _field;
+    }
+
+    /**
+     * @return the mapper for the field, or null if its setter cannot be accessed.
+     */
+    public static ColumnMapper create(Field field) {
+        final Class<?> type = field.getType();
+        try {
+            if (type == String.class) {
+                final Encrypt encrypt = field.getAnnotation(Encrypt.class);
+                return new StringMapper(field, encrypt != null && encrypt.encrypt());
+            } else if (type == long.class) {
+                return new PrimitiveLongMapper(field);
+            } else if (type == Long.class) {
+                return new LongMapper(field);
+            } else if (type.isEnum()) {
+                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+                return enumType == EnumType.STRING ? new EnumNameMapper(field) : new EnumOrdinalMapper(field);
+            } else if (type == int.class) {
+                return new PrimitiveIntMapper(field);
+            } else if (type == Integer.class) {
+                return new IntegerMapper(field);
+            } else if (type == Date.class) {
+                return new DateMapper(field);
+            } else if (type == Calendar.class) {
+                return new CalendarMapper(field);
+            } else if (type == boolean.class) {
+                return new PrimitiveBooleanMapper(field);
+            } else if (type == Boolean.class) {
+                return new BooleanMapper(field);
+            } else if (type == URI.class) {
+                return new UriMapper(field);
+            } else if (type == URL.class) {
+                return new UrlMapper(field);
+            } else if (type == Ip.class) {
+                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+                return new IpMapper(field, enumType == EnumType.STRING);
+            } else if (type == short.class || type == Short.class || type == float.class || type == Float.class || type == double.class || type == Double.class
+                    || type == byte.class || type == Byte.class) {
+                return new NumberMapper(field);
+            } else if (type == byte[].class) {
+                return new BytesMapper(field);
+            } else {
+                return new ObjectMapper(field);
+            }
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    protected final void set(Object entity, Object value) {
+        try {
+            _setter.invokeExact(entity, value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CloudRuntimeException("Unable to set " + _field, e);
+        }
+    }
+
+    static class StringMapper extends ColumnMapper {
+        private final boolean _encrypted;
+
+        StringMapper(Field field, boolean encrypted) throws IllegalAccessException {
+            super(field, Object.class);
+            _encrypted = encrypted;
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final byte[] bytes = rs.getBytes(index);
+            if (bytes == null) {
+                set(entity, null);
+                return;
+            }
+            try {
+                final String value = new String(bytes, "UTF-8");
+                set(entity, _encrypted ? DBEncryptionUtil.decrypt(value) : value);
+            } catch (IllegalArgumentException e) {
+                assert (false);
+                throw new CloudRuntimeException("IllegalArgumentException when converting UTF-8 data");
+            } catch (UnsupportedEncodingException e) {
+                assert (false);
+                throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
+            }
+        }
+    }
+
+    static class PrimitiveLongMapper extends ColumnMapper {
+        PrimitiveLongMapper(Field field) throws IllegalAccessException {
+            super(field, long.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final long value = rs.getLong(index);
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new CloudRuntimeException("Unable to set " + _field, e);
+            }
+        }
+    }
+
+    static class PrimitiveIntMapper extends ColumnMapper {
+        PrimitiveIntMapper(Field field) throws IllegalAccessException {
+            super(field, int.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final int value = rs.getInt(index);
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new CloudRuntimeException("Unable to set " + _field, e);
+            }
+        }
+    }
+
+    static class PrimitiveBooleanMapper extends ColumnMapper {
+        PrimitiveBooleanMapper(Field field) throws IllegalAccessException {
+            super(field, boolean.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final boolean value = rs.getBoolean(index);
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new CloudRuntimeException("Unable to set " + _field, e);
+            }
+        }
+    }
+
+    static class LongMapper extends ColumnMapper {
+        LongMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final long value = rs.getLong(index);
+            set(entity, value == 0 && rs.wasNull() ? null : Long.valueOf(value));
+        }
+    }
+
+    static class IntegerMapper extends ColumnMapper {
+        IntegerMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final int value = rs.getInt(index);
+            set(entity, value == 0 && rs.wasNull() ? null : Integer.valueOf(value));
+        }
+    }
+
+    static class BooleanMapper extends ColumnMapper {
+        BooleanMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final boolean value = rs.getBoolean(index);
+            set(entity, !value && rs.wasNull() ? null : Boolean.valueOf(value));
+        }
+    }
+
+    /**
+     * Short, float, double and byte fields, primitive or boxed, which are rare
+     * enough to go through GenericDaoBase.getObject.
+     */
+    static class NumberMapper extends ColumnMapper {
+        private final Class<?> _type;
+
+        NumberMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+            _type = field.getType();
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            set(entity, GenericDaoBase.getObject(_type, rs, index));
+        }
+    }
+
+    static class EnumNameMapper extends ColumnMapper {
+        private final Map<String, Enum<?>> _constants = new HashMap<String, Enum<?>>();
+
+        EnumNameMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+            for (final Object constant : field.getType().getEnumConstants()) {
+                final Enum<?> e = (Enum<?>)constant;
+                final String key = e.name().toUpperCase(Locale.ROOT);
+                // the first constant matching ignoring case wins, as in GenericDaoBase.setField
+                if (!_constants.containsKey(key)) {
+                    _constants.put(key, e);
+                }
+            }
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final String name = rs.getString(index);
+            if (name == null) {
+                return;
+            }
+            final Enum<?> e = _constants.get(name.toUpperCase(Locale.ROOT));
+            if (e != null) {
+                set(entity, e);
+            }
+        }
+    }
+
+    static class EnumOrdinalMapper extends ColumnMapper {
+        private final Object[] _constants;
+
+        EnumOrdinalMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+            _constants = field.getType().getEnumConstants();
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final int ordinal = rs.getInt(index);
+            if (ordinal >= 0 && ordinal < _constants.length) {
+                set(entity, _constants[ordinal]);
+            }
+        }
+    }
+
+    static class DateMapper extends ColumnMapper {
+        DateMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            if (rs.getDate(index) == null) {
+                set(entity, null);
+                return;
+            }
+            set(entity, DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
+        }
+    }
+
+    static class CalendarMapper extends ColumnMapper {
+        CalendarMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            if (rs.getDate(index) == null) {
+                set(entity, null);
+                return;
+            }
+            final Calendar cal = Calendar.getInstance();
+            cal.setTime(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
+            set(entity, cal);
+        }
+    }
+
+    static class UriMapper extends ColumnMapper {
+        UriMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final String str = rs.getString(index);
+            try {
+                set(entity, str == null ? null : new URI(str));
+            } catch (URISyntaxException e) {
+                throw new CloudRuntimeException("Invalid URI: " + str, e);
+            }
+        }
+    }
+
+    static class UrlMapper extends ColumnMapper {
+        UrlMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            final String str = rs.getString(index);
+            try {
+                set(entity, str != null ? new URL(str) : null);
+            } catch (MalformedURLException e) {
+                throw new CloudRuntimeException("Invalid URL: " + str, e);
+            }
+        }
+    }
+
+    static class IpMapper extends ColumnMapper {
+        private final boolean _string;
+
+        IpMapper(Field field, boolean string) throws IllegalAccessException {
+            super(field, Object.class);
+            _string = string;
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            if (_string) {
+                final String s = rs.getString(index);
+                set(entity, s == null ? null : new Ip(NetUtils.ip2Long(s)));
+            } else {
+                set(entity, new Ip(rs.getLong(index)));
+            }
+        }
+    }
+
+    static class BytesMapper extends ColumnMapper {
+        BytesMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            set(entity, rs.getBytes(index));
+        }
+    }
+
+    static class ObjectMapper extends ColumnMapper {
+        ObjectMapper(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        public void map(Object entity, ResultSet rs, int index) throws SQLException {
+            set(entity, rs.getObject(index));
+        }
+    }
+}
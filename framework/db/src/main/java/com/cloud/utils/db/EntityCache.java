@@ -0,0 +1,263 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.StandardMBean;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+/**
+ * EntityCache keeps the entities of a dao by id, for the dao to answer
+ * findById without going to the database.  Rows are evicted when a dao
+ * changes them, here and through the EntityCacheCoordinator on the other
+ * management servers.
+ *
+ * An entity loaded while its row is being changed could be put back after
+ * the eviction and stay stale until it expires.  To prevent it every eviction
+ * takes a new version, and a load only goes into the cache if no row it may
+ * be for was evicted since the version read before the load started.
+ */
+public class EntityCache extends StandardMBean implements EntityCacheMBean {
+    private static final int STRIPES = 1024;
+
+    private final String _name;
+    private final Class<?> _idType;
+    private final List<String> _tables;
+    private final Cache _cache;
+    private final EntityCacheCoordinator _coordinator;
+
+    private final AtomicLong _version = new AtomicLong();
+    // version of the last eviction of the ids hashing to each stripe
+    private final AtomicLongArray _evicted = new AtomicLongArray(STRIPES);
+    private final AtomicLong _cleared = new AtomicLong();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _remoteInvalidations = new AtomicLong();
+    private final AtomicLong _rejectedPuts = new AtomicLong();
+
+    /**
+     * @param name name of the cache, unique in the management server.
+     * @param idType type of the ids, used to read the ids sent by the other management servers.
+     * @param tables tables the entities are read from, a change to any of them evicts the entity.
+     * @param maxElements number of entities kept.
+     * @param timeToLive seconds an entity is kept after it is loaded, -1 to keep it until it is evicted.
+     * @param timeToIdle seconds an entity is kept after it is last read, -1 for no limit.
+     * @param evictionPolicy LRU, LFU or FIFO, which entities make room for new ones.
+     * @param coordinator sends and receives the evictions of the other management servers.
+     */
+    public EntityCache(final String name, final Class<?> idType, final Collection<String> tables, final int maxElements, final long timeToLive, final long timeToIdle,
+            final String evictionPolicy, final EntityCacheCoordinator coordinator) {
+        super(EntityCacheMBean.class, false);
+        _name = name;
+        _idType = idType;
+        _tables = Collections.unmodifiableList(new ArrayList<String>(tables));
+        _coordinator = coordinator;
+
+        final CacheConfiguration config = new CacheConfiguration(name, maxElements)
+                .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.fromString(evictionPolicy))
+                .eternal(timeToLive == -1)
+                .timeToLiveSeconds(timeToLive == -1 ? 0 : timeToLive)
+                .timeToIdleSeconds(timeToIdle == -1 ? 0 : timeToIdle);
+        _cache = new Cache(config);
+        CacheManager.create().addCache(_cache);
+        _coordinator.register(this);
+    }
+
+    public List<String> getTables() {
+        return _tables;
+    }
+
+    /**
+     * @return the entity, or null if it is not in the cache.
+     */
+    public Object get(final Object id) {
+        final Element element = _cache.get(id);
+        if (element == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return element.getObjectValue();
+    }
+
+    /**
+     * @return the version to pass to put for an entity about to be loaded.
+     */
+    public long getVersion() {
+        return _version.get();
+    }
+
+    /**
+     * Caches an entity unless its row was evicted since the version was
+     * read, or the transaction of this thread changed the tables and has not
+     * completed yet.
+     * @return true if the entity was cached.
+     */
+    public boolean put(final Object id, final Object entity, final long version) {
+        if (isStale(id, version) || _coordinator.hasPendingInvalidation(_tables)) {
+            _rejectedPuts.incrementAndGet();
+            return false;
+        }
+        _cache.put(new Element(id, entity));
+        // an eviction that raced with the put may have missed the entity, so check again
+        if (isStale(id, version)) {
+            _cache.remove(id);
+            _rejectedPuts.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isStale(final Object id, final long version) {
+        return _cleared.get() > version || _evicted.get(stripe(id)) > version;
+    }
+
+    private static int stripe(final Object id) {
+        final int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Evicts an entity from this cache only.
+     */
+    public void evict(final Object id) {
+        _evicted.accumulateAndGet(stripe(id), _version.incrementAndGet(), Math::max);
+        _cache.remove(id);
+        _invalidations.incrementAndGet();
+    }
+
+    /**
+     * Evicts all the entities from this cache only.
+     */
+    public void evictAll() {
+        _cleared.accumulateAndGet(_version.incrementAndGet(), Math::max);
+        _cache.removeAll();
+        _invalidations.incrementAndGet();
+    }
+
+    /**
+     * Evicts an entity another management server changed.  Ids of a type
+     * that can't be read back from a string evict all the entities.
+     */
+    void evictRemote(final String id) {
+        _remoteInvalidations.incrementAndGet();
+        if (_idType == Long.class || _idType == long.class) {
+            evict(Long.valueOf(id));
+        } else if (_idType == Integer.class || _idType == int.class) {
+            evict(Integer.valueOf(id));
+        } else if (_idType == String.class) {
+            evict(id);
+        } else {
+            evictAll();
+        }
+    }
+
+    void evictAllRemote() {
+        _remoteInvalidations.incrementAndGet();
+        evictAll();
+    }
+
+    public void dispose() {
+        _coordinator.unregister(this);
+        CacheManager.create().removeCache(_name);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _cache.getCacheConfiguration().getMaxElementsInMemory();
+    }
+
+    @Override
+    public long getTimeToLive() {
+        return _cache.getCacheConfiguration().isEternal() ? -1 : _cache.getCacheConfiguration().getTimeToLiveSeconds();
+    }
+
+    @Override
+    public long getTimeToIdle() {
+        return _cache.getCacheConfiguration().getTimeToIdleSeconds();
+    }
+
+    @Override
+    public String getEvictionPolicy() {
+        return _cache.getCacheConfiguration().getMemoryStoreEvictionPolicy().toString();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = _hits.get();
+        final long total = hits + _misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public long getRemoteInvalidations() {
+        return _remoteInvalidations.get();
+    }
+
+    @Override
+    public long getRejectedPuts() {
+        return _rejectedPuts.get();
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache[" + _name + ", size=" + getMaxSize() + ", ttl=" + getTimeToLive() + ", policy=" + getEvictionPolicy() + "]";
+    }
+}
@@ -0,0 +1,237 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * EntityCacheCoordinator evicts the cached entities of the rows the daos
+ * change.  Caches are looked up by table, so a dao without a cache that
+ * writes a cached table evicts as well.  The rows are evicted right away, and
+ * once more when the transaction completes, when the evictions are also sent
+ * to the other management servers through the transport.  Without a
+ * transport the caches are only coherent within this management server.
+ */
+public class EntityCacheCoordinator {
+    private static final Logger s_logger = Logger.getLogger(EntityCacheCoordinator.class);
+
+    private static final EntityCacheCoordinator s_instance = new EntityCacheCoordinator();
+
+    // stands for every row of a table in the pending invalidations
+    private static final Object ALL = new Object();
+
+    /**
+     * Carries the evictions between management servers.
+     */
+    public interface Transport {
+        /**
+         * @param table table the rows were changed in.
+         * @param ids ids of the changed rows, null if any row may have changed.
+         */
+        void publish(String table, List<String> ids);
+    }
+
+    private final ConcurrentHashMap<String, List<EntityCache>> _caches = new ConcurrentHashMap<String, List<EntityCache>>();
+    // rows changed by the transaction of each thread, sent when it completes
+    private final ThreadLocal<Map<String, Set<Object>>> _pending = new ThreadLocal<Map<String, Set<Object>>>();
+    private volatile Transport _transport;
+
+    public static EntityCacheCoordinator getInstance() {
+        return s_instance;
+    }
+
+    public void setTransport(final Transport transport) {
+        _transport = transport;
+    }
+
+    void register(final EntityCache cache) {
+        for (final String table : cache.getTables()) {
+            List<EntityCache> caches = _caches.get(table);
+            if (caches == null) {
+                _caches.putIfAbsent(table, new CopyOnWriteArrayList<EntityCache>());
+                caches = _caches.get(table);
+            }
+            caches.add(cache);
+        }
+    }
+
+    void unregister(final EntityCache cache) {
+        for (final String table : cache.getTables()) {
+            final List<EntityCache> caches = _caches.get(table);
+            if (caches != null) {
+                caches.remove(cache);
+            }
+        }
+    }
+
+    /**
+     * @return true if any of the tables has a cache, so changes to it must be invalidated.
+     */
+    public boolean isCached(final Collection<String> tables) {
+        for (final String table : tables) {
+            final List<EntityCache> caches = _caches.get(table);
+            if (caches != null && !caches.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts a changed row from the caches of the tables.
+     * @param id id of the row, null if any row may have changed.
+     */
+    public void invalidate(final Collection<String> tables, final Object id) {
+        Map<String, Set<Object>> pending = null;
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        for (final String table : tables) {
+            final List<EntityCache> caches = _caches.get(table);
+            if (caches == null || caches.isEmpty()) {
+                continue;
+            }
+            evict(caches, id);
+
+            if (txn == null || !txn.dbTxnStarted()) {
+                publish(table, id == null ? null : ids(id));
+                continue;
+            }
+            if (pending == null) {
+                pending = _pending.get();
+                if (pending == null) {
+                    pending = new HashMap<String, Set<Object>>();
+                    _pending.set(pending);
+                    txn.runAfterCompletion(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    });
+                }
+            }
+            Set<Object> ids = pending.get(table);
+            if (ids == null) {
+                ids = new HashSet<Object>();
+                pending.put(table, ids);
+            }
+            ids.add(id == null ? ALL : id);
+        }
+    }
+
+    /**
+     * @return true if the transaction of this thread changed any of the tables and has not completed.
+     */
+    boolean hasPendingInvalidation(final Collection<String> tables) {
+        final Map<String, Set<Object>> pending = _pending.get();
+        if (pending == null) {
+            return false;
+        }
+        for (final String table : tables) {
+            if (pending.containsKey(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flush() {
+        final Map<String, Set<Object>> pending = _pending.get();
+        _pending.remove();
+        if (pending == null) {
+            return;
+        }
+        for (final Map.Entry<String, Set<Object>> entry : pending.entrySet()) {
+            final List<EntityCache> caches = _caches.get(entry.getKey());
+            final Set<Object> ids = entry.getValue();
+            List<String> published = null;
+            if (!ids.contains(ALL)) {
+                published = new ArrayList<String>(ids.size());
+                for (final Object id : ids) {
+                    published.add(String.valueOf(id));
+                }
+            }
+            // again, another thread may have loaded the old rows before the transaction committed
+            if (caches != null) {
+                if (published == null) {
+                    evict(caches, null);
+                } else {
+                    for (final Object id : ids) {
+                        evict(caches, id);
+                    }
+                }
+            }
+            publish(entry.getKey(), published);
+        }
+    }
+
+    private static void evict(final List<EntityCache> caches, final Object id) {
+        for (final EntityCache cache : caches) {
+            if (id == null) {
+                cache.evictAll();
+            } else {
+                cache.evict(id);
+            }
+        }
+    }
+
+    private static List<String> ids(final Object id) {
+        final List<String> ids = new ArrayList<String>(1);
+        ids.add(String.valueOf(id));
+        return ids;
+    }
+
+    private void publish(final String table, final List<String> ids) {
+        final Transport transport = _transport;
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.publish(table, ids);
+        } catch (final RuntimeException e) {
+            s_logger.warn("Unable to send the invalidation of " + (ids == null ? "all rows" : ids) + " of " + table + " to the other management servers", e);
+        }
+    }
+
+    /**
+     * Evicts the rows another management server changed.
+     * @param ids ids of the rows, null if any row may have changed.
+     */
+    public void receive(final String table, final List<String> ids) {
+        final List<EntityCache> caches = _caches.get(table);
+        if (caches == null) {
+            return;
+        }
+        for (final EntityCache cache : caches) {
+            if (ids == null) {
+                cache.evictAllRemote();
+            } else {
+                for (final String id : ids) {
+                    cache.evictRemote(id);
+                }
+            }
+        }
+    }
+}
@@ -17,11 +17,14 @@
 package com.cloud.utils.db;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.persistence.Column;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.ReflectUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 /**
  *  Try to use static initialization to help you in finding incorrect
@@ -37,6 +40,10 @@ public class Filter {
     Long _offset;
     Long _limit;
     String _orderBy;
+    // columns of the order by and whether each is ascending, to seek on
+    List<Pair<String, Boolean>> _orderColumns = new ArrayList<Pair<String, Boolean>>();
+    boolean _seek;
+    Object[] _startAfter;
 
     /**
      * @param clazz the VO object type
@@ -61,6 +68,7 @@ public class Filter {
      */
     public Filter(Filter that) {
         this._orderBy = that._orderBy;
+        this._orderColumns.addAll(that._orderColumns);
         this._limit = null;
         that._limit = null;
     }
@@ -84,7 +92,9 @@ public class Filter {
         } else {
             order.append(column.table());
         }
-        order.append(".").append(name).append(ascending ? " ASC " : " DESC ");
+        order.append(".").append(name);
+        _orderColumns.add(new Pair<String, Boolean>(order.toString(), ascending));
+        order.append(ascending ? " ASC " : " DESC ");
 
         if (_orderBy == null) {
             _orderBy = order.insert(0, " ORDER BY ").toString();
@@ -112,4 +122,73 @@ public class Filter {
     public void setLimit(Long limit) {
         _limit = limit;
     }
+
+    /**
+     * Pages by seeking past the last row of the previous page instead of
+     * skipping the rows before the offset, so a page deep in a long list
+     * costs as much as the first one.  The order by must end with a column
+     * that is unique, usually the id, for no row to be skipped or repeated.
+     * The searches that count the rows as well reuse the count of the first
+     * page for a while, instead of counting again for every page.
+     *
+     * @param startAfter values of the order by columns in the last row of
+     *        the previous page, null for the first page.
+     */
+    public void setSeek(Object[] startAfter) {
+        if (startAfter != null && startAfter.length != _orderColumns.size()) {
+            throw new CloudRuntimeException("Seeking on " + _orderColumns.size() + " order by columns needs as many values, not " + startAfter.length);
+        }
+        _seek = true;
+        _startAfter = startAfter;
+        if (_offset != null) {
+            _offset = 0L;
+        }
+    }
+
+    public boolean isSeek() {
+        return _seek;
+    }
+
+    public Object[] getStartAfter() {
+        return _startAfter;
+    }
+
+    /**
+     * @return the condition for the rows after the start, or null if there
+     *         is no start.  It compares the order by columns in order, so for
+     *         (a ASC, id ASC) it is (a > ? OR (a = ? AND id > ?)).
+     */
+    public String getStartAfterClause() {
+        if (_startAfter == null) {
+            return null;
+        }
+        StringBuilder clause = new StringBuilder("(");
+        for (int i = 0; i < _orderColumns.size(); i++) {
+            if (i > 0) {
+                clause.append(" OR ");
+            }
+            clause.append("(");
+            for (int j = 0; j < i; j++) {
+                clause.append(_orderColumns.get(j).first()).append(" = ? AND ");
+            }
+            Pair<String, Boolean> column = _orderColumns.get(i);
+            clause.append(column.first()).append(column.second() ? " > ?" : " < ?").append(")");
+        }
+        return clause.append(")").toString();
+    }
+
+    /**
+     * @return the values for the parameters of getStartAfterClause.
+     */
+    public List<Object> getStartAfterValues() {
+        List<Object> values = new ArrayList<Object>();
+        if (_startAfter != null) {
+            for (int i = 0; i < _startAfter.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    values.add(_startAfter[j]);
+                }
+            }
+        }
+        return values;
+    }
 }
@@ -17,6 +17,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -199,6 +200,25 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans in JDBC batches, one batch per table and chunk
+     * of rows.  The id fields of the entities are updated with the new ids.
+     * Entity beans generated by this dao are updated instead, as persist does.
+     * @param entities the beans to persist.
+     * @return The persisted versions of the objects, in the same order.  An
+     * empty list is returned if there's no primary key specified in the VO object.
+     **/
+    List<T> persistAll(Collection<T> entities);
+
+    /**
+     * Update the changed fields of the entity beans in JDBC batches.  Beans
+     * that changed the same fields share a batch.  The beans must have been
+     * generated by this dao, as for update.
+     * @param entities the beans to update.
+     * @return the number of rows updated.
+     **/
+    int updateAll(Collection<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
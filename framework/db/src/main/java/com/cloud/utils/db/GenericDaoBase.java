@@ -18,8 +18,10 @@ package com.cloud.utils.db;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
@@ -40,11 +42,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
@@ -68,6 +73,7 @@ import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.crypt.DBEncryptionUtil;
 import com.cloud.utils.db.SearchCriteria.SelectType;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.Ip;
 import com.cloud.utils.net.NetUtils;
 import com.google.common.base.Strings;
@@ -78,9 +84,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 /**
  *  GenericDaoBase is a simple way to implement DAOs.  It DOES NOT
@@ -150,6 +153,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
     protected Map<Pair<String, String>, Attribute> _allColumns;
+    protected Map<Attribute, ColumnMapper> _columnMappers;
+    // fields of the entity, copied for each reader of a cached entity
+    private Field[] _copiedFields;
+    // columns of the result set being read by each thread, resolved on its first row
+    private final ThreadLocal<RowMapping> _rowMapping = new ThreadLocal<RowMapping>();
+    // counts of the lists being paged with a seek filter, with the time each was taken
+    private final ConcurrentHashMap<String, Pair<Long, Integer>> _pagingCounts = new ConcurrentHashMap<String, Pair<Long, Integer>>();
     protected Enhancer _enhancer;
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
@@ -160,6 +170,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected static final String FOR_UPDATE_CLAUSE = " FOR UPDATE ";
     protected static final String SHARE_MODE_CLAUSE = " LOCK IN SHARE MODE";
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
+    // rows sent in one JDBC batch by persistAll and updateAll
+    protected static final int BATCH_SIZE = 1000;
+    // milliseconds the count of a list paged with a seek filter is reused for, and how many counts are kept
+    protected static final long PAGING_COUNT_TTL = 60 * 1000L;
+    protected static final int PAGING_COUNT_MAX = 1000;
     public static final Date DATE_TO_NULL = new Date(Long.MIN_VALUE);
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
@@ -231,6 +246,26 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         _allAttributes = generator.getAllAttributes();
         _allColumns = generator.getAllColumns();
+        _columnMappers = new IdentityHashMap<Attribute, ColumnMapper>(_allColumns.size());
+        for (Attribute attr : _allColumns.values()) {
+            if (attr.field != null) {
+                final ColumnMapper mapper = ColumnMapper.create(attr.field);
+                if (mapper != null) {
+                    _columnMappers.put(attr, mapper);
+                }
+            }
+        }
+
+        final List<Field> copiedFields = new ArrayList<Field>();
+        for (Class<?> clazz = _entityBeanType; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    copiedFields.add(field);
+                }
+            }
+        }
+        _copiedFields = copiedFields.toArray(new Field[copiedFields.size()]);
 
         _selectByIdSql = buildSelectByIdSql(createPartialSelectSql(null, true));
         _removeSql = generator.buildRemoveSql();
@@ -386,6 +421,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
         }
 
+        final String startAfter = filter != null ? filter.getStartAfterClause() : null;
+        if (startAfter != null) {
+            str.append(str.lastIndexOf("WHERE") == -1 ? " WHERE " : " AND ").append(startAfter);
+        }
+
         List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
@@ -412,6 +452,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 i = addJoinAttributes(i, pstmt, joins);
             }
 
+            if (startAfter != null) {
+                for (Object value : filter.getStartAfterValues()) {
+                    pstmt.setObject(i++, value);
+                }
+            }
+
             if (groupByValues != null) {
                 for (Object value : groupByValues) {
                     pstmt.setObject(i++, value);
@@ -421,9 +467,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (s_logger.isDebugEnabled() && lock != null) {
                 txn.registerLock(pstmt.toString());
             }
+            final long cacheVersion = getCacheVersion();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(cache ? cache(toEntityBean(rs, false), cacheVersion) : toEntityBean(rs, false));
             }
             return result;
         } catch (final SQLException e) {
@@ -790,9 +837,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -806,7 +850,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        int rowsUpdated = executeUpdate(ub, sc, null);
+        // within the transaction, so the peers are told once it has committed
+        invalidateCache(id);
 
         txn.commit();
 
@@ -814,6 +860,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        int rowsUpdated = executeUpdate(ub, sc, rows);
+        // any row may match the search criteria
+        invalidateCache(null);
+        return rowsUpdated;
+    }
+
+    private int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -945,18 +998,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
-        T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = lockRow(id, null);
-            } else {
-                result = (T)element.getObjectValue();
+            final T cached = getCached(id);
+            if (cached != null) {
+                return cached;
             }
-        } else {
-            result = lockRow(id, null);
         }
-        return result;
+        return lockRow(id, null);
     }
 
     @Override
@@ -978,18 +1026,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override
     @DB()
     public T findByIdIncludingRemoved(final ID id) {
-        T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = findById(id, true, null);
-            } else {
-                result = (T)element.getObjectValue();
+            final T cached = getCached(id);
+            if (cached != null) {
+                return cached;
             }
-        } else {
-            result = findById(id, true, null);
         }
-        return result;
+        return findById(id, true, null);
     }
 
     @Override
@@ -1000,7 +1043,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
 
         if (_cache != null) {
-            _cache.remove(id);
+            _cache.evict(id);
         }
         return lockRow(id, null);
     }
@@ -1028,8 +1071,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(1, pstmt, _idAttributes.get(_table)[0], id);
             }
 
+            final long cacheVersion = getCacheVersion();
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            return rs.next() ? cache(toEntityBean(rs, false), cacheVersion) : null;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1140,9 +1184,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.setObject(++i, param);
             }
 
+            final long cacheVersion = getCacheVersion();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(cache(toEntityBean(rs, false), cacheVersion));
             }
             return result;
         } catch (final SQLException e) {
@@ -1192,9 +1237,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1226,7 +1269,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int rowsDeleted = pstmt.executeUpdate();
+            invalidateCache(null);
+            return rowsDeleted;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1316,7 +1361,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     public Pair<List<T>, Integer> searchAndCount(final SearchCriteria<T> sc, final Filter filter) {
         List<T> objects = search(sc, filter, null, false);
-        Integer count = getCount(sc);
+        Integer count = getPagingCount("count", sc, filter, () -> getCount(sc));
         // Count cannot be less than the result set but can be higher due to pagination, see CLOUDSTACK-10320
         if (count < objects.size()) {
             count = objects.size();
@@ -1328,7 +1373,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     public Pair<List<T>, Integer> searchAndDistinctCount(final SearchCriteria<T> sc, final Filter filter) {
         List<T> objects = search(sc, filter, null, false);
-        Integer count = getDistinctCount(sc);
+        Integer count = getPagingCount("distinct", sc, filter, () -> getDistinctCount(sc));
         // Count cannot be 0 if there is at least a result in the list, see CLOUDSTACK-10320
         if (count == 0 && !objects.isEmpty()) {
             // Cannot assume if it's more than one since the count is distinct vs search
@@ -1341,7 +1386,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     public Pair<List<T>, Integer> searchAndDistinctCount(final SearchCriteria<T> sc, final Filter filter, final String[] distinctColumns) {
         List<T> objects = search(sc, filter, null, false);
-        Integer count = getDistinctCount(sc, distinctColumns);
+        Integer count = getPagingCount("distinct " + Arrays.toString(distinctColumns), sc, filter, () -> getDistinctCount(sc, distinctColumns));
         // Count cannot be 0 if there is at least a result in the list, see CLOUDSTACK-10320
         if (count == 0 && !objects.isEmpty()) {
             // Cannot assume if it's more than one since the count is distinct vs search
@@ -1350,6 +1395,54 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return new Pair<List<T>, Integer>(objects, count);
     }
 
+    /**
+     * Counts the rows for a page of a list.  When the list is paged with a
+     * seek filter the first page counts them, and the next pages reuse that
+     * count for PAGING_COUNT_TTL instead of counting all the rows again.
+     * @param kind what the counter counts, for counts of the same criteria done differently.
+     */
+    protected Integer getPagingCount(final String kind, final SearchCriteria<T> sc, final Filter filter, final Supplier<Integer> counter) {
+        if (filter == null || !filter.isSeek()) {
+            return counter.get();
+        }
+        final StringBuilder key = new StringBuilder(kind).append(':');
+        appendPagingCountKey(key, sc);
+        final long now = System.currentTimeMillis();
+        if (filter.getStartAfter() != null) {
+            final Pair<Long, Integer> cached = _pagingCounts.get(key.toString());
+            if (cached != null && now - cached.first() < PAGING_COUNT_TTL) {
+                return cached.second();
+            }
+        }
+        final Integer count = counter.get();
+        if (_pagingCounts.size() >= PAGING_COUNT_MAX) {
+            _pagingCounts.clear();
+        }
+        _pagingCounts.put(key.toString(), new Pair<Long, Integer>(now, count));
+        return count;
+    }
+
+    private static void appendPagingCountKey(final StringBuilder key, final SearchCriteria<?> sc) {
+        if (sc == null) {
+            return;
+        }
+        key.append(sc.getWhereClause());
+        for (final Pair<Attribute, Object> value : sc.getValues()) {
+            key.append(',').append(Arrays.deepToString(new Object[] {value.second()}));
+        }
+        if (sc.getGroupBy() != null) {
+            key.append(" GROUP BY ").append(sc.getGroupBy().second());
+        }
+        final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+        if (joins != null) {
+            for (final JoinBuilder<SearchCriteria<?>> join : joins) {
+                key.append(" JOIN ").append(join.getSecondAttribute().table).append(" (");
+                appendPagingCountKey(key, join.getT());
+                key.append(')');
+            }
+        }
+    }
+
     @Override
     @DB()
     public List<T> search(final SearchCriteria<T> sc, final Filter filter, final boolean enableQueryCache) {
@@ -1464,6 +1557,186 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> persistAll(final Collection<T> entities) {
+        final List<T> inserts = new ArrayList<T>(entities.size());
+        final List<T> updates = new ArrayList<T>();
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                assert _idField != null : "Can't call persit if you don't have primary key";
+                updates.add(entity);
+            } else {
+                inserts.add(entity);
+            }
+        }
+
+        final List<ID> ids = new ArrayList<ID>(inserts.size());
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            if (!updates.isEmpty()) {
+                updateAll(updates);
+            }
+            for (int start = 0; start < inserts.size(); start += BATCH_SIZE) {
+                final List<T> chunk = inserts.subList(start, Math.min(start + BATCH_SIZE, inserts.size()));
+                boolean idsKnown = false;
+                for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                    pstmt = txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS);
+                    for (final T entity : chunk) {
+                        prepareAttributes(pstmt, entity, pair.second(), 1);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+
+                    // the first table generates the ids, the joined tables are inserted with them
+                    if (!idsKnown) {
+                        final ResultSet rs = pstmt.getGeneratedKeys();
+                        for (final T entity : chunk) {
+                            ID id = null;
+                            if (rs != null && rs.next()) {
+                                id = (ID)rs.getObject(1);
+                            }
+                            if (_idField != null) {
+                                if (id != null) {
+                                    if (id instanceof BigInteger) {
+                                        id = (ID)Long.valueOf(((BigInteger)id).longValue());
+                                    }
+                                    _idField.set(entity, id);
+                                } else {
+                                    id = (ID)_idField.get(entity);
+                                }
+                            }
+                            ids.add(id);
+                        }
+                        idsKnown = true;
+                    }
+                }
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                for (int i = 0; i < inserts.size(); i++) {
+                    final T entity = inserts.get(i);
+                    final HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+                    for (final Attribute attr : _ecAttributes) {
+                        final Object ec = attr.field.get(entity);
+                        if (ec != null) {
+                            ecAttributes.put(attr, ec);
+                        }
+                    }
+                    insertElementCollection(entity, _idAttributes.get(_table)[0], ids.get(i), ecAttributes);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        }
+
+        if (_idField == null) {
+            return new ArrayList<T>();
+        }
+
+        // reads the new rows back a chunk at a time instead of one select per row
+        final Map<Object, T> found = new HashMap<Object, T>(ids.size());
+        for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+            final SearchCriteria<T> sc = createSearchCriteria();
+            sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.IN, ids.subList(start, Math.min(start + BATCH_SIZE, ids.size())).toArray());
+            for (final T row : searchIncludingRemoved(sc, null, null, true)) {
+                try {
+                    found.put(_idField.get(row), row);
+                } catch (final IllegalAccessException e) {
+                    throw new CloudRuntimeException("Yikes! ", e);
+                }
+            }
+        }
+
+        final List<T> persisted = new ArrayList<T>(entities.size());
+        int inserted = 0;
+        for (final T entity : entities) {
+            persisted.add(Enhancer.isEnhanced(entity.getClass()) ? entity : found.get(ids.get(inserted++)));
+        }
+        return persisted;
+    }
+
+    @Override
+    public int updateAll(final Collection<T> entities) {
+        // entities that changed the same columns share one statement
+        final Map<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>> batches = new LinkedHashMap<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>>();
+        int rowsUpdated = 0;
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (final T entity : entities) {
+                assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+
+                final UpdateBuilder ub = getUpdateBuilder(entity);
+                @SuppressWarnings("unchecked")
+                final ID id = (ID)_idField.get(entity);
+                if (ub.getCollectionChanges() != null) {
+                    rowsUpdated += update(id, ub, entity);
+                    continue;
+                }
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                invalidateCache(id);
+                final SearchCriteria<T> sc = createSearchCriteria();
+                sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
+                final String key = sql.append(sc.getWhereClause()).toString();
+                List<Pair<UpdateBuilder, SearchCriteria<T>>> batch = batches.get(key);
+                if (batch == null) {
+                    batch = new ArrayList<Pair<UpdateBuilder, SearchCriteria<T>>>();
+                    batches.put(key, batch);
+                }
+                batch.add(new Pair<UpdateBuilder, SearchCriteria<T>>(ub, sc));
+            }
+
+            for (final Map.Entry<String, List<Pair<UpdateBuilder, SearchCriteria<T>>>> entry : batches.entrySet()) {
+                final List<Pair<UpdateBuilder, SearchCriteria<T>>> batch = entry.getValue();
+                for (int start = 0; start < batch.size(); start += BATCH_SIZE) {
+                    final List<Pair<UpdateBuilder, SearchCriteria<T>>> chunk = batch.subList(start, Math.min(start + BATCH_SIZE, batch.size()));
+                    pstmt = txn.prepareAutoCloseStatement(entry.getKey());
+                    for (final Pair<UpdateBuilder, SearchCriteria<T>> update : chunk) {
+                        int i = 1;
+                        for (final Ternary<Attribute, Boolean, Object> value : update.first().getChanges()) {
+                            prepareAttribute(i++, pstmt, value.first(), value.third());
+                        }
+                        for (final Pair<Attribute, Object> value : update.second().getValues()) {
+                            prepareAttribute(i++, pstmt, value.first(), value.second());
+                        }
+                        pstmt.addBatch();
+                    }
+                    for (final int count : pstmt.executeBatch()) {
+                        rowsUpdated += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                    }
+                    for (final Pair<UpdateBuilder, SearchCriteria<T>> update : chunk) {
+                        update.first().clear();
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("How can it be illegal access...come on", e);
+        }
+        return rowsUpdated;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1649,12 +1922,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cache(entity, getCacheVersion());
         }
 
         return entity;
@@ -1671,12 +1940,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cache(entity, getCacheVersion());
         }
 
         return entity;
@@ -1684,15 +1949,52 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
-        ResultSetMetaData meta = result.getMetaData();
-        for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
-            setField(entity, result, meta, index);
+        final ColumnMapper[] mappers = getColumnMappers(result, entity);
+        for (int i = 0; i < mappers.length; i++) {
+            if (mappers[i] != null) {
+                mappers[i].map(entity, result, i + 1);
+            } else {
+                setField(entity, result, result.getMetaData(), i + 1);
+            }
         }
         for (Attribute attr : _ecAttributes) {
             loadCollection(entity, attr);
         }
     }
 
+    /**
+     * @return the mapper of each column of the result set, null for a column
+     *         without one. They are looked up on the first row and reused for
+     *         the rest of the result set.
+     */
+    protected ColumnMapper[] getColumnMappers(final ResultSet result, final Object entity) throws SQLException {
+        final RowMapping mapping = _rowMapping.get();
+        if (mapping != null && mapping.resultSet.get() == result && mapping.entityClass == entity.getClass()) {
+            return mapping.mappers;
+        }
+
+        final ResultSetMetaData meta = result.getMetaData();
+        final ColumnMapper[] mappers = new ColumnMapper[meta.getColumnCount()];
+        for (int index = 1; index <= mappers.length; index++) {
+            final Attribute attr = findAttribute(entity, meta, index);
+            mappers[index - 1] = attr == null ? null : _columnMappers.get(attr);
+        }
+        _rowMapping.set(new RowMapping(result, entity.getClass(), mappers));
+        return mappers;
+    }
+
+    private static final class RowMapping {
+        final WeakReference<ResultSet> resultSet;
+        final Class<?> entityClass;
+        final ColumnMapper[] mappers;
+
+        RowMapping(final ResultSet resultSet, final Class<?> entityClass, final ColumnMapper[] mappers) {
+            this.resultSet = new WeakReference<ResultSet>(resultSet);
+            this.entityClass = entityClass;
+            this.mappers = mappers;
+        }
+    }
+
     @DB()
     @SuppressWarnings("unchecked")
     protected void loadCollection(T entity, Attribute attr) {
@@ -1804,9 +2106,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1815,6 +2115,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void setField(final Object entity, final ResultSet rs, ResultSetMetaData meta, final int index) throws SQLException {
+        Attribute attr = findAttribute(entity, meta, index);
+        assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
+        setField(entity, attr.field, rs, index);
+    }
+
+    private Attribute findAttribute(final Object entity, ResultSetMetaData meta, final int index) throws SQLException {
         Attribute attr = _allColumns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
         if (attr == null) {
             // work around for mysql bug to return original table name instead of view name in db view case
@@ -1823,8 +2129,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 attr = _allColumns.get(new Pair<String, String>(tbl.name(), meta.getColumnLabel(index)));
             }
         }
-        assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
-        setField(entity, attr.field, rs, index);
+        return attr;
     }
 
     @Override
@@ -1847,9 +2152,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1869,25 +2172,80 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache _cache;
 
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
+        if (value != null && _idField != null) {
             final int maxElements = NumbersUtil.parseInt(value, 0);
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
             final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
+            final String policy = params.get("cache.eviction.policy") != null ? (String)params.get("cache.eviction.policy") : "LRU";
+            _cache = new EntityCache(getName(), _idField.getType(), _idAttributes.keySet(), maxElements, live, idle, policy, EntityCacheCoordinator.getInstance());
+            try {
+                JmxUtil.registerMBean("Entity Cache", getName(), _cache);
+            } catch (final Exception e) {
+                s_logger.warn("Unable to register the mbean of the cache " + getName(), e);
+            }
             s_logger.info("Cache created: " + _cache.toString());
         } else {
             _cache = null;
         }
     }
 
+    /**
+     * Evicts a changed row from the caches of its tables, on this and the
+     * other management servers.
+     * @param id id of the row, null if any row may have changed.
+     */
+    protected void invalidateCache(final ID id) {
+        final EntityCacheCoordinator coordinator = EntityCacheCoordinator.getInstance();
+        if (coordinator.isCached(_idAttributes.keySet())) {
+            coordinator.invalidate(_idAttributes.keySet(), id);
+        }
+    }
+
+    protected long getCacheVersion() {
+        return _cache != null ? _cache.getVersion() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T getCached(final ID id) {
+        final T cached = (T)_cache.get(id);
+        return cached != null ? copyOf(cached) : null;
+    }
+
+    /**
+     * Caches a copy of the entity, which the caller is free to change.
+     * @param version cache version read before the entity was loaded.
+     */
+    protected T cache(final T entity, final long version) {
+        if (_cache != null && entity != null) {
+            try {
+                _cache.put(_idField.get(entity), copyOf(entity), version);
+            } catch (final Exception e) {
+                s_logger.debug("Can't put it in the cache", e);
+            }
+        }
+        return entity;
+    }
+
+    // cached entities are shared between threads, so each reader gets its own copy
+    @SuppressWarnings("unchecked")
+    protected T copyOf(final T entity) {
+        final T copy = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        try {
+            for (final Field field : _copiedFields) {
+                field.set(copy, field.get(entity));
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to copy " + entity, e);
+        }
+        return copy;
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
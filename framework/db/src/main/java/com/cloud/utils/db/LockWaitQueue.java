@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In process waiters for op_lock keys.  A thread that failed to get a lock
+ * enters the queue for the key and waits until a thread of this management
+ * server releases it, or until its backoff runs out so that locks held by
+ * other management servers are still polled.
+ *
+ * Each signal bumps a generation number.  A waiter reads the generation before
+ * trying op_lock and only waits if it has not changed since, so a release that
+ * happens between the failed attempt and the wait is never missed.
+ */
+class LockWaitQueue {
+    private final ConcurrentHashMap<String, Waiters> _waiters = new ConcurrentHashMap<String, Waiters>();
+
+    static class Waiters {
+        private int _count;
+        private long _generation;
+
+        synchronized long generation() {
+            return _generation;
+        }
+
+        synchronized void await(long generation, long timeoutMs) throws InterruptedException {
+            if (_generation == generation && timeoutMs > 0) {
+                wait(timeoutMs);
+            }
+        }
+
+        synchronized void signal() {
+            _generation++;
+            notifyAll();
+        }
+    }
+
+    public Waiters enter(String key) {
+        return _waiters.compute(key, (k, waiters) -> {
+            if (waiters == null) {
+                waiters = new Waiters();
+            }
+            waiters._count++;
+            return waiters;
+        });
+    }
+
+    public void leave(String key) {
+        _waiters.computeIfPresent(key, (k, waiters) -> --waiters._count == 0 ? null : waiters);
+    }
+
+    public void signal(String key) {
+        Waiters waiters = _waiters.get(key);
+        if (waiters != null) {
+            waiters.signal();
+        }
+    }
+
+    public void signalAll() {
+        for (Waiters waiters : _waiters.values()) {
+            waiters.signal();
+        }
+    }
+
+    public int size() {
+        return _waiters.size();
+    }
+}
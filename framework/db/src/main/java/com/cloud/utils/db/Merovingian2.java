@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.TimeZone;
 
 import javax.management.StandardMBean;
@@ -32,6 +33,7 @@ import javax.management.StandardMBean;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.time.InaccurateClock;
@@ -52,40 +54,79 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
     private static final String CLEANUP_THREAD_LOCKS_SQL = "DELETE FROM op_lock WHERE mac=? AND ip=? AND thread=?";
 
+    public static final String POLLING_MODE = "polling";
+    public static final String EVENT_MODE = "event";
+
+    private static final String MODE_PROPERTY = "db.cloud.lockMaster.mode";
+    private static final String CONNECTIONS_PROPERTY = "db.cloud.lockMaster.connections";
+    private static final String MAX_BACKOFF_PROPERTY = "db.cloud.lockMaster.maxBackoffMillis";
+
+    private static final long POLLING_INTERVAL_MS = 5000;
+    private static final long MIN_BACKOFF_MS = 50;
+    private static final long DEFAULT_MAX_BACKOFF_MS = 1000;
+
     TimeZone _gmtTimeZone = TimeZone.getTimeZone("GMT");
 
     private final long _msId;
 
     private static Merovingian2 s_instance = null;
-    private ConnectionConcierge _concierge = null;
+    private final ConnectionConcierge[] _concierges;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
-    private Merovingian2(long msId) {
+    // event mode only: waiters are woken up as soon as a thread of this server releases the lock,
+    // locks held by other servers are polled with a backoff capped at _maxBackoffMs
+    private final boolean _eventDriven;
+    private final long _maxBackoffMs;
+    private final LockWaitQueue _waitQueue = new LockWaitQueue();
+
+    private Merovingian2(long msId, boolean eventDriven, int connections, long maxBackoffMs) {
         super(MerovingianMBean.class, false);
         _msId = msId;
-        Connection conn = null;
-        try {
-            conn = TransactionLegacy.getStandaloneConnectionWithException();
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-            conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
-        } catch (SQLException e) {
-            s_logger.error("Unable to get a new db connection", e);
-            throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes", e);
-        } finally {
-            if (_concierge == null && conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    s_logger.debug("closing connection failed after everything else.", e);
+        _eventDriven = eventDriven;
+        _maxBackoffMs = Math.max(MIN_BACKOFF_MS, maxBackoffMs);
+        _concierges = new ConnectionConcierge[Math.max(1, connections)];
+        for (int i = 0; i < _concierges.length; i++) {
+            Connection conn = null;
+            try {
+                conn = TransactionLegacy.getStandaloneConnectionWithException();
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                conn.setAutoCommit(true);
+                _concierges[i] = new ConnectionConcierge("LockMaster", conn, true);
+            } catch (SQLException e) {
+                s_logger.error("Unable to get a new db connection", e);
+                for (int j = 0; j < i; j++) {
+                    _concierges[j].release();
+                }
+                throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes", e);
+            } finally {
+                if (_concierges[i] == null && conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException e) {
+                        s_logger.debug("closing connection failed after everything else.", e);
+                    }
                 }
             }
         }
     }
 
     public static synchronized Merovingian2 createLockMaster(long msId) {
+        final Properties dbProps = DbProperties.getDbProperties();
+        boolean eventDriven = EVENT_MODE.equalsIgnoreCase(dbProps.getProperty(MODE_PROPERTY, POLLING_MODE).trim());
+        int connections = NumbersUtil.parseInt(dbProps.getProperty(CONNECTIONS_PROPERTY), 1);
+        long maxBackoffMs = NumbersUtil.parseLong(dbProps.getProperty(MAX_BACKOFF_PROPERTY), DEFAULT_MAX_BACKOFF_MS);
+        return createLockMaster(msId, eventDriven, connections, maxBackoffMs);
+    }
+
+    /**
+     * @param eventDriven wait in process for local releases instead of polling op_lock every 5 seconds
+     * @param connections number of lock connections, keys are striped across them by hash
+     * @param maxBackoffMs upper bound of the poll interval for locks held by other management servers in event mode
+     */
+    public static synchronized Merovingian2 createLockMaster(long msId, boolean eventDriven, int connections, long maxBackoffMs) {
         assert s_instance == null : "No lock can serve two masters.  Either he will hate the one and love the other, or he will be devoted to the one and despise the other.";
-        s_instance = new Merovingian2(msId);
+        s_logger.info("Creating lock master in " + (eventDriven ? EVENT_MODE : POLLING_MODE) + " mode with " + Math.max(1, connections) + " connection(s)");
+        s_instance = new Merovingian2(msId, eventDriven, connections, maxBackoffMs);
         s_instance.cleanupThisServer();
         try {
             JmxUtil.registerMBean("Locks", "Locks", s_instance);
@@ -99,6 +140,17 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return s_instance;
     }
 
+    protected Connection conn() {
+        return _concierges[0].conn();
+    }
+
+    protected Connection conn(String key) {
+        if (_concierges.length == 1) {
+            return _concierges[0].conn();
+        }
+        return _concierges[(key.hashCode() & Integer.MAX_VALUE) % _concierges.length].conn();
+    }
+
     protected void incrCount() {
         Count count = s_tls.get();
         if (count == null) {
@@ -127,24 +179,45 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
         long startTime = InaccurateClock.getTime();
+        long timeout = timeInSeconds * 1000l;
+        long backoff = MIN_BACKOFF_MS;
+        LockWaitQueue.Waiters waiters = null;
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        try {
+            while ((InaccurateClock.getTime() - startTime) < timeout) {
+                long generation = waiters == null ? 0 : waiters.generation();
+                int count = owns(key);
+
+                if (count >= 1) {
+                    return increment(key, threadName, threadId);
+                } else if (count == 0) {
+                    if (doAcquire(key, threadName, threadId)) {
+                        return true;
+                    }
+                }
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+                if (_eventDriven && waiters == null) {
+                    // try once more right away, a release before we joined the queue would be missed otherwise
+                    waiters = _waitQueue.enter(key);
+                    continue;
                 }
-            }
-            try {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                try {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                    }
+                    if (_eventDriven) {
+                        waiters.await(generation, Math.min(backoff, timeout - (InaccurateClock.getTime() - startTime)));
+                        backoff = Math.min(backoff * 2, _maxBackoffMs);
+                    } else {
+                        Thread.sleep(POLLING_INTERVAL_MS);
+                    }
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interupted while aquiring " + key);
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                s_logger.debug("[ignored] interupted while aquiring " + key);
+            }
+        } finally {
+            if (waiters != null) {
+                _waitQueue.leave(key);
             }
         }
         String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
@@ -154,7 +227,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     protected boolean increment(String key, String threadName, int threadId) {
-      try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);){
+      try (PreparedStatement pstmt = conn(key).prepareStatement(INCREMENT_SQL);){
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
@@ -177,7 +250,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
 
     protected boolean doAcquire(String key, String threadName, int threadId) {
         long startTime = InaccurateClock.getTime();
-        try(PreparedStatement pstmt = _concierge.conn().prepareStatement(ACQUIRE_SQL);) {
+        try(PreparedStatement pstmt = conn(key).prepareStatement(ACQUIRE_SQL);) {
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
             pstmt.setString(3, threadName);
@@ -207,7 +280,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     protected Map<String, String> isLocked(String key) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INQUIRE_SQL);){
+        try (PreparedStatement pstmt = conn(key).prepareStatement(INQUIRE_SQL);){
             pstmt.setString(1, key);
             try(ResultSet rs = pstmt.executeQuery();)
             {
@@ -233,11 +306,14 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     public void cleanupForServer(long msId) {
         s_logger.info("Cleaning up locks for " + msId);
         try {
-            synchronized (_concierge.conn()) {
-                try(PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);) {
+            synchronized (conn()) {
+                try(PreparedStatement pstmt = conn().prepareStatement(CLEANUP_MGMT_LOCKS_SQL);) {
                     pstmt.setLong(1, msId);
                     int rows = pstmt.executeUpdate();
                     s_logger.info("Released " + rows + " locks for " + msId);
+                    if (rows > 0) {
+                        _waitQueue.signalAll();
+                    }
                 }catch (Exception e) {
                     s_logger.error("cleanupForServer:Exception:"+e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
@@ -253,7 +329,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(DECREMENT_SQL);)
+        try (PreparedStatement pstmt = conn(key).prepareStatement(DECREMENT_SQL);)
         {
             pstmt.setString(1, key);
             pstmt.setLong(2, _msId);
@@ -266,12 +342,15 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                 s_logger.trace("lck-" + key + " released");
             }
             if (rows == 1) {
-                try (PreparedStatement rel_sql_pstmt = _concierge.conn().prepareStatement(RELEASE_SQL);) {
+                try (PreparedStatement rel_sql_pstmt = conn(key).prepareStatement(RELEASE_SQL);) {
                     rel_sql_pstmt.setString(1, key);
                     rel_sql_pstmt.setLong(2, _msId);
                     int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+                    if (result == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                        _waitQueue.signal(key);
                     }
                     decrCount();
                 }catch (Exception e) {
@@ -311,7 +390,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     protected List<Map<String, String>> getLocks(String sql, Long msId) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(sql);)
+        try (PreparedStatement pstmt = conn().prepareStatement(sql);)
         {
             if (msId != null) {
                 pstmt.setLong(1, msId);
@@ -353,7 +432,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     public List<Map<String, String>> getLocksAcquiredBy(long msId, String threadName) {
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(SELECT_THREAD_LOCKS_SQL);){
+        try (PreparedStatement pstmt = conn().prepareStatement(SELECT_THREAD_LOCKS_SQL);){
             pstmt.setLong(1, msId);
             pstmt.setString(2, threadName);
             try (ResultSet rs =pstmt.executeQuery();) {
@@ -381,12 +460,15 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
         int threadId = System.identityHashCode(th);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);)
+        try (PreparedStatement pstmt = conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL);)
         {
             pstmt.setLong(1, _msId);
             pstmt.setString(2, threadName);
             pstmt.setInt(3, threadId);
             int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                _waitQueue.signalAll();
+            }
             assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
             " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
         } catch (Exception e) {
@@ -398,10 +480,13 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     @Override
     public boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key) {
         s_logger.info("Releasing a lock from JMX lck-" + key);
-        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL);)
+        try (PreparedStatement pstmt = conn(key).prepareStatement(RELEASE_LOCK_SQL);)
         {
             pstmt.setString(1, key);
             int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                _waitQueue.signal(key);
+            }
             return rows > 0;
         } catch (Exception e) {
             s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " +  e.getMessage());
@@ -0,0 +1,61 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+/**
+ * QueryCounter counts the statements prepared by the transactions of a
+ * thread between start and stop, for the API server to report how many
+ * queries a request ran and for tests to catch a query run per row.
+ */
+public class QueryCounter {
+    private static final ThreadLocal<long[]> s_count = new ThreadLocal<long[]>();
+
+    private QueryCounter() {
+    }
+
+    /**
+     * Starts counting the statements of this thread from zero.
+     */
+    public static void start() {
+        s_count.set(new long[1]);
+    }
+
+    /**
+     * Stops counting the statements of this thread.
+     * @return the number of statements prepared since start, 0 if it was not started.
+     */
+    public static long stop() {
+        final long[] count = s_count.get();
+        s_count.remove();
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * @return the number of statements prepared since start, 0 if it was not started.
+     */
+    public static long get() {
+        final long[] count = s_count.get();
+        return count == null ? 0 : count[0];
+    }
+
+    static void count() {
+        final long[] count = s_count.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -104,12 +105,14 @@ public class TransactionLegacy implements Closeable {
     private long _txnTime;
     private Statement _stmt;
     private String _creator;
+    private final List<Runnable> _completionActions = new ArrayList<Runnable>();
+    private final List<Runnable> _commitActions = new ArrayList<Runnable>();
 
     public static TransactionLegacy currentTxn() {
         return currentTxn(true);
     }
 
-    protected static TransactionLegacy currentTxn(boolean check) {
+    public static TransactionLegacy currentTxn(boolean check) {
         TransactionLegacy txn = tls.get();
         if (check) {
             assert txn != null : "No Transaction on stack.  Did you mark the method with @DB?";
@@ -209,6 +212,51 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * Runs the action once the transaction commits or rolls back, or right
+     * away if no transaction has been started.
+     */
+    public void runAfterCompletion(final Runnable action) {
+        if (!_txn) {
+            action.run();
+            return;
+        }
+        _completionActions.add(action);
+    }
+
+    /**
+     * Runs the action once the transaction commits, or right away if no
+     * transaction has been started.  The action is dropped if the
+     * transaction rolls back.
+     */
+    public void runAfterCommit(final Runnable action) {
+        if (!_txn) {
+            action.run();
+            return;
+        }
+        _commitActions.add(action);
+    }
+
+    protected void runCompletionActions(final boolean committed) {
+        if (_completionActions.isEmpty() && _commitActions.isEmpty()) {
+            return;
+        }
+        final List<Runnable> actions = new ArrayList<Runnable>();
+        if (committed) {
+            actions.addAll(_commitActions);
+        }
+        actions.addAll(_completionActions);
+        _commitActions.clear();
+        _completionActions.clear();
+        for (final Runnable action : actions) {
+            try {
+                action.run();
+            } catch (final RuntimeException e) {
+                s_logger.warn("Unable to run an action after the transaction completed", e);
+            }
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -467,6 +515,7 @@ public class TransactionLegacy implements Closeable {
     public PreparedStatement prepareStatement(final String sql) throws SQLException {
         final Connection conn = getConnection();
         final PreparedStatement pstmt = conn.prepareStatement(sql);
+        QueryCounter.count();
         if (s_stmtLogger.isTraceEnabled()) {
             s_stmtLogger.trace("Preparing: " + sql);
         }
@@ -487,6 +536,7 @@ public class TransactionLegacy implements Closeable {
     public PreparedStatement prepareAutoCloseStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
         final Connection conn = getConnection();
         final PreparedStatement pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
+        QueryCounter.count();
         if (s_stmtLogger.isTraceEnabled()) {
             s_stmtLogger.trace("Preparing: " + sql);
         }
@@ -509,6 +559,7 @@ public class TransactionLegacy implements Closeable {
     public PreparedStatement prepareAutoCloseStatement(final String sql, final String[] columnNames) throws SQLException {
         final Connection conn = getConnection();
         final PreparedStatement pstmt = conn.prepareStatement(sql, columnNames);
+        QueryCounter.count();
         if (s_stmtLogger.isTraceEnabled()) {
             s_stmtLogger.trace("Preparing: " + sql);
         }
@@ -530,6 +581,7 @@ public class TransactionLegacy implements Closeable {
     public PreparedStatement prepareAutoCloseStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
         final Connection conn = getConnection();
         final PreparedStatement pstmt = conn.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        QueryCounter.count();
         if (s_stmtLogger.isTraceEnabled()) {
             s_stmtLogger.trace("Preparing: " + sql);
         }
@@ -646,6 +698,7 @@ public class TransactionLegacy implements Closeable {
         closeConnection();
 
         _stack.clear();
+        runCompletionActions(false);
         Merovingian2 lockMaster = Merovingian2.getLockMaster();
         if (lockMaster != null) {
             lockMaster.cleanupThread();
@@ -735,9 +788,11 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
+            runCompletionActions(true);
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
+            runCompletionActions(false);
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
         }
     }
@@ -856,6 +911,7 @@ public class TransactionLegacy implements Closeable {
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
         }
+        runCompletionActions(false);
     }
 
     protected void rollbackSavepoint(Savepoint sp) {
@@ -870,6 +926,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            runCompletionActions(false);
         }
     }
 
@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares writing rows one statement at a time through persist and update
+ * against the JDBC batches of persistAll and updateAll.  It needs the MySQL
+ * database of db.properties, where it creates and empties the table test.
+ * The batches only become multi row statements when the url parameters
+ * include rewriteBatchedStatements=true.  Not run as part of the unit tests,
+ * start it with
+ *
+ *   java -cp ... com.cloud.utils.db.BatchWriteBenchmark [rows] [rounds]
+ */
+public class BatchWriteBenchmark {
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS test (id bigint unsigned NOT NULL AUTO_INCREMENT, "
+            + "fld_int int, fld_long bigint, fld_string varchar(255), PRIMARY KEY (id))";
+
+    private final DbTestDao dao = new DbTestDao();
+
+    private List<DbTestVO> newRows(int rows, int round) {
+        List<DbTestVO> entities = new ArrayList<DbTestVO>(rows);
+        for (int i = 0; i < rows; i++) {
+            DbTestVO vo = new DbTestVO();
+            vo.setFieldInt(i);
+            vo.setFieldLong((long)round);
+            vo.setFieldString("row-" + round + "-" + i);
+            entities.add(vo);
+        }
+        return entities;
+    }
+
+    private List<DbTestVO> changedRows(List<DbTestVO> persisted, int round) {
+        List<DbTestVO> entities = new ArrayList<DbTestVO>(persisted.size());
+        for (DbTestVO vo : persisted) {
+            DbTestVO update = dao.createForUpdate(vo.getId());
+            update.setFieldLong((long)round + 1);
+            entities.add(update);
+        }
+        return entities;
+    }
+
+    private long persistOneByOne(List<DbTestVO> entities, List<DbTestVO> persisted) {
+        long start = System.nanoTime();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        for (DbTestVO vo : entities) {
+            persisted.add(dao.persist(vo));
+        }
+        txn.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long persistBatched(List<DbTestVO> entities, List<DbTestVO> persisted) {
+        long start = System.nanoTime();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        persisted.addAll(dao.persistAll(entities));
+        txn.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long updateOneByOne(List<DbTestVO> entities) {
+        long start = System.nanoTime();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        for (DbTestVO vo : entities) {
+            dao.update(vo.getId(), vo);
+        }
+        txn.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long updateBatched(List<DbTestVO> entities) {
+        long start = System.nanoTime();
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        dao.updateAll(entities);
+        txn.commit();
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        System.out.println(String.format("%-24s %8.1f ms %10.0f rows/s", name, nanos / 1e6, rows * 1e9 / nanos));
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        BatchWriteBenchmark benchmark = new BatchWriteBenchmark();
+        TransactionLegacy txn = TransactionLegacy.open("BatchWriteBenchmark");
+        try {
+            txn.prepareAutoCloseStatement(CREATE_TABLE_SQL).executeUpdate();
+            for (int round = 0; round < rounds; round++) {
+                txn.prepareAutoCloseStatement("DELETE FROM test").executeUpdate();
+                System.out.println("Round " + (round + 1) + " of " + rounds + ", " + rows + " rows");
+
+                List<DbTestVO> single = new ArrayList<DbTestVO>(rows);
+                report("persist", rows, benchmark.persistOneByOne(benchmark.newRows(rows, round), single));
+                List<DbTestVO> batched = new ArrayList<DbTestVO>(rows);
+                report("persistAll", rows, benchmark.persistBatched(benchmark.newRows(rows, round), batched));
+
+                report("update", rows, benchmark.updateOneByOne(benchmark.changedRows(single, round)));
+                report("updateAll", rows, benchmark.updateBatched(benchmark.changedRows(batched, round)));
+            }
+            txn.prepareAutoCloseStatement("DELETE FROM test").executeUpdate();
+        } finally {
+            txn.close();
+        }
+    }
+}
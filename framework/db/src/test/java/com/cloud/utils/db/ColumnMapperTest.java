@@ -0,0 +1,158 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.ResultSet;
+import java.util.Date;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ColumnMapperTest {
+    enum State {
+        Running, Stopped
+    }
+
+    static class MappedVO {
+        long id;
+        Long hostId;
+        Integer count;
+        boolean removed;
+        State state = State.Stopped;
+        @Enumerated(value = EnumType.ORDINAL)
+        State ordinalState;
+        Date created;
+        String name;
+        short shortValue;
+    }
+
+    @Mock
+    ResultSet resultSet;
+
+    private static ColumnMapper mapper(String fieldName) throws NoSuchFieldException {
+        return ColumnMapper.create(MappedVO.class.getDeclaredField(fieldName));
+    }
+
+    @Test
+    public void mapPrimitiveLong() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(42L);
+        MappedVO vo = new MappedVO();
+        mapper("id").map(vo, resultSet, 1);
+        Assert.assertEquals(42L, vo.id);
+    }
+
+    @Test
+    public void mapNullLong() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(0L);
+        Mockito.when(resultSet.wasNull()).thenReturn(true);
+        MappedVO vo = new MappedVO();
+        vo.hostId = 5L;
+        mapper("hostId").map(vo, resultSet, 1);
+        Assert.assertNull(vo.hostId);
+    }
+
+    @Test
+    public void mapZeroLong() throws Exception {
+        Mockito.when(resultSet.getLong(1)).thenReturn(0L);
+        Mockito.when(resultSet.wasNull()).thenReturn(false);
+        MappedVO vo = new MappedVO();
+        mapper("hostId").map(vo, resultSet, 1);
+        Assert.assertEquals(Long.valueOf(0L), vo.hostId);
+    }
+
+    @Test
+    public void mapInteger() throws Exception {
+        Mockito.when(resultSet.getInt(1)).thenReturn(7);
+        MappedVO vo = new MappedVO();
+        mapper("count").map(vo, resultSet, 1);
+        Assert.assertEquals(Integer.valueOf(7), vo.count);
+    }
+
+    @Test
+    public void mapPrimitiveBoolean() throws Exception {
+        Mockito.when(resultSet.getBoolean(1)).thenReturn(true);
+        MappedVO vo = new MappedVO();
+        mapper("removed").map(vo, resultSet, 1);
+        Assert.assertTrue(vo.removed);
+    }
+
+    @Test
+    public void mapEnumByNameIgnoringCase() throws Exception {
+        Mockito.when(resultSet.getString(1)).thenReturn("RUNNING");
+        MappedVO vo = new MappedVO();
+        mapper("state").map(vo, resultSet, 1);
+        Assert.assertEquals(State.Running, vo.state);
+    }
+
+    @Test
+    public void mapUnknownEnumLeavesField() throws Exception {
+        Mockito.when(resultSet.getString(1)).thenReturn("Migrating");
+        MappedVO vo = new MappedVO();
+        mapper("state").map(vo, resultSet, 1);
+        Assert.assertEquals(State.Stopped, vo.state);
+    }
+
+    @Test
+    public void mapEnumByOrdinal() throws Exception {
+        Mockito.when(resultSet.getInt(1)).thenReturn(1);
+        MappedVO vo = new MappedVO();
+        mapper("ordinalState").map(vo, resultSet, 1);
+        Assert.assertEquals(State.Stopped, vo.ordinalState);
+    }
+
+    @Test
+    public void mapDate() throws Exception {
+        Mockito.when(resultSet.getDate(1)).thenReturn(new java.sql.Date(0));
+        Mockito.when(resultSet.getString(1)).thenReturn("1970-01-01 00:00:10");
+        MappedVO vo = new MappedVO();
+        mapper("created").map(vo, resultSet, 1);
+        Assert.assertEquals(10000L, vo.created.getTime());
+    }
+
+    @Test
+    public void mapNullDate() throws Exception {
+        Mockito.when(resultSet.getDate(1)).thenReturn(null);
+        MappedVO vo = new MappedVO();
+        vo.created = new Date();
+        mapper("created").map(vo, resultSet, 1);
+        Assert.assertNull(vo.created);
+    }
+
+    @Test
+    public void mapString() throws Exception {
+        Mockito.when(resultSet.getBytes(1)).thenReturn("vm-1".getBytes("UTF-8"));
+        MappedVO vo = new MappedVO();
+        mapper("name").map(vo, resultSet, 1);
+        Assert.assertEquals("vm-1", vo.name);
+    }
+
+    @Test
+    public void mapShort() throws Exception {
+        Mockito.when(resultSet.getShort(1)).thenReturn((short)3);
+        MappedVO vo = new MappedVO();
+        mapper("shortValue").map(vo, resultSet, 1);
+        Assert.assertEquals(3, vo.shortValue);
+    }
+}
@@ -0,0 +1,135 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityCacheTest {
+    private final EntityCacheCoordinator node1 = new EntityCacheCoordinator();
+    private final EntityCacheCoordinator node2 = new EntityCacheCoordinator();
+    private EntityCache cache1;
+    private EntityCache cache2;
+
+    // delivers the invalidations of one coordinator to the other, as the cluster manager does
+    private static class LocalTransport implements EntityCacheCoordinator.Transport {
+        private final EntityCacheCoordinator _peer;
+
+        LocalTransport(final EntityCacheCoordinator peer) {
+            _peer = peer;
+        }
+
+        @Override
+        public void publish(final String table, final List<String> ids) {
+            _peer.receive(table, ids);
+        }
+    }
+
+    @Before
+    public void setup() {
+        node1.setTransport(new LocalTransport(node2));
+        node2.setTransport(new LocalTransport(node1));
+        cache1 = new EntityCache("node1.test", Long.class, Arrays.asList("test"), 100, 300, 300, "LRU", node1);
+        cache2 = new EntityCache("node2.test", Long.class, Arrays.asList("test"), 100, 300, 300, "LRU", node2);
+    }
+
+    @After
+    public void after() {
+        cache1.dispose();
+        cache2.dispose();
+    }
+
+    @Test
+    public void testGetCountsHitsAndMisses() {
+        Assert.assertNull(cache1.get(1L));
+        Assert.assertTrue(cache1.put(1L, "one", cache1.getVersion()));
+        Assert.assertEquals("one", cache1.get(1L));
+
+        Assert.assertEquals(1, cache1.getHits());
+        Assert.assertEquals(1, cache1.getMisses());
+        Assert.assertEquals(0.5, cache1.getHitRatio(), 0);
+    }
+
+    @Test
+    public void testInvalidateEvictsOnOtherManagementServer() {
+        cache1.put(1L, "one", cache1.getVersion());
+        cache2.put(1L, "one", cache2.getVersion());
+        cache2.put(2L, "two", cache2.getVersion());
+
+        node1.invalidate(Arrays.asList("test"), 1L);
+
+        Assert.assertNull(cache1.get(1L));
+        Assert.assertNull(cache2.get(1L));
+        Assert.assertEquals("two", cache2.get(2L));
+        Assert.assertEquals(1, cache2.getRemoteInvalidations());
+    }
+
+    @Test
+    public void testInvalidateAllRows() {
+        cache2.put(1L, "one", cache2.getVersion());
+        cache2.put(2L, "two", cache2.getVersion());
+
+        node1.invalidate(Arrays.asList("test"), null);
+
+        Assert.assertEquals(0, cache2.getSize());
+    }
+
+    @Test
+    public void testInvalidateOtherTable() {
+        cache2.put(1L, "one", cache2.getVersion());
+
+        node1.invalidate(Arrays.asList("other"), 1L);
+
+        Assert.assertEquals("one", cache2.get(1L));
+        Assert.assertFalse(node1.isCached(Arrays.asList("other")));
+        Assert.assertTrue(node1.isCached(Arrays.asList("other", "test")));
+    }
+
+    @Test
+    public void testPutRejectedAfterEviction() {
+        // the row is read, then changed by another management server before the read is cached
+        final long version = cache2.getVersion();
+        node1.invalidate(Arrays.asList("test"), 1L);
+
+        Assert.assertFalse(cache2.put(1L, "stale", version));
+        Assert.assertNull(cache2.get(1L));
+        Assert.assertEquals(1, cache2.getRejectedPuts());
+
+        Assert.assertTrue(cache2.put(1L, "fresh", cache2.getVersion()));
+        Assert.assertEquals("fresh", cache2.get(1L));
+    }
+
+    @Test
+    public void testPutRejectedAfterClear() {
+        final long version = cache1.getVersion();
+        cache1.clear();
+
+        Assert.assertFalse(cache1.put(1L, "stale", version));
+    }
+
+    @Test
+    public void testDisposedCacheNotInvalidated() {
+        cache2.dispose();
+        Assert.assertFalse(node2.isCached(Arrays.asList("test")));
+        cache2 = new EntityCache("node2.test", Long.class, Arrays.asList("test"), 100, 300, 300, "LRU", node2);
+    }
+}
@@ -16,9 +16,13 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.util.Arrays;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.cloud.utils.exception.CloudRuntimeException;
+
 public class FilterTest {
 
     @Test
@@ -41,4 +45,37 @@ public class FilterTest {
         Assert.assertTrue(filter.getOrderBy().split(",").length == 3);
         Assert.assertTrue(filter.getOrderBy().split(",")[2].trim().toLowerCase().equals("test.fld_int asc"));
     }
+
+    @Test
+    public void testStartAfterClause() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", false, 20L, 10L);
+        filter.addOrderBy(DbTestVO.class, "fieldLong", true);
+
+        Assert.assertNull(filter.getStartAfterClause());
+
+        filter.setSeek(new Object[] {"b", 5L});
+
+        Assert.assertTrue(filter.isSeek());
+        Assert.assertEquals("((test.fld_string < ?) OR (test.fld_string = ? AND test.fld_long > ?))", filter.getStartAfterClause());
+        Assert.assertEquals(Arrays.<Object>asList("b", "b", 5L), filter.getStartAfterValues());
+        // seeking replaces the offset
+        Assert.assertEquals(Long.valueOf(0), filter.getOffset());
+        Assert.assertEquals(Long.valueOf(10), filter.getLimit());
+    }
+
+    @Test
+    public void testSeekFirstPage() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", true, 0L, 10L);
+        filter.setSeek(null);
+
+        Assert.assertTrue(filter.isSeek());
+        Assert.assertNull(filter.getStartAfterClause());
+        Assert.assertTrue(filter.getStartAfterValues().isEmpty());
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testSeekNeedsValueForEachColumn() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", true, 0L, 10L);
+        filter.setSeek(new Object[] {"b", 5L});
+    }
 }
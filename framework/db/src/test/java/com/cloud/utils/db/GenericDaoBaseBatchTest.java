@@ -0,0 +1,107 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class GenericDaoBaseBatchTest {
+    private final DbTestDao dao = new DbTestDao();
+    private Connection conn;
+    private PreparedStatement insertStmt;
+    private PreparedStatement stmt;
+
+    @Before
+    public void setup() throws Exception {
+        conn = Mockito.mock(Connection.class);
+        insertStmt = Mockito.mock(PreparedStatement.class);
+        stmt = Mockito.mock(PreparedStatement.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(insertStmt);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(stmt);
+        Mockito.when(stmt.executeQuery()).thenReturn(Mockito.mock(ResultSet.class));
+        TransactionLegacy.open(TransactionLegacy.CLOUD_DB).setConnection(conn);
+    }
+
+    @After
+    public void after() {
+        TransactionLegacy.currentTxn().close();
+    }
+
+    @Test
+    public void testPersistAllSetsGeneratedIds() throws Exception {
+        final ResultSet keys = Mockito.mock(ResultSet.class);
+        Mockito.when(keys.next()).thenReturn(true, true, true, false);
+        Mockito.when(keys.getObject(1)).thenReturn(11L, 12L, 13L);
+        Mockito.when(insertStmt.getGeneratedKeys()).thenReturn(keys);
+        Mockito.when(insertStmt.executeBatch()).thenReturn(new int[] {1, 1, 1});
+
+        final List<DbTestVO> entities = Arrays.asList(new DbTestVO(), new DbTestVO(), new DbTestVO());
+        final List<DbTestVO> persisted = dao.persistAll(entities);
+
+        Mockito.verify(insertStmt, Mockito.times(3)).addBatch();
+        Mockito.verify(insertStmt, Mockito.times(1)).executeBatch();
+        Mockito.verify(insertStmt, Mockito.never()).executeUpdate();
+        Assert.assertEquals(11L, entities.get(0).getId());
+        Assert.assertEquals(12L, entities.get(1).getId());
+        Assert.assertEquals(13L, entities.get(2).getId());
+        Assert.assertEquals(3, persisted.size());
+        // the new rows are read back with one select
+        Mockito.verify(stmt, Mockito.times(1)).executeQuery();
+    }
+
+    @Test
+    public void testPersistAllEmpty() throws Exception {
+        Assert.assertTrue(dao.persistAll(new ArrayList<DbTestVO>()).isEmpty());
+        Mockito.verify(conn, Mockito.never()).prepareStatement(Mockito.anyString(), Mockito.anyInt());
+    }
+
+    @Test
+    public void testUpdateAllGroupsByChangedColumns() throws Exception {
+        Mockito.when(stmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {Statement.SUCCESS_NO_INFO});
+
+        final DbTestVO first = dao.createForUpdate(1L);
+        first.setFieldInt(10);
+        final DbTestVO second = dao.createForUpdate(2L);
+        second.setFieldInt(20);
+        final DbTestVO third = dao.createForUpdate(3L);
+        third.setFieldString("third");
+        final DbTestVO unchanged = dao.createForUpdate(4L);
+
+        Assert.assertEquals(3, dao.updateAll(Arrays.asList(first, second, third, unchanged)));
+
+        Mockito.verify(conn, Mockito.times(2)).prepareStatement(Mockito.anyString());
+        Mockito.verify(stmt, Mockito.times(3)).addBatch();
+        Mockito.verify(stmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(stmt, Mockito.never()).executeUpdate();
+        Mockito.verify(stmt).setObject(2, 1L);
+        Mockito.verify(stmt).setObject(2, 2L);
+        Mockito.verify(stmt).setObject(2, 3L);
+        Assert.assertFalse(GenericDaoBase.getUpdateBuilder(first).hasChanges());
+        Assert.assertFalse(GenericDaoBase.getUpdateBuilder(third).hasChanges());
+    }
+}
@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class GenericDaoBaseCacheTest {
+    private final DbTestDao dao = new DbTestDao();
+    private final List<String> published = new ArrayList<String>();
+    private boolean publishedBeforeWrite;
+    private EntityCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        final Connection conn = Mockito.mock(Connection.class);
+        final PreparedStatement stmt = Mockito.mock(PreparedStatement.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(stmt);
+        // a reader loads the old row just before the change is written
+        Mockito.when(stmt.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) {
+                publishedBeforeWrite = !published.isEmpty();
+                cache.put(1L, "old", cache.getVersion());
+                return 1;
+            }
+        });
+        TransactionLegacy.open(TransactionLegacy.CLOUD_DB).setConnection(conn);
+
+        EntityCacheCoordinator.getInstance().setTransport(new EntityCacheCoordinator.Transport() {
+            @Override
+            public void publish(final String table, final List<String> ids) {
+                published.add(table);
+            }
+        });
+        cache = new EntityCache("test.cache", Long.class, Arrays.asList("test"), 100, 300, 300, "LRU", EntityCacheCoordinator.getInstance());
+    }
+
+    @After
+    public void after() {
+        cache.dispose();
+        EntityCacheCoordinator.getInstance().setTransport(null);
+        TransactionLegacy.currentTxn().close();
+    }
+
+    private void assertInvalidatedAfterWrite() {
+        Assert.assertNull(cache.get(1L));
+        Assert.assertFalse(publishedBeforeWrite);
+        Assert.assertFalse(published.isEmpty());
+    }
+
+    @Test
+    public void testUpdateByIdInvalidatesAfterWrite() {
+        final DbTestVO entity = dao.createForUpdate(1L);
+        entity.setFieldInt(10);
+
+        dao.update(1L, entity);
+
+        assertInvalidatedAfterWrite();
+    }
+
+    @Test
+    public void testUpdateBySearchCriteriaInvalidatesAfterWrite() {
+        final DbTestVO entity = dao.createForUpdate();
+        entity.setFieldInt(10);
+
+        dao.update(entity, dao.createSearchCriteria());
+
+        assertInvalidatedAfterWrite();
+    }
+
+    @Test
+    public void testExpungeBySearchCriteriaInvalidatesAfterWrite() {
+        dao.expunge(dao.createSearchCriteria());
+
+        assertInvalidatedAfterWrite();
+    }
+}
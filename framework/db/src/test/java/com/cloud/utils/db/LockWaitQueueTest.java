@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LockWaitQueueTest {
+
+    @Test
+    public void testSignalWakesWaiter() throws InterruptedException {
+        final LockWaitQueue queue = new LockWaitQueue();
+        final LockWaitQueue.Waiters waiters = queue.enter("lock");
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch woken = new CountDownLatch(1);
+
+        Thread waiter = new Thread(() -> {
+            try {
+                long generation = waiters.generation();
+                entered.countDown();
+                waiters.await(generation, 60000);
+                woken.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        queue.signal("lock");
+        Assert.assertTrue(woken.await(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    public void testSignalBeforeAwaitIsNotMissed() throws InterruptedException {
+        LockWaitQueue queue = new LockWaitQueue();
+        LockWaitQueue.Waiters waiters = queue.enter("lock");
+
+        long generation = waiters.generation();
+        queue.signal("lock");
+
+        long start = System.currentTimeMillis();
+        waiters.await(generation, 60000);
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testSignalOnOtherKeyDoesNotWake() throws InterruptedException {
+        LockWaitQueue queue = new LockWaitQueue();
+        LockWaitQueue.Waiters waiters = queue.enter("lock");
+
+        long generation = waiters.generation();
+        queue.signal("other");
+        Assert.assertEquals(generation, waiters.generation());
+
+        queue.signalAll();
+        Assert.assertNotEquals(generation, waiters.generation());
+    }
+
+    @Test
+    public void testLeaveRemovesKeyWithLastWaiter() {
+        LockWaitQueue queue = new LockWaitQueue();
+        LockWaitQueue.Waiters first = queue.enter("lock");
+        LockWaitQueue.Waiters second = queue.enter("lock");
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, queue.size());
+
+        queue.leave("lock");
+        Assert.assertEquals(1, queue.size());
+        queue.leave("lock");
+        Assert.assertEquals(0, queue.size());
+
+        queue.signal("lock");
+        queue.leave("lock");
+        Assert.assertEquals(0, queue.size());
+    }
+}
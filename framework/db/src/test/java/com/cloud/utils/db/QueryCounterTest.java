@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class QueryCounterTest {
+    private final DbTestDao dao = new DbTestDao();
+
+    @Before
+    public void setup() throws Exception {
+        final Connection conn = Mockito.mock(Connection.class);
+        final PreparedStatement stmt = Mockito.mock(PreparedStatement.class);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(stmt);
+        Mockito.when(stmt.executeQuery()).thenReturn(Mockito.mock(ResultSet.class));
+        TransactionLegacy.open(TransactionLegacy.CLOUD_DB).setConnection(conn);
+    }
+
+    @After
+    public void after() {
+        QueryCounter.stop();
+        TransactionLegacy.currentTxn().close();
+    }
+
+    @Test
+    public void testCountsQueriesBetweenStartAndStop() {
+        dao.listAll();
+        QueryCounter.start();
+        dao.listAll();
+        dao.listAll();
+        Assert.assertEquals(2, QueryCounter.get());
+        Assert.assertEquals(2, QueryCounter.stop());
+
+        dao.listAll();
+        Assert.assertEquals(0, QueryCounter.get());
+    }
+
+    @Test
+    public void testStartResetsCount() {
+        QueryCounter.start();
+        dao.listAll();
+        QueryCounter.start();
+        Assert.assertEquals(0, QueryCounter.get());
+        dao.listAll();
+        Assert.assertEquals(1, QueryCounter.stop());
+    }
+
+    @Test
+    public void testCountIsPerThread() throws Exception {
+        QueryCounter.start();
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                QueryCounter.count();
+            }
+        };
+        other.start();
+        other.join();
+        Assert.assertEquals(0, QueryCounter.stop());
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.apache.cloudstack.framework.events;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -34,6 +35,19 @@ public interface EventBus {
      */
     void publish(Event event) throws EventBusException;
 
+    /**
+     * publish a batch of events on to the event bus, in the order of the list. Implementations
+     * that can send several events in one go should override this, by default every event is
+     * published on its own and the first failure stops the batch.
+     *
+     * @param events events that need to be published on the event bus
+     */
+    default void publish(List<Event> events) throws EventBusException {
+        for (Event event : events) {
+            publish(event);
+        }
+    }
+
     /**
      * subscribe to events that matches specified event topics
      *
@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cloudstack.framework.messagebus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.framework.serializer.MessageSerializer;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * MessageBus implementation that does not serialize publishers.
+ *
+ * The subscription trie is immutable and replaced as a whole (path copy) on every
+ * subscribe/unsubscribe, so publishers only read a volatile snapshot and never block
+ * each other. Subscription changes are serialized among themselves and become visible
+ * to publishes that start after the change returns.
+ *
+ * By default subscribers are notified on the publishing thread, in the same order as
+ * {@link MessageBusBase} (exact subject node first, then its ancestors up to the root).
+ * When asyncDispatch is enabled (before anything subscribes) each subscriber gets its
+ * own dispatch lane, created on subscribe and closed on unsubscribe: messages
+ * for one subscriber are delivered in publish order, one at a time, while a slow
+ * subscriber no longer holds up the publisher or any other subscriber.
+ */
+public class ConcurrentMessageBus implements MessageBus {
+    private static final Logger s_logger = Logger.getLogger(ConcurrentMessageBus.class);
+
+    private static final MessageSubscriber[] NO_SUBSCRIBERS = new MessageSubscriber[0];
+
+    private final Object _updateLock = new Object();
+    private volatile SubscriptionNode _subscriberRoot = SubscriptionNode.EMPTY_ROOT;
+
+    private final Map<MessageSubscriber, DispatchLane> _lanes = new ConcurrentHashMap<MessageSubscriber, DispatchLane>();
+    private boolean _asyncDispatch = false;
+    private int _dispatchPoolSize = 8;
+    private volatile ExecutorService _dispatchExecutor;
+
+    private MessageSerializer _messageSerializer;
+
+    public ConcurrentMessageBus() {
+    }
+
+    @Override
+    public void setMessageSerializer(MessageSerializer messageSerializer) {
+        _messageSerializer = messageSerializer;
+    }
+
+    @Override
+    public MessageSerializer getMessageSerializer() {
+        return _messageSerializer;
+    }
+
+    public boolean isAsyncDispatch() {
+        return _asyncDispatch;
+    }
+
+    public void setAsyncDispatch(boolean asyncDispatch) {
+        _asyncDispatch = asyncDispatch;
+    }
+
+    public int getDispatchPoolSize() {
+        return _dispatchPoolSize;
+    }
+
+    public void setDispatchPoolSize(int dispatchPoolSize) {
+        _dispatchPoolSize = dispatchPoolSize;
+    }
+
+    @Override
+    public void subscribe(String subject, MessageSubscriber subscriber) {
+        assert (subject != null);
+        assert (subscriber != null);
+
+        String[] tokens = tokenize(subject);
+        synchronized (_updateLock) {
+            _subscriberRoot = _subscriberRoot.withSubscriber(tokens, 0, subscriber);
+            if (_asyncDispatch) {
+                _lanes.computeIfAbsent(subscriber, s -> new DispatchLane(s, getDispatchExecutor()));
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe(String subject, MessageSubscriber subscriber) {
+        synchronized (_updateLock) {
+            if (subject != null) {
+                _subscriberRoot = _subscriberRoot.withoutSubscriber(tokenize(subject), 0, subscriber);
+            } else {
+                _subscriberRoot = _subscriberRoot.withoutSubscriberRecursively(subscriber);
+            }
+
+            if (!_subscriberRoot.contains(subscriber)) {
+                DispatchLane lane = _lanes.remove(subscriber);
+                if (lane != null) {
+                    lane.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearAll() {
+        synchronized (_updateLock) {
+            _subscriberRoot = SubscriptionNode.EMPTY_ROOT;
+            for (DispatchLane lane : _lanes.values()) {
+                lane.close();
+            }
+            _lanes.clear();
+        }
+    }
+
+    @Override
+    public void prune() {
+        synchronized (_updateLock) {
+            SubscriptionNode pruned = _subscriberRoot.pruned();
+            _subscriberRoot = pruned != null ? pruned : SubscriptionNode.EMPTY_ROOT;
+        }
+    }
+
+    @Override
+    public void publish(String senderAddress, String subject, PublishScope scope, Object args) {
+        // publish cannot be in DB transaction, which may hold DB lock too long, and we are guarding this here
+        if (!noDbTxn()) {
+            String errMsg = "NO EVENT PUBLISH CAN BE WRAPPED WITHIN DB TRANSACTION!";
+            s_logger.error(errMsg, new CloudRuntimeException(errMsg));
+        }
+
+        assert (subject != null);
+        SubscriptionNode root = _subscriberRoot;
+
+        List<SubscriptionNode> chainFromTop;
+        SubscriptionNode current;
+        if (subject.equals("/")) {
+            chainFromTop = Collections.emptyList();
+            current = root;
+        } else {
+            String[] tokens = subject.split("\\.");
+            chainFromTop = new ArrayList<SubscriptionNode>(tokens.length);
+            current = root;
+            for (String token : tokens) {
+                chainFromTop.add(current);
+                current = current.getChild(token);
+                if (current == null) {
+                    break;
+                }
+            }
+        }
+
+        if (current != null) {
+            notifySubscribers(current._subscribers, senderAddress, subject, args);
+        }
+        for (int i = chainFromTop.size() - 1; i >= 0; i--) {
+            notifySubscribers(chainFromTop.get(i)._subscribers, senderAddress, subject, args);
+        }
+    }
+
+    private void notifySubscribers(MessageSubscriber[] subscribers, String senderAddress, String subject, Object args) {
+        for (MessageSubscriber subscriber : subscribers) {
+            if (_asyncDispatch) {
+                // the lane is gone once the subscriber is unsubscribed, a publish that raced with it is dropped
+                DispatchLane lane = _lanes.get(subscriber);
+                if (lane != null) {
+                    lane.offer(new PendingMessage(senderAddress, subject, args));
+                }
+            } else {
+                subscriber.onPublishMessage(senderAddress, subject, args);
+            }
+        }
+    }
+
+    private ExecutorService getDispatchExecutor() {
+        ExecutorService executor = _dispatchExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = _dispatchExecutor;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(_dispatchPoolSize, new NamedThreadFactory("MessageBus-Dispatch"));
+                    _dispatchExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    public void shutdown() {
+        ExecutorService executor = _dispatchExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static String[] tokenize(String subject) {
+        assert (subject != null);
+        // "/" is special name for root node
+        if (subject.equals("/")) {
+            return new String[0];
+        }
+        return subject.split("\\.");
+    }
+
+    private boolean noDbTxn() {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        return !txn.dbTxnStarted();
+    }
+
+    //
+    // Support inner classes
+    //
+    private static class PendingMessage {
+        private final String _senderAddress;
+        private final String _subject;
+        private final Object _args;
+
+        public PendingMessage(String senderAddress, String subject, Object args) {
+            _senderAddress = senderAddress;
+            _subject = subject;
+            _args = args;
+        }
+    }
+
+    /**
+     * Serial delivery queue for a single subscriber. At most one drain task per lane is
+     * scheduled on the shared executor at any time, which keeps per-subscriber ordering
+     * without dedicating a thread to every subscriber.
+     */
+    private static class DispatchLane implements Runnable {
+        private static final int MAX_BATCH = 64;
+
+        private final MessageSubscriber _subscriber;
+        private final ExecutorService _executor;
+        private final Queue<PendingMessage> _queue = new ConcurrentLinkedQueue<PendingMessage>();
+        private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+        private volatile boolean _closed = false;
+
+        public DispatchLane(MessageSubscriber subscriber, ExecutorService executor) {
+            _subscriber = subscriber;
+            _executor = executor;
+        }
+
+        public void offer(PendingMessage message) {
+            if (_closed) {
+                return;
+            }
+            _queue.offer(message);
+            schedule();
+        }
+
+        public void close() {
+            _closed = true;
+            _queue.clear();
+        }
+
+        private void schedule() {
+            if (_scheduled.compareAndSet(false, true)) {
+                try {
+                    _executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    _scheduled.set(false);
+                    s_logger.warn("Message bus dispatch executor rejected delivery to " + _subscriber + ", dropping " + _queue.size() + " pending messages");
+                    _queue.clear();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                PendingMessage message;
+                int delivered = 0;
+                while (!_closed && delivered < MAX_BATCH && (message = _queue.poll()) != null) {
+                    try {
+                        _subscriber.onPublishMessage(message._senderAddress, message._subject, message._args);
+                    } catch (RuntimeException e) {
+                        s_logger.warn("Unexpected exception delivering message " + message._subject + " to " + _subscriber, e);
+                    }
+                    delivered++;
+                }
+            } finally {
+                _scheduled.set(false);
+            }
+
+            // re-arm if messages arrived after the last poll or the batch limit was hit,
+            // yielding the pool thread so other lanes get their turn
+            if (!_closed && !_queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Immutable trie node. Every mutation returns a new node and copies only the path
+     * from the root to the modified node; untouched subtrees are shared.
+     */
+    private static class SubscriptionNode {
+        private static final SubscriptionNode EMPTY_ROOT = new SubscriptionNode(NO_SUBSCRIBERS, Collections.<String, SubscriptionNode> emptyMap());
+
+        private final MessageSubscriber[] _subscribers;
+        private final Map<String, SubscriptionNode> _children;
+
+        private SubscriptionNode(MessageSubscriber[] subscribers, Map<String, SubscriptionNode> children) {
+            _subscribers = subscribers;
+            _children = children;
+        }
+
+        public SubscriptionNode getChild(String key) {
+            return _children.get(key);
+        }
+
+        public SubscriptionNode withSubscriber(String[] tokens, int depth, MessageSubscriber subscriber) {
+            if (depth == tokens.length) {
+                if (indexOf(_subscribers, subscriber) >= 0) {
+                    return this;
+                }
+                MessageSubscriber[] subscribers = Arrays.copyOf(_subscribers, _subscribers.length + 1);
+                subscribers[_subscribers.length] = subscriber;
+                return new SubscriptionNode(subscribers, _children);
+            }
+
+            SubscriptionNode child = _children.get(tokens[depth]);
+            if (child == null) {
+                child = EMPTY_ROOT;
+            }
+            SubscriptionNode newChild = child.withSubscriber(tokens, depth + 1, subscriber);
+            if (newChild == child) {
+                return this;
+            }
+            return new SubscriptionNode(_subscribers, withChild(tokens[depth], newChild));
+        }
+
+        public SubscriptionNode withoutSubscriber(String[] tokens, int depth, MessageSubscriber subscriber) {
+            if (depth == tokens.length) {
+                int index = indexOf(_subscribers, subscriber);
+                if (index < 0) {
+                    return this;
+                }
+                return new SubscriptionNode(remove(_subscribers, index), _children);
+            }
+
+            SubscriptionNode child = _children.get(tokens[depth]);
+            if (child == null) {
+                return this;
+            }
+            SubscriptionNode newChild = child.withoutSubscriber(tokens, depth + 1, subscriber);
+            if (newChild == child) {
+                return this;
+            }
+            return new SubscriptionNode(_subscribers, withChild(tokens[depth], newChild));
+        }
+
+        public SubscriptionNode withoutSubscriberRecursively(MessageSubscriber subscriber) {
+            Map<String, SubscriptionNode> children = _children;
+            for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
+                SubscriptionNode newChild = entry.getValue().withoutSubscriberRecursively(subscriber);
+                if (newChild != entry.getValue()) {
+                    if (children == _children) {
+                        children = new HashMap<String, SubscriptionNode>(_children);
+                    }
+                    children.put(entry.getKey(), newChild);
+                }
+            }
+
+            int index = indexOf(_subscribers, subscriber);
+            if (index < 0 && children == _children) {
+                return this;
+            }
+            MessageSubscriber[] subscribers = index < 0 ? _subscribers : remove(_subscribers, index);
+            return new SubscriptionNode(subscribers, children == _children ? children : Collections.unmodifiableMap(children));
+        }
+
+        public boolean contains(MessageSubscriber subscriber) {
+            if (indexOf(_subscribers, subscriber) >= 0) {
+                return true;
+            }
+            for (SubscriptionNode child : _children.values()) {
+                if (child.contains(subscriber)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the pruned copy of this subtree, or null if nothing is left in it
+         */
+        public SubscriptionNode pruned() {
+            Map<String, SubscriptionNode> children = new HashMap<String, SubscriptionNode>();
+            for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
+                SubscriptionNode child = entry.getValue().pruned();
+                if (child != null) {
+                    children.put(entry.getKey(), child);
+                }
+            }
+
+            if (children.isEmpty() && _subscribers.length == 0) {
+                return null;
+            }
+            return new SubscriptionNode(_subscribers, children.isEmpty() ? Collections.<String, SubscriptionNode> emptyMap() : Collections.unmodifiableMap(children));
+        }
+
+        private Map<String, SubscriptionNode> withChild(String key, SubscriptionNode child) {
+            Map<String, SubscriptionNode> children = new HashMap<String, SubscriptionNode>(_children);
+            children.put(key, child);
+            return Collections.unmodifiableMap(children);
+        }
+
+        private static int indexOf(MessageSubscriber[] subscribers, MessageSubscriber subscriber) {
+            for (int i = 0; i < subscribers.length; i++) {
+                if (subscribers[i].equals(subscriber)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static MessageSubscriber[] remove(MessageSubscriber[] subscribers, int index) {
+            if (subscribers.length == 1) {
+                return NO_SUBSCRIBERS;
+            }
+            MessageSubscriber[] result = new MessageSubscriber[subscribers.length - 1];
+            System.arraycopy(subscribers, 0, result, 0, index);
+            System.arraycopy(subscribers, index + 1, result, index, subscribers.length - index - 1);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.messagebus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.cloudstack.framework.messagebus.ConcurrentMessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+
+/**
+ * Publish throughput of the Gate based MessageBusBase against ConcurrentMessageBus
+ * with 1, 8 and 64 publisher threads. Not run as part of the unit tests, start it with
+ *
+ *   java -cp ... org.apache.cloudstack.messagebus.MessageBusThroughputBenchmark [seconds-per-run]
+ */
+public class MessageBusThroughputBenchmark {
+    private static final int[] PUBLISHER_THREADS = {1, 8, 64};
+    private static final String[] SUBJECTS = {"job.state.1", "vm.power.2", "network.event.3", "host.status.4"};
+
+    public static void main(String[] args) throws Exception {
+        long durationMs = (args.length > 0 ? Long.parseLong(args[0]) : 5) * 1000L;
+
+        System.out.println(String.format("%-24s %8s %16s", "bus", "threads", "publishes/sec"));
+        for (int threads : PUBLISHER_THREADS) {
+            report("MessageBusBase", threads, run(new MessageBusBase(), threads, durationMs));
+            report("ConcurrentMessageBus", threads, run(new ConcurrentMessageBus(), threads, durationMs));
+        }
+    }
+
+    private static void report(String name, int threads, double rate) {
+        System.out.println(String.format("%-24s %8d %16.0f", name, threads, rate));
+    }
+
+    private static double run(final MessageBus bus, int threads, final long durationMs) throws InterruptedException {
+        final LongAdder delivered = new LongAdder();
+        bus.subscribe("/", (sender, subject, args) -> delivered.increment());
+        for (String subject : SUBJECTS) {
+            bus.subscribe(subject.substring(0, subject.lastIndexOf('.')), (sender, s, args) -> delivered.increment());
+        }
+
+        final LongAdder published = new LongAdder();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            Thread publisher = new Thread(() -> {
+                try {
+                    start.await();
+                    long deadline = System.currentTimeMillis() + durationMs;
+                    int n = offset;
+                    while (System.currentTimeMillis() < deadline) {
+                        for (int j = 0; j < 1000; j++) {
+                            bus.publish(null, SUBJECTS[n++ & 3], PublishScope.LOCAL, null);
+                        }
+                        published.add(1000);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "Publisher-" + i);
+            publisher.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        bus.clearAll();
+        return published.sum() * 1e9 / elapsed;
+    }
+}
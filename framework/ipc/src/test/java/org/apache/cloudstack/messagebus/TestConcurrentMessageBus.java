@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.messagebus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.cloudstack.framework.messagebus.ConcurrentMessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConcurrentMessageBus {
+
+    private static class RecordingSubscriber implements MessageSubscriber {
+        final List<String> subjects = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onPublishMessage(String senderAddress, String subject, Object args) {
+            subjects.add(subject);
+        }
+    }
+
+    @Test
+    public void testNotificationOrderMatchesMessageBusBase() {
+        ConcurrentMessageBus bus = new ConcurrentMessageBus();
+        final List<String> order = new ArrayList<String>();
+
+        bus.subscribe("/", (sender, subject, args) -> order.add("root"));
+        bus.subscribe("Host", (sender, subject, args) -> order.add("Host"));
+        bus.subscribe("Host.123", (sender, subject, args) -> order.add("Host.123"));
+
+        bus.publish(null, "Host.123", PublishScope.LOCAL, null);
+        Assert.assertEquals(order, List.of("Host.123", "Host", "root"));
+
+        order.clear();
+        bus.publish(null, "Host.321.nic", PublishScope.LOCAL, null);
+        Assert.assertEquals(order, List.of("Host", "root"));
+    }
+
+    @Test
+    public void testSubscribeUnsubscribe() {
+        ConcurrentMessageBus bus = new ConcurrentMessageBus();
+        RecordingSubscriber parent = new RecordingSubscriber();
+        RecordingSubscriber child = new RecordingSubscriber();
+
+        bus.subscribe("Host", parent);
+        bus.subscribe("VM", parent);
+        bus.subscribe("Host", parent);
+        bus.subscribe("Host.123", child);
+
+        bus.publish(null, "Host.123", PublishScope.LOCAL, null);
+        bus.publish(null, "VM.123", PublishScope.LOCAL, null);
+        Assert.assertEquals(parent.subjects, List.of("Host.123", "VM.123"));
+        Assert.assertEquals(child.subjects, List.of("Host.123"));
+
+        bus.unsubscribe(null, parent);
+        bus.unsubscribe("Host.123", child);
+        bus.prune();
+        bus.publish(null, "Host.123", PublishScope.LOCAL, null);
+        Assert.assertEquals(2, parent.subjects.size());
+        Assert.assertEquals(1, child.subjects.size());
+    }
+
+    @Test
+    public void testSubscribeFromWithinPublish() {
+        final ConcurrentMessageBus bus = new ConcurrentMessageBus();
+        final RecordingSubscriber late = new RecordingSubscriber();
+
+        bus.subscribe("VM", (sender, subject, args) -> bus.subscribe("VM", late));
+        bus.publish(null, "VM", PublishScope.LOCAL, null);
+        Assert.assertTrue(late.subjects.isEmpty());
+
+        bus.publish(null, "VM", PublishScope.LOCAL, null);
+        Assert.assertEquals(late.subjects, List.of("VM"));
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlockOthersWithAsyncDispatch() throws InterruptedException {
+        ConcurrentMessageBus bus = new ConcurrentMessageBus();
+        bus.setAsyncDispatch(true);
+        bus.setDispatchPoolSize(2);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(100);
+        final List<Integer> slowSeen = Collections.synchronizedList(new ArrayList<Integer>());
+
+        bus.subscribe("Job", (sender, subject, args) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slowSeen.add((Integer)args);
+        });
+        bus.subscribe("Job", (sender, subject, args) -> fastDone.countDown());
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                bus.publish(null, "Job", PublishScope.LOCAL, i);
+            }
+            Assert.assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (slowSeen.size() < 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(100, slowSeen.size());
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(Integer.valueOf(i), slowSeen.get(i));
+            }
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void testPublishRacingUnsubscribeLeavesNoLane() throws Exception {
+        final ConcurrentMessageBus bus = new ConcurrentMessageBus();
+        bus.setAsyncDispatch(true);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread publisher = new Thread(() -> {
+            while (!stop.get()) {
+                bus.publish(null, "VM", PublishScope.LOCAL, null);
+            }
+        });
+
+        publisher.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                RecordingSubscriber subscriber = new RecordingSubscriber();
+                bus.subscribe("VM", subscriber);
+                bus.unsubscribe("VM", subscriber);
+            }
+        } finally {
+            stop.set(true);
+            publisher.join();
+            bus.shutdown();
+        }
+
+        Field lanes = ConcurrentMessageBus.class.getDeclaredField("_lanes");
+        lanes.setAccessible(true);
+        Assert.assertTrue(((Map<?, ?>)lanes.get(bus)).isEmpty());
+    }
+}
@@ -20,6 +20,7 @@ import java.util.List;
 
 import org.apache.cloudstack.framework.jobs.impl.SyncQueueItemVO;
 
+import com.cloud.utils.Pair;
 import com.cloud.utils.db.GenericDao;
 
 public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
@@ -28,6 +29,15 @@ public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
 
     public List<SyncQueueItemVO> getNextQueueItems(int maxItems);
 
+    /**
+     * Claims the oldest waiting item of the queue for the management server,
+     * if the queue is below its concurrency limit. The queue is claimed with
+     * one conditional update instead of reading it and the item count first.
+     * Must be called in a transaction.
+     * @return the claimed item and the sync object type of the queue, or null if nothing can be claimed.
+     */
+    public Pair<SyncQueueItemVO, String> claimNextQueueItem(long queueId, Long msid);
+
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
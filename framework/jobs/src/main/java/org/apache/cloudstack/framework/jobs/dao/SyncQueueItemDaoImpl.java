@@ -20,6 +20,7 @@ package org.apache.cloudstack.framework.jobs.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -30,6 +31,7 @@ import org.apache.log4j.Logger;
 import org.apache.cloudstack.framework.jobs.impl.SyncQueueItemVO;
 
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
@@ -39,10 +41,24 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Func;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @DB
 public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long> implements SyncQueueItemDao {
     private static final Logger s_logger = Logger.getLogger(SyncQueueItemDaoImpl.class);
+
+    private static final String CLAIM_QUEUE_SQL = "UPDATE sync_queue SET queue_proc_number = IFNULL(queue_proc_number, 0) + 1, queue_size = queue_size + 1, last_updated = ? " +
+            " WHERE id = ? " +
+            " AND queue_size_limit > (SELECT COUNT(*) FROM sync_queue_item WHERE queue_id = ? AND queue_proc_number IS NOT NULL) " +
+            " AND EXISTS (SELECT 1 FROM sync_queue_item WHERE queue_id = ? AND queue_proc_number IS NULL)";
+    private static final String CLAIM_ITEM_SQL = "UPDATE sync_queue_item SET queue_proc_msid = ?, queue_proc_time = ?, " +
+            " queue_proc_number = (SELECT queue_proc_number FROM sync_queue WHERE id = ?) " +
+            " WHERE queue_id = ? AND queue_proc_number IS NULL " +
+            " ORDER BY created, id LIMIT 1";
+    private static final String CLAIMED_ITEM_SQL = "SELECT i.id, i.queue_id, i.content_type, i.content_id, i.created, i.queue_proc_number, q.sync_objtype " +
+            " FROM sync_queue AS q JOIN sync_queue_item AS i ON q.id = i.queue_id " +
+            " WHERE q.id = ? AND i.queue_proc_number = q.queue_proc_number";
+
     final GenericSearchBuilder<SyncQueueItemVO, Long> queueIdSearch;
     final GenericSearchBuilder<SyncQueueItemVO, Integer> queueActiveItemSearch;
 
@@ -123,6 +139,57 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
         return l;
     }
 
+    @Override
+    public Pair<SyncQueueItemVO, String> claimNextQueueItem(long queueId, Long msid) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Date dt = DateUtil.currentGMTTime();
+        String now = DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), dt);
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(CLAIM_QUEUE_SQL);
+            pstmt.setString(1, now);
+            pstmt.setLong(2, queueId);
+            pstmt.setLong(3, queueId);
+            pstmt.setLong(4, queueId);
+            if (pstmt.executeUpdate() == 0) {
+                // the queue is empty or at its concurrency limit
+                return null;
+            }
+
+            pstmt = txn.prepareAutoCloseStatement(CLAIM_ITEM_SQL);
+            if (msid != null) {
+                pstmt.setLong(1, msid);
+            } else {
+                pstmt.setNull(1, Types.BIGINT);
+            }
+            pstmt.setString(2, now);
+            pstmt.setLong(3, queueId);
+            pstmt.setLong(4, queueId);
+            if (pstmt.executeUpdate() == 0) {
+                // another server took the last waiting item, roll back the queue update
+                throw new CloudRuntimeException("Waiting item of sync queue " + queueId + " was claimed concurrently");
+            }
+
+            pstmt = txn.prepareAutoCloseStatement(CLAIMED_ITEM_SQL);
+            pstmt.setLong(1, queueId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                throw new CloudRuntimeException("Unable to find the claimed item of sync queue " + queueId);
+            }
+            SyncQueueItemVO item = new SyncQueueItemVO();
+            item.setId(rs.getLong(1));
+            item.setQueueId(rs.getLong(2));
+            item.setContentType(rs.getString(3));
+            item.setContentId(rs.getLong(4));
+            item.setCreated(DateUtil.parseDateString(TimeZone.getTimeZone("GMT"), rs.getString(5)));
+            item.setLastProcessNumber(rs.getLong(6));
+            item.setLastProcessMsid(msid);
+            item.setLastProcessTime(dt);
+            return new Pair<SyncQueueItemVO, String>(item, rs.getString(7));
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to claim an item of sync queue " + queueId, e);
+        }
+    }
+
     @Override
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive) {
         SearchBuilder<SyncQueueItemVO> sb = createSearchBuilder();
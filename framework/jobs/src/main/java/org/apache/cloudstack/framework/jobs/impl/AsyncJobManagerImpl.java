@@ -21,9 +21,13 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -54,7 +58,7 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
 import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
-import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -62,6 +66,7 @@ import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.slf4j.MDC;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import org.apache.cloudstack.management.ManagementServerHost;
 import com.cloud.storage.DataStoreRole;
@@ -105,6 +110,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
     private static final ConfigKey<Boolean> HidePassword = new ConfigKey<Boolean>("Advanced", Boolean.class, "log.hide.password", "true", "If set to true, the password is hidden", true, ConfigKey.Scope.Global);
+    private static final ConfigKey<Integer> JobQueueScanInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.queue.scan.interval", "10000",
+        "Interval (in milliseconds) at which all sync queues are scanned for items nobody dispatched, queues are otherwise dispatched when an item is added or released", false);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -112,6 +119,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
     private static final int HEARTBEAT_INTERVAL = 2000;
+    private static final int QUEUE_DISPATCHER_POOL_SIZE = 4;
+    private static final String QUEUE_NOTIFICATION_TOPIC = "async.job.queue";
     private static final int GC_INTERVAL = 10000;                // 10 seconds
 
     @Inject
@@ -129,6 +138,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Inject
     private MessageBus _messageBus;
     @Inject
+    private ClusterManager _clusterMgr;
+    @Inject
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
@@ -152,6 +163,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
+    private final ExecutorService _queueDispatcher = Executors.newFixedThreadPool(QUEUE_DISPATCHER_POOL_SIZE, new NamedThreadFactory("AsyncJobMgr-QueueDispatcher"));
+    // queues with a check scheduled but not started, so a burst of releases checks a queue once
+    private final ConcurrentMap<Long, Boolean> _pendingQueueChecks = new ConcurrentHashMap<Long, Boolean>();
 
     @Override
     public String getConfigComponentName() {
@@ -160,7 +174,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword, JobQueueScanInterval};
     }
 
     @Override
@@ -230,21 +244,25 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 throw new CloudRuntimeException("Failed to acquire lock in submitting async job: " + job.getCmd() + " with timeout value = " + VmJobLockTimeout.value());
             }
 
+            final SyncQueueVO queue;
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return queueJob(job, syncObjType, syncObjId, 1);
                     }
                 });
             } finally {
                 _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
             }
+
+            // the item is committed, dispatch it now instead of waiting for the queue scan
+            scheduleQueueCheck(queue.getId());
+            return job.getId();
         } catch (Exception e) {
             String errMsg = "Unable to schedule async job for command " + job.getCmd() + ", unexpected exception.";
             s_logger.warn(errMsg, e);
@@ -268,7 +286,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     resultObject);
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            scheduleQueueCheck(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -277,7 +295,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 s_logger.debug("job-" + jobId + " is already completed.");
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            scheduleQueueCheck(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -292,6 +310,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Wake up jobs related to job-" + jobId);
         }
+        final Long[] queueId = new Long[1];
         final List<Long> wakeupList = Transaction.execute(new TransactionCallback<List<Long>>() {
             @Override
             public List<Long> doInTransaction(final TransactionStatus status) {
@@ -321,11 +340,12 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 _joinMapDao.disjoinAllJobs(jobId);
 
                 // purge the job sync item from queue
-                _queueMgr.purgeAsyncJobQueueItemId(jobId);
+                queueId[0] = _queueMgr.purgeAsyncJobQueueItemId(jobId);
 
                 return wakeupList;
             }
         });
+        scheduleQueueCheck(queueId[0]);
 
         publishOnEventBus(job, "complete"); // publish before the instance type and ID are wiped out
 
@@ -442,6 +462,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public void syncAsyncJobExecution(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        SyncQueueVO queue = queueJob(job, syncObjType, syncObjId, queueSizeLimit);
+        scheduleQueueCheck(queue.getId());
+    }
+
+    private SyncQueueVO queueJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
@@ -450,6 +475,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
     }
 
     @Override
@@ -620,6 +646,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         if (job.getSyncSource() != null) {
                             // here check queue item one more time to double make sure that queue item is removed in case of any uncaught exception
                             _queueMgr.purgeItem(job.getSyncSource().getId());
+                            scheduleQueueCheck(job.getSyncSource().getQueueId());
                         }
 
                         try {
@@ -655,7 +682,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         return signals;
     }
 
-    private void executeQueueItem(SyncQueueItemVO item, boolean fromPreviousSession) {
+    /**
+     * @return false if the executor rejected the job and the item went back to the queue.
+     */
+    private boolean executeQueueItem(SyncQueueItemVO item, boolean fromPreviousSession) {
         AsyncJobVO job = _jobDao.findById(item.getContentId());
         if (job != null) {
             if (s_logger.isDebugEnabled()) {
@@ -699,6 +729,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 } catch (Exception e3) {
                     s_logger.warn("Unexpected exception while update job-" + item.getContentId() + " msid for bookkeeping");
                 }
+
+                // this server is saturated, let the others pick the item up
+                notifyPeersOfQueue(item.getQueueId());
+                return false;
             }
 
         } else {
@@ -708,6 +742,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             _queueMgr.purgeItem(item.getId());
         }
+        return true;
     }
 
     @Override
@@ -722,25 +757,29 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             }
 
             _queueMgr.purgeItem(executionContext.getSyncSource().getId());
-            checkQueue(executionContext.getSyncSource().getQueueId());
+            scheduleQueueCheck(executionContext.getSyncSource().getQueueId());
         }
     }
 
     @Override
     public boolean waitAndCheck(AsyncJob job, String[] wakeupTopicsOnMessageBus, long checkIntervalInMilliSeconds, long timeoutInMiliseconds, Predicate predicate) {
 
-        MessageDetector msgDetector = new MessageDetector();
-        String[] topics = Arrays.copyOf(wakeupTopicsOnMessageBus, wakeupTopicsOnMessageBus.length + 1);
-        topics[topics.length - 1] = AsyncJob.Topics.JOB_STATE;
+        Set<String> topics = new LinkedHashSet<String>(Arrays.asList(wakeupTopicsOnMessageBus));
+        topics.add(AsyncJob.Topics.JOB_STATE);
 
-        msgDetector.open(_messageBus, topics);
+        JobWakeupDetector detector = new JobWakeupDetector(job.getId());
+        for (String topic : topics) {
+            _messageBus.subscribe(topic, detector);
+        }
         try {
             long startTick = System.currentTimeMillis();
             while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
-                job = _jobDao.findById(job.getId());
-                if (job != null && job.getStatus().done()) {
-                    return true;
+                // the job record only needs a look when its own state changed, or as a fallback when nothing arrived
+                if (detector.waitAny(checkIntervalInMilliSeconds)) {
+                    job = _jobDao.findById(job.getId());
+                    if (job != null && job.getStatus().done()) {
+                        return true;
+                    }
                 }
 
                 if (predicate.checkCondition()) {
@@ -748,12 +787,61 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
             }
         } finally {
-            msgDetector.close();
+            for (String topic : topics) {
+                _messageBus.unsubscribe(topic, detector);
+            }
         }
 
         return false;
     }
 
+    /**
+     * Wakes up a job waiting in waitAndCheck. State changes of other jobs are
+     * ignored, a busy server completes many jobs and each used to make every
+     * waiter read its job again.
+     */
+    static class JobWakeupDetector implements MessageSubscriber {
+        private final long _jobId;
+        private boolean _signalled;
+        private boolean _jobStateChanged;
+
+        JobWakeupDetector(long jobId) {
+            _jobId = jobId;
+        }
+
+        @Override
+        public synchronized void onPublishMessage(String senderAddress, String subject, Object args) {
+            if (AsyncJob.Topics.JOB_STATE.equals(subject)) {
+                if (!(args instanceof Long) || (Long)args != _jobId) {
+                    return;
+                }
+                _jobStateChanged = true;
+            }
+            _signalled = true;
+            notifyAll();
+        }
+
+        /**
+         * @return true if the state of the job changed or nothing arrived in time.
+         */
+        synchronized boolean waitAny(long timeoutInMiliseconds) {
+            if (timeoutInMiliseconds < 100) {
+                timeoutInMiliseconds = 100;
+            }
+            if (!_signalled) {
+                try {
+                    wait(timeoutInMiliseconds);
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interupted while waiting on any message.");
+                }
+            }
+            boolean check = _jobStateChanged || !_signalled;
+            _signalled = false;
+            _jobStateChanged = false;
+            return check;
+        }
+    }
+
     @Override
     public String marshallResultObject(Serializable obj) {
         if (obj != null)
@@ -769,6 +857,35 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         return null;
     }
 
+    void scheduleQueueCheck(final Long queueId) {
+        if (queueId == null || _pendingQueueChecks.putIfAbsent(queueId, Boolean.TRUE) != null) {
+            return;
+        }
+
+        try {
+            _queueDispatcher.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    // an item released from here on needs another check
+                    _pendingQueueChecks.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _pendingQueueChecks.remove(queueId);
+            s_logger.warn("Unable to dispatch sync queue-" + queueId + ", leave it to the other management servers and the queue scan");
+            notifyPeersOfQueue(queueId);
+        }
+    }
+
+    private void notifyPeersOfQueue(long queueId) {
+        try {
+            _clusterMgr.notifyPeers(QUEUE_NOTIFICATION_TOPIC, String.valueOf(queueId));
+        } catch (Exception e) {
+            s_logger.warn("Unable to notify management servers of sync queue-" + queueId, e);
+        }
+    }
+
     private void checkQueue(long queueId) {
         while (true) {
             try {
@@ -778,7 +895,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         s_logger.debug("Executing sync queue item: " + item.toString());
                     }
 
-                    executeQueueItem(item, false);
+                    if (!executeQueueItem(item, false)) {
+                        break;
+                    }
                 } else {
                     break;
                 }
@@ -808,6 +927,45 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
             }
 
+            protected void reallyRun() {
+                try {
+                    List<Long> standaloneWakeupJobs = wakeupScan();
+                    for (Long jobId : standaloneWakeupJobs) {
+                        // TODO, we assume that all jobs in this category is API job only
+                        AsyncJobVO job = _jobDao.findById(jobId);
+                        if (job != null && (job.getPendingSignals() & AsyncJob.Constants.SIGNAL_MASK_WAKEUP) != 0)
+                            scheduleExecution(job, false);
+                    }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues are dispatched when an item is added or released, the scan only
+     * picks up items whose dispatch was lost, e.g. to a server going down.
+     */
+    private Runnable getQueueScanTask() {
+        return new ManagedContextRunnable() {
+
+            @Override
+            protected void runInContext() {
+                GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerQueueScan");
+                try {
+                    if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
+                        try {
+                            reallyRun();
+                        } finally {
+                            scanLock.unlock();
+                        }
+                    }
+                } finally {
+                    scanLock.releaseRef();
+                }
+            }
+
             protected void reallyRun() {
                 try {
                     List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
@@ -819,14 +977,6 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             executeQueueItem(item, false);
                         }
                     }
-
-                    List<Long> standaloneWakeupJobs = wakeupScan();
-                    for (Long jobId : standaloneWakeupJobs) {
-                        // TODO, we assume that all jobs in this category is API job only
-                        AsyncJobVO job = _jobDao.findById(jobId);
-                        if (job != null && (job.getPendingSignals() & AsyncJob.Constants.SIGNAL_MASK_WAKEUP) != 0)
-                            scheduleExecution(job, false);
-                    }
                 } catch (Throwable e) {
                     s_logger.error("Unexpected exception when trying to execute queue item, ", e);
                 }
@@ -871,6 +1021,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
                                 // purge the item and resume queue processing
                                 _queueMgr.purgeItem(item.getId());
+                                scheduleQueueCheck(item.getQueueId());
                             } catch (Throwable e) {
                                 s_logger.error("Unexpected exception when trying to remove job from sync queue, ", e);
                             }
@@ -1109,7 +1260,20 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     public boolean start() {
         cleanupLeftOverJobs(getMsid());
 
+        _clusterMgr.registerNotificationListener(QUEUE_NOTIFICATION_TOPIC, new ClusterManager.NotificationListener() {
+            @Override
+            public void onNotification(String sourcePeer, String message) {
+                try {
+                    scheduleQueueCheck(Long.parseLong(message));
+                } catch (NumberFormatException e) {
+                    s_logger.warn("Invalid sync queue notification from management server " + sourcePeer + ": " + message);
+                }
+            }
+        });
+
+        int queueScanInterval = JobQueueScanInterval.value();
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        _heartbeatScheduler.scheduleAtFixedRate(getQueueScanTask(), queueScanInterval, queueScanInterval, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
 
         return true;
@@ -1118,6 +1282,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
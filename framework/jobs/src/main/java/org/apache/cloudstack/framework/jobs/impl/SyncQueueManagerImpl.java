@@ -18,7 +18,12 @@ package org.apache.cloudstack.framework.jobs.impl;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
@@ -27,6 +32,7 @@ import org.apache.log4j.Logger;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
@@ -34,6 +40,7 @@ import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
@@ -43,6 +50,28 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
 
+    private final ConcurrentMap<String, WaitStatistics> _waitStats = new ConcurrentHashMap<String, WaitStatistics>();
+
+    @Override
+    public boolean start() {
+        try {
+            JmxUtil.registerMBean("SyncQueueManager", "Wait Statistics", new SyncQueueMBeanImpl(this));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register sync queue statistics for JMX", e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        try {
+            JmxUtil.unregisterMBean("SyncQueueManager", "Wait Statistics");
+        } catch (Exception e) {
+            s_logger.warn("Unable to unregister sync queue statistics from JMX", e);
+        }
+        return true;
+    }
+
     @Override
     @DB
     public SyncQueueVO queue(final String syncObjType, final long syncObjId, final String itemType, final long itemId, final long queueSizeLimit) {
@@ -79,47 +108,20 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @DB
     public SyncQueueItemVO dequeueFromOne(final long queueId, final Long msid) {
         try {
-            return Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
+            Pair<SyncQueueItemVO, String> claimed = Transaction.execute(new TransactionCallback<Pair<SyncQueueItemVO, String>>() {
                 @Override
-                public SyncQueueItemVO doInTransaction(TransactionStatus status) {
-                    SyncQueueVO queueVO = _syncQueueDao.findById(queueId);
-                    if(queueVO == null) {
-                        s_logger.error("Sync queue(id: " + queueId + ") does not exist");
-                        return null;
-                    }
-
-                    if (queueReadyToProcess(queueVO)) {
-                        SyncQueueItemVO itemVO = _syncQueueItemDao.getNextQueueItem(queueVO.getId());
-                        if (itemVO != null) {
-                            Long processNumber = queueVO.getLastProcessNumber();
-                            if (processNumber == null)
-                                processNumber = new Long(1);
-                            else
-                                processNumber = processNumber + 1;
-                            Date dt = DateUtil.currentGMTTime();
-                            queueVO.setLastProcessNumber(processNumber);
-                            queueVO.setLastUpdated(dt);
-                            queueVO.setQueueSize(queueVO.getQueueSize() + 1);
-                            _syncQueueDao.update(queueVO.getId(), queueVO);
-
-                            itemVO.setLastProcessMsid(msid);
-                            itemVO.setLastProcessNumber(processNumber);
-                            itemVO.setLastProcessTime(dt);
-                            _syncQueueItemDao.update(itemVO.getId(), itemVO);
-
-                            return itemVO;
-                        } else {
-                            if (s_logger.isDebugEnabled())
-                                s_logger.debug("Sync queue (" + queueId + ") is currently empty");
-                        }
-                    } else {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("There is a pending process in sync queue(id: " + queueId + ")");
-                    }
-
-                    return null;
+                public Pair<SyncQueueItemVO, String> doInTransaction(TransactionStatus status) {
+                    return _syncQueueItemDao.claimNextQueueItem(queueId, msid);
                 }
             });
+            if (claimed == null) {
+                if (s_logger.isDebugEnabled())
+                    s_logger.debug("Sync queue(id: " + queueId + ") is empty or has a pending process");
+                return null;
+            }
+
+            recordWait(claimed.second(), claimed.first(), false);
+            return claimed.first();
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
@@ -132,6 +134,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     public List<SyncQueueItemVO> dequeueFromAny(final Long msid, final int maxItems) {
 
         final List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
+        final List<String> syncObjTypes = new ArrayList<String>();
 
         try {
             Transaction.execute(new TransactionCallbackNoReturn() {
@@ -161,12 +164,16 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                                 _syncQueueItemDao.update(item.getId(), itemVO);
 
                                 resultList.add(itemVO);
+                                syncObjTypes.add(queueVO.getSyncObjType());
                             }
                         }
                     }
                 }
             });
 
+            for (int i = 0; i < resultList.size(); i++) {
+                recordWait(syncObjTypes.get(i), resultList.get(i), true);
+            }
             return resultList;
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
@@ -178,10 +185,14 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Override
     @DB
     public void purgeItem(final long queueItemId) {
+        purgeItemFromQueue(queueItemId);
+    }
+
+    private Long purgeItemFromQueue(final long queueItemId) {
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            return Transaction.execute(new TransactionCallback<Long>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
+                public Long doInTransaction(TransactionStatus status) {
                     SyncQueueItemVO itemVO = _syncQueueItemDao.findById(queueItemId);
                     if(itemVO != null) {
                         SyncQueueVO queueVO = _syncQueueDao.findById(itemVO.getQueueId());
@@ -196,12 +207,15 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                             _syncQueueDao.update(queueVO.getId(), queueVO);
                         }
+                        return itemVO.getQueueId();
                     }
+                    return null;
                 }
             });
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
+        return null;
     }
 
     @Override
@@ -255,10 +269,60 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     }
 
     @Override
-    public void purgeAsyncJobQueueItemId(long asyncJobId) {
+    public Long purgeAsyncJobQueueItemId(long asyncJobId) {
         Long itemId = _syncQueueItemDao.getQueueItemIdByContentIdAndType(asyncJobId, SyncQueueItem.AsyncJobContentType);
         if (itemId != null) {
-            purgeItem(itemId);
+            return purgeItemFromQueue(itemId);
+        }
+        return null;
+    }
+
+    private void recordWait(String syncObjType, SyncQueueItemVO item, boolean scanned) {
+        if (syncObjType == null || item.getCreated() == null || item.getLastProcessTime() == null) {
+            return;
+        }
+        WaitStatistics stats = _waitStats.get(syncObjType);
+        if (stats == null) {
+            _waitStats.putIfAbsent(syncObjType, new WaitStatistics());
+            stats = _waitStats.get(syncObjType);
+        }
+        stats.record(Math.max(0, item.getLastProcessTime().getTime() - item.getCreated().getTime()), scanned);
+    }
+
+    public List<Map<String, String>> getQueueWaitStatistics() {
+        List<Map<String, String>> result = new ArrayList<Map<String, String>>(_waitStats.size());
+        for (Map.Entry<String, WaitStatistics> entry : _waitStats.entrySet()) {
+            WaitStatistics stats = entry.getValue();
+            long dequeued = stats._dequeued.get();
+            long waited = stats._totalWaitMs.get();
+            Map<String, String> stat = new HashMap<String, String>();
+            stat.put("syncObjType", entry.getKey());
+            stat.put("dequeued", String.valueOf(dequeued));
+            stat.put("scanned", String.valueOf(stats._scanned.get()));
+            stat.put("totalWaitMs", String.valueOf(waited));
+            stat.put("averageWaitMs", String.valueOf(dequeued == 0 ? 0 : waited / dequeued));
+            stat.put("maxWaitMs", String.valueOf(stats._maxWaitMs.get()));
+            result.add(stat);
+        }
+        return result;
+    }
+
+    private static class WaitStatistics {
+        final AtomicLong _dequeued = new AtomicLong();
+        final AtomicLong _scanned = new AtomicLong();
+        final AtomicLong _totalWaitMs = new AtomicLong();
+        final AtomicLong _maxWaitMs = new AtomicLong();
+
+        void record(long waitMs, boolean scanned) {
+            _dequeued.incrementAndGet();
+            if (scanned) {
+                _scanned.incrementAndGet();
+            }
+            _totalWaitMs.addAndGet(waitMs);
+            long max = _maxWaitMs.get();
+            while (waitMs > max && !_maxWaitMs.compareAndSet(max, waitMs)) {
+                max = _maxWaitMs.get();
+            }
         }
     }
 
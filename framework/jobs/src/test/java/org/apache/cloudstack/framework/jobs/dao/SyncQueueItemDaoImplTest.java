@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.cloudstack.framework.jobs.impl.SyncQueueItemVO;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TransactionLegacy.class)
+@PowerMockIgnore("javax.management.*")
+public class SyncQueueItemDaoImplTest {
+
+    private static final long QUEUE_ID = 11;
+    private static final long MSID = 21;
+
+    @Mock
+    private TransactionLegacy transactionMock;
+
+    @Mock
+    private PreparedStatement claimQueueStatementMock;
+
+    @Mock
+    private PreparedStatement claimItemStatementMock;
+
+    @Mock
+    private PreparedStatement claimedItemStatementMock;
+
+    @Mock
+    private ResultSet resultSetMock;
+
+    private final SyncQueueItemDaoImpl syncQueueItemDao = new SyncQueueItemDaoImpl();
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMockito.mockStatic(TransactionLegacy.class);
+        Mockito.when(TransactionLegacy.currentTxn()).thenReturn(transactionMock);
+
+        Mockito.when(transactionMock.prepareAutoCloseStatement(Mockito.startsWith("UPDATE sync_queue SET"))).thenReturn(claimQueueStatementMock);
+        Mockito.when(transactionMock.prepareAutoCloseStatement(Mockito.startsWith("UPDATE sync_queue_item SET"))).thenReturn(claimItemStatementMock);
+        Mockito.when(transactionMock.prepareAutoCloseStatement(Mockito.startsWith("SELECT"))).thenReturn(claimedItemStatementMock);
+        Mockito.when(claimedItemStatementMock.executeQuery()).thenReturn(resultSetMock);
+    }
+
+    @Test
+    public void testClaimHonoursConcurrencyLimitAndWaitingItem() throws Exception {
+        Mockito.when(claimQueueStatementMock.executeUpdate()).thenReturn(0);
+
+        syncQueueItemDao.claimNextQueueItem(QUEUE_ID, MSID);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(transactionMock).prepareAutoCloseStatement(sql.capture());
+        Assert.assertTrue(sql.getValue().contains("queue_size_limit > (SELECT COUNT(*) FROM sync_queue_item WHERE queue_id = ? AND queue_proc_number IS NOT NULL)"));
+        Assert.assertTrue(sql.getValue().contains("EXISTS (SELECT 1 FROM sync_queue_item WHERE queue_id = ? AND queue_proc_number IS NULL)"));
+        Mockito.verify(claimQueueStatementMock).setLong(2, QUEUE_ID);
+        Mockito.verify(claimQueueStatementMock).setLong(3, QUEUE_ID);
+        Mockito.verify(claimQueueStatementMock).setLong(4, QUEUE_ID);
+    }
+
+    @Test
+    public void testNothingClaimedWhenQueueIsFullOrEmpty() throws Exception {
+        Mockito.when(claimQueueStatementMock.executeUpdate()).thenReturn(0);
+
+        Assert.assertNull(syncQueueItemDao.claimNextQueueItem(QUEUE_ID, MSID));
+
+        Mockito.verifyZeroInteractions(claimItemStatementMock, claimedItemStatementMock);
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testItemClaimedConcurrentlyRollsBackQueueUpdate() throws Exception {
+        Mockito.when(claimQueueStatementMock.executeUpdate()).thenReturn(1);
+        Mockito.when(claimItemStatementMock.executeUpdate()).thenReturn(0);
+
+        syncQueueItemDao.claimNextQueueItem(QUEUE_ID, MSID);
+    }
+
+    @Test
+    public void testClaimReturnsClaimedItem() throws Exception {
+        Mockito.when(claimQueueStatementMock.executeUpdate()).thenReturn(1);
+        Mockito.when(claimItemStatementMock.executeUpdate()).thenReturn(1);
+        Mockito.when(resultSetMock.next()).thenReturn(true);
+        Mockito.when(resultSetMock.getLong(1)).thenReturn(31L);
+        Mockito.when(resultSetMock.getLong(2)).thenReturn(QUEUE_ID);
+        Mockito.when(resultSetMock.getString(3)).thenReturn("AsyncJob");
+        Mockito.when(resultSetMock.getLong(4)).thenReturn(41L);
+        Mockito.when(resultSetMock.getString(5)).thenReturn("2020-01-01 00:00:00");
+        Mockito.when(resultSetMock.getLong(6)).thenReturn(3L);
+        Mockito.when(resultSetMock.getString(7)).thenReturn("VmWorkJobQueue");
+
+        Pair<SyncQueueItemVO, String> claimed = syncQueueItemDao.claimNextQueueItem(QUEUE_ID, MSID);
+
+        Assert.assertNotNull(claimed);
+        Assert.assertEquals(31L, claimed.first().getId());
+        Assert.assertEquals(QUEUE_ID, claimed.first().getQueueId().longValue());
+        Assert.assertEquals(3L, claimed.first().getLastProcessNumber().longValue());
+        Assert.assertEquals(MSID, claimed.first().getLastProcessMsid().longValue());
+        Assert.assertEquals("VmWorkJobQueue", claimed.second());
+        Mockito.verify(claimItemStatementMock).setLong(1, MSID);
+    }
+}
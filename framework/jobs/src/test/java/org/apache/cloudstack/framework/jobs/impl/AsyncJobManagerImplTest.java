@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+import org.apache.cloudstack.framework.jobs.dao.AsyncJobDao;
+import org.apache.cloudstack.jobs.JobInfo;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+import com.cloud.cluster.ClusterManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncJobManagerImplTest {
+
+    private static final long QUEUE_ID = 11;
+    private static final long JOB_ID = 21;
+
+    @Mock
+    private SyncQueueManager queueMgr;
+
+    @Mock
+    private AsyncJobDao jobDao;
+
+    @Mock
+    private ClusterManager clusterMgr;
+
+    @Mock
+    private ExecutorService queueDispatcher;
+
+    @InjectMocks
+    private AsyncJobManagerImpl asyncJobManager = new AsyncJobManagerImpl();
+
+    @Before
+    public void setUp() {
+        Whitebox.setInternalState(asyncJobManager, "_queueDispatcher", queueDispatcher);
+    }
+
+    @Test
+    public void testQueueCheckIsCoalescedUntilItStarts() {
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+
+        ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(queueDispatcher).execute(check.capture());
+
+        check.getValue().run();
+        Mockito.verify(queueMgr).dequeueFromOne(Mockito.eq(QUEUE_ID), Mockito.anyLong());
+
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+        Mockito.verify(queueDispatcher, Mockito.times(2)).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void testQueueChecksOfDifferentQueuesAreNotCoalesced() {
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID + 1);
+
+        Mockito.verify(queueDispatcher, Mockito.times(2)).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void testPurgedItemOfMissingJobChecksItsQueue() {
+        Mockito.when(queueMgr.purgeAsyncJobQueueItemId(JOB_ID)).thenReturn(QUEUE_ID);
+
+        asyncJobManager.completeAsyncJob(JOB_ID, JobInfo.Status.SUCCEEDED, 0, null);
+
+        Mockito.verify(queueDispatcher).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void testPurgedItemOfCompletedJobChecksItsQueue() {
+        AsyncJobVO job = new AsyncJobVO();
+        job.setStatus(JobInfo.Status.SUCCEEDED);
+        Mockito.when(jobDao.findById(JOB_ID)).thenReturn(job);
+        Mockito.when(queueMgr.purgeAsyncJobQueueItemId(JOB_ID)).thenReturn(QUEUE_ID);
+
+        asyncJobManager.completeAsyncJob(JOB_ID, JobInfo.Status.SUCCEEDED, 0, null);
+
+        Mockito.verify(queueDispatcher).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void testNoQueueCheckWhenJobHadNoQueueItem() {
+        Mockito.when(queueMgr.purgeAsyncJobQueueItemId(JOB_ID)).thenReturn(null);
+
+        asyncJobManager.completeAsyncJob(JOB_ID, JobInfo.Status.SUCCEEDED, 0, null);
+
+        Mockito.verifyZeroInteractions(queueDispatcher);
+    }
+
+    @Test
+    public void testRejectedQueueCheckNotifiesPeers() {
+        Mockito.doThrow(new RejectedExecutionException()).when(queueDispatcher).execute(Mockito.any(Runnable.class));
+
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+
+        Mockito.verify(clusterMgr).notifyPeers(Mockito.anyString(), Mockito.eq(String.valueOf(QUEUE_ID)));
+
+        // the rejected check is not left pending, so the next release tries again
+        asyncJobManager.scheduleQueueCheck(QUEUE_ID);
+        Mockito.verify(queueDispatcher, Mockito.times(2)).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void testWakeupDetectorIgnoresStateOfOtherJobs() {
+        AsyncJobManagerImpl.JobWakeupDetector detector = new AsyncJobManagerImpl.JobWakeupDetector(JOB_ID);
+
+        detector.onPublishMessage(null, AsyncJob.Topics.JOB_STATE, JOB_ID + 1);
+        Assert.assertFalse(detector.waitAny(100));
+
+        detector.onPublishMessage(null, AsyncJob.Topics.JOB_STATE, JOB_ID);
+        Assert.assertTrue(detector.waitAny(100));
+    }
+
+    @Test
+    public void testWakeupDetectorChecksJobWhenNothingArrives() {
+        AsyncJobManagerImpl.JobWakeupDetector detector = new AsyncJobManagerImpl.JobWakeupDetector(JOB_ID);
+
+        Assert.assertTrue(detector.waitAny(100));
+    }
+}
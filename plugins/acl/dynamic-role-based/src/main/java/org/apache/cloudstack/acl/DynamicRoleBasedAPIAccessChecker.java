@@ -21,12 +21,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import com.cloud.exception.UnavailableCommandException;
 import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.user.Account;
@@ -36,15 +41,22 @@ import com.cloud.utils.component.AdapterBase;
 import com.cloud.utils.component.PluggableService;
 import com.google.common.base.Strings;
 
-public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements APIAclChecker {
+public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements APIAclChecker, Configurable {
+
+    static final ConfigKey<Integer> RolePermissionsCacheTtl = new ConfigKey<>("Advanced", Integer.class, "dynamic.apichecker.cache.ttl", "60",
+            "Number of seconds the compiled permissions of a role are cached by the dynamic role-based api access checker. Changes are applied at once on the management server " +
+            "where they are made, other management servers pick them up after this period. Set to 0 to disable the cache.", true);
 
     @Inject
     private AccountService accountService;
     @Inject
     private RoleService roleService;
+    @Inject
+    private MessageBus messageBus;
 
     private List<PluggableService> services;
     private Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<>();
+    private final Map<Long, CachedRolePermissions> rolePermissionsCache = new ConcurrentHashMap<>();
 
     protected DynamicRoleBasedAPIAccessChecker() {
         super();
@@ -82,13 +94,12 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         }
 
         // Check against current list of permissions
-        for (final RolePermission permission : roleService.findAllPermissionsBy(accountRole.getId())) {
-            if (permission.getRule().matches(commandName)) {
-                if (RolePermission.Permission.ALLOW.equals(permission.getPermission())) {
-                    return true;
-                } else {
-                    denyApiAccess(commandName);
-                }
+        final RolePermission.Permission permission = getRolePermissionMatcher(accountRole.getId()).match(commandName);
+        if (permission != null) {
+            if (RolePermission.Permission.ALLOW.equals(permission)) {
+                return true;
+            } else {
+                denyApiAccess(commandName);
             }
         }
 
@@ -102,6 +113,32 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         throw new UnavailableCommandException("The API " + commandName + " does not exist or is not available for this account.");
     }
 
+    /**
+     * Returns the compiled permissions of the role, compiling and caching them on a miss.
+     * Cached entries are dropped when RoleService reports a change of the role, and expire
+     * after {@link #RolePermissionsCacheTtl} to pick up changes made on other management servers.
+     */
+    protected RolePermissionMatcher getRolePermissionMatcher(final long roleId) {
+        final long ttl = RolePermissionsCacheTtl.value() * 1000L;
+        final long now = System.currentTimeMillis();
+        CachedRolePermissions cached = rolePermissionsCache.get(roleId);
+        if (cached == null || now - cached.compiledAt >= ttl) {
+            cached = new CachedRolePermissions(new RolePermissionMatcher(roleService.findAllPermissionsBy(roleId)), now);
+            if (ttl > 0) {
+                rolePermissionsCache.put(roleId, cached);
+            }
+        }
+        return cached.matcher;
+    }
+
+    public void invalidateRolePermissions(final Long roleId) {
+        if (roleId == null) {
+            rolePermissionsCache.clear();
+        } else {
+            rolePermissionsCache.remove(roleId);
+        }
+    }
+
     public void addApiToRoleBasedAnnotationsMap(final RoleType roleType, final String commandName) {
         if (roleType == null || Strings.isNullOrEmpty(commandName)) {
             return;
@@ -128,9 +165,25 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
                 }
             }
         }
+        messageBus.subscribe(RoleService.ROLE_PERMISSIONS_CHANGED, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                invalidateRolePermissions((Long)args);
+            }
+        });
         return super.start();
     }
 
+    @Override
+    public String getConfigComponentName() {
+        return DynamicRoleBasedAPIAccessChecker.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {RolePermissionsCacheTtl};
+    }
+
     public List<PluggableService> getServices() {
         return services;
     }
@@ -140,4 +193,14 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         this.services = services;
     }
 
+    private static class CachedRolePermissions {
+        private final RolePermissionMatcher matcher;
+        private final long compiledAt;
+
+        CachedRolePermissions(final RolePermissionMatcher matcher, final long compiledAt) {
+            this.matcher = matcher;
+            this.compiledAt = compiledAt;
+        }
+    }
+
 }
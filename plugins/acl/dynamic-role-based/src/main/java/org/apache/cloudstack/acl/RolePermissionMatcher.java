@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Strings;
+
+/**
+ * Compiled form of the ordered permission list of a role. Gives the same answer as
+ * walking the list and returning the permission of the first {@link Rule} that
+ * matches, without evaluating the rules one by one:
+ *   - rules without wildcards go into a hash keyed by the lower-cased API name,
+ *   - rules with wildcards are merged into a single alternation whose groups are in
+ *     rule order, so the first group that matches is the first matching wildcard rule,
+ *   - the outcome per API name is memoized, the set of API names is small and fixed.
+ */
+public class RolePermissionMatcher {
+    private static final int MAX_MEMOIZED_DECISIONS = 4096;
+
+    private enum Decision {
+        ALLOW, DENY, NONE
+    }
+
+    private final RolePermission.Permission[] permissions;
+    private final Map<String, Integer> exactRules = new HashMap<>();
+    private final Pattern wildcardRules;
+    private final int[] wildcardRuleIndexes;
+    private final Map<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    public RolePermissionMatcher(final List<RolePermission> rolePermissions) {
+        permissions = new RolePermission.Permission[rolePermissions.size()];
+        int[] wildcardIndexes = new int[rolePermissions.size()];
+        int wildcards = 0;
+        StringBuilder automaton = new StringBuilder();
+
+        for (int i = 0; i < rolePermissions.size(); i++) {
+            final RolePermission permission = rolePermissions.get(i);
+            permissions[i] = permission.getPermission();
+            final String rule = permission.getRule().getRuleString().toLowerCase();
+            if (rule.indexOf('*') < 0) {
+                exactRules.putIfAbsent(rule, i);
+            } else {
+                if (wildcards > 0) {
+                    automaton.append('|');
+                }
+                automaton.append('(').append(rule.replace("*", "\\w*")).append(')');
+                wildcardIndexes[wildcards++] = i;
+            }
+        }
+
+        wildcardRules = wildcards > 0 ? Pattern.compile(automaton.toString()) : null;
+        wildcardRuleIndexes = wildcardIndexes;
+    }
+
+    /**
+     * @return the permission of the first rule matching the API name, null if no rule matches
+     */
+    public RolePermission.Permission match(final String commandName) {
+        if (Strings.isNullOrEmpty(commandName)) {
+            return null;
+        }
+
+        Decision decision = decisions.get(commandName);
+        if (decision == null) {
+            decision = decide(commandName.toLowerCase());
+            if (decisions.size() < MAX_MEMOIZED_DECISIONS) {
+                decisions.put(commandName, decision);
+            }
+        }
+
+        switch (decision) {
+            case ALLOW:
+                return RolePermission.Permission.ALLOW;
+            case DENY:
+                return RolePermission.Permission.DENY;
+            default:
+                return null;
+        }
+    }
+
+    private Decision decide(final String commandName) {
+        int first = Integer.MAX_VALUE;
+
+        final Integer exact = exactRules.get(commandName);
+        if (exact != null) {
+            first = exact;
+        }
+
+        if (wildcardRules != null) {
+            final Matcher matcher = wildcardRules.matcher(commandName);
+            if (matcher.matches()) {
+                for (int group = 1; group <= matcher.groupCount(); group++) {
+                    if (matcher.group(group) != null) {
+                        first = Math.min(first, wildcardRuleIndexes[group - 1]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (first == Integer.MAX_VALUE) {
+            return Decision.NONE;
+        }
+        return RolePermission.Permission.ALLOW.equals(permissions[first]) ? Decision.ALLOW : Decision.DENY;
+    }
+
+    public int size() {
+        return permissions.length;
+    }
+}
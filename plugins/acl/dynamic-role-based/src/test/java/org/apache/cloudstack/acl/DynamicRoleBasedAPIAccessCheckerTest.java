@@ -154,6 +154,26 @@ public class DynamicRoleBasedAPIAccessCheckerTest extends TestCase {
         }
     }
 
+    @Test
+    public void testRolePermissionsCachedUntilInvalidated() {
+        final String apiName = "someCachedApi";
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, RolePermission.Permission.ALLOW, null)));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, RolePermission.Permission.DENY, null)));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+        Mockito.verify(roleService, Mockito.times(1)).findAllPermissionsBy(Mockito.anyLong());
+
+        apiAccessChecker.invalidateRolePermissions(getTestRole().getId());
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), apiName);
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+    }
+
     @Test
     public void testAnnotationFallbackCheckAccess() {
         final String allowedApiName = "someApiWithAnnotations";
@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the per-call linear {@link Rule#matches(String)} walk the api checker used to do
+ * with {@link RolePermissionMatcher} on a role with 400 rules. Not run as part of the unit
+ * tests, start it with
+ *
+ *   java -cp ... org.apache.cloudstack.acl.RolePermissionMatcherBenchmark [iterations]
+ */
+public class RolePermissionMatcherBenchmark {
+    private static final String[] VERBS = {"list", "create", "update", "delete", "add", "remove", "enable", "disable"};
+    private static final String[] NOUNS = {"VirtualMachine", "Network", "Volume", "Host", "Zone", "Pod", "Cluster", "Template", "Iso", "Snapshot",
+            "Account", "Domain", "User", "Project", "Vpc", "LoadBalancerRule", "FirewallRule", "SecurityGroup", "Tag", "Event",
+            "Alert", "Router", "StoragePool", "ServiceOffering", "DiskOffering"};
+
+    public static void main(String[] args) {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        final List<RolePermission> permissions = new ArrayList<>();
+        final List<String> apis = new ArrayList<>();
+        for (final String noun : NOUNS) {
+            for (final String verb : VERBS) {
+                apis.add(verb + noun + "s");
+                permissions.add(new RolePermissionVO(1L, verb + noun + "s", RolePermission.Permission.ALLOW, null));
+                permissions.add(new RolePermissionVO(1L, verb + noun + "*", RolePermission.Permission.DENY, null));
+            }
+        }
+        // unmatched API names fall through all 400 rules, the worst case for the linear walk
+        apis.add("queryAsyncJobResult");
+        apis.add("getVMPassword");
+
+        final RolePermissionMatcher matcher = new RolePermissionMatcher(permissions);
+        System.out.println("rules: " + permissions.size() + ", api names: " + apis.size());
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int allowed = 0;
+            for (int i = 0; i < iterations; i++) {
+                final String api = apis.get(i % apis.size());
+                for (final RolePermission permission : permissions) {
+                    if (permission.getRule().matches(api)) {
+                        if (RolePermission.Permission.ALLOW.equals(permission.getPermission())) {
+                            allowed++;
+                        }
+                        break;
+                    }
+                }
+            }
+            final long linear = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int compiledAllowed = 0;
+            for (int i = 0; i < iterations; i++) {
+                if (RolePermission.Permission.ALLOW.equals(matcher.match(apis.get(i % apis.size())))) {
+                    compiledAllowed++;
+                }
+            }
+            final long compiled = System.nanoTime() - start;
+
+            System.out.println(String.format("round %d: linear %.0f ns/check, compiled %.0f ns/check (allowed %d/%d)", round,
+                    (double)linear / iterations, (double)compiled / iterations, allowed, compiledAllowed));
+        }
+    }
+}
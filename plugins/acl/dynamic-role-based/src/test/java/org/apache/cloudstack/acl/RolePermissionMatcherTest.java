@@ -0,0 +1,94 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RolePermissionMatcherTest {
+
+    private static RolePermission permission(final String rule, final RolePermission.Permission permission) {
+        return new RolePermissionVO(1L, rule, permission, null);
+    }
+
+    private static RolePermission.Permission linearMatch(final List<RolePermission> permissions, final String commandName) {
+        for (final RolePermission permission : permissions) {
+            if (permission.getRule().matches(commandName)) {
+                return permission.getPermission();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        final List<RolePermission> permissions = Arrays.asList(
+                permission("listVirtualMachines", RolePermission.Permission.DENY),
+                permission("list*", RolePermission.Permission.ALLOW),
+                permission("*Network*", RolePermission.Permission.DENY),
+                permission("createNetwork", RolePermission.Permission.ALLOW));
+        final RolePermissionMatcher matcher = new RolePermissionMatcher(permissions);
+
+        Assert.assertEquals(RolePermission.Permission.DENY, matcher.match("listVirtualMachines"));
+        Assert.assertEquals(RolePermission.Permission.ALLOW, matcher.match("listNetworks"));
+        Assert.assertEquals(RolePermission.Permission.DENY, matcher.match("createNetwork"));
+        Assert.assertEquals(RolePermission.Permission.ALLOW, matcher.match("LISTZONES"));
+        Assert.assertNull(matcher.match("deployVirtualMachine"));
+        Assert.assertNull(matcher.match(""));
+        Assert.assertNull(matcher.match(null));
+    }
+
+    @Test
+    public void testEmptyPermissions() {
+        final RolePermissionMatcher matcher = new RolePermissionMatcher(new ArrayList<RolePermission>());
+        Assert.assertNull(matcher.match("listZones"));
+    }
+
+    @Test
+    public void testSameResultAsLinearRuleEvaluation() {
+        final String[] apis = {"listVirtualMachines", "deployVirtualMachine", "destroyVirtualMachine", "listNetworks", "createNetwork",
+                "updateNetworkOffering", "listZones", "addHost", "listHosts", "createVolume", "attachVolume", "listEvents", "queryAsyncJobResult"};
+        final String[] fragments = {"list", "create", "Virtual", "Machine", "Network", "Volume", "Host", "Zone", "update", "Offering", "*", "*", "*"};
+        final Random random = new Random(42);
+
+        for (int round = 0; round < 200; round++) {
+            final List<RolePermission> permissions = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final StringBuilder rule = new StringBuilder();
+                final int parts = 1 + random.nextInt(3);
+                for (int p = 0; p < parts; p++) {
+                    rule.append(fragments[random.nextInt(fragments.length)]);
+                }
+                if (random.nextInt(4) == 0) {
+                    rule.setLength(0);
+                    rule.append(apis[random.nextInt(apis.length)]);
+                }
+                permissions.add(permission(rule.toString(), random.nextBoolean() ? RolePermission.Permission.ALLOW : RolePermission.Permission.DENY));
+            }
+
+            final RolePermissionMatcher matcher = new RolePermissionMatcher(permissions);
+            for (final String api : apis) {
+                Assert.assertEquals(permissions + " " + api, linearMatch(permissions, api), matcher.match(api));
+            }
+        }
+    }
+}
@@ -59,6 +59,7 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.test.utils.SpringUtils;
 
 import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
@@ -544,6 +545,11 @@ public class ImplicitPlannerTest {
             return Mockito.mock(CapacityManager.class);
         }
 
+        @Bean
+        public CapacityIndex capacityIndex() {
+            return Mockito.mock(CapacityIndex.class);
+        }
+
         @Bean
         public ConfigurationDao configurationDao() {
             return Mockito.mock(ConfigurationDao.class);
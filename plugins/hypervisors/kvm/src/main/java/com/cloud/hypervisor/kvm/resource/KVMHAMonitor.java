@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.hypervisor.kvm.resource;
 
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.script.Script;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.log4j.Logger;
@@ -24,12 +26,30 @@ import org.libvirt.LibvirtException;
 import org.libvirt.StoragePool;
 import org.libvirt.StoragePoolInfo.StoragePoolState;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class KVMHAMonitor extends KVMHABase implements Runnable {
     private static final Logger s_logger = Logger.getLogger(KVMHAMonitor.class);
@@ -37,11 +57,46 @@ public class KVMHAMonitor extends KVMHABase implements Runnable {
 
     private final String _hostIP; /* private ip address */
 
+    /* write the heartbeats from java, kvmheartbeat.sh is only run to remount a pool that is not mounted */
+    private final boolean _nativeHeartBeat;
+    private final ExecutorService _heartBeatExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("KVMHAMonitor-HeartBeat"));
+    private final Set<String> _pendingWrites = ConcurrentHashMap.newKeySet();
+    private final Map<String, LatencyHistogram> _latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * Counts the heartbeat writes of a pool by how long they took, in the
+     * buckets of {@link PingRoutingCommand#HEARTBEAT_LATENCY_BUCKETS_MS}.
+     */
+    protected static class LatencyHistogram {
+        private final AtomicLongArray _counts = new AtomicLongArray(PingRoutingCommand.HEARTBEAT_LATENCY_BUCKETS_MS.length + 1);
+
+        public void record(long latencyMs) {
+            int bucket = 0;
+            while (bucket < PingRoutingCommand.HEARTBEAT_LATENCY_BUCKETS_MS.length && latencyMs > PingRoutingCommand.HEARTBEAT_LATENCY_BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            _counts.incrementAndGet(bucket);
+        }
+
+        public long[] getCounts() {
+            long[] counts = new long[_counts.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = _counts.get(i);
+            }
+            return counts;
+        }
+    }
+
     public KVMHAMonitor(NfsStoragePool pool, String host, String scriptPath) {
+        this(pool, host, scriptPath, false);
+    }
+
+    public KVMHAMonitor(NfsStoragePool pool, String host, String scriptPath, boolean nativeHeartBeat) {
         if (pool != null) {
             _storagePool.put(pool._poolUUID, pool);
         }
         _hostIP = host;
+        _nativeHeartBeat = nativeHeartBeat;
         configureHeartBeatPath(scriptPath);
     }
 
@@ -77,12 +132,116 @@ public class KVMHAMonitor extends KVMHABase implements Runnable {
         }
     }
 
+    /**
+     * @return the heartbeat write latency histogram of each pool, by its uuid
+     */
+    public Map<String, long[]> getHeartBeatLatencies() {
+        Map<String, long[]> latencies = new HashMap<String, long[]>();
+        for (Map.Entry<String, LatencyHistogram> entry : _latencies.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().getCounts());
+        }
+        return latencies;
+    }
+
+    protected LatencyHistogram getLatencyHistogram(String uuid) {
+        return _latencies.computeIfAbsent(uuid, k -> new LatencyHistogram());
+    }
+
+    protected boolean isMounted(NfsStoragePool pool) {
+        try {
+            for (String mount : Files.readAllLines(Paths.get("/proc/mounts"), StandardCharsets.UTF_8)) {
+                String[] fields = mount.split(" ");
+                if (fields.length > 2 && Paths.get(fields[1]).equals(Paths.get(pool._mountDestPath)) && fields[2].startsWith("nfs")) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            s_logger.debug("Failed to read the mounts: " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes the heartbeat of this host to a pool, in the format of kvmheartbeat.sh.
+     * @return null if written, the error otherwise
+     */
+    protected String writeHeartBeat(NfsStoragePool pool) {
+        if (!_nativeHeartBeat || !isMounted(pool)) {
+            // the script remounts the pool and kills the vms that were running off the lost mount
+            Script cmd = new Script(s_heartBeatPath, _heartBeatUpdateTimeout, s_logger);
+            cmd.add("-i", pool._poolIp);
+            cmd.add("-p", pool._poolMountSourcePath);
+            cmd.add("-m", pool._mountDestPath);
+            cmd.add("-h", _hostIP);
+            return cmd.execute();
+        }
+
+        try {
+            Path hbFile = Paths.get(getHBFile(pool._mountDestPath, _hostIP));
+            Files.createDirectories(hbFile.getParent());
+            ByteBuffer timestamp = ByteBuffer.wrap((System.currentTimeMillis() / 1000 + "\n").getBytes(StandardCharsets.US_ASCII));
+            try (FileChannel channel = FileChannel.open(hbFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (timestamp.hasRemaining()) {
+                    channel.write(timestamp);
+                }
+                channel.force(true);
+            }
+            return null;
+        } catch (IOException e) {
+            return "Failed to write " + getHBFile(pool._mountDestPath, _hostIP) + ": " + e;
+        }
+    }
+
+    /**
+     * Writes the heartbeat of a pool, retrying the failed writes.
+     */
+    private class HeartBeatWriter implements Callable<String> {
+        private final NfsStoragePool _pool;
+
+        HeartBeatWriter(NfsStoragePool pool) {
+            _pool = pool;
+        }
+
+        @Override
+        public String call() {
+            String result = null;
+            try {
+                // Try multiple times, but sleep in between tries to ensure it isn't a short lived transient error
+                for (int i = 1; i <= _heartBeatUpdateMaxTries; i++) {
+                    long start = System.currentTimeMillis();
+                    result = writeHeartBeat(_pool);
+                    long elapsed = System.currentTimeMillis() - start;
+                    if (result == null && elapsed > _heartBeatUpdateTimeout) {
+                        result = "heartbeat write took " + elapsed + " ms";
+                    }
+                    getLatencyHistogram(_pool._poolUUID).record(result == null ? elapsed : Long.MAX_VALUE);
+                    if (result == null) {
+                        break;
+                    }
+                    s_logger.warn("write heartbeat failed: " + result + ", try: " + i + " of " + _heartBeatUpdateMaxTries);
+                    if (i < _heartBeatUpdateMaxTries) {
+                        try {
+                            Thread.sleep(_heartBeatUpdateRetrySleep);
+                        } catch (InterruptedException e) {
+                            s_logger.debug("[ignored] interupted between heartbeat retries.");
+                        }
+                    }
+                }
+            } finally {
+                _pendingWrites.remove(_pool._poolUUID);
+            }
+            return result;
+        }
+    }
+
     private class Monitor extends ManagedContextRunnable {
 
         @Override
         protected void runInContext() {
             synchronized (_storagePool) {
                 Set<String> removedPools = new HashSet<String>();
+                Map<NfsStoragePool, Future<String>> writes = new HashMap<NfsStoragePool, Future<String>>();
+                long deadline = System.currentTimeMillis() + _heartBeatUpdateMaxTries * (_heartBeatUpdateTimeout + _heartBeatUpdateRetrySleep);
                 for (String uuid : _storagePool.keySet()) {
                     NfsStoragePool primaryStoragePool = _storagePool.get(uuid);
 
@@ -118,25 +277,30 @@ public class KVMHAMonitor extends KVMHABase implements Runnable {
                         }
                     }
 
-                    String result = null;
-                    // Try multiple times, but sleep in between tries to ensure it isn't a short lived transient error
-                    for (int i = 1; i <= _heartBeatUpdateMaxTries; i++) {
-                        Script cmd = new Script(s_heartBeatPath, _heartBeatUpdateTimeout, s_logger);
-                        cmd.add("-i", primaryStoragePool._poolIp);
-                        cmd.add("-p", primaryStoragePool._poolMountSourcePath);
-                        cmd.add("-m", primaryStoragePool._mountDestPath);
-                        cmd.add("-h", _hostIP);
-                        result = cmd.execute();
-                        if (result != null) {
-                            s_logger.warn("write heartbeat failed: " + result + ", try: " + i + " of " + _heartBeatUpdateMaxTries);
-                            try {
-                                Thread.sleep(_heartBeatUpdateRetrySleep);
-                            } catch (InterruptedException e) {
-                                s_logger.debug("[ignored] interupted between heartbeat retries.");
-                            }
-                        } else {
-                            break;
-                        }
+                    // a write stuck on an unresponsive mount must not hold up the heartbeats of the other pools,
+                    // nor have more writes queued behind it
+                    if (!_pendingWrites.add(uuid)) {
+                        s_logger.warn("The previous heartbeat write to storage pool " + uuid + " has not finished yet, skipping it");
+                        continue;
+                    }
+                    try {
+                        writes.put(primaryStoragePool, _heartBeatExecutor.submit(new HeartBeatWriter(primaryStoragePool)));
+                    } catch (RejectedExecutionException e) {
+                        _pendingWrites.remove(uuid);
+                        s_logger.warn("Unable to schedule the heartbeat write to storage pool " + uuid, e);
+                    }
+                }
+
+                for (Map.Entry<NfsStoragePool, Future<String>> write : writes.entrySet()) {
+                    NfsStoragePool primaryStoragePool = write.getKey();
+                    String result;
+                    try {
+                        result = write.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        write.getValue().cancel(true);
+                        result = "timed out writing the heartbeat";
+                    } catch (InterruptedException | ExecutionException e) {
+                        result = e.toString();
                     }
 
                     if (result != null) {
@@ -1049,7 +1049,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final String[] info = NetUtils.getNetworkParams(_privateNic);
 
-        _monitor = new KVMHAMonitor(null, info[0], _heartBeatPath);
+        value = (String)params.get("kvm.heartbeat.update.native");
+        _monitor = new KVMHAMonitor(null, info[0], _heartBeatPath, value == null || Boolean.parseBoolean(value));
         final Thread ha = new Thread(_monitor);
         ha.start();
 
@@ -2915,12 +2916,17 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     @Override
     public PingCommand getCurrentStatus(final long id) {
 
+        final PingRoutingCommand ping;
         if (!_canBridgeFirewall) {
-            return new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, this.getHostVmStateReport());
+            ping = new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, this.getHostVmStateReport());
         } else {
             final HashMap<String, Pair<Long, Long>> nwGrpStates = syncNetworkGroups(id);
-            return new PingRoutingWithNwGroupsCommand(getType(), id, this.getHostVmStateReport(), nwGrpStates);
+            ping = new PingRoutingWithNwGroupsCommand(getType(), id, this.getHostVmStateReport(), nwGrpStates);
         }
+        if (_monitor != null) {
+            ping.setStorageHeartbeatLatencies(_monitor.getHeartBeatLatencies());
+        }
+        return ping;
     }
 
     @Override
@@ -3986,6 +3992,42 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         return true;
     }
 
+    /**
+     * Applies the changes to the security group ipsets and the rules of the vms
+     * of a batch with one run of the security group script.
+     * @param batch the ipsets and the vms in json, as read by apply_network_rules_batch
+     * @param numVms the number of vms in the batch, the timeout is for each of them
+     * @return the output of the script, a line with the name and result of each vm, null if it failed
+     */
+    public String applyNetworkRulesBatch(final String batch, final int numVms) {
+        if (!_canBridgeFirewall) {
+            return null;
+        }
+
+        File batchFile = null;
+        try {
+            batchFile = File.createTempFile("security_group", ".json");
+            FileUtils.writeStringToFile(batchFile, batch, "UTF-8");
+            final Script cmd = new Script(_securityGroupPath, _timeout.multipliedBy(Math.max(1, numVms)), s_logger);
+            cmd.add("apply_network_rules_batch");
+            cmd.add("--batchfile", batchFile.getAbsolutePath());
+            final AllLinesParser parser = new AllLinesParser();
+            final String result = cmd.execute(parser);
+            if (result != null) {
+                s_logger.warn("Failed to apply the security group rules batch: " + result);
+                return null;
+            }
+            return parser.getLines();
+        } catch (final IOException e) {
+            s_logger.warn("Failed to write the security group rules batch", e);
+            return null;
+        } finally {
+            if (batchFile != null) {
+                FileUtils.deleteQuietly(batchFile);
+            }
+        }
+    }
+
     public boolean configureNetworkRulesVMSecondaryIP(final Connect conn, final String vmName, final String vmMac, final String secIp, final String action) {
 
         if (!_canBridgeFirewall) {
@@ -0,0 +1,124 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.hypervisor.kvm.resource.wrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.libvirt.Connect;
+import org.libvirt.LibvirtException;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.SecurityGroupIpsetsAnswer;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd;
+import com.cloud.agent.api.SecurityGroupRuleAnswer;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.hypervisor.kvm.resource.LibvirtComputingResource;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.InterfaceDef;
+import com.cloud.resource.CommandWrapper;
+import com.cloud.resource.ResourceWrapper;
+import com.google.gson.Gson;
+
+@ResourceWrapper(handles =  SecurityGroupIpsetsCmd.class)
+public final class LibvirtSecurityGroupIpsetsCommandWrapper extends CommandWrapper<SecurityGroupIpsetsCmd, Answer, LibvirtComputingResource> {
+
+    private static final Logger s_logger = Logger.getLogger(LibvirtSecurityGroupIpsetsCommandWrapper.class);
+    private static final String IPSETS_RESULT = "ipsets";
+    private static final String OK_RESULT = "ok";
+
+    @Override
+    public Answer execute(final SecurityGroupIpsetsCmd command, final LibvirtComputingResource libvirtComputingResource) {
+        final List<SecurityGroupRuleAnswer> ruleAnswers = new ArrayList<SecurityGroupRuleAnswer>();
+        final Map<String, SecurityGroupRulesCmd> ruleCmds = new HashMap<String, SecurityGroupRulesCmd>();
+        final List<Map<String, String>> vms = new ArrayList<Map<String, String>>();
+
+        final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
+        for (final SecurityGroupRulesCmd ruleCmd : command.getRuleCmds()) {
+            try {
+                final Connect conn = libvirtUtilitiesHelper.getConnectionByVmName(ruleCmd.getVmName());
+                final List<InterfaceDef> nics = libvirtComputingResource.getInterfaces(conn, ruleCmd.getVmName());
+                if (nics.isEmpty()) {
+                    ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd, false, "vm has no nics"));
+                    continue;
+                }
+
+                final Map<String, String> vm = new LinkedHashMap<String, String>();
+                vm.put("vmname", ruleCmd.getVmName());
+                vm.put("vmid", Long.toString(ruleCmd.getVmId()));
+                vm.put("vmip", ruleCmd.getGuestIp());
+                vm.put("vmip6", ruleCmd.getGuestIp6());
+                vm.put("sig", ruleCmd.getSignature());
+                vm.put("seq", Long.toString(ruleCmd.getSeqNum()));
+                vm.put("vmmac", ruleCmd.getGuestMac());
+                vm.put("vif", nics.get(0).getDevName());
+                vm.put("brname", nics.get(0).getBrName());
+                vm.put("nicsecips", ruleCmd.getSecIpsString());
+                vm.put("rules", ruleCmd.stringifyRules().replace(" ", ";"));
+                vms.add(vm);
+                ruleCmds.put(ruleCmd.getVmName(), ruleCmd);
+            } catch (final LibvirtException e) {
+                ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd, false, e.toString()));
+            }
+        }
+
+        final Map<String, Object> batch = new LinkedHashMap<String, Object>();
+        batch.put("ipsets", command.getIpsets());
+        batch.put("vms", vms);
+        final String output = libvirtComputingResource.applyNetworkRulesBatch(new Gson().toJson(batch), vms.size());
+        if (output == null) {
+            for (final SecurityGroupRulesCmd ruleCmd : ruleCmds.values()) {
+                ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd, false, "programming network rules failed"));
+            }
+            return new SecurityGroupIpsetsAnswer(command, false, "programming security group rules batch failed", ruleAnswers);
+        }
+
+        boolean ipsetsApplied = false;
+        for (final String line : output.split("\n")) {
+            final String[] result = line.trim().split(" ");
+            if (result.length != 2) {
+                continue;
+            }
+            if (IPSETS_RESULT.equals(result[0])) {
+                ipsetsApplied = OK_RESULT.equals(result[1]);
+                continue;
+            }
+            final SecurityGroupRulesCmd ruleCmd = ruleCmds.remove(result[0]);
+            if (ruleCmd == null) {
+                continue;
+            }
+            if (OK_RESULT.equals(result[1])) {
+                ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd));
+            } else {
+                s_logger.warn("Failed to program network rules for vm " + ruleCmd.getVmName());
+                ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd, false, "programming network rules failed"));
+            }
+        }
+        for (final SecurityGroupRulesCmd ruleCmd : ruleCmds.values()) {
+            ruleAnswers.add(new SecurityGroupRuleAnswer(ruleCmd, false, "no result for the network rules"));
+        }
+
+        s_logger.debug("Programmed " + command.getIpsets().size() + " security group ipsets and the network rules of " + vms.size() + " vms, ipsets applied=" + ipsetsApplied);
+        return new SecurityGroupIpsetsAnswer(command, ipsetsApplied, ipsetsApplied ? null : "programming security group ipsets failed", ruleAnswers);
+    }
+}
@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.hypervisor.kvm.resource.KVMHABase.NfsStoragePool;
+import com.cloud.hypervisor.kvm.resource.KVMHABase.PoolType;
+
+public class KVMHAMonitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLatencyHistogramBuckets() {
+        KVMHAMonitor.LatencyHistogram histogram = new KVMHAMonitor.LatencyHistogram();
+        histogram.record(0);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] counts = histogram.getCounts();
+        Assert.assertEquals(PingRoutingCommand.HEARTBEAT_LATENCY_BUCKETS_MS.length + 1, counts.length);
+        Assert.assertEquals(2, counts[0]);
+        Assert.assertEquals(1, counts[1]);
+        Assert.assertEquals(1, counts[counts.length - 1]);
+    }
+
+    @Test
+    public void testNativeHeartBeatWrite() throws Exception {
+        File mountPoint = folder.newFolder();
+        NfsStoragePool pool = new NfsStoragePool("pool-uuid", "10.1.1.1", "/export/primary", mountPoint.getAbsolutePath(), PoolType.PrimaryStorage);
+        KVMHAMonitor monitor = new KVMHAMonitor(pool, "192.168.1.10", "/bin/false", true) {
+            @Override
+            protected boolean isMounted(NfsStoragePool pool) {
+                return true;
+            }
+        };
+
+        long before = System.currentTimeMillis() / 1000;
+        Assert.assertNull(monitor.writeHeartBeat(pool));
+
+        File hbFile = new File(monitor.getHBFile(mountPoint.getAbsolutePath(), "192.168.1.10"));
+        long timestamp = Long.parseLong(new String(Files.readAllBytes(hbFile.toPath()), StandardCharsets.US_ASCII).trim());
+        Assert.assertTrue(timestamp >= before);
+        Assert.assertTrue(timestamp <= System.currentTimeMillis() / 1000);
+    }
+
+    @Test
+    public void testHeartBeatLatenciesByPool() {
+        KVMHAMonitor monitor = new KVMHAMonitor(null, "192.168.1.10", "/bin/false", true);
+        monitor.getLatencyHistogram("pool-a").record(5);
+        monitor.getLatencyHistogram("pool-b").record(Long.MAX_VALUE);
+
+        Map<String, long[]> latencies = monitor.getHeartBeatLatencies();
+        Assert.assertEquals(2, latencies.size());
+        Assert.assertEquals(1, latencies.get("pool-a")[0]);
+        Assert.assertEquals(1, latencies.get("pool-b")[PingRoutingCommand.HEARTBEAT_LATENCY_BUCKETS_MS.length]);
+    }
+}
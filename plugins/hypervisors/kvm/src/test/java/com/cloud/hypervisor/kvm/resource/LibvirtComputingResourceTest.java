@@ -76,6 +76,7 @@ import org.libvirt.MemoryStatistic;
 import org.libvirt.NodeInfo;
 import org.libvirt.StorageVol;
 import org.libvirt.jna.virDomainMemoryStats;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -135,6 +136,10 @@ import com.cloud.agent.api.PvlanSetupCommand;
 import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.RebootCommand;
 import com.cloud.agent.api.RebootRouterCommand;
+import com.cloud.agent.api.SecurityGroupIpsetsAnswer;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd.IpsetDelta;
+import com.cloud.agent.api.SecurityGroupRuleAnswer;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
 import com.cloud.agent.api.StartCommand;
@@ -3118,6 +3123,48 @@ public class LibvirtComputingResourceTest {
         }
     }
 
+    @Test
+    public void testSecurityGroupIpsetsCmd() {
+        final IpPortAndProto[] ingressRuleSet = new IpPortAndProto[]{new IpPortAndProto("tcp", 22, 22, "ipset:" + SecurityGroupIpsetsCmd.ipsetName(10L))};
+        final SecurityGroupRulesCmd first = new SecurityGroupRulesCmd("10.1.1.1", null, "00:00:00:00", "i-2-3-VM", 3L, "signature", 1L, ingressRuleSet,
+                new IpPortAndProto[0], new Vector<String>());
+        final SecurityGroupRulesCmd second = new SecurityGroupRulesCmd("10.1.1.2", null, "00:00:00:01", "i-2-4-VM", 4L, "signature", 1L, ingressRuleSet,
+                new IpPortAndProto[0], new Vector<String>());
+        final IpsetDelta ipset = new IpsetDelta(SecurityGroupIpsetsCmd.ipsetName(10L), true, Arrays.asList("10.1.1.1/32", "10.1.1.2/32"), new ArrayList<String>());
+        final SecurityGroupIpsetsCmd command = new SecurityGroupIpsetsCmd(Arrays.asList(ipset), Arrays.asList(first, second));
+
+        final LibvirtUtilitiesHelper libvirtUtilitiesHelper = Mockito.mock(LibvirtUtilitiesHelper.class);
+        final Connect conn = Mockito.mock(Connect.class);
+        final InterfaceDef interfaceDef = Mockito.mock(InterfaceDef.class);
+        when(interfaceDef.getDevName()).thenReturn("vnet0");
+        when(interfaceDef.getBrName()).thenReturn("br0");
+
+        when(libvirtComputingResource.getLibvirtUtilitiesHelper()).thenReturn(libvirtUtilitiesHelper);
+        when(libvirtComputingResource.getInterfaces(conn, "i-2-3-VM")).thenReturn(Arrays.asList(interfaceDef));
+        when(libvirtComputingResource.getInterfaces(conn, "i-2-4-VM")).thenReturn(Arrays.asList(interfaceDef));
+        try {
+            when(libvirtUtilitiesHelper.getConnectionByVmName(any(String.class))).thenReturn(conn);
+        } catch (final LibvirtException e) {
+            fail(e.getMessage());
+        }
+        when(libvirtComputingResource.applyNetworkRulesBatch(any(String.class), Mockito.eq(2))).thenReturn("ipsets ok\ni-2-3-VM ok\ni-2-4-VM failed\n");
+
+        final LibvirtRequestWrapper wrapper = LibvirtRequestWrapper.getInstance();
+        assertNotNull(wrapper);
+
+        final SecurityGroupIpsetsAnswer answer = (SecurityGroupIpsetsAnswer)wrapper.execute(command, libvirtComputingResource);
+        assertTrue(answer.getResult());
+        Assert.assertEquals(2, answer.getRuleAnswers().size());
+        for (final SecurityGroupRuleAnswer ruleAnswer : answer.getRuleAnswers()) {
+            Assert.assertEquals(ruleAnswer.getVmId() == 3L, ruleAnswer.getResult());
+        }
+
+        final ArgumentCaptor<String> batch = ArgumentCaptor.forClass(String.class);
+        verify(libvirtComputingResource, times(1)).applyNetworkRulesBatch(batch.capture(), Mockito.eq(2));
+        assertTrue(batch.getValue().contains("\"name\":\"cs-sg-10\""));
+        assertTrue(batch.getValue().contains("ipset:cs-sg-10"));
+    }
+
     @Test
     public void testPlugNicCommandMatchMack() {
         final NicTO nic = Mockito.mock(NicTO.class);
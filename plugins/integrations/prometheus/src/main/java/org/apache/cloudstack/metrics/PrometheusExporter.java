@@ -18,7 +18,16 @@ package org.apache.cloudstack.metrics;
 
 public interface PrometheusExporter {
 
+    /**
+     * Rebuilds the metrics snapshot, called periodically in the background.
+     */
     void updateMetrics();
 
     String getMetrics();
+
+    /**
+     * @return the latest metrics snapshot as UTF-8 encoded exposition text, ready to be
+     * written to a scrape response without any further copying or database access
+     */
+    byte[] getMetricsSnapshot();
 }
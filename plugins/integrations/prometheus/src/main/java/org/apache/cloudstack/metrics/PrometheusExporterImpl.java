@@ -17,12 +17,20 @@
 package org.apache.cloudstack.metrics;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 import org.apache.cloudstack.engine.subsystem.api.storage.ZoneScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
 import org.apache.log4j.Logger;
 
@@ -50,14 +58,19 @@ import com.cloud.network.dao.IPAddressDao;
 import com.cloud.storage.ImageStore;
 import com.cloud.storage.StorageStats;
 import com.cloud.storage.Volume;
-import com.cloud.storage.VolumeVO;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.component.Manager;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.vm.VirtualMachine.State;
 import com.cloud.vm.dao.VMInstanceDao;
-import com.google.common.base.Strings;
 
+/**
+ * Keeps a snapshot of the exposition text that is rebuilt in the background every
+ * prometheus.exporter.refresh.interval seconds, so scrapes never touch the database.
+ * A refresh runs a fixed number of queries per zone, counts are done with GROUP BY
+ * queries and capacities are fetched for all hosts of a zone at once.
+ */
 public class PrometheusExporterImpl extends ManagerBase implements PrometheusExporter, Manager {
     private static final Logger LOG = Logger.getLogger(PrometheusExporterImpl.class);
 
@@ -68,7 +81,13 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
     private static final String ONLINE = "online";
     private static final String OFFLINE = "offline";
 
-    private static List<Item> metricsItems = new ArrayList<>();
+    private static final String HEADER = "Cloudstack Prometheus Metrics";
+    private static final double MIB = 1024.0 * 1024.0;
+    private static final double GIB = 1024.0 * 1024.0 * 1024.0;
+
+    private final PrometheusMetricsWriter writer = new PrometheusMetricsWriter(64 * 1024);
+    private volatile byte[] metricsSnapshot;
+    private ScheduledExecutorService refreshExecutor;
 
     @Inject
     private DataCenterDao dcDao;
@@ -97,12 +116,72 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
         super();
     }
 
-    private void addHostMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
+    @Override
+    public boolean start() {
+        if (PrometheusExporterServer.EnablePrometheusExporter.value()) {
+            final int interval = Math.max(1, PrometheusExporterServer.PrometheusExporterRefreshInterval.value());
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("PrometheusExporter-Refresh"));
+            refreshExecutor.scheduleWithFixedDelay(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    updateMetrics();
+                }
+            }, 0, interval, TimeUnit.SECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        return true;
+    }
+
+    private static <T> List<T> listOrEmpty(final Map<Long, List<T>> byZone, final long dcId) {
+        final List<T> list = byZone.get(dcId);
+        return list != null ? list : Collections.<T>emptyList();
+    }
+
+    private static long usedOf(final CapacityVO capacity) {
+        return capacity != null ? capacity.getUsedCapacity() : 0L;
+    }
+
+    private static long totalOf(final CapacityVO capacity) {
+        return capacity != null ? capacity.getTotalCapacity() : 0L;
+    }
+
+    private static long allocatedOf(final List<CapacityDaoImpl.SummedCapacity> capacities) {
+        if (capacities == null || capacities.isEmpty() || capacities.get(0).getAllocatedCapacity() == null) {
+            return 0L;
+        }
+        return capacities.get(0).getAllocatedCapacity();
+    }
+
+    private void writeHostSample(final String name, final String zoneName, final HostJoinVO host, final String factor, final String filter, final double value) {
+        writer.sample(name).label("zone", zoneName).label("hostname", host.getName()).label("ip", host.getPrivateIpAddress());
+        if (factor != null) {
+            writer.label("overprovisioningfactor", factor);
+        }
+        writer.label("filter", filter).value(value);
+    }
+
+    private void addHostMetrics(final List<HostJoinVO> hosts, final long dcId, final String zoneName) {
+        final Map<Short, Map<Long, CapacityVO>> capacities = new HashMap<>();
+        for (final CapacityVO capacity : capacityDao.listByZoneAndTypes(dcId, Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY, Capacity.CAPACITY_TYPE_CPU_CORE)) {
+            capacities.computeIfAbsent(capacity.getCapacityType(), type -> new HashMap<>()).put(capacity.getHostOrPoolId(), capacity);
+        }
+        final Map<Long, CapacityVO> cpuCapacities = capacities.getOrDefault(Capacity.CAPACITY_TYPE_CPU, Collections.emptyMap());
+        final Map<Long, CapacityVO> memCapacities = capacities.getOrDefault(Capacity.CAPACITY_TYPE_MEMORY, Collections.emptyMap());
+        final Map<Long, CapacityVO> coreCapacities = capacities.getOrDefault(Capacity.CAPACITY_TYPE_CPU_CORE, Collections.emptyMap());
+        final Map<Long, Long> vmCounts = vmDao.countByZoneGroupByHostId(dcId);
+
         int total = 0;
         int up = 0;
         int down = 0;
-        for (final HostJoinVO host : hostJoinDao.listAll()) {
-            if (host == null || host.getType() != Host.Type.Routing || host.getZoneId() != dcId) {
+        for (final HostJoinVO host : hosts) {
+            if (host.getType() != Host.Type.Routing) {
                 continue;
             }
             total++;
@@ -113,97 +192,74 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
             }
 
             final String cpuFactor = String.valueOf(CapacityManager.CpuOverprovisioningFactor.valueIn(host.getClusterId()));
-            final CapacityVO cpuCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_CPU);
-            if (cpuCapacity != null) {
-                metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, USED, cpuCapacity.getUsedCapacity()));
-                metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, TOTAL, cpuCapacity.getTotalCapacity()));
-            } else {
-                metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, USED, 0L));
-                metricsList.add(new ItemHostCpu(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), cpuFactor, TOTAL, 0L));
-            }
+            final CapacityVO cpuCapacity = cpuCapacities.get(host.getId());
+            writeHostSample("cloudstack_host_cpu_usage_mhz_total", zoneName, host, cpuFactor, USED, usedOf(cpuCapacity));
+            writeHostSample("cloudstack_host_cpu_usage_mhz_total", zoneName, host, cpuFactor, TOTAL, totalOf(cpuCapacity));
 
             final String memoryFactor = String.valueOf(CapacityManager.MemOverprovisioningFactor.valueIn(host.getClusterId()));
-            final CapacityVO memCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_MEMORY);
-            if (memCapacity != null) {
-                metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, USED, memCapacity.getUsedCapacity()));
-                metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, TOTAL, memCapacity.getTotalCapacity()));
-            } else {
-                metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, USED, 0L));
-                metricsList.add(new ItemHostMemory(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), memoryFactor, TOTAL, 0L));
-            }
-
-            metricsList.add(new ItemHostVM(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), vmDao.listByHostId(host.getId()).size()));
-
-            final CapacityVO coreCapacity = capacityDao.findByHostIdType(host.getId(), Capacity.CAPACITY_TYPE_CPU_CORE);
-            if (coreCapacity != null) {
-                metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), USED, coreCapacity.getUsedCapacity()));
-                metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), TOTAL, coreCapacity.getTotalCapacity()));
-            } else {
-                metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), USED, 0L));
-                metricsList.add(new ItemVMCore(zoneName, zoneUuid, host.getName(), host.getUuid(), host.getPrivateIpAddress(), TOTAL, 0L));
-            }
-        }
-
-        final List<CapacityDaoImpl.SummedCapacity> cpuCapacity = capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_CPU, dcId, null, null);
-        if (cpuCapacity != null && cpuCapacity.size() > 0) {
-            metricsList.add(new ItemHostCpu(zoneName, zoneUuid, null, null, null, null, ALLOCATED, cpuCapacity.get(0).getAllocatedCapacity() != null ? cpuCapacity.get(0).getAllocatedCapacity() : 0));
-        }
-
-        final List<CapacityDaoImpl.SummedCapacity> memCapacity = capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_MEMORY, dcId, null, null);
-        if (memCapacity != null && memCapacity.size() > 0) {
-            metricsList.add(new ItemHostMemory(zoneName, zoneUuid, null, null, null, null, ALLOCATED, memCapacity.get(0).getAllocatedCapacity() != null ? memCapacity.get(0).getAllocatedCapacity() : 0));
-        }
-
-        final List<CapacityDaoImpl.SummedCapacity> coreCapacity = capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_CPU_CORE, dcId, null, null);
-        if (coreCapacity != null && coreCapacity.size() > 0) {
-            metricsList.add(new ItemVMCore(zoneName, zoneUuid, null, null, null, ALLOCATED, coreCapacity.get(0).getAllocatedCapacity() != null ? coreCapacity.get(0).getAllocatedCapacity() : 0));
-        }
-
-        metricsList.add(new ItemHost(zoneName, zoneUuid, ONLINE, up));
-        metricsList.add(new ItemHost(zoneName, zoneUuid, OFFLINE, down));
-        metricsList.add(new ItemHost(zoneName, zoneUuid, TOTAL, total));
+            final CapacityVO memCapacity = memCapacities.get(host.getId());
+            writeHostSample("cloudstack_host_memory_usage_mibs_total", zoneName, host, memoryFactor, USED, usedOf(memCapacity) / MIB);
+            writeHostSample("cloudstack_host_memory_usage_mibs_total", zoneName, host, memoryFactor, TOTAL, totalOf(memCapacity) / MIB);
+
+            final Long vmCount = vmCounts.get(host.getId());
+            writer.sample("cloudstack_host_vms_total").label("zone", zoneName).label("hostname", host.getName()).label("address", host.getPrivateIpAddress())
+                    .value(vmCount != null ? vmCount : 0L);
+
+            final CapacityVO coreCapacity = coreCapacities.get(host.getId());
+            writer.sample("cloudstack_host_vms_cores_total").label("zone", zoneName).label("hostname", host.getName()).label("ip", host.getPrivateIpAddress())
+                    .label("filter", USED).value(usedOf(coreCapacity));
+            writer.sample("cloudstack_host_vms_cores_total").label("zone", zoneName).label("hostname", host.getName()).label("ip", host.getPrivateIpAddress())
+                    .label("filter", TOTAL).value(totalOf(coreCapacity));
+        }
+
+        writer.sample("cloudstack_host_cpu_usage_mhz_total").label("zone", zoneName).label("filter", ALLOCATED)
+                .value((double) allocatedOf(capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_CPU, dcId, null, null)));
+        writer.sample("cloudstack_host_memory_usage_mibs_total").label("zone", zoneName).label("filter", ALLOCATED)
+                .value(allocatedOf(capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_MEMORY, dcId, null, null)) / MIB);
+        writer.sample("cloudstack_host_vms_cores_total").label("zone", zoneName).label("filter", ALLOCATED)
+                .value(allocatedOf(capacityDao.findCapacityBy((int) Capacity.CAPACITY_TYPE_CPU_CORE, dcId, null, null)));
+
+        writer.sample("cloudstack_hosts_total").label("zone", zoneName).label("filter", ONLINE).value(up);
+        writer.sample("cloudstack_hosts_total").label("zone", zoneName).label("filter", OFFLINE).value(down);
+        writer.sample("cloudstack_hosts_total").label("zone", zoneName).label("filter", TOTAL).value(total);
     }
 
-    private void addVMMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
+    private void addVMMetrics(final long dcId, final String zoneName) {
+        final Map<State, Long> counts = vmDao.countByZoneGroupByState(dcId);
         for (final State state : State.values()) {
-            final Long count = vmDao.countByZoneAndState(dcId, state);
-            if (count == null) {
-                continue;
-            }
-            metricsList.add(new ItemVM(zoneName, zoneUuid, state.name().toLowerCase(), count));
+            final Long count = counts.get(state);
+            writer.sample("cloudstack_vms_total").label("zone", zoneName).label("filter", state.name().toLowerCase()).value(count != null ? count : 0L);
         }
     }
 
-    private void addVolumeMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        int total = 0;
-        int ready = 0;
-        int destroyed = 0;
-        for (final VolumeVO volume : volumeDao.findByDc(dcId)) {
-            if (volume == null) {
-                continue;
-            }
-            total++;
-            if (volume.getState() == Volume.State.Ready) {
-                ready++;
-            } else if (volume.getState() == Volume.State.Destroy) {
-                destroyed++;
-            }
+    private void addVolumeMetrics(final long dcId, final String zoneName) {
+        final Map<Volume.State, Long> counts = volumeDao.countByDcGroupByState(dcId);
+        long total = 0;
+        for (final Long count : counts.values()) {
+            total += count;
+        }
+        final Long ready = counts.get(Volume.State.Ready);
+        final Long destroyed = counts.get(Volume.State.Destroy);
+        writer.sample("cloudstack_volumes_total").label("zone", zoneName).label("filter", Volume.State.Ready.name().toLowerCase()).value(ready != null ? ready : 0L);
+        writer.sample("cloudstack_volumes_total").label("zone", zoneName).label("filter", Volume.State.Destroy.name().toLowerCase()).value(destroyed != null ? destroyed : 0L);
+        writer.sample("cloudstack_volumes_total").label("zone", zoneName).label("filter", TOTAL).value(total);
+    }
+
+    private void writePoolSample(final String zoneName, final String poolName, final String address, final String type, final String factor, final String filter, final double bytes) {
+        writer.sample("cloudstack_storage_pool_gibs_total").label("zone", zoneName).label("name", poolName).label("address", address).label("type", type);
+        if (factor != null) {
+            writer.label("overprovisioningfactor", factor);
         }
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Ready.name().toLowerCase(), ready));
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, Volume.State.Destroy.name().toLowerCase(), destroyed));
-        metricsList.add(new ItemVolume(zoneName, zoneUuid, TOTAL, total));
+        writer.label("filter", filter).value(bytes / GIB);
     }
 
-    private void addStorageMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        for (final StoragePoolJoinVO pool: storagePoolJoinDao.listAll()) {
-            if (pool == null || pool.getZoneId() != dcId) {
-                continue;
-            }
+    private void addStorageMetrics(final List<StoragePoolJoinVO> pools, final long dcId, final String zoneName) {
+        for (final StoragePoolJoinVO pool : pools) {
             final String poolName = pool.getName();
             final String poolPath = pool.getHostAddress() + ":" + pool.getPath();
 
             long usedCapacity = 0L;
-            long allocatedCapacity = pool.getUsedCapacity() + pool.getReservedCapacity();
+            final long allocatedCapacity = pool.getUsedCapacity() + pool.getReservedCapacity();
             final long totalCapacity = pool.getCapacityBytes();
 
             final StorageStats stats = ApiDBUtils.getStoragePoolStatistics(pool.getId());
@@ -214,36 +270,41 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
             final BigDecimal poolOverProvisioningFactor = BigDecimal.valueOf(CapacityManager.StorageOverprovisioningFactor.valueIn(pool.getId()));
             final String poolFactor = poolOverProvisioningFactor.toString();
 
-            metricsList.add(new ItemPool(zoneName, zoneUuid, poolName, poolPath, "primary", poolFactor, USED, usedCapacity));
-            metricsList.add(new ItemPool(zoneName, zoneUuid, poolName, poolPath, "primary", poolFactor, ALLOCATED, allocatedCapacity));
-            metricsList.add(new ItemPool(zoneName, zoneUuid, poolName, poolPath, "primary", poolFactor, UNALLOCATED, poolOverProvisioningFactor.multiply(BigDecimal.valueOf(totalCapacity)).longValue() - allocatedCapacity));
-            metricsList.add(new ItemPool(zoneName, zoneUuid, poolName, poolPath, "primary", poolFactor, TOTAL, totalCapacity));
+            writePoolSample(zoneName, poolName, poolPath, "primary", poolFactor, USED, usedCapacity);
+            writePoolSample(zoneName, poolName, poolPath, "primary", poolFactor, ALLOCATED, allocatedCapacity);
+            writePoolSample(zoneName, poolName, poolPath, "primary", poolFactor, UNALLOCATED,
+                    poolOverProvisioningFactor.multiply(BigDecimal.valueOf(totalCapacity)).longValue() - allocatedCapacity);
+            writePoolSample(zoneName, poolName, poolPath, "primary", poolFactor, TOTAL, totalCapacity);
         }
 
         for (final ImageStore imageStore : imageStoreDao.findByScope(new ZoneScope(dcId))) {
             final StorageStats stats = ApiDBUtils.getSecondaryStorageStatistics(imageStore.getId());
-            metricsList.add(new ItemPool(zoneName, zoneUuid, imageStore.getName(), imageStore.getUrl(), "secondary", null, USED, stats != null ? stats.getByteUsed() : 0));
-            metricsList.add(new ItemPool(zoneName, zoneUuid, imageStore.getName(), imageStore.getUrl(), "secondary", null, TOTAL, stats != null ? stats.getCapacityBytes() : 0));
+            writePoolSample(zoneName, imageStore.getName(), imageStore.getUrl(), "secondary", null, USED, stats != null ? stats.getByteUsed() : 0);
+            writePoolSample(zoneName, imageStore.getName(), imageStore.getUrl(), "secondary", null, TOTAL, stats != null ? stats.getCapacityBytes() : 0);
         }
     }
 
-    private void addIpAddressMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        metricsList.add(new ItemPrivateIp(zoneName, zoneUuid, ALLOCATED, privateIpAddressDao.countIPs(dcId, true)));
-        metricsList.add(new ItemPrivateIp(zoneName, zoneUuid, TOTAL, privateIpAddressDao.countIPs(dcId, false)));
-        metricsList.add(new ItemPublicIp(zoneName, zoneUuid, ALLOCATED, publicIpAddressDao.countIPsForNetwork(dcId, true, Vlan.VlanType.VirtualNetwork)));
-        metricsList.add(new ItemPublicIp(zoneName, zoneUuid, TOTAL, publicIpAddressDao.countIPsForNetwork(dcId, false, Vlan.VlanType.VirtualNetwork)));
-        metricsList.add(new ItemSharedNetworkIp(zoneName, zoneUuid, ALLOCATED, publicIpAddressDao.countIPsForNetwork(dcId, true, Vlan.VlanType.DirectAttached)));
-        metricsList.add(new ItemSharedNetworkIp(zoneName, zoneUuid, TOTAL, publicIpAddressDao.countIPsForNetwork(dcId, false, Vlan.VlanType.DirectAttached)));
+    private void addIpAddressMetrics(final long dcId, final String zoneName) {
+        writer.sample("cloudstack_private_ips_total").label("zone", zoneName).label("filter", ALLOCATED).value(privateIpAddressDao.countIPs(dcId, true));
+        writer.sample("cloudstack_private_ips_total").label("zone", zoneName).label("filter", TOTAL).value(privateIpAddressDao.countIPs(dcId, false));
+        writer.sample("cloudstack_public_ips_total").label("zone", zoneName).label("filter", ALLOCATED)
+                .value(publicIpAddressDao.countIPsForNetwork(dcId, true, Vlan.VlanType.VirtualNetwork));
+        writer.sample("cloudstack_public_ips_total").label("zone", zoneName).label("filter", TOTAL)
+                .value(publicIpAddressDao.countIPsForNetwork(dcId, false, Vlan.VlanType.VirtualNetwork));
+        writer.sample("cloudstack_shared_network_ips_total").label("zone", zoneName).label("filter", ALLOCATED)
+                .value(publicIpAddressDao.countIPsForNetwork(dcId, true, Vlan.VlanType.DirectAttached));
+        writer.sample("cloudstack_shared_network_ips_total").label("zone", zoneName).label("filter", TOTAL)
+                .value(publicIpAddressDao.countIPsForNetwork(dcId, false, Vlan.VlanType.DirectAttached));
     }
 
-    private void addVlanMetrics(final List<Item> metricsList, final long dcId, final String zoneName, final String zoneUuid) {
-        metricsList.add(new ItemVlan(zoneName, zoneUuid, ALLOCATED, dcDao.countZoneVlans(dcId, true)));
-        metricsList.add(new ItemVlan(zoneName, zoneUuid, TOTAL, dcDao.countZoneVlans(dcId, false)));
+    private void addVlanMetrics(final long dcId, final String zoneName) {
+        writer.sample("cloudstack_vlans_total").label("zone", zoneName).label("filter", ALLOCATED).value(dcDao.countZoneVlans(dcId, true));
+        writer.sample("cloudstack_vlans_total").label("zone", zoneName).label("filter", TOTAL).value(dcDao.countZoneVlans(dcId, false));
     }
 
-    private void addDomainLimits(final List<Item> metricsList) {
-        Long totalCpuLimit = 0L;
-        Long totalMemoryLimit = 0L;
+    private void addDomainLimits() {
+        long totalCpuLimit = 0L;
+        long totalMemoryLimit = 0L;
 
         for (final DomainJoinVO domain: domainDao.listAll()) {
             if (domain == null || domain.getLevel() != 1) {
@@ -261,365 +322,61 @@ public class PrometheusExporterImpl extends ManagerBase implements PrometheusExp
                 totalMemoryLimit += memoryLimit;
             }
         }
-        metricsList.add(new ItemDomainLimitCpu(totalCpuLimit));
-        metricsList.add(new ItemDomainLimitMemory(totalMemoryLimit));
+        writer.sample("cloudstack_domain_limit_cpu_cores_total").value(totalCpuLimit);
+        writer.sample("cloudstack_domain_limit_memory_mibs_total").value(totalMemoryLimit);
     }
 
     @Override
-    public void updateMetrics() {
-        final List<Item> latestMetricsItems = new ArrayList<Item>();
+    public synchronized void updateMetrics() {
+        final long start = System.currentTimeMillis();
+        writer.reset().comment(HEADER);
         try {
-            for (final DataCenterVO dc : dcDao.listAll()) {
-                final String zoneName = dc.getName();
-                final String zoneUuid = dc.getUuid();
-                alertManager.recalculateCapacity();
-                addHostMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVMMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVolumeMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addStorageMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addIpAddressMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-                addVlanMetrics(latestMetricsItems, dc.getId(), zoneName, zoneUuid);
-            }
-            addDomainLimits(latestMetricsItems);
-        } catch (Exception e) {
-            LOG.warn("Getting metrics failed ", e);
-        }
-        metricsItems = latestMetricsItems;
-    }
-
-    @Override
-    public String getMetrics() {
-        final StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("# Cloudstack Prometheus Metrics\n");
-        for (final Item item : metricsItems) {
-            stringBuilder.append(item.toMetricsString()).append("\n");
-        }
-        return stringBuilder.toString();
-    }
-
-    private abstract class Item {
-        String name;
-
-        public Item(final String nm) {
-            name = nm;
-        }
-
-        public abstract String toMetricsString();
-    }
-
-    class ItemVM extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        long total;
-
-        public ItemVM(final String zn, final String zu, final String st, long cnt) {
-            super("cloudstack_vms_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = st;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
-        }
-    }
-
-    class ItemVolume extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        int total;
-
-        public ItemVolume(final String zn, final String zu, final String st, int cnt) {
-            super("cloudstack_volumes_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = st;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
-        }
-    }
-
-    class ItemHost extends Item {
-        String zoneName;
-        String zoneUuid;
-        String state;
-        int total;
-
-        public ItemHost(final String zn, final String zu, final String st, int cnt) {
-            super("cloudstack_hosts_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            state = st;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, state, total);
-        }
-    }
-
-    class ItemVMCore extends Item {
-        String zoneName;
-        String zoneUuid;
-        String hostName;
-        String uuid;
-        String ip;
-        String filter;
-        long core = 0;
-
-        public ItemVMCore(final String zn, final String zu, final String hn, final String hu, final String hip, final String fl, final Long cr) {
-            super("cloudstack_host_vms_cores_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            hostName = hn;
-            uuid = hu;
-            ip = hip;
-            filter = fl;
-            if (cr != null) {
-                core = cr;
-            }
-        }
-
-        @Override
-        public String toMetricsString() {
-            if (Strings.isNullOrEmpty(hostName) && Strings.isNullOrEmpty(ip)) {
-                return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, core);
-            }
-            return String.format("%s{zone=\"%s\",hostname=\"%s\",ip=\"%s\",filter=\"%s\"} %d", name, zoneName, hostName, ip, filter, core);
-        }
-    }
-
-    class ItemHostCpu extends Item {
-        String zoneName;
-        String zoneUuid;
-        String hostName;
-        String uuid;
-        String ip;
-        String overProvisioningFactor;
-        String filter;
-        double mhertz;
-
-        public ItemHostCpu(final String zn, final String zu, final String hn, final String hu, final String hip, final String of, final String fl, final double mh) {
-            super("cloudstack_host_cpu_usage_mhz_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            hostName = hn;
-            uuid = hu;
-            ip = hip;
-            overProvisioningFactor = of;
-            filter = fl;
-            mhertz = mh;
-        }
+            alertManager.recalculateCapacity();
 
-        @Override
-        public String toMetricsString() {
-            if (Strings.isNullOrEmpty(hostName) && Strings.isNullOrEmpty(ip)) {
-                return String.format("%s{zone=\"%s\",filter=\"%s\"} %.2f", name, zoneName, filter, mhertz);
+            final Map<Long, List<HostJoinVO>> hostsByZone = new HashMap<>();
+            for (final HostJoinVO host : hostJoinDao.listAll()) {
+                if (host != null) {
+                    hostsByZone.computeIfAbsent(host.getZoneId(), zoneId -> new ArrayList<>()).add(host);
+                }
             }
-            return String.format("%s{zone=\"%s\",hostname=\"%s\",ip=\"%s\",overprovisioningfactor=\"%s\",filter=\"%s\"} %.2f", name, zoneName, hostName, ip, overProvisioningFactor, filter, mhertz);
-        }
-    }
-
-    class ItemHostMemory extends Item {
-        String zoneName;
-        String zoneUuid;
-        String hostName;
-        String uuid;
-        String ip;
-        String overProvisioningFactor;
-        String filter;
-        double miBytes;
-
-        public ItemHostMemory(final String zn, final String zu, final String hn, final String hu, final String hip, final String of, final String fl, final double membytes) {
-            super("cloudstack_host_memory_usage_mibs_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            hostName = hn;
-            uuid = hu;
-            ip = hip;
-            overProvisioningFactor = of;
-            filter = fl;
-            miBytes = membytes / (1024.0 * 1024.0);
-        }
-
-        @Override
-        public String toMetricsString() {
-            if (Strings.isNullOrEmpty(hostName) && Strings.isNullOrEmpty(ip)) {
-                return String.format("%s{zone=\"%s\",filter=\"%s\"} %.2f", name, zoneName, filter, miBytes);
+            final Map<Long, List<StoragePoolJoinVO>> poolsByZone = new HashMap<>();
+            for (final StoragePoolJoinVO pool : storagePoolJoinDao.listAll()) {
+                if (pool != null) {
+                    poolsByZone.computeIfAbsent(pool.getZoneId(), zoneId -> new ArrayList<>()).add(pool);
+                }
             }
-            return String.format("%s{zone=\"%s\",hostname=\"%s\",ip=\"%s\",overprovisioningfactor=\"%s\",filter=\"%s\"} %.2f", name, zoneName, hostName, ip, overProvisioningFactor, filter, miBytes);
-        }
-    }
-
-    class ItemHostVM extends Item {
-        String zoneName;
-        String zoneUuid;
-        String hostName;
-        String hostUuid;
-        String hostIp;
-        int total;
-
-        public ItemHostVM(final String zoneName, final String zoneUuid, final String hostName, final String hostUuid, final String hostIp, final int total) {
-            super("cloudstack_host_vms_total");
-            this.zoneName = zoneName;
-            this.zoneUuid = zoneUuid;
-            this.hostName = hostName;
-            this.hostUuid = hostUuid;
-            this.hostIp = hostIp;
-            this.total = total;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",hostname=\"%s\",address=\"%s\"} %d", name, zoneName, hostName, hostIp, total);
-        }
-    }
-
-    class ItemPool extends Item {
-        String zoneName;
-        String zoneUuid;
-        String type;
-        String overProvisioningFactor;
-        String filter;
-        String pname;
-        String address;
-        double total;
-
-        public ItemPool(final String zn, final String zu, final String pn, final String pa, final String typ, final String of, final String fl, double cnt) {
-            super("cloudstack_storage_pool_gibs_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            pname = pn;
-            address = pa;
-            type = typ;
-            overProvisioningFactor = of;
-            filter = fl;
-            total = cnt / (1024.0 * 1024.0 * 1024.0);
-        }
 
-        @Override
-        public String toMetricsString() {
-            if (Strings.isNullOrEmpty(overProvisioningFactor)) {
-                return String.format("%s{zone=\"%s\",name=\"%s\",address=\"%s\",type=\"%s\",filter=\"%s\"} %.2f", name, zoneName, pname, address, type, filter, total);
+            for (final DataCenterVO dc : dcDao.listAll()) {
+                final String zoneName = dc.getName();
+                addHostMetrics(listOrEmpty(hostsByZone, dc.getId()), dc.getId(), zoneName);
+                addVMMetrics(dc.getId(), zoneName);
+                addVolumeMetrics(dc.getId(), zoneName);
+                addStorageMetrics(listOrEmpty(poolsByZone, dc.getId()), dc.getId(), zoneName);
+                addIpAddressMetrics(dc.getId(), zoneName);
+                addVlanMetrics(dc.getId(), zoneName);
             }
-            return String.format("%s{zone=\"%s\",name=\"%s\",address=\"%s\",type=\"%s\",overprovisioningfactor=\"%s\",filter=\"%s\"} %.2f", name, zoneName, pname, address, type, overProvisioningFactor, filter, total);
-        }
-    }
-
-    class ItemPrivateIp extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        int total;
-
-        public ItemPrivateIp(final String zn, final String zu, final String fl, int cnt) {
-            super("cloudstack_private_ips_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = fl;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
-        }
-    }
-
-    class ItemPublicIp extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        int total;
-
-        public ItemPublicIp(final String zn, final String zu, final String fl, int cnt) {
-            super("cloudstack_public_ips_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = fl;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
-        }
-    }
-
-    class ItemSharedNetworkIp extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        int total;
-
-        public ItemSharedNetworkIp(final String zn, final String zu, final String fl, int cnt) {
-            super("cloudstack_shared_network_ips_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = fl;
-            total = cnt;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
-        }
-    }
-
-    class ItemVlan extends Item {
-        String zoneName;
-        String zoneUuid;
-        String filter;
-        int total;
-
-        public ItemVlan(final String zn, final String zu, final String fl, int cnt) {
-            super("cloudstack_vlans_total");
-            zoneName = zn;
-            zoneUuid = zu;
-            filter = fl;
-            total = cnt;
+            addDomainLimits();
+        } catch (Exception e) {
+            LOG.warn("Getting metrics failed ", e);
         }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s{zone=\"%s\",filter=\"%s\"} %d", name, zoneName, filter, total);
+        metricsSnapshot = writer.toBytes();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Refreshed prometheus metrics snapshot of " + metricsSnapshot.length + " bytes in " + (System.currentTimeMillis() - start) + "ms");
         }
     }
 
-    class ItemDomainLimitCpu extends Item {
-        long cores;
-
-        public ItemDomainLimitCpu(final long c) {
-            super("cloudstack_domain_limit_cpu_cores_total");
-            cores = c;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s %d", name, cores);
+    @Override
+    public byte[] getMetricsSnapshot() {
+        byte[] snapshot = metricsSnapshot;
+        if (snapshot == null) {
+            updateMetrics();
+            snapshot = metricsSnapshot;
         }
+        return snapshot;
     }
 
-    class ItemDomainLimitMemory extends Item {
-        long miBytes;
-
-        public ItemDomainLimitMemory(final long mb) {
-            super("cloudstack_domain_limit_memory_mibs_total");
-            miBytes = mb;
-        }
-
-        @Override
-        public String toMetricsString() {
-            return String.format("%s %d", name, miBytes);
-        }
+    @Override
+    public String getMetrics() {
+        return new String(getMetricsSnapshot(), StandardCharsets.UTF_8);
     }
 }
@@ -30,4 +30,10 @@ public interface PrometheusExporterServer extends Manager {
 
     ConfigKey<String> PrometheusExporterAllowedAddresses = new ConfigKey<>("Advanced", String.class, "prometheus.exporter.allowed.ips", "127.0.0.1",
             "List of comma separated prometheus server ips (with no spaces) that should be allowed to access the URLs", true);
+
+    ConfigKey<Integer> PrometheusExporterRefreshInterval = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.refresh.interval", "30",
+            "Interval in seconds at which the exported metrics are recomputed in the background, scrapes in between are served the latest snapshot", false);
+
+    ConfigKey<Integer> PrometheusExporterServerThreads = new ConfigKey<>("Advanced", Integer.class, "prometheus.exporter.server.threads", "4",
+            "Number of threads serving the prometheus exporter http server", false);
 }
@@ -17,6 +17,7 @@
 package org.apache.cloudstack.metrics;
 
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -28,17 +29,23 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PrometheusExporterServerImpl extends ManagerBase implements PrometheusExporterServer, Configurable {
     private static final Logger LOG = Logger.getLogger(PrometheusExporterServerImpl.class);
 
     private static HttpServer httpServer;
+    private static ExecutorService httpExecutor;
 
     @Inject
     private PrometheusExporter prometheusExporter;
 
     private final static class ExporterHandler implements HttpHandler {
+        private static final byte[] FORBIDDEN = "Forbidden".getBytes(StandardCharsets.UTF_8);
+
         private PrometheusExporter prometheusExporter;
 
         ExporterHandler(final PrometheusExporter prometheusExporter) {
@@ -50,17 +57,16 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
         public void handle(final HttpExchange httpExchange) throws IOException {
             final String remoteClientAddress = httpExchange.getRemoteAddress().getAddress().toString().replace("/", "");
             LOG.debug("Prometheus exporter received client request from: " + remoteClientAddress);
-            String response = "Forbidden";
+            byte[] response = FORBIDDEN;
             int responseCode = 403;
             if (Arrays.asList(PrometheusExporterAllowedAddresses.value().split(",")).contains(remoteClientAddress)) {
-                prometheusExporter.updateMetrics();
-                response = prometheusExporter.getMetrics();
+                response = prometheusExporter.getMetricsSnapshot();
                 responseCode = 200;
             }
-            httpExchange.getResponseHeaders().set("Content-Type", "text/plain");
-            httpExchange.sendResponseHeaders(responseCode, response.length());
+            httpExchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            httpExchange.sendResponseHeaders(responseCode, response.length);
             final OutputStream os = httpExchange.getResponseBody();
-            os.write(response.getBytes());
+            os.write(response);
             os.close();
         }
     }
@@ -84,6 +90,8 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
                         os.close();
                     }
                 });
+                httpExecutor = Executors.newFixedThreadPool(Math.max(1, PrometheusExporterServerThreads.value()), new NamedThreadFactory("PrometheusExporter-Server"));
+                httpServer.setExecutor(httpExecutor);
                 httpServer.start();
                 LOG.debug("Started prometheus exporter http server");
             } catch (final IOException e) {
@@ -99,6 +107,9 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
             httpServer.stop(0);
             LOG.debug("Stopped Prometheus exporter http server");
         }
+        if (httpExecutor != null) {
+            httpExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -112,7 +123,9 @@ public class PrometheusExporterServerImpl extends ManagerBase implements Prometh
         return new ConfigKey<?>[] {
                 EnablePrometheusExporter,
                 PrometheusExporterServerPort,
-                PrometheusExporterAllowedAddresses
+                PrometheusExporterAllowedAddresses,
+                PrometheusExporterRefreshInterval,
+                PrometheusExporterServerThreads
         };
     }
 }
@@ -0,0 +1,134 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.metrics;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes samples in the prometheus text exposition format straight into a
+ * buffer that is kept between refreshes, e.g.
+ *
+ *   writer.sample("cloudstack_vms_total").label("zone", zoneName).label("filter", "running").value(count);
+ *
+ * Not thread safe, the exporter refreshes under its own lock.
+ */
+final class PrometheusMetricsWriter {
+    private static final double MAX_FAST_FORMAT_VALUE = 1e15;
+
+    private final StringBuilder buffer;
+    private boolean hasLabels;
+
+    PrometheusMetricsWriter(final int initialCapacity) {
+        buffer = new StringBuilder(initialCapacity);
+    }
+
+    PrometheusMetricsWriter reset() {
+        buffer.setLength(0);
+        return this;
+    }
+
+    PrometheusMetricsWriter comment(final String text) {
+        buffer.append("# ").append(text).append('\n');
+        return this;
+    }
+
+    PrometheusMetricsWriter sample(final String name) {
+        buffer.append(name);
+        hasLabels = false;
+        return this;
+    }
+
+    PrometheusMetricsWriter label(final String name, final String value) {
+        buffer.append(hasLabels ? ',' : '{').append(name).append("=\"");
+        appendEscaped(value);
+        buffer.append('"');
+        hasLabels = true;
+        return this;
+    }
+
+    void value(final long value) {
+        closeLabels();
+        buffer.append(value).append('\n');
+    }
+
+    /**
+     * Writes the value with two decimals, the same as the %.2f the exporter used to format with,
+     * but independent of the default locale and without going through String.format.
+     */
+    void value(final double value) {
+        closeLabels();
+        if (Double.isNaN(value)) {
+            buffer.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            buffer.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (Math.abs(value) >= MAX_FAST_FORMAT_VALUE) {
+            buffer.append(BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_UP).toPlainString());
+        } else {
+            final long hundredths = Math.round(Math.abs(value) * 100);
+            if (value < 0 && hundredths != 0) {
+                buffer.append('-');
+            }
+            buffer.append(hundredths / 100).append('.');
+            final long fraction = hundredths % 100;
+            if (fraction < 10) {
+                buffer.append('0');
+            }
+            buffer.append(fraction);
+        }
+        buffer.append('\n');
+    }
+
+    int length() {
+        return buffer.length();
+    }
+
+    byte[] toBytes() {
+        return buffer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    private void closeLabels() {
+        if (hasLabels) {
+            buffer.append('}');
+            hasLabels = false;
+        }
+        buffer.append(' ');
+    }
+
+    private void appendEscaped(final String value) {
+        if (value == null) {
+            buffer.append("null");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                buffer.append('\\').append(c);
+            } else if (c == '\n') {
+                buffer.append("\\n");
+            } else {
+                buffer.append(c);
+            }
+        }
+    }
+}
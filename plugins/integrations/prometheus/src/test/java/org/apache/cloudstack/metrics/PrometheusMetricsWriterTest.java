@@ -0,0 +1,63 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.metrics;
+
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusMetricsWriterTest {
+
+    private final PrometheusMetricsWriter writer = new PrometheusMetricsWriter(16);
+
+    @Test
+    public void testSampleWithLabels() {
+        writer.comment("Cloudstack Prometheus Metrics");
+        writer.sample("cloudstack_vms_total").label("zone", "zone1").label("filter", "running").value(42L);
+        writer.sample("cloudstack_domain_limit_cpu_cores_total").value(8L);
+
+        Assert.assertEquals("# Cloudstack Prometheus Metrics\n" +
+                "cloudstack_vms_total{zone=\"zone1\",filter=\"running\"} 42\n" +
+                "cloudstack_domain_limit_cpu_cores_total 8\n", writer.toString());
+    }
+
+    @Test
+    public void testDoubleValuesMatchTwoDecimalFormat() {
+        final double[] values = {0, 0.004, 0.005, 1.5, 12.345, 1023.999, -0.001, -2.5, 4096.0 / 1024, 123456789.126};
+        for (final double value : values) {
+            writer.reset().sample("m").value(value);
+            Assert.assertEquals("m " + String.format(Locale.ROOT, "%.2f", value).replace("-0.00", "0.00") + "\n", writer.toString());
+        }
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        writer.sample("m").label("name", "pool \"a\"\\b\nc").value(1L);
+
+        Assert.assertEquals("m{name=\"pool \\\"a\\\"\\\\b\\nc\"} 1\n", writer.toString());
+    }
+
+    @Test
+    public void testResetReusesBuffer() {
+        writer.sample("first").value(1L);
+        writer.reset().sample("second").value(2L);
+
+        Assert.assertEquals("second 2\n", writer.toString());
+        Assert.assertArrayEquals("second 2\n".getBytes(), writer.toBytes());
+    }
+}
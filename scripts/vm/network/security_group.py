@@ -17,6 +17,7 @@
 # under the License.
 
 import argparse
+import json
 from subprocess import check_output, CalledProcessError
 import logging
 import sys
@@ -30,6 +31,7 @@ import ipaddress
 
 logpath = "/var/run/cloud/"        # FIXME: Logs should reside in /var/log/cloud
 lock_file = "/var/lock/cloudstack_security_group.lock"
+ipset_rule_prefix = "ipset:"
 driver = "qemu:///system"
 lock_handle = None
 
@@ -1077,7 +1079,11 @@ def parse_network_rules(rules):
 
         ipv4 = []
         ipv6 = []
+        ipsets = []
         for ip in cidrs.split(","):
+            if ip.startswith(ipset_rule_prefix):
+                ipsets.append(ip[len(ipset_rule_prefix):])
+                continue
             try:
                 network = ipaddress.ip_network(ip, False)
                 if network.version == 4:
@@ -1087,7 +1093,7 @@ def parse_network_rules(rules):
             except:
                 pass
 
-        ret.append({'ipv4': ipv4, 'ipv6': ipv6, 'ruletype': ruletype,
+        ret.append({'ipv4': ipv4, 'ipv6': ipv6, 'ipsets': ipsets, 'ruletype': ruletype,
                     'start': start, 'end': end, 'protocol': protocol})
 
     return ret
@@ -1135,7 +1141,7 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
                 vmchain = egress_vmchain
                 direction = "-d"
                 action = "RETURN"
-                if rule['ipv4']:
+                if rule['ipv4'] or rule['ipsets']:
                     egressrule_v4 =+ 1
 
                 if rule['ipv6']:
@@ -1163,13 +1169,16 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
                 if start == -1:
                     range = 'any'
 
-            for ip in rule['ipv4']:
+            # members of an allowed group are matched by the ipset of the group
+            matches = [direction + ' ' + ip for ip in rule['ipv4']]
+            matches += ['-m set --match-set ' + name + (' src' if direction == '-s' else ' dst') for name in rule['ipsets']]
+            for match in matches:
                 if protocol == 'all':
-                    execute('iptables -I ' + vmchain + ' -m state --state NEW ' + direction + ' ' + ip + ' -j ' + action)
+                    execute('iptables -I ' + vmchain + ' -m state --state NEW ' + match + ' -j ' + action)
                 elif protocol == 'icmp':
-                    execute("iptables -I " + vmchain + " -p icmp --icmp-type " + range + " " + direction + " " + ip + " -j " + action)
+                    execute("iptables -I " + vmchain + " -p icmp --icmp-type " + range + " " + match + " -j " + action)
                 else:
-                    execute("iptables -I " + vmchain + protocol_all + dport + protocol_state + direction + " " + ip + " -j "+ action)
+                    execute("iptables -I " + vmchain + protocol_all + dport + protocol_state + match + " -j "+ action)
 
             for ip in rule['ipv6']:
                 if protocol == 'all':
@@ -1207,6 +1216,59 @@ def add_network_rules(vm_name, vm_id, vm_ip, vm_ip6, signature, seqno, vmMac, ru
         logging.exception("Failed to network rule !")
 
 
+def ipset_exists(ipsetname):
+    try:
+        execute('ipset -n list ' + ipsetname)
+        return True
+    except:
+        return False
+
+
+def apply_group_ipsets(ipsets):
+    result = True
+    for ipset in ipsets:
+        name = ipset['name']
+        try:
+            if ipset.get('full'):
+                # fill a new set and swap it in, the rules using the set never see it partly filled
+                newset = name + '-new'
+                create_ipset_forvm(newset, type='hash:net')
+                add_to_ipset(newset, ipset.get('added', []), '-A')
+                if ipset_exists(name):
+                    execute('ipset swap ' + newset + ' ' + name)
+                    execute('ipset -X ' + newset)
+                else:
+                    execute('ipset rename ' + newset + ' ' + name)
+            elif ipset_exists(name):
+                add_to_ipset(name, ipset.get('added', []), '-A')
+                add_to_ipset(name, ipset.get('removed', []), '-D')
+            else:
+                logging.debug("Cannot apply changes to missing ipset " + name)
+                result = False
+        except:
+            logging.exception("Failed to apply ipset " + name)
+            result = False
+
+    return result
+
+
+def apply_network_rules_batch(batchfile):
+    with open(batchfile) as f:
+        batch = json.load(f)
+
+    ipsets_applied = apply_group_ipsets(batch.get('ipsets', []))
+    print("ipsets " + ("ok" if ipsets_applied else "failed"))
+
+    # without the ipsets the rules of the vms would not match the right members,
+    # fail them for the management server to send them again with whole ipsets
+    for vm in batch.get('vms', []):
+        result = False
+        if ipsets_applied:
+            result = add_network_rules(vm['vmname'], vm['vmid'], vm['vmip'], vm.get('vmip6'), vm['sig'], vm['seq'], vm['vmmac'],
+                                       vm.get('rules'), vm['vif'], vm['brname'], vm['nicsecips'])
+        print(vm['vmname'] + " " + ("ok" if result else "failed"))
+
+
 def get_vifs(vm_name):
     vifs = []
     xmlfile = virshdumpxml(vm_name)
@@ -1612,6 +1674,7 @@ if __name__ == '__main__':
     parser.add_argument("--privnic", dest="privnic")
     parser.add_argument("--isFirstNic", action="store_true", dest="isFirstNic")
     parser.add_argument("--check", action="store_true", dest="check")
+    parser.add_argument("--batchfile", dest="batchFile")
     args = parser.parse_args()
     cmd = args.command
     logging.debug("Executing command: %s", cmd)
@@ -1640,6 +1703,8 @@ if __name__ == '__main__':
         get_rule_logs_for_vms()
     elif cmd == "add_network_rules":
         add_network_rules(args.vmName, args.vmID, args.vmIP, args.vmIP6, args.sig, args.seq, args.vmMAC, args.rules, args.vif, args.brname, args.nicSecIps)
+    elif cmd == "apply_network_rules_batch":
+        apply_network_rules_batch(args.batchFile)
     elif cmd == "network_rules_vmSecondaryIp":
         network_rules_vmSecondaryIp(args.vmName, args.vmMAC, args.nicSecIps, args.action)
     elif cmd == "cleanup_rules":
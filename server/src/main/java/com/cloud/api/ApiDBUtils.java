@@ -84,6 +84,7 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.agent.api.VgpuTypesInfo;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.dao.AccountJoinDao;
 import com.cloud.api.query.dao.AffinityGroupJoinDao;
 import com.cloud.api.query.dao.AsyncJobJoinDao;
@@ -1747,6 +1748,10 @@ public class ApiDBUtils {
         return s_userVmJoinDao.setUserVmResponse(view, vmData, vm);
     }
 
+    public static void prefetchUserVmDetails(ResponsePrefetch prefetch, EnumSet<VMDetails> details, UserVmJoinVO... userVms) {
+        s_userVmJoinDao.prefetchResponseDetails(prefetch, details, userVms);
+    }
+
     public static List<UserVmJoinVO> newUserVmView(UserVm... userVms) {
         return s_userVmJoinDao.newUserVmView(userVms);
     }
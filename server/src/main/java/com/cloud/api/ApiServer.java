@@ -54,10 +54,12 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.EntityManager;
+import com.cloud.utils.db.QueryCounter;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.UUIDManager;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
+import com.google.gson.JsonIOException;
 import com.google.gson.reflect.TypeToken;
 import org.apache.cloudstack.acl.APIChecker;
 import org.apache.cloudstack.api.APICommand;
@@ -269,6 +271,14 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             , false
             , ConfigKey.Scope.Global);
 
+    static final ConfigKey<Integer> ApiResponseLogMaxLength = new ConfigKey<Integer>("Advanced"
+            , Integer.class
+            , "api.response.log.max.length"
+            , "1048576"
+            , "Length in characters past which the objects of a list API response are left out of the access log, 0 to log the whole response"
+            , true
+            , ConfigKey.Scope.Global);
+
     private static final ConfigKey<Boolean> UseEventAccountInfo = new ConfigKey<Boolean>( "advanced"
             , Boolean.class
             , "event.accountinfo"
@@ -528,6 +538,21 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        return processRequest(params, responseType, auditTrailSb, null);
+    }
+
+    @Override
+    public void handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final HttpServletResponse resp) throws ServerApiException {
+        final String response = processRequest(params, responseType, auditTrailSb, resp);
+        if (response != null) {
+            HttpUtils.writeHttpResponse(resp, response, HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+        }
+    }
+
+    /**
+     * @param resp if not null the response of a command is written to it as it is serialized, and null returned.
+     */
+    private String processRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final HttpServletResponse resp) throws ServerApiException {
         checkCharacterInkParams(params);
 
         String response = null;
@@ -580,7 +605,15 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                     // This is where the command is either serialized, or directly dispatched
                     StringBuilder log = new StringBuilder();
-                    response = queueCommand(cmdObj, paramMap, log);
+                    QueryCounter.start();
+                    try {
+                        response = queueCommand(cmdObj, paramMap, log, resp);
+                    } finally {
+                        long queries = QueryCounter.stop();
+                        if (s_logger.isDebugEnabled()) {
+                            s_logger.debug("Ran " + queries + " queries for " + command[0]);
+                        }
+                    }
                     buildAuditTrail(auditTrailSb, command[0], log.toString());
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
@@ -666,7 +699,31 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, StringBuilder log) throws Exception {
+    /**
+     * Writes a response to the servlet as it is serialized.  A failure before
+     * any of it was sent discards what was buffered and is rethrown, so that
+     * the caller sends an error response instead; once the status and part of
+     * the body are sent the response is only cut short, as appending an error
+     * to it would not give a valid document either.
+     */
+    static void writeResponse(final ResponseObject response, final String responseType, final String commandName, final HttpServletResponse resp,
+            final StringBuilder log, final int logMaxLength) throws IOException {
+        HttpUtils.writeHttpResponseHeaders(resp, HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+        try {
+            ApiResponseSerializer.writeSerializedStringWithSecureLogs(response, responseType, resp.getWriter(), log, logMaxLength);
+        } catch (final IOException | JsonIOException e) {
+            // the client went away, gson wraps the IOException
+            s_logger.debug("Unable to write the response of " + commandName + ": " + e.getMessage());
+        } catch (final RuntimeException e) {
+            if (!resp.isCommitted()) {
+                resp.resetBuffer();
+                throw e;
+            }
+            s_logger.error("Failed to serialize the response of " + commandName + " after part of it was sent, the response is cut short", e);
+        }
+    }
+
+    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, StringBuilder log, final HttpServletResponse resp) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -772,6 +829,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
+            if (resp != null) {
+                writeResponse((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), cmdObj.getCommandName(), resp, log, ApiResponseLogMaxLength.value());
+                return null;
+            }
             return ApiResponseSerializer.toSerializedStringWithSecureLogs((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), log);
         }
     }
@@ -1448,7 +1509,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 ConcurrentSnapshotsThresholdPerHost,
                 EncodeApiResponse,
                 EnableSecureSessionCookie,
-                JSONDefaultContentType
+                JSONDefaultContentType,
+                ApiResponseLogMaxLength
         };
     }
 }
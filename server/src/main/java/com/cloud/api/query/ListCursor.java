@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.db.Filter;
+
+/**
+ * ListCursor encodes the values of the order by columns in the last row of
+ * a page, for the next page to seek past them with a Filter.  The values go
+ * back to the database as strings, which MySQL compares with the numbers and
+ * dates of the columns.
+ */
+public final class ListCursor {
+    private static final String SEPARATOR = ",";
+
+    private ListCursor() {
+    }
+
+    public static String encode(Object... values) {
+        StringBuilder str = new StringBuilder();
+        for (Object value : values) {
+            if (str.length() > 0) {
+                str.append(SEPARATOR);
+            }
+            if (value instanceof Date) {
+                str.append(DateUtil.getDateDisplayString(DateUtil.GMT_TIMEZONE, (Date)value));
+            } else {
+                str.append(value);
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(str.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param values number of order by columns the cursor must have values for.
+     */
+    public static Object[] decode(String cursor, int values) {
+        String str;
+        try {
+            str = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterValueException("Invalid startafter " + cursor + ", it must be the nextcursor of the previous page");
+        }
+        String[] decoded = str.split(SEPARATOR, -1);
+        if (decoded.length != values) {
+            throw new InvalidParameterValueException("Invalid startafter " + cursor + ", it must be the nextcursor of the previous page");
+        }
+        return decoded;
+    }
+
+    /**
+     * @return true if the page is listed by seeking, either past a cursor or
+     *         from the start of the list, so the count of the rows is kept
+     *         for the next pages.  Any other page is listed by offset.
+     */
+    public static boolean isSeek(Long startIndex, Long pageSize, String startAfter) {
+        return startAfter != null || (pageSize != null && startIndex != null && startIndex == 0);
+    }
+
+    public static void seek(Filter filter, Long startIndex, Long pageSize, String startAfter, int values) {
+        if (isSeek(startIndex, pageSize, startAfter)) {
+            filter.setSeek(startAfter == null ? null : decode(startAfter, values));
+        }
+    }
+
+    /**
+     * @param rows distinct rows in the page.
+     * @param lastRow values of the order by columns in the last row.
+     * @return the cursor for the next page, null if the page is the last one.
+     */
+    public static String next(Long startIndex, Long pageSize, String startAfter, int rows, Object... lastRow) {
+        if (!isSeek(startIndex, pageSize, startAfter) || pageSize == null || rows < pageSize) {
+            return null;
+        }
+        return encode(lastRow);
+    }
+}
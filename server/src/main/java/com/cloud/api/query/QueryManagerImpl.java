@@ -37,6 +37,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseGenerator;
@@ -843,6 +844,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(), result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
+        long lastVmId = 0;
+        for (UserVmJoinVO vm : result.first()) {
+            lastVmId = Math.max(lastVmId, vm.getId());
+        }
+        response.setNextCursor(ListCursor.next(cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), vmResponses.size(), lastVmId));
         return response;
     }
 
@@ -862,6 +868,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
         Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        ListCursor.seek(searchFilter, cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), 1);
 
         List<Long> ids = null;
         if (cmd.getId() != null) {
@@ -1638,6 +1645,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         s_logger.debug(">>>Generating Response>>>");
         List<HostResponse> hostResponses = ViewResponseHelper.createHostResponse(cmd.getDetails(), hosts.first().toArray(new HostJoinVO[hosts.first().size()]));
         response.setResponses(hostResponses, hosts.second());
+        long lastHostId = 0;
+        for (HostJoinVO host : hosts.first()) {
+            lastHostId = Math.max(lastHostId, host.getId());
+        }
+        response.setNextCursor(ListCursor.next(cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), hostResponses.size(), lastHostId));
         return response;
     }
 
@@ -1660,6 +1672,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Hypervisor.HypervisorType hypervisorType = cmd.getHypervisor();
 
         Filter searchFilter = new Filter(HostJoinVO.class, "id", Boolean.TRUE, startIndex, pageSize);
+        ListCursor.seek(searchFilter, startIndex, pageSize, cmd.getStartAfter(), 1);
 
         SearchBuilder<HostJoinVO> sb = _hostJoinDao.createSearchBuilder();
         sb.select(null, Func.DISTINCT, sb.entity().getId()); // select distinct
@@ -1795,6 +1808,21 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             }
         }
         response.setResponses(volumeResponses, result.second());
+        // the page is ordered by creation and id, both descending
+        VolumeJoinVO lastVolume = null;
+        for (VolumeJoinVO volume : result.first()) {
+            if (lastVolume == null) {
+                lastVolume = volume;
+                continue;
+            }
+            int order = volume.getCreated().compareTo(lastVolume.getCreated());
+            if (order < 0 || (order == 0 && volume.getId() < lastVolume.getId())) {
+                lastVolume = volume;
+            }
+        }
+        if (lastVolume != null) {
+            response.setNextCursor(ListCursor.next(cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), volumeResponses.size(), lastVolume.getCreated(), lastVolume.getId()));
+        }
         return response;
     }
 
@@ -1826,6 +1854,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
         Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        if (ListCursor.isSeek(cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter())) {
+            // volumes created in the same second need the id to seek past each other
+            searchFilter.addOrderBy(VolumeJoinVO.class, "id", false);
+            ListCursor.seek(searchFilter, cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), 2);
+        }
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -3202,6 +3235,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
         List<TemplateResponse> templateResponses = ViewResponseHelper.createTemplateResponse(respView, result.first().toArray(new TemplateJoinVO[result.first().size()]));
         response.setResponses(templateResponses, result.second());
+        response.setNextCursor(getNextTemplateCursor(cmd, result.first(), templateResponses.size()));
         return response;
     }
 
@@ -3233,12 +3267,12 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         boolean showDomr = ((templateFilter != TemplateFilter.selfexecutable) && (templateFilter != TemplateFilter.featured));
         HypervisorType hypervisorType = HypervisorType.getType(cmd.getHypervisor());
 
-        return searchForTemplatesInternal(id, cmd.getTemplateName(), cmd.getKeyword(), templateFilter, false, null, cmd.getPageSizeVal(), cmd.getStartIndex(), cmd.getZoneId(), hypervisorType,
+        return searchForTemplatesInternal(id, cmd.getTemplateName(), cmd.getKeyword(), templateFilter, false, null, cmd.getPageSizeVal(), cmd.getStartIndex(), cmd.getStartAfter(), cmd.getZoneId(), hypervisorType,
                 showDomr, cmd.listInReadyState(), permittedAccounts, caller, listProjectResourcesCriteria, tags, showRemovedTmpl, cmd.getIds(), parentTemplateId);
     }
 
     private Pair<List<TemplateJoinVO>, Integer> searchForTemplatesInternal(Long templateId, String name, String keyword, TemplateFilter templateFilter, boolean isIso, Boolean bootable, Long pageSize,
-            Long startIndex, Long zoneId, HypervisorType hyperType, boolean showDomr, boolean onlyReady, List<Account> permittedAccounts, Account caller,
+            Long startIndex, String startAfter, Long zoneId, HypervisorType hyperType, boolean showDomr, boolean onlyReady, List<Account> permittedAccounts, Account caller,
             ListProjectResourcesCriteria listProjectResourcesCriteria, Map<String, String> tags, boolean showRemovedTmpl, List<Long> ids, Long parentTemplateId) {
 
         // check if zone is configured, if not, just return empty list
@@ -3254,6 +3288,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
         Filter searchFilter = new Filter(TemplateJoinVO.class, "sortKey", SortKeyAscending.value(), startIndex, pageSize);
         searchFilter.addOrderBy(TemplateJoinVO.class, "tempZonePair", SortKeyAscending.value());
+        ListCursor.seek(searchFilter, startIndex, pageSize, startAfter, 2);
 
         SearchBuilder<TemplateJoinVO> sb = _templateJoinDao.createSearchBuilder();
         sb.select(null, Func.DISTINCT, sb.entity().getTempZonePair()); // select distinct (templateId, zoneId) pair
@@ -3530,9 +3565,36 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
         List<TemplateResponse> templateResponses = ViewResponseHelper.createIsoResponse(respView, result.first().toArray(new TemplateJoinVO[result.first().size()]));
         response.setResponses(templateResponses, result.second());
+        response.setNextCursor(getNextTemplateCursor(cmd, result.first(), templateResponses.size()));
         return response;
     }
 
+    /**
+     * @param rows distinct template and zone pairs in the page.
+     */
+    private String getNextTemplateCursor(BaseListCmd cmd, List<TemplateJoinVO> templates, int rows) {
+        // the page is ordered by sort key and template and zone pair, both ascending or both descending
+        boolean ascending = SortKeyAscending.value();
+        TemplateJoinVO lastTemplate = null;
+        for (TemplateJoinVO template : templates) {
+            if (lastTemplate == null) {
+                lastTemplate = template;
+                continue;
+            }
+            int order = Integer.compare(template.getSortKey(), lastTemplate.getSortKey());
+            if (order == 0) {
+                order = template.getTempZonePair().compareTo(lastTemplate.getTempZonePair());
+            }
+            if (ascending ? order > 0 : order < 0) {
+                lastTemplate = template;
+            }
+        }
+        if (lastTemplate == null) {
+            return null;
+        }
+        return ListCursor.next(cmd.getStartIndex(), cmd.getPageSizeVal(), cmd.getStartAfter(), rows, lastTemplate.getSortKey(), lastTemplate.getTempZonePair());
+    }
+
     private Pair<List<TemplateJoinVO>, Integer> searchForIsosInternal(ListIsosCmd cmd) {
         TemplateFilter isoFilter = TemplateFilter.valueOf(cmd.getIsoFilter());
         Long id = cmd.getId();
@@ -3559,7 +3621,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
         HypervisorType hypervisorType = HypervisorType.getType(cmd.getHypervisor());
 
-        return searchForTemplatesInternal(cmd.getId(), cmd.getIsoName(), cmd.getKeyword(), isoFilter, true, cmd.isBootable(), cmd.getPageSizeVal(), cmd.getStartIndex(), cmd.getZoneId(),
+        return searchForTemplatesInternal(cmd.getId(), cmd.getIsoName(), cmd.getKeyword(), isoFilter, true, cmd.isBootable(), cmd.getPageSizeVal(), cmd.getStartIndex(), cmd.getStartAfter(), cmd.getZoneId(),
                 hypervisorType, true, cmd.listInReadyState(), permittedAccounts, caller, listProjectResourcesCriteria, tags, showRemovedISO, null, null);
     }
 
@@ -0,0 +1,102 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * ResponsePrefetch holds what the response of a page of rows needs beyond
+ * the view, users, details, secondary ips, loaded with one query per kind
+ * before the responses are built.  ViewResponseHelper opens one for the
+ * thread, the join daos fill it and then read from it instead of querying
+ * for every row.  Lookups of a kind that was not prefetched, or outside of
+ * a prefetch, go to the database as before.
+ */
+public class ResponsePrefetch implements AutoCloseable {
+    private static final ThreadLocal<ResponsePrefetch> s_current = new ThreadLocal<ResponsePrefetch>();
+
+    /**
+     * Kind of value prefetched, by the id it is looked up with.
+     */
+    public static final class Kind<V> {
+        private final String _name;
+
+        public Kind(String name) {
+            _name = name;
+        }
+
+        @Override
+        public String toString() {
+            return _name;
+        }
+    }
+
+    private final ResponsePrefetch _previous;
+    private final Map<Kind<?>, Map<Long, ?>> _values = new HashMap<Kind<?>, Map<Long, ?>>();
+
+    private ResponsePrefetch(ResponsePrefetch previous) {
+        _previous = previous;
+    }
+
+    /**
+     * Opens a prefetch for this thread, close it once the responses are built.
+     */
+    public static ResponsePrefetch open() {
+        ResponsePrefetch prefetch = new ResponsePrefetch(s_current.get());
+        s_current.set(prefetch);
+        return prefetch;
+    }
+
+    @Override
+    public void close() {
+        if (_previous == null) {
+            s_current.remove();
+        } else {
+            s_current.set(_previous);
+        }
+    }
+
+    /**
+     * Sets the values of a kind.  The values must have an entry for every id
+     * that was looked for, null or empty if it has none, as ids without one
+     * are loaded from the database.
+     */
+    public <V> void put(Kind<V> kind, Map<Long, V> values) {
+        _values.put(kind, values);
+    }
+
+    public boolean contains(Kind<?> kind) {
+        return _values.containsKey(kind);
+    }
+
+    /**
+     * @return the prefetched value of the id, or the value loaded if it was not prefetched.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> V get(Kind<V> kind, long id, Function<Long, V> loader) {
+        ResponsePrefetch prefetch = s_current.get();
+        if (prefetch != null) {
+            Map<Long, ?> values = prefetch._values.get(kind);
+            if (values != null && values.containsKey(id)) {
+                return (V)values.get(id);
+            }
+        }
+        return loader.apply(id);
+    }
+}
@@ -144,16 +144,20 @@ public class ViewResponseHelper {
         Hashtable<Long, UserVmResponse> vmDataList = new Hashtable<Long, UserVmResponse>();
         // Initialise the vmdatalist with the input data
 
-        for (UserVmJoinVO userVm : userVms) {
-            UserVmResponse userVmData = vmDataList.get(userVm.getId());
-            if (userVmData == null) {
-                // first time encountering this vm
-                userVmData = ApiDBUtils.newUserVmResponse(view, objectName, userVm, details, caller);
-            } else{
-                // update nics, securitygroups, tags, affinitygroups for 1 to many mapping fields
-                userVmData = ApiDBUtils.fillVmDetails(view, userVmData, userVm);
+        // load what the responses need beyond the view for all the rows at once
+        try (ResponsePrefetch prefetch = ResponsePrefetch.open()) {
+            ApiDBUtils.prefetchUserVmDetails(prefetch, details, userVms);
+            for (UserVmJoinVO userVm : userVms) {
+                UserVmResponse userVmData = vmDataList.get(userVm.getId());
+                if (userVmData == null) {
+                    // first time encountering this vm
+                    userVmData = ApiDBUtils.newUserVmResponse(view, objectName, userVm, details, caller);
+                } else{
+                    // update nics, securitygroups, tags, affinitygroups for 1 to many mapping fields
+                    userVmData = ApiDBUtils.fillVmDetails(view, userVmData, userVm);
+                }
+                vmDataList.put(userVm.getId(), userVmData);
             }
-            vmDataList.put(userVm.getId(), userVmData);
         }
         return new ArrayList<UserVmResponse>(vmDataList.values());
     }
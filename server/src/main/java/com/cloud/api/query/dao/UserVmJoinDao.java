@@ -23,6 +23,7 @@ import org.apache.cloudstack.api.ApiConstants.VMDetails;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
 import org.apache.cloudstack.api.response.UserVmResponse;
 
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.UserVmJoinVO;
 import com.cloud.user.Account;
 import com.cloud.uservm.UserVm;
@@ -34,6 +35,13 @@ public interface UserVmJoinDao extends GenericDao<UserVmJoinVO, Long> {
 
     UserVmResponse setUserVmResponse(ResponseView view, UserVmResponse userVmData, UserVmJoinVO uvo);
 
+    /**
+     * Loads the users, offering details, nic secondary ips and extra dhcp options and VM details
+     * of the rows, with a query for each, for newUserVmResponse and setUserVmResponse to read them
+     * from the prefetch instead of querying for every row.
+     */
+    void prefetchResponseDetails(ResponsePrefetch prefetch, EnumSet<VMDetails> details, UserVmJoinVO... userVms);
+
     List<UserVmJoinVO> newUserVmView(UserVm... userVms);
 
     List<UserVmJoinVO> searchByIds(Long... ids);
@@ -19,11 +19,14 @@ package com.cloud.api.query.dao;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -44,22 +47,27 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseHelper;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.UserVmJoinVO;
 import com.cloud.gpu.GPU;
 import com.cloud.service.ServiceOfferingDetailsVO;
+import com.cloud.service.dao.ServiceOfferingDetailsDao;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.user.UserVO;
 import com.cloud.user.dao.UserDao;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.net.Dhcp;
+import com.cloud.vm.NicExtraDhcpOptionVO;
 import com.cloud.vm.UserVmDetailVO;
 import com.cloud.vm.UserVmManager;
 import com.cloud.vm.VirtualMachine.State;
 import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.NicExtraDhcpOptionDao;
+import com.cloud.vm.dao.NicSecondaryIpDao;
 import com.cloud.vm.dao.NicSecondaryIpVO;
 import com.cloud.vm.dao.UserVmDetailsDao;
 
@@ -77,6 +85,16 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
     private UserDao _userDao;
     @Inject
     private NicExtraDhcpOptionDao _nicExtraDhcpOptionDao;
+    @Inject
+    private NicSecondaryIpDao _nicSecondaryIpDao;
+    @Inject
+    private ServiceOfferingDetailsDao _serviceOfferingDetailsDao;
+
+    private static final ResponsePrefetch.Kind<User> USER = new ResponsePrefetch.Kind<User>("user");
+    private static final ResponsePrefetch.Kind<ServiceOfferingDetailsVO> VGPU_TYPE = new ResponsePrefetch.Kind<ServiceOfferingDetailsVO>("vgpuType");
+    private static final ResponsePrefetch.Kind<List<NicSecondaryIpVO>> NIC_SECONDARY_IPS = new ResponsePrefetch.Kind<List<NicSecondaryIpVO>>("nicSecondaryIps");
+    private static final ResponsePrefetch.Kind<List<NicExtraDhcpOptionVO>> NIC_EXTRA_DHCP_OPTIONS = new ResponsePrefetch.Kind<List<NicExtraDhcpOptionVO>>("nicExtraDhcpOptions");
+    private static final ResponsePrefetch.Kind<List<UserVmDetailVO>> VM_DETAILS = new ResponsePrefetch.Kind<List<UserVmDetailVO>>("vmDetails");
 
     private final SearchBuilder<UserVmJoinVO> VmDetailSearch;
     private final SearchBuilder<UserVmJoinVO> activeVmByIsoSearch;
@@ -128,7 +146,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
             userVmResponse.setAccountName(userVm.getAccountName());
         }
 
-        User user = _userDao.getUser(userVm.getUserId());
+        User user = ResponsePrefetch.get(USER, userVm.getUserId(), _userDao::getUser);
         if (user != null) {
             userVmResponse.setUserId(user.getUuid());
             userVmResponse.setUserName(user.getUsername());
@@ -182,7 +200,8 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
             userVmResponse.setCpuNumber(userVm.getCpu());
             userVmResponse.setCpuSpeed(userVm.getSpeed());
             userVmResponse.setMemory(userVm.getRamSize());
-            ServiceOfferingDetailsVO serviceOfferingDetail = ApiDBUtils.findServiceOfferingDetail(userVm.getServiceOfferingId(), GPU.Keys.vgpuType.toString());
+            ServiceOfferingDetailsVO serviceOfferingDetail = ResponsePrefetch.get(VGPU_TYPE, userVm.getServiceOfferingId(),
+                    offeringId -> ApiDBUtils.findServiceOfferingDetail(offeringId, GPU.Keys.vgpuType.toString()));
             if (serviceOfferingDetail != null) {
                 userVmResponse.setVgpu(serviceOfferingDetail.getValue());
             }
@@ -269,7 +288,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
                     nicResponse.setType(userVm.getGuestType().toString());
                 }
                 nicResponse.setIsDefault(userVm.isDefaultNic());
-                List<NicSecondaryIpVO> secondaryIps = ApiDBUtils.findNicSecondaryIps(userVm.getNicId());
+                List<NicSecondaryIpVO> secondaryIps = ResponsePrefetch.get(NIC_SECONDARY_IPS, userVm.getNicId(), ApiDBUtils::findNicSecondaryIps);
                 if (secondaryIps != null) {
                     List<NicSecondaryIpResponse> ipList = new ArrayList<NicSecondaryIpResponse>();
                     for (NicSecondaryIpVO ip : secondaryIps) {
@@ -282,7 +301,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
                 }
                 nicResponse.setObjectName("nic");
 
-                List<NicExtraDhcpOptionResponse> nicExtraDhcpOptionResponses = _nicExtraDhcpOptionDao.listByNicId(nic_id).stream()
+                List<NicExtraDhcpOptionResponse> nicExtraDhcpOptionResponses = ResponsePrefetch.get(NIC_EXTRA_DHCP_OPTIONS, nic_id, _nicExtraDhcpOptionDao::listByNicId).stream()
                         .map(vo -> new NicExtraDhcpOptionResponse(Dhcp.DhcpOptionCode.valueOfInt(vo.getCode()).getName(), vo.getCode(), vo.getValue()))
                         .collect(Collectors.toList());
                 nicResponse.setExtraDhcpOptions(nicExtraDhcpOptionResponses);
@@ -313,7 +332,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
         // set resource details map
         // Allow passing details to end user
         // Honour the display field and only return if display is set to true
-        List<UserVmDetailVO> vmDetails = _userVmDetailsDao.listDetails(userVm.getId(), true);
+        List<UserVmDetailVO> vmDetails = ResponsePrefetch.get(VM_DETAILS, userVm.getId(), vmId -> _userVmDetailsDao.listDetails(vmId, true));
         if (vmDetails != null) {
             Map<String, String> resourceDetails = new HashMap<String, String>();
             for (UserVmDetailVO userVmDetailVO : vmDetails) {
@@ -424,7 +443,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
             }
             /*17: default*/
             nicResponse.setIsDefault(uvo.isDefaultNic());
-            List<NicSecondaryIpVO> secondaryIps = ApiDBUtils.findNicSecondaryIps(uvo.getNicId());
+            List<NicSecondaryIpVO> secondaryIps = ResponsePrefetch.get(NIC_SECONDARY_IPS, uvo.getNicId(), ApiDBUtils::findNicSecondaryIps);
             if (secondaryIps != null) {
                 List<NicSecondaryIpResponse> ipList = new ArrayList<NicSecondaryIpResponse>();
                 for (NicSecondaryIpVO ip : secondaryIps) {
@@ -438,7 +457,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
 
             /* 18: extra dhcp options */
             nicResponse.setObjectName("nic");
-            List<NicExtraDhcpOptionResponse> nicExtraDhcpOptionResponses = _nicExtraDhcpOptionDao.listByNicId(nic_id)
+            List<NicExtraDhcpOptionResponse> nicExtraDhcpOptionResponses = ResponsePrefetch.get(NIC_EXTRA_DHCP_OPTIONS, nic_id, _nicExtraDhcpOptionDao::listByNicId)
                     .stream()
                     .map(vo -> new NicExtraDhcpOptionResponse(Dhcp.DhcpOptionCode.valueOfInt(vo.getCode()).getName(), vo.getCode(), vo.getValue()))
                     .collect(Collectors.toList());
@@ -466,13 +485,98 @@ public class UserVmJoinDaoImpl extends GenericDaoBaseWithTagInformation<UserVmJo
     }
 
     @Override
-    public List<UserVmJoinVO> searchByIds(Long... vmIds) {
-        // set detail batch query size
+    public void prefetchResponseDetails(ResponsePrefetch prefetch, EnumSet<VMDetails> details, UserVmJoinVO... userVms) {
+        Set<Long> userIds = new HashSet<Long>();
+        Set<Long> offeringIds = new HashSet<Long>();
+        Set<Long> nicIds = new HashSet<Long>();
+        Set<Long> vmIds = new HashSet<Long>();
+        for (UserVmJoinVO userVm : userVms) {
+            userIds.add(userVm.getUserId());
+            offeringIds.add(userVm.getServiceOfferingId());
+            if (userVm.getNicId() > 0) {
+                nicIds.add(userVm.getNicId());
+            }
+            vmIds.add(userVm.getId());
+        }
+        int batchSize = getDetailsBatchSize();
+
+        Map<Long, User> users = new HashMap<Long, User>();
+        for (Long userId : userIds) {
+            users.put(userId, null);
+        }
+        for (UserVO user : listByBatches(userIds, batchSize, _userDao::listByIds)) {
+            users.put(user.getId(), user);
+        }
+        prefetch.put(USER, users);
+
+        if (details.contains(VMDetails.all) || details.contains(VMDetails.servoff) || details.contains(VMDetails.stats)) {
+            Map<Long, ServiceOfferingDetailsVO> vgpuTypes = new HashMap<Long, ServiceOfferingDetailsVO>();
+            for (Long offeringId : offeringIds) {
+                vgpuTypes.put(offeringId, null);
+            }
+            for (ServiceOfferingDetailsVO detail : listByBatches(offeringIds, batchSize,
+                    ids -> _serviceOfferingDetailsDao.listDetails(ids, GPU.Keys.vgpuType.toString(), null))) {
+                if (vgpuTypes.get(detail.getResourceId()) == null) {
+                    vgpuTypes.put(detail.getResourceId(), detail);
+                }
+            }
+            prefetch.put(VGPU_TYPE, vgpuTypes);
+        }
+
+        Map<Long, List<NicSecondaryIpVO>> secondaryIps = new HashMap<Long, List<NicSecondaryIpVO>>();
+        Map<Long, List<NicExtraDhcpOptionVO>> extraDhcpOptions = new HashMap<Long, List<NicExtraDhcpOptionVO>>();
+        for (Long nicId : nicIds) {
+            secondaryIps.put(nicId, new ArrayList<NicSecondaryIpVO>());
+            extraDhcpOptions.put(nicId, new ArrayList<NicExtraDhcpOptionVO>());
+        }
+        for (NicSecondaryIpVO ip : listByBatches(nicIds, batchSize, _nicSecondaryIpDao::listByNicIds)) {
+            secondaryIps.get(ip.getNicId()).add(ip);
+        }
+        for (NicExtraDhcpOptionVO option : listByBatches(nicIds, batchSize, _nicExtraDhcpOptionDao::listByNicIds)) {
+            extraDhcpOptions.get(option.getNicId()).add(option);
+        }
+        prefetch.put(NIC_SECONDARY_IPS, secondaryIps);
+        prefetch.put(NIC_EXTRA_DHCP_OPTIONS, extraDhcpOptions);
+
+        Map<Long, List<UserVmDetailVO>> vmDetails = new HashMap<Long, List<UserVmDetailVO>>();
+        for (Long vmId : vmIds) {
+            vmDetails.put(vmId, new ArrayList<UserVmDetailVO>());
+        }
+        for (UserVmDetailVO detail : listByBatches(vmIds, batchSize, ids -> _userVmDetailsDao.listDetails(ids, null, true))) {
+            vmDetails.get(detail.getResourceId()).add(detail);
+        }
+        prefetch.put(VM_DETAILS, vmDetails);
+    }
+
+    private static <T> List<T> listByBatches(Collection<Long> ids, int batchSize, Function<List<Long>, List<T>> lister) {
+        List<T> result = new ArrayList<T>();
+        List<Long> batch = new ArrayList<Long>(Math.min(ids.size(), batchSize));
+        for (Long id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                result.addAll(lister.apply(batch));
+                batch = new ArrayList<Long>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.addAll(lister.apply(batch));
+        }
+        return result;
+    }
+
+    private int getDetailsBatchSize() {
         int DETAILS_BATCH_SIZE = 2000;
         String batchCfg = _configDao.getValue("detail.batch.query.size");
         if (batchCfg != null) {
             DETAILS_BATCH_SIZE = Integer.parseInt(batchCfg);
         }
+        return DETAILS_BATCH_SIZE;
+    }
+
+    @Override
+    public List<UserVmJoinVO> searchByIds(Long... vmIds) {
+        // set detail batch query size
+        int DETAILS_BATCH_SIZE = getDetailsBatchSize();
         // query details by batches
         List<UserVmJoinVO> uvList = new ArrayList<UserVmJoinVO>();
         // query details by batches
@@ -41,8 +41,13 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -72,6 +77,26 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the response to out as it is serialized, one object of a list
+     * at a time, instead of building it in a string first.  The log gets the
+     * same response without the sensitive fields; the objects of a list past
+     * logMaxLength characters are left out of it, 0 for no limit.
+     */
+    public static void writeSerializedStringWithSecureLogs(ResponseObject result, String responseType, Writer out, StringBuilder log, int logMaxLength)
+            throws IOException {
+        s_logger.trace("===Serializing Response===");
+        if (result == null || log == null) {
+            return;
+        }
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            writeJSONSerializedString(result, out, log, logMaxLength);
+        } else {
+            writeXMLSerializedString(result, out, log, logMaxLength);
+        }
+        out.flush();
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
@@ -83,123 +108,278 @@ public class ApiResponseSerializer {
         return str;
     }
 
+    /**
+     * Turns the unicode escapes of the json written through it back into the
+     * characters, as unescape does for a string.
+     */
+    static class UnescapingWriter extends Writer {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final Appendable _out;
+        private final char[] _pending = new char[6];
+        private int _pendingLength;
+        // runs of characters are handed to the output together, a servlet writer locks on every call
+        private final char[] _buffer = new char[BUFFER_SIZE];
+        private int _bufferLength;
+
+        UnescapingWriter(Appendable out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            write((char)c);
+        }
+
+        private void write(char c) throws IOException {
+            if (_pendingLength == 0) {
+                if (c == '\\') {
+                    _pending[_pendingLength++] = c;
+                } else {
+                    buffer(c);
+                }
+            } else if (_pendingLength == 1 ? c == 'u' : isHexDigit(c)) {
+                _pending[_pendingLength++] = c;
+                if (_pendingLength == _pending.length) {
+                    buffer((char)Integer.parseInt(new String(_pending, 2, 4), 16));
+                    _pendingLength = 0;
+                }
+            } else {
+                // not an escape after all, the character may start one
+                writePending();
+                write(c);
+            }
+        }
+
+        private static boolean isHexDigit(char c) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        private void buffer(char c) throws IOException {
+            if (_bufferLength == _buffer.length) {
+                drainBuffer();
+            }
+            _buffer[_bufferLength++] = c;
+        }
+
+        private void drainBuffer() throws IOException {
+            if (_bufferLength == 0) {
+                return;
+            }
+            if (_out instanceof Writer) {
+                ((Writer)_out).write(_buffer, 0, _bufferLength);
+            } else if (_out instanceof StringBuilder) {
+                ((StringBuilder)_out).append(_buffer, 0, _bufferLength);
+            } else {
+                _out.append(CharBuffer.wrap(_buffer, 0, _bufferLength));
+            }
+            _bufferLength = 0;
+        }
+
+        private void writePending() throws IOException {
+            for (int i = 0; i < _pendingLength; i++) {
+                buffer(_pending[i]);
+            }
+            _pendingLength = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writePending();
+            drainBuffer();
+            if (_out instanceof Flushable) {
+                ((Flushable)_out).flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static boolean isLogFull(StringBuilder log, int logMaxLength) {
+        return logMaxLength > 0 && log.length() >= logMaxLength;
+    }
+
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
-            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            StringWriter sw = new StringWriter();
+            try {
+                writeJSONSerializedString(result, sw, log, 0);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize the response", e);
+            }
+            return sw.toString();
+        }
+        return null;
+    }
 
-            StringBuilder sb = new StringBuilder();
+    private static void writeJSONSerializedString(ResponseObject result, Writer writer, StringBuilder log, int logMaxLength) throws IOException {
+        Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        UnescapingWriter out = new UnescapingWriter(writer);
+        UnescapingWriter logOut = new UnescapingWriter(log);
+
+        out.append("{\"").append(result.getResponseName()).append("\":");
+        log.append("{\"").append(result.getResponseName()).append("\":");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if (nonZeroCount) {
+                out.append("{\"").append(ApiConstants.COUNT).append("\":").append(count.toString());
+                log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+                String nextCursor = ((ListResponse)result).getNextCursor();
+                if (nextCursor != null) {
+                    out.append(",\"").append(ApiConstants.NEXT_CURSOR).append("\":\"").append(nextCursor).append("\"");
+                    log.append(",\"").append(ApiConstants.NEXT_CURSOR).append("\":\"").append(nextCursor).append("\"");
+                }
+            }
 
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            log.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if ((responses != null) && !responses.isEmpty()) {
                 if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+                    out.append(",\"").append(responses.get(0).getObjectName()).append("\":[");
+                    log.append(",\"").append(responses.get(0).getObjectName()).append("\":[");
+                    responseBuilder.toJson(responses.get(0), out);
+                    logBuilder.toJson(responses.get(0), logOut);
+                    logOut.flush();
                 }
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = responseBuilder.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-                    String logStr = logBuilder.toJson(responses.get(0));
-                    logStr = unescape(logStr);
-
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                        log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
-                    }
-
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = responseBuilder.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        logStr = logBuilder.toJson(responses.get(i));
-                        logStr = unescape(logStr);
-                        sb.append(",").append(jsonStr);
-                        log.append(",").append(logStr);
+                boolean logFull = false;
+                for (int i = 1; i < responses.size(); i++) {
+                    out.append(',');
+                    responseBuilder.toJson(responses.get(i), out);
+                    if (!logFull && isLogFull(log, logMaxLength)) {
+                        logFull = true;
+                        log.append(",\"...\"");
                     }
-                    sb.append("]}");
-                    log.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                        log.append("{");
+                    if (!logFull) {
+                        log.append(',');
+                        logBuilder.toJson(responses.get(i), logOut);
+                        logOut.flush();
                     }
-
-                    sb.append("}");
-                    log.append("}");
                 }
-            } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
-                final String jsonErrorText = unescape(responseBuilder.toJson(result));
-                sb.append(jsonErrorText);
-                log.append(jsonErrorText);
-            } else {
-                String jsonStr = responseBuilder.toJson(result);
-                if (jsonStr != null && !jsonStr.isEmpty()) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
+                out.append("]}");
+                log.append("]}");
+            } else  {
+                if (!nonZeroCount) {
+                    out.append('{');
+                    log.append("{");
+                }
+
+                out.append('}');
+                log.append("}");
+            }
+        } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
+            final String jsonErrorText = unescape(responseBuilder.toJson(result));
+            out.append(jsonErrorText);
+            log.append(jsonErrorText);
+        } else {
+            String jsonStr = responseBuilder.toJson(result);
+            if (jsonStr != null && !jsonStr.isEmpty()) {
+                jsonStr = unescape(jsonStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    out.append(jsonStr);
                 } else {
-                    sb.append("{}");
+                    out.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
                 }
-                String logStr = logBuilder.toJson(result);
-                if (logStr != null && !logStr.isEmpty()) {
-                    logStr = unescape(logStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        log.append(logStr);
-                    } else {
-                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
-                    }
+            } else {
+                out.append("{}");
+            }
+            String logStr = logBuilder.toJson(result);
+            if (logStr != null && !logStr.isEmpty()) {
+                logStr = unescape(logStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    log.append(logStr);
                 } else {
-                    log.append("{}");
+                    log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
                 }
+            } else {
+                log.append("{}");
             }
-            sb.append("}");
-            log.append("}");
-            return sb.toString();
         }
-        return null;
+        out.append('}');
+        log.append("}");
+        out.flush();
     }
 
     private static String toXMLSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
-            log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
-
-            if (result instanceof ListResponse) {
-                Integer count = ((ListResponse)result).getCount();
-
-                if (count != null && count != 0) {
-                    sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                    log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+            StringWriter sw = new StringWriter();
+            try {
+                writeXMLSerializedString(result, sw, log, 0);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize the response", e);
+            }
+            return sw.toString();
+        }
+        return null;
+    }
+
+    private static void writeXMLSerializedString(ResponseObject result, Writer out, StringBuilder log, int logMaxLength) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+        log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+
+        if (result instanceof ListResponse) {
+            Integer count = ((ListResponse)result).getCount();
+
+            if (count != null && count != 0) {
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                String nextCursor = ((ListResponse)result).getNextCursor();
+                if (nextCursor != null) {
+                    sb.append("<").append(ApiConstants.NEXT_CURSOR).append(">").append(nextCursor).append("</").append(ApiConstants.NEXT_CURSOR).append(">");
+                    log.append("<").append(ApiConstants.NEXT_CURSOR).append(">").append(nextCursor).append("</").append(ApiConstants.NEXT_CURSOR).append(">");
                 }
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                if ((responses != null) && !responses.isEmpty()) {
-                    for (ResponseObject obj : responses) {
-                        serializeResponseObjXML(sb, log, obj);
+            }
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            if ((responses != null) && !responses.isEmpty()) {
+                boolean logFull = false;
+                for (ResponseObject obj : responses) {
+                    // the log of an object is dropped once the log is full
+                    StringBuilder objLog = new StringBuilder();
+                    serializeResponseObjXML(sb, objLog, obj);
+                    out.append(sb);
+                    sb.setLength(0);
+                    if (!logFull && isLogFull(log, logMaxLength)) {
+                        logFull = true;
+                        log.append("...");
+                    }
+                    if (!logFull) {
+                        log.append(objLog);
                     }
                 }
+            }
+        } else {
+            if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
+                serializeResponseObjFieldsXML(sb, log, result);
             } else {
-                if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
-                    serializeResponseObjFieldsXML(sb, log, result);
-                } else {
-                    serializeResponseObjXML(sb, log, result);
-                }
+                serializeResponseObjXML(sb, log, result);
             }
-
-            sb.append("</").append(result.getResponseName()).append(">");
-            log.append("</").append(result.getResponseName()).append(">");
-            return sb.toString();
         }
-        return null;
+
+        sb.append("</").append(result.getResponseName()).append(">");
+        log.append("</").append(result.getResponseName()).append(">");
+        out.append(sb);
+        out.flush();
     }
 
     private static void serializeResponseObjXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+
+import com.cloud.utils.Pair;
+
+/**
+ * CapacityIndex keeps the cpu and memory capacity of the hosts in memory,
+ * by zone, pod and cluster, for the deployment planners to order and check
+ * the hosts without querying op_host_capacity for every VM.  Capacity is
+ * taken with compare-and-set on the host, and written to op_host_capacity
+ * by the caller.  The index is reloaded from op_host_capacity and the
+ * overcommit ratios of the clusters periodically, which also picks up the
+ * changes of the other management servers.
+ */
+public interface CapacityIndex {
+
+    static final ConfigKey<Boolean> CapacityIndexEnabled = new ConfigKey<Boolean>("Advanced", Boolean.class, "deployment.capacity.index.enabled", "false",
+        "If true, the deployment planners and the capacity manager check and take host cpu and memory capacity from an in-memory index " +
+            "reloaded from op_host_capacity, instead of querying and locking the capacity rows for every VM", true);
+    static final ConfigKey<Integer> CapacityIndexRefreshInterval = new ConfigKey<Integer>("Advanced", Integer.class, "deployment.capacity.index.refresh.interval", "60",
+        "Interval in seconds at which the in-memory capacity index is reloaded from op_host_capacity", false);
+
+    /**
+     * Capacity taken from a host, until it is written to op_host_capacity.
+     */
+    interface Reservation {
+        long getHostId();
+
+        long getCpu();
+
+        long getRam();
+
+        /**
+         * @return true if the capacity was moved from the reserved capacity of the host.
+         */
+        boolean isFromReserved();
+    }
+
+    /**
+     * @return true if the planners should use the index.
+     */
+    boolean isEnabled();
+
+    /**
+     * @return true if the capacity of the host is in the index.
+     */
+    boolean isIndexed(long hostId);
+
+    /**
+     * Same checks as CapacityManager.checkIfHostHasCapacity, with the overcommit ratios of the cluster of the host.
+     */
+    boolean hasCapacity(long hostId, long cpu, long ram, boolean checkFromReservedCapacity, boolean considerReservedCapacity);
+
+    /**
+     * Takes capacity from a host, from its reserved capacity if fromReserved
+     * and it has enough, else from its free capacity.  Commit the reservation
+     * once it is written to op_host_capacity, or cancel it.
+     * @return the reservation, or null if the host does not have enough capacity.
+     */
+    Reservation reserve(long hostId, long cpu, long ram, boolean fromReserved);
+
+    void commit(Reservation reservation);
+
+    void cancel(Reservation reservation);
+
+    /**
+     * Reloads the capacity of a host, after op_host_capacity was changed for it.
+     */
+    void refresh(long hostId);
+
+    /**
+     * Reloads the capacity of all the hosts.
+     */
+    void refresh();
+
+    /**
+     * Replaces CapacityDao.listClustersInZoneOrPodByHostCapacities and orderClustersByAggregateCapacity.
+     * @return the clusters having a host with the cpu and ram free, ordered by their
+     * aggregate used capacity of the type, and the used capacity of each cluster.
+     */
+    Pair<List<Long>, Map<Long, Double>> orderClustersByFreeCapacity(long id, boolean isZone, long requiredCpu, long requiredRam, short capacityTypeForOrdering);
+
+    /**
+     * Replaces CapacityDao.listPodsByHostCapacities and orderPodsByAggregateCapacity.
+     */
+    Pair<List<Long>, Map<Long, Double>> orderPodsByFreeCapacity(long zoneId, long requiredCpu, long requiredRam, short capacityTypeForOrdering);
+
+    /**
+     * Replaces CapacityDao.orderHostsByFreeCapacity.
+     */
+    List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, short capacityTypeForOrdering);
+}
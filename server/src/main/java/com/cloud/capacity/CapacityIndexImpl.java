@@ -0,0 +1,544 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * The capacity of each host is an immutable HostCapacity swapped with
+ * compare-and-set, so a reservation checks and takes the cpu and the memory
+ * of a host at once without any lock.  Reservations not yet written to
+ * op_host_capacity are kept apart as pending, and added to the capacity
+ * reloaded from the database.  A host is only reloaded if its capacity did
+ * not change while the database was read, so a reload can count a VM twice
+ * until the next one, but never miss one.
+ */
+public class CapacityIndexImpl extends ManagerBase implements CapacityIndex, Configurable {
+    private static final Logger s_logger = Logger.getLogger(CapacityIndexImpl.class);
+
+    @Inject
+    CapacityDao _capacityDao;
+    @Inject
+    ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    DataCenterDao _dcDao;
+
+    private final ConcurrentHashMap<Long, AtomicReference<HostCapacity>> _hosts = new ConcurrentHashMap<Long, AtomicReference<HostCapacity>>();
+    private ScheduledExecutorService _executor;
+
+    static final class HostCapacity {
+        final long hostId;
+        final Long zoneId;
+        final Long podId;
+        final Long clusterId;
+        final long totalCpu;
+        final long totalRam;
+        final float cpuOvercommitRatio;
+        final float memoryOvercommitRatio;
+        // include the pending reservations
+        final long usedCpu;
+        final long usedRam;
+        final long reservedCpu;
+        final long reservedRam;
+        // reservations not written to op_host_capacity yet
+        final long pendingCpu;
+        final long pendingRam;
+        final long pendingReservedCpu;
+        final long pendingReservedRam;
+
+        HostCapacity(long hostId, Long zoneId, Long podId, Long clusterId, long totalCpu, long totalRam, float cpuOvercommitRatio, float memoryOvercommitRatio,
+                long usedCpu, long usedRam, long reservedCpu, long reservedRam, long pendingCpu, long pendingRam, long pendingReservedCpu, long pendingReservedRam) {
+            this.hostId = hostId;
+            this.zoneId = zoneId;
+            this.podId = podId;
+            this.clusterId = clusterId;
+            this.totalCpu = totalCpu;
+            this.totalRam = totalRam;
+            this.cpuOvercommitRatio = cpuOvercommitRatio;
+            this.memoryOvercommitRatio = memoryOvercommitRatio;
+            this.usedCpu = usedCpu;
+            this.usedRam = usedRam;
+            this.reservedCpu = reservedCpu;
+            this.reservedRam = reservedRam;
+            this.pendingCpu = pendingCpu;
+            this.pendingRam = pendingRam;
+            this.pendingReservedCpu = pendingReservedCpu;
+            this.pendingReservedRam = pendingReservedRam;
+        }
+
+        long getOvercommittedCpu() {
+            return (long)(totalCpu * cpuOvercommitRatio);
+        }
+
+        long getOvercommittedRam() {
+            return (long)(totalRam * memoryOvercommitRatio);
+        }
+
+        boolean hasReserved(long cpu, long ram) {
+            return reservedCpu >= cpu && reservedRam >= ram;
+        }
+
+        boolean hasFree(long cpu, long ram, boolean considerReservedCapacity) {
+            final long reservedCpuValueToUse = considerReservedCapacity ? reservedCpu : 0;
+            final long reservedRamValueToUse = considerReservedCapacity ? reservedRam : 0;
+            return reservedCpuValueToUse + usedCpu + cpu <= getOvercommittedCpu() && reservedRamValueToUse + usedRam + ram <= getOvercommittedRam();
+        }
+
+        long getFree(short capacityType) {
+            if (capacityType == Capacity.CAPACITY_TYPE_MEMORY) {
+                return totalRam - (usedRam + reservedRam);
+            }
+            return totalCpu - (usedCpu + reservedCpu);
+        }
+
+        long getAllocated(short capacityType) {
+            if (capacityType == Capacity.CAPACITY_TYPE_MEMORY) {
+                return usedRam + reservedRam;
+            }
+            return usedCpu + reservedCpu;
+        }
+
+        long getTotal(short capacityType, boolean overcommitted) {
+            if (capacityType == Capacity.CAPACITY_TYPE_MEMORY) {
+                return overcommitted ? getOvercommittedRam() : totalRam;
+            }
+            return overcommitted ? getOvercommittedCpu() : totalCpu;
+        }
+
+        HostCapacity take(long cpu, long ram, boolean fromReserved) {
+            final long reservedCpuTaken = fromReserved ? cpu : 0;
+            final long reservedRamTaken = fromReserved ? ram : 0;
+            return new HostCapacity(hostId, zoneId, podId, clusterId, totalCpu, totalRam, cpuOvercommitRatio, memoryOvercommitRatio, usedCpu + cpu, usedRam + ram,
+                reservedCpu - reservedCpuTaken, reservedRam - reservedRamTaken, pendingCpu + cpu, pendingRam + ram, pendingReservedCpu + reservedCpuTaken,
+                pendingReservedRam + reservedRamTaken);
+        }
+
+        HostCapacity written(long cpu, long ram, boolean fromReserved) {
+            final long reservedCpuTaken = fromReserved ? cpu : 0;
+            final long reservedRamTaken = fromReserved ? ram : 0;
+            return new HostCapacity(hostId, zoneId, podId, clusterId, totalCpu, totalRam, cpuOvercommitRatio, memoryOvercommitRatio, usedCpu, usedRam, reservedCpu,
+                reservedRam, pendingCpu - cpu, pendingRam - ram, pendingReservedCpu - reservedCpuTaken, pendingReservedRam - reservedRamTaken);
+        }
+
+        HostCapacity giveBack(long cpu, long ram, boolean fromReserved) {
+            final long reservedCpuTaken = fromReserved ? cpu : 0;
+            final long reservedRamTaken = fromReserved ? ram : 0;
+            return new HostCapacity(hostId, zoneId, podId, clusterId, totalCpu, totalRam, cpuOvercommitRatio, memoryOvercommitRatio, usedCpu - cpu, usedRam - ram,
+                reservedCpu + reservedCpuTaken, reservedRam + reservedRamTaken, pendingCpu - cpu, pendingRam - ram, pendingReservedCpu - reservedCpuTaken,
+                pendingReservedRam - reservedRamTaken);
+        }
+
+        /**
+         * @return the capacity read from the database, with the reservations still pending.
+         */
+        HostCapacity reload(CapacityVO cpu, CapacityVO ram, float cpuOvercommitRatio, float memoryOvercommitRatio) {
+            return new HostCapacity(hostId, cpu.getDataCenterId(), cpu.getPodId(), cpu.getClusterId(), cpu.getTotalCapacity(), ram.getTotalCapacity(), cpuOvercommitRatio,
+                memoryOvercommitRatio, cpu.getUsedCapacity() + pendingCpu, ram.getUsedCapacity() + pendingRam, cpu.getReservedCapacity() - pendingReservedCpu,
+                ram.getReservedCapacity() - pendingReservedRam, pendingCpu, pendingRam, pendingReservedCpu, pendingReservedRam);
+        }
+
+        static HostCapacity load(CapacityVO cpu, CapacityVO ram, float cpuOvercommitRatio, float memoryOvercommitRatio) {
+            return new HostCapacity(cpu.getHostOrPoolId(), cpu.getDataCenterId(), cpu.getPodId(), cpu.getClusterId(), cpu.getTotalCapacity(), ram.getTotalCapacity(),
+                cpuOvercommitRatio, memoryOvercommitRatio, cpu.getUsedCapacity(), ram.getUsedCapacity(), cpu.getReservedCapacity(), ram.getReservedCapacity(), 0, 0, 0, 0);
+        }
+    }
+
+    static final class HostReservation implements Reservation {
+        private final long _hostId;
+        private final long _cpu;
+        private final long _ram;
+        private final boolean _fromReserved;
+        private final AtomicBoolean _completed = new AtomicBoolean();
+
+        HostReservation(long hostId, long cpu, long ram, boolean fromReserved) {
+            _hostId = hostId;
+            _cpu = cpu;
+            _ram = ram;
+            _fromReserved = fromReserved;
+        }
+
+        @Override
+        public long getHostId() {
+            return _hostId;
+        }
+
+        @Override
+        public long getCpu() {
+            return _cpu;
+        }
+
+        @Override
+        public long getRam() {
+            return _ram;
+        }
+
+        @Override
+        public boolean isFromReserved() {
+            return _fromReserved;
+        }
+
+        boolean complete() {
+            return _completed.compareAndSet(false, true);
+        }
+
+        @Override
+        public String toString() {
+            return "Reservation[host=" + _hostId + ", cpu=" + _cpu + ", ram=" + _ram + ", fromReserved=" + _fromReserved + "]";
+        }
+    }
+
+    private final class CapacityIndexRefreshTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                if (isEnabled()) {
+                    refresh();
+                } else {
+                    _hosts.clear();
+                }
+            } catch (Throwable e) {
+                s_logger.warn("Unable to reload the capacity index", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean start() {
+        final int interval = CapacityIndexRefreshInterval.value();
+        _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("CapacityIndexRefresher"));
+        _executor.scheduleWithFixedDelay(new CapacityIndexRefreshTask(), 0, interval > 0 ? interval : 60, TimeUnit.SECONDS);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return CapacityIndexEnabled.value();
+    }
+
+    @Override
+    public boolean isIndexed(long hostId) {
+        return _hosts.containsKey(hostId);
+    }
+
+    @Override
+    public boolean hasCapacity(long hostId, long cpu, long ram, boolean checkFromReservedCapacity, boolean considerReservedCapacity) {
+        final AtomicReference<HostCapacity> ref = _hosts.get(hostId);
+        if (ref == null) {
+            return false;
+        }
+        final HostCapacity capacity = ref.get();
+        final boolean hasCapacity = checkFromReservedCapacity ? capacity.hasReserved(cpu, ram) : capacity.hasFree(cpu, ram, considerReservedCapacity);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Host " + hostId + (hasCapacity ? " has" : " does not have") + " enough " + (checkFromReservedCapacity ? "reserved" : "free") + " capacity for cpu: " +
+                cpu + " and ram: " + ram + " in the capacity index, used cpu: " + capacity.usedCpu + ", reserved cpu: " + capacity.reservedCpu + ", total cpu with overprovisioning: " +
+                capacity.getOvercommittedCpu() + ", used ram: " + capacity.usedRam + ", reserved ram: " + capacity.reservedRam + ", total ram with overprovisioning: " +
+                capacity.getOvercommittedRam());
+        }
+        return hasCapacity;
+    }
+
+    @Override
+    public Reservation reserve(long hostId, long cpu, long ram, boolean fromReserved) {
+        final AtomicReference<HostCapacity> ref = _hosts.get(hostId);
+        if (ref == null) {
+            return null;
+        }
+        while (true) {
+            final HostCapacity current = ref.get();
+            final boolean takeFromReserved = fromReserved && current.hasReserved(cpu, ram);
+            if (!takeFromReserved && !current.hasFree(cpu, ram, true)) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Host " + hostId + " does not have cpu: " + cpu + " and ram: " + ram + " left in the capacity index");
+                }
+                return null;
+            }
+            if (ref.compareAndSet(current, current.take(cpu, ram, takeFromReserved))) {
+                return new HostReservation(hostId, cpu, ram, takeFromReserved);
+            }
+        }
+    }
+
+    @Override
+    public void commit(Reservation reservation) {
+        final HostReservation hostReservation = (HostReservation)reservation;
+        if (!hostReservation.complete()) {
+            return;
+        }
+        final AtomicReference<HostCapacity> ref = _hosts.get(reservation.getHostId());
+        if (ref == null) {
+            return;
+        }
+        HostCapacity current;
+        do {
+            current = ref.get();
+        } while (!ref.compareAndSet(current, current.written(reservation.getCpu(), reservation.getRam(), reservation.isFromReserved())));
+    }
+
+    @Override
+    public void cancel(Reservation reservation) {
+        final HostReservation hostReservation = (HostReservation)reservation;
+        if (!hostReservation.complete()) {
+            return;
+        }
+        final AtomicReference<HostCapacity> ref = _hosts.get(reservation.getHostId());
+        if (ref == null) {
+            return;
+        }
+        HostCapacity current;
+        do {
+            current = ref.get();
+        } while (!ref.compareAndSet(current, current.giveBack(reservation.getCpu(), reservation.getRam(), reservation.isFromReserved())));
+    }
+
+    @Override
+    public void refresh(long hostId) {
+        if (!isEnabled()) {
+            return;
+        }
+        final AtomicReference<HostCapacity> ref = _hosts.get(hostId);
+        final HostCapacity before = ref == null ? null : ref.get();
+        final CapacityVO cpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
+        final CapacityVO ram = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
+        if (cpu == null || ram == null) {
+            _hosts.remove(hostId);
+            return;
+        }
+        update(cpu, ram, before, new HashMap<Long, float[]>());
+    }
+
+    @Override
+    public void refresh() {
+        // the capacity before reading the database, to find the hosts changed while it is read
+        final Map<Long, HostCapacity> before = new HashMap<Long, HostCapacity>();
+        for (final Map.Entry<Long, AtomicReference<HostCapacity>> entry : _hosts.entrySet()) {
+            before.put(entry.getKey(), entry.getValue().get());
+        }
+
+        final Map<Long, CapacityVO> cpus = new HashMap<Long, CapacityVO>();
+        final Map<Long, CapacityVO> rams = new HashMap<Long, CapacityVO>();
+        for (final DataCenterVO zone : _dcDao.listAllZones()) {
+            for (final CapacityVO capacity : _capacityDao.listByZoneAndTypes(zone.getId(), Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY)) {
+                if (capacity.getHostOrPoolId() == null) {
+                    continue;
+                }
+                if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                    cpus.put(capacity.getHostOrPoolId(), capacity);
+                } else {
+                    rams.put(capacity.getHostOrPoolId(), capacity);
+                }
+            }
+        }
+
+        final Map<Long, float[]> ratios = new HashMap<Long, float[]>();
+        for (final Map.Entry<Long, CapacityVO> entry : cpus.entrySet()) {
+            final CapacityVO ram = rams.get(entry.getKey());
+            if (ram != null) {
+                update(entry.getValue(), ram, before.get(entry.getKey()), ratios);
+            }
+        }
+        for (final Long hostId : before.keySet()) {
+            if (!cpus.containsKey(hostId) || !rams.containsKey(hostId)) {
+                _hosts.remove(hostId);
+            }
+        }
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Reloaded the capacity of " + _hosts.size() + " hosts");
+        }
+    }
+
+    private void update(CapacityVO cpu, CapacityVO ram, HostCapacity before, Map<Long, float[]> ratios) {
+        final long hostId = cpu.getHostOrPoolId();
+        final float[] ratio = getOvercommitRatios(cpu.getClusterId(), ratios);
+        if (before == null) {
+            // a host another thread added meanwhile is reloaded next time
+            _hosts.putIfAbsent(hostId, new AtomicReference<HostCapacity>(HostCapacity.load(cpu, ram, ratio[0], ratio[1])));
+            return;
+        }
+        final AtomicReference<HostCapacity> ref = _hosts.get(hostId);
+        // skipped if a reservation changed the host while the database was read, until the next reload
+        if (ref != null && !ref.compareAndSet(before, before.reload(cpu, ram, ratio[0], ratio[1])) && s_logger.isTraceEnabled()) {
+            s_logger.trace("Capacity of host " + hostId + " changed while it was reloaded, keeping it");
+        }
+    }
+
+    private float[] getOvercommitRatios(Long clusterId, Map<Long, float[]> ratios) {
+        if (clusterId == null) {
+            return new float[] {1.0f, 1.0f};
+        }
+        float[] ratio = ratios.get(clusterId);
+        if (ratio == null) {
+            ratio = new float[] {getOvercommitRatio(clusterId, "cpuOvercommitRatio"), getOvercommitRatio(clusterId, "memoryOvercommitRatio")};
+            ratios.put(clusterId, ratio);
+        }
+        return ratio;
+    }
+
+    private float getOvercommitRatio(long clusterId, String name) {
+        final ClusterDetailsVO detail = _clusterDetailsDao.findDetail(clusterId, name);
+        if (detail == null || detail.getValue() == null) {
+            return 1.0f;
+        }
+        return Float.parseFloat(detail.getValue());
+    }
+
+    private List<HostCapacity> listHosts(Long zoneId, Long podId, Long clusterId) {
+        final List<HostCapacity> hosts = new ArrayList<HostCapacity>();
+        for (final AtomicReference<HostCapacity> ref : _hosts.values()) {
+            final HostCapacity capacity = ref.get();
+            if ((zoneId == null || zoneId.equals(capacity.zoneId)) && (podId == null || podId.equals(capacity.podId))
+                    && (clusterId == null || clusterId.equals(capacity.clusterId))) {
+                hosts.add(capacity);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * @return the groups having a host with the cpu and ram free, in ascending
+     * order of the used share of their capacity of the type, with the share.
+     */
+    private static Pair<List<Long>, Map<Long, Double>> orderByUsedCapacity(Map<Long, List<HostCapacity>> groups, long requiredCpu, long requiredRam,
+            short capacityTypeForOrdering) {
+        final boolean overcommitted = capacityTypeForOrdering == Capacity.CAPACITY_TYPE_CPU || capacityTypeForOrdering == Capacity.CAPACITY_TYPE_MEMORY;
+        final Map<Long, Double> usedCapacity = new HashMap<Long, Double>();
+        final List<Long> ids = new ArrayList<Long>();
+        for (final Map.Entry<Long, List<HostCapacity>> group : groups.entrySet()) {
+            long allocated = 0;
+            long total = 0;
+            boolean fits = false;
+            for (final HostCapacity capacity : group.getValue()) {
+                allocated += capacity.getAllocated(capacityTypeForOrdering);
+                total += capacity.getTotal(capacityTypeForOrdering, overcommitted);
+                fits = fits || capacity.hasFree(requiredCpu, requiredRam, true);
+            }
+            if (total > 0) {
+                usedCapacity.put(group.getKey(), (double)allocated / total);
+            }
+            if (fits && total > 0) {
+                ids.add(group.getKey());
+            }
+        }
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long o1, Long o2) {
+                return Double.compare(usedCapacity.get(o1), usedCapacity.get(o2));
+            }
+        });
+        return new Pair<List<Long>, Map<Long, Double>>(ids, usedCapacity);
+    }
+
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderClustersByFreeCapacity(long id, boolean isZone, long requiredCpu, long requiredRam, short capacityTypeForOrdering) {
+        final Map<Long, List<HostCapacity>> clusters = new TreeMap<Long, List<HostCapacity>>();
+        for (final HostCapacity capacity : isZone ? listHosts(id, null, null) : listHosts(null, id, null)) {
+            if (capacity.clusterId == null) {
+                continue;
+            }
+            List<HostCapacity> hosts = clusters.get(capacity.clusterId);
+            if (hosts == null) {
+                hosts = new ArrayList<HostCapacity>();
+                clusters.put(capacity.clusterId, hosts);
+            }
+            hosts.add(capacity);
+        }
+        return orderByUsedCapacity(clusters, requiredCpu, requiredRam, capacityTypeForOrdering);
+    }
+
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderPodsByFreeCapacity(long zoneId, long requiredCpu, long requiredRam, short capacityTypeForOrdering) {
+        final Map<Long, List<HostCapacity>> pods = new TreeMap<Long, List<HostCapacity>>();
+        for (final HostCapacity capacity : listHosts(zoneId, null, null)) {
+            if (capacity.podId == null) {
+                continue;
+            }
+            List<HostCapacity> hosts = pods.get(capacity.podId);
+            if (hosts == null) {
+                hosts = new ArrayList<HostCapacity>();
+                pods.put(capacity.podId, hosts);
+            }
+            hosts.add(capacity);
+        }
+        return orderByUsedCapacity(pods, requiredCpu, requiredRam, capacityTypeForOrdering);
+    }
+
+    @Override
+    public List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, final short capacityTypeForOrdering) {
+        final List<HostCapacity> hosts = listHosts(zoneId, null, clusterId);
+        Collections.sort(hosts, new Comparator<HostCapacity>() {
+            @Override
+            public int compare(HostCapacity o1, HostCapacity o2) {
+                return Double.compare(getFreeShare(o2), getFreeShare(o1));
+            }
+
+            private double getFreeShare(HostCapacity capacity) {
+                final long total = capacity.getTotal(capacityTypeForOrdering, false);
+                return total == 0 ? 0 : (double)capacity.getFree(capacityTypeForOrdering) / total;
+            }
+        });
+        final List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        for (final HostCapacity capacity : hosts) {
+            hostIds.add(capacity.hostId);
+        }
+        return hostIds;
+    }
+
+    @Override
+    public String getConfigComponentName() {
+        return CapacityIndex.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {CapacityIndexEnabled, CapacityIndexRefreshInterval};
+    }
+}
@@ -78,7 +78,9 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.StateListener;
@@ -133,6 +135,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    CapacityIndex _capacityIndex;
     private int _vmCapacityReleaseInterval;
     long _extraBytesPerVolume = 0;
 
@@ -266,6 +270,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
                 }
             });
+            refreshCapacityIndex(hostId);
 
             return true;
         } catch (Exception e) {
@@ -282,11 +287,19 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         final long hostId = vm.getHostId();
         final HostVO host = _hostDao.findById(hostId);
         final long clusterId = host.getClusterId();
+        final ServiceOfferingVO svo = _offeringsDao.findById(vm.getId(), vm.getServiceOfferingId());
+
+        if (svo != null && _capacityIndex.isEnabled() && _capacityIndex.isIndexed(hostId)) {
+            if (allocateVmCapacityFromIndex(vmId, host, svo, fromLastHost)) {
+                return;
+            }
+            // the index of this management server is behind op_host_capacity, decide under the row locks
+            refreshCapacityIndex(hostId);
+        }
+
         final float cpuOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(clusterId, "cpuOvercommitRatio").getValue());
         final float memoryOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(clusterId, "memoryOvercommitRatio").getValue());
 
-        final ServiceOfferingVO svo = _offeringsDao.findById(vm.getId(), vm.getServiceOfferingId());
-
         CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
         CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
         CapacityVO capacityCpuCore = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU_CORE);
@@ -404,6 +417,112 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         }
     }
 
+    /**
+     * Takes the capacity of the VM with a compare-and-set in the capacity index
+     * instead of locking the capacity rows of the host, then adds it to them with
+     * updates that only apply if the rows still have room for it.  The index only
+     * knows the allocations of this management server, the updates catch the ones
+     * made by the others.
+     *
+     * @return false if op_host_capacity does not have room the index thought it had,
+     *         the reservation is given back then and nothing is allocated
+     */
+    private boolean allocateVmCapacityFromIndex(final long vmId, final HostVO host, final ServiceOfferingVO svo, final boolean fromLastHost) {
+        final long hostId = host.getId();
+        final int cpu = svo.getCpu() * svo.getSpeed();
+        final int cpucore = svo.getCpu();
+        final long ram = svo.getRamSize() * 1024L * 1024L;
+
+        if (!checkIfHostHasCpuCapability(hostId, cpucore, svo.getSpeed())) {
+            throw new CloudRuntimeException("Host does not have enough capacity for vm " + vmId);
+        }
+        final float cpuOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(host.getClusterId(), "cpuOvercommitRatio").getValue());
+        final float memoryOvercommitRatio = Float.parseFloat(_clusterDetailsDao.findDetail(host.getClusterId(), "memoryOvercommitRatio").getValue());
+        final CapacityIndex.Reservation reservation = _capacityIndex.reserve(hostId, cpu, ram, fromLastHost);
+        if (reservation == null) {
+            throw new CloudRuntimeException("Host does not have enough capacity for vm " + vmId);
+        }
+
+        final boolean allocated;
+        try {
+            allocated = Transaction.execute(new TransactionCallback<Boolean>() {
+                @Override
+                public Boolean doInTransaction(TransactionStatus status) {
+                    final boolean fromReserved = reservation.isFromReserved();
+                    if (!_capacityDao.allocateCapacityIfAvailable(hostId, Capacity.CAPACITY_TYPE_CPU, cpu, fromReserved, cpuOvercommitRatio)) {
+                        return false;
+                    }
+                    if (!_capacityDao.allocateCapacityIfAvailable(hostId, Capacity.CAPACITY_TYPE_MEMORY, ram, fromReserved, memoryOvercommitRatio)) {
+                        // give the cpu back, an enclosing transaction may still commit
+                        _capacityDao.addUsedAndReservedCapacity(hostId, Capacity.CAPACITY_TYPE_CPU, -cpu, fromReserved ? cpu : 0);
+                        return false;
+                    }
+                    _capacityDao.addUsedAndReservedCapacity(hostId, Capacity.CAPACITY_TYPE_CPU_CORE, cpucore, fromReserved ? -cpucore : 0);
+
+                    // the capacity is only in op_host_capacity for the other readers once the transaction commits,
+                    // if it (or an enclosing transaction) rolls back the reservation is given back instead
+                    final TransactionLegacy txn = TransactionLegacy.currentTxn();
+                    txn.runAfterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            _capacityIndex.commit(reservation);
+                        }
+                    });
+                    txn.runAfterCompletion(new Runnable() {
+                        @Override
+                        public void run() {
+                            _capacityIndex.cancel(reservation);
+                        }
+                    });
+                    return true;
+                }
+            });
+        } catch (Exception e) {
+            _capacityIndex.cancel(reservation);
+            s_logger.error("Exception allocating VM capacity", e);
+            if (e instanceof CloudRuntimeException) {
+                throw e;
+            }
+            // only logged, as on the locked path
+            return true;
+        }
+
+        if (!allocated) {
+            _capacityIndex.cancel(reservation);
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Host: " + hostId + " does not have the cpu: " + cpu + " and ram: " + ram + " the capacity index found for vm " + vmId +
+                    ", it was taken by another management server");
+            }
+            return false;
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Allocated cpu: " + cpu + " and ram: " + ram + " of host: " + hostId + " to vm " + vmId + " from the capacity index, alloc_from_last: " +
+                fromLastHost + ", from reserved: " + reservation.isFromReserved());
+        }
+        return true;
+    }
+
+    /**
+     * Reloads the host in the capacity index once the capacity it released is in op_host_capacity.
+     */
+    private void refreshCapacityIndex(final long hostId) {
+        if (!_capacityIndex.isEnabled()) {
+            return;
+        }
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn == null) {
+            _capacityIndex.refresh(hostId);
+            return;
+        }
+        txn.runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                _capacityIndex.refresh(hostId);
+            }
+        });
+    }
+
     @Override
     public boolean checkIfHostHasCpuCapability(long hostId, Integer cpuNum, Integer cpuSpeed) {
 
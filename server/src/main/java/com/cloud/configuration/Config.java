@@ -1222,6 +1222,14 @@ public enum Config {
             "Interval (in days) to check sanity of usage data. To disable set it to 0 or negative.",
             null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParsingWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parsing.workers",
+            "4",
+            "Number of threads the usage server parses accounts with, each thread parses its share of the accounts in its own transaction. Usage server restart needed.",
+            null),
     TrafficSentinelIncludeZones(
             "Usage",
             ManagementServer.class,
@@ -1804,6 +1812,30 @@ public enum Config {
     PublishResourceStateEvent("Advanced", ManagementServer.class, Boolean.class, "publish.resource.state.events", "true", "enable or disable publishing of alert events on the event bus", null),
     PublishUsageEvent("Advanced", ManagementServer.class, Boolean.class, "publish.usage.events", "true", "enable or disable publishing of usage events on the event bus", null),
     PublishAsynJobEvent("Advanced", ManagementServer.class, Boolean.class, "publish.async.job.events", "true", "enable or disable publishing of usage events on the event bus", null),
+    ActionEventPipelineQueueSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "event.pipeline.queue.size",
+            "10000",
+            "Number of action events that can wait to be written to the database and published on the event bus in the background, 0 writes and publishes every event on the calling thread. Queued events are handed to the background writer when the transaction raising them commits and are written in a transaction of their own, events of a rolled back transaction are dropped. Management server restart needed.",
+            null),
+    ActionEventPipelineBatchSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "event.pipeline.batch.size",
+            "100",
+            "Maximum number of action events written with one insert and published on the event bus in one batch. Management server restart needed.",
+            null),
+    ActionEventPipelineOverflowPolicy(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "event.pipeline.overflow.policy",
+            "callerruns",
+            "What happens to an action event when the event pipeline queue is full: 'callerruns' writes and publishes it on the calling thread, 'drop' discards it. Management server restart needed.",
+            null),
 
     // StatsCollector
     StatsOutPutGraphiteHost("Advanced", ManagementServer.class, String.class, "stats.output.uri", "", "URI to additionally send StatsCollector statistics to", null),
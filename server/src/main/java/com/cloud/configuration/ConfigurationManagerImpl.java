@@ -113,6 +113,7 @@ import com.cloud.api.query.dao.NetworkOfferingJoinDao;
 import com.cloud.api.query.vo.NetworkOfferingJoinVO;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.AccountVlanMapVO;
 import com.cloud.dc.ClusterDetailsDao;
@@ -381,6 +382,8 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
     @Inject
     MessageBus messageBus;
     @Inject
+    ClusterManager _clusterMgr;
+    @Inject
     AgentManager _agentManager;
     @Inject
     IndirectAgentLB _indirectAgentLB;
@@ -635,6 +638,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            _clusterMgr.publishConfigChange(name, ConfigKey.Scope.valueOf(scope), resourceId);
             return value;
         }
 
@@ -725,6 +729,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        _clusterMgr.publishConfigChange(name, ConfigKey.Scope.Global, null);
         messageBus.publish(_name, EventTypes.EVENT_CONFIGURATION_VALUE_EDIT, PublishScope.GLOBAL, name);
         return _configDao.getValue(name);
     }
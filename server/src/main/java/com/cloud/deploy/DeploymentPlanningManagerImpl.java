@@ -67,6 +67,7 @@ import com.cloud.agent.api.Command;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.manager.allocator.HostAllocator;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
@@ -211,6 +212,8 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
     @Inject
     protected CapacityManager _capacityMgr;
     @Inject
+    protected CapacityIndex _capacityIndex;
+    @Inject
     protected ConfigurationDao _configDao;
     @Inject
     protected PrimaryDataStoreDao _storagePoolDao;
@@ -422,18 +425,21 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
                         }
                     }
                     if (hostTagsMatch) {
-                        long cluster_id = host.getClusterId();
-                        ClusterDetailsVO cluster_detail_cpu = _clusterDetailsDao.findDetail(cluster_id,
-                                "cpuOvercommitRatio");
-                        ClusterDetailsVO cluster_detail_ram = _clusterDetailsDao.findDetail(cluster_id,
-                                "memoryOvercommitRatio");
-                        Float cpuOvercommitRatio = Float.parseFloat(cluster_detail_cpu.getValue());
-                        Float memoryOvercommitRatio = Float.parseFloat(cluster_detail_ram.getValue());
-
                         boolean hostHasCpuCapability, hostHasCapacity = false;
                         hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
 
-                        if (hostHasCpuCapability) {
+                        if (hostHasCpuCapability && _capacityIndex.isEnabled() && _capacityIndex.isIndexed(host.getId())) {
+                            hostHasCapacity = _capacityIndex.hasCapacity(host.getId(), cpu_requested, ram_requested, true, true)
+                                    || _capacityIndex.hasCapacity(host.getId(), cpu_requested, ram_requested, false, true);
+                        } else if (hostHasCpuCapability) {
+                            long cluster_id = host.getClusterId();
+                            ClusterDetailsVO cluster_detail_cpu = _clusterDetailsDao.findDetail(cluster_id,
+                                    "cpuOvercommitRatio");
+                            ClusterDetailsVO cluster_detail_ram = _clusterDetailsDao.findDetail(cluster_id,
+                                    "memoryOvercommitRatio");
+                            Float cpuOvercommitRatio = Float.parseFloat(cluster_detail_cpu.getValue());
+                            Float memoryOvercommitRatio = Float.parseFloat(cluster_detail_ram.getValue());
+
                             // first check from reserved capacity
                             hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, true, cpuOvercommitRatio, memoryOvercommitRatio, true);
 
@@ -34,6 +34,7 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.log4j.Logger;
 
 import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
@@ -107,6 +108,8 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
     @Inject
     protected CapacityDao capacityDao;
     @Inject
+    protected CapacityIndex capacityIndex;
+    @Inject
     protected AccountManager accountMgr;
     @Inject
     protected StorageManager storageMgr;
@@ -495,6 +498,14 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
+        if (capacityIndex.isEnabled()) {
+            Pair<List<Long>, Map<Long, Double>> result = capacityIndex.orderClustersByFreeCapacity(id, isZone, requiredCpu, requiredRam, capacityType);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("ClusterId List having enough CPU and RAM capacity & in order of aggregate capacity from the capacity index: " + result.first());
+            }
+            return result;
+        }
+
         List<Long> clusterIdswithEnoughCapacity = capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("ClusterId List having enough CPU and RAM capacity: " + clusterIdswithEnoughCapacity);
@@ -529,6 +540,14 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
+        if (capacityIndex.isEnabled()) {
+            Pair<List<Long>, Map<Long, Double>> result = capacityIndex.orderPodsByFreeCapacity(zoneId, requiredCpu, requiredRam, capacityType);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("PodId List having enough CPU and RAM capacity & in order of aggregate capacity from the capacity index: " + result.first());
+            }
+            return result;
+        }
+
         List<Long> podIdswithEnoughCapacity = capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("PodId List having enough CPU and RAM capacity: " + podIdswithEnoughCapacity);
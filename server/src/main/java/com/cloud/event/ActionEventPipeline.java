@@ -0,0 +1,356 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.events.Event;
+import org.apache.cloudstack.framework.events.EventBus;
+import org.apache.cloudstack.framework.events.EventBusException;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.event.dao.EventDao;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Writes action events to the database and publishes them on the event bus from a
+ * single background thread, so API commands and jobs do not wait for the event insert
+ * or the event bus.  The events wait in a bounded queue and are taken from it in
+ * batches: the events of a batch are inserted with one multi-row insert and then
+ * published on the event bus in one call.
+ *
+ * Ordering: the events that go through the queue are inserted and published in the
+ * order they were submitted, across all threads of the management server.  An event is
+ * inserted before it is published, but it may be published before the batch is visible
+ * to other transactions.  Events written by the calling thread, because the caller needs
+ * the event id or because the queue was full with the CallerRuns policy, can overtake
+ * the events waiting in the queue.
+ *
+ * When the queue is full the overflow policy decides: CallerRuns writes and publishes
+ * the event on the calling thread, Drop discards it.  Both are counted.
+ */
+public class ActionEventPipeline extends StandardMBean implements ActionEventPipelineMBean {
+    private static final Logger s_logger = Logger.getLogger(ActionEventPipeline.class);
+
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    public enum OverflowPolicy {
+        CallerRuns, Drop;
+
+        public static OverflowPolicy fromString(String policy) {
+            if (policy != null && policy.trim().equalsIgnoreCase("drop")) {
+                return Drop;
+            }
+            return CallerRuns;
+        }
+    }
+
+    /**
+     * An event waiting in the pipeline.  Both methods are called on the thread that writes
+     * the event, so any lookup needed to build the event is kept off the calling thread.
+     */
+    public interface PendingEvent {
+        /**
+         * @return the event row to insert, or null if the caller already inserted it
+         */
+        EventVO getEvent();
+
+        /**
+         * @return the event to publish on the event bus, or null if it is not published
+         */
+        Event getBusEvent();
+    }
+
+    private final EventDao _eventDao;
+    private final Supplier<EventBus> _eventBus;
+    private final int _capacity;
+    private final int _batchSize;
+    private final OverflowPolicy _overflowPolicy;
+    private final BlockingQueue<PendingEvent> _queue;
+    private final ExecutorService _writer;
+    private volatile boolean _running = true;
+
+    private final AtomicLong _submitted = new AtomicLong();
+    private final AtomicLong _persisted = new AtomicLong();
+    private final AtomicLong _published = new AtomicLong();
+    private final AtomicLong _callerRuns = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _persistFailures = new AtomicLong();
+    private final AtomicLong _publishFailures = new AtomicLong();
+    private final AtomicLong _batches = new AtomicLong();
+    private volatile long _lastBatchMs;
+
+    public ActionEventPipeline(EventDao eventDao, Supplier<EventBus> eventBus, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+        super(ActionEventPipelineMBean.class, false);
+        _eventDao = eventDao;
+        _eventBus = eventBus;
+        _capacity = Math.max(1, capacity);
+        _batchSize = Math.max(1, batchSize);
+        _overflowPolicy = overflowPolicy;
+        _queue = new ArrayBlockingQueue<PendingEvent>(_capacity);
+        _writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("ActionEvent-Writer"));
+        _writer.submit(new WriterTask());
+    }
+
+    public void submit(PendingEvent pendingEvent) {
+        if (!_running) {
+            process(pendingEvent);
+            return;
+        }
+        if (_queue.offer(pendingEvent)) {
+            _submitted.incrementAndGet();
+            return;
+        }
+
+        if (_overflowPolicy == OverflowPolicy.Drop) {
+            if (_dropped.getAndIncrement() % 1000 == 0) {
+                s_logger.warn("Action event queue is full (" + _capacity + " events), " + _dropped.get() + " action events dropped so far");
+            }
+        } else {
+            _callerRuns.incrementAndGet();
+            process(pendingEvent);
+        }
+    }
+
+    /**
+     * Stops taking new events, writes the events still in the queue and stops the writer thread.
+     */
+    public void shutdown() {
+        _running = false;
+        _writer.shutdown();
+        try {
+            if (!_writer.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                _writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            _writer.shutdownNow();
+        }
+        if (!_queue.isEmpty()) {
+            s_logger.warn("Discarding " + _queue.size() + " action events that were not written before shutdown");
+            _queue.clear();
+        }
+    }
+
+    /**
+     * Writes and publishes a single event on the calling thread.
+     */
+    private void process(PendingEvent pendingEvent) {
+        final EventVO event = pendingEvent.getEvent();
+        if (event != null) {
+            try {
+                _eventDao.persist(event);
+                _persisted.incrementAndGet();
+            } catch (RuntimeException e) {
+                _persistFailures.incrementAndGet();
+                s_logger.warn("Unable to write action event " + event.getType() + " of account " + event.getAccountId(), e);
+            }
+        }
+        final Event busEvent = pendingEvent.getBusEvent();
+        if (busEvent != null) {
+            final List<Event> busEvents = new ArrayList<Event>(1);
+            busEvents.add(busEvent);
+            publish(busEvents);
+        }
+    }
+
+    void processBatch(List<PendingEvent> batch) {
+        final long start = System.currentTimeMillis();
+
+        final List<EventVO> events = new ArrayList<EventVO>(batch.size());
+        final List<Event> busEvents = new ArrayList<Event>(batch.size());
+        for (PendingEvent pendingEvent : batch) {
+            try {
+                final EventVO event = pendingEvent.getEvent();
+                if (event != null) {
+                    events.add(event);
+                }
+            } catch (RuntimeException e) {
+                _persistFailures.incrementAndGet();
+                s_logger.warn("Unable to build action event", e);
+            }
+        }
+        persist(events);
+
+        for (PendingEvent pendingEvent : batch) {
+            try {
+                final Event busEvent = pendingEvent.getBusEvent();
+                if (busEvent != null) {
+                    busEvents.add(busEvent);
+                }
+            } catch (RuntimeException e) {
+                _publishFailures.incrementAndGet();
+                s_logger.warn("Unable to build action event for the event bus", e);
+            }
+        }
+        publish(busEvents);
+
+        _batches.incrementAndGet();
+        _lastBatchMs = System.currentTimeMillis() - start;
+    }
+
+    private void persist(List<EventVO> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
+        try {
+            txn.start();
+            _eventDao.persistEvents(events);
+            txn.commit();
+            _persisted.addAndGet(events.size());
+            return;
+        } catch (RuntimeException e) {
+            txn.rollback();
+            s_logger.warn("Unable to write " + events.size() + " action events with one insert, writing them one by one", e);
+        } finally {
+            txn.close();
+        }
+
+        // one bad event must not lose the rest of the batch
+        for (EventVO event : events) {
+            try {
+                _eventDao.persist(event);
+                _persisted.incrementAndGet();
+            } catch (RuntimeException e) {
+                _persistFailures.incrementAndGet();
+                s_logger.warn("Unable to write action event " + event.getType() + " of account " + event.getAccountId(), e);
+            }
+        }
+    }
+
+    private void publish(List<Event> busEvents) {
+        if (busEvents.isEmpty()) {
+            return;
+        }
+        final EventBus eventBus = _eventBus.get();
+        if (eventBus == null) {
+            return;
+        }
+        try {
+            eventBus.publish(busEvents);
+            _published.addAndGet(busEvents.size());
+        } catch (EventBusException e) {
+            _publishFailures.addAndGet(busEvents.size());
+            s_logger.warn("Failed to publish " + busEvents.size() + " action events on the the event bus.");
+        }
+    }
+
+    private class WriterTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            final List<PendingEvent> batch = new ArrayList<PendingEvent>(_batchSize);
+            while (_running || !_queue.isEmpty()) {
+                try {
+                    final PendingEvent first = _queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    _queue.drainTo(batch, _batchSize - 1);
+                    processBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Throwable t) {
+                    s_logger.error("Unexpected exception while writing " + batch.size() + " action events", t);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return _overflowPolicy.toString();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _queue.size();
+    }
+
+    @Override
+    public long getSubmitted() {
+        return _submitted.get();
+    }
+
+    @Override
+    public long getPersisted() {
+        return _persisted.get();
+    }
+
+    @Override
+    public long getPublished() {
+        return _published.get();
+    }
+
+    @Override
+    public long getCallerRuns() {
+        return _callerRuns.get();
+    }
+
+    @Override
+    public long getDropped() {
+        return _dropped.get();
+    }
+
+    @Override
+    public long getPersistFailures() {
+        return _persistFailures.get();
+    }
+
+    @Override
+    public long getPublishFailures() {
+        return _publishFailures.get();
+    }
+
+    @Override
+    public long getBatches() {
+        return _batches.get();
+    }
+
+    @Override
+    public long getLastBatchMs() {
+        return _lastBatchMs;
+    }
+}
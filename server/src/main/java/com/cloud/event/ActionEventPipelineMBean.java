@@ -0,0 +1,51 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.event;
+
+public interface ActionEventPipelineMBean {
+    int getCapacity();
+
+    int getBatchSize();
+
+    String getOverflowPolicy();
+
+    int getQueueDepth();
+
+    long getSubmitted();
+
+    long getPersisted();
+
+    long getPublished();
+
+    /**
+     * Events that found the queue full and were written and published by the calling thread.
+     */
+    long getCallerRuns();
+
+    /**
+     * Events that found the queue full and were discarded.
+     */
+    long getDropped();
+
+    long getPersistFailures();
+
+    long getPublishFailures();
+
+    long getBatches();
+
+    long getLastBatchMs();
+}
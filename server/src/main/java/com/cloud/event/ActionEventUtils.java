@@ -23,10 +23,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 import com.cloud.utils.ReflectUtil;
 import com.cloud.utils.db.EntityManager;
+import com.cloud.utils.db.TransactionLegacy;
 import org.apache.cloudstack.api.Identity;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
@@ -46,7 +48,9 @@ import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserDao;
 import com.cloud.projects.dao.ProjectDao;
 import com.cloud.projects.Project;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class ActionEventUtils {
     private static final Logger s_logger = Logger.getLogger(ActionEventUtils.class);
@@ -58,6 +62,8 @@ public class ActionEventUtils {
     protected static EventBus s_eventBus = null;
     protected static EntityManager s_entityMgr;
     protected static ConfigurationDao s_configDao;
+    private static volatile ActionEventPipeline s_pipeline;
+    private static volatile boolean s_pipelineConfigured;
 
     public static final String EventDetails = "event_details";
     public static final String EventId = "event_id";
@@ -89,15 +95,57 @@ public class ActionEventUtils {
         s_projectDao = projectDao;
         s_entityMgr = entityMgr;
         s_configDao = configDao;
+        shutdownPipeline();
     }
 
-    public static Long onActionEvent(Long userId, Long accountId, Long domainId, String type, String description) {
+    @PreDestroy
+    void destroy() {
+        shutdownPipeline();
+    }
 
-        publishOnEventBus(userId, accountId, EventCategory.ACTION_EVENT.getName(), type, com.cloud.event.Event.State.Completed, description);
+    private static synchronized void shutdownPipeline() {
+        if (s_pipeline != null) {
+            s_pipeline.shutdown();
+            s_pipeline = null;
+        }
+        s_pipelineConfigured = false;
+    }
+
+    /**
+     * The pipeline is created on the first event rather than in init(), the configuration
+     * is not available yet when the bean is constructed.
+     *
+     * @return the pipeline, or null if event.pipeline.queue.size is 0 and events are written by the caller
+     */
+    private static ActionEventPipeline getPipeline() {
+        if (s_pipelineConfigured) {
+            return s_pipeline;
+        }
+        synchronized (ActionEventUtils.class) {
+            if (!s_pipelineConfigured) {
+                final int queueSize = NumbersUtil.parseInt(s_configDao.getValue(Config.ActionEventPipelineQueueSize.key()),
+                        Integer.parseInt(Config.ActionEventPipelineQueueSize.getDefaultValue()));
+                if (queueSize > 0) {
+                    final int batchSize = NumbersUtil.parseInt(s_configDao.getValue(Config.ActionEventPipelineBatchSize.key()),
+                            Integer.parseInt(Config.ActionEventPipelineBatchSize.getDefaultValue()));
+                    final String overflowPolicy = s_configDao.getValue(Config.ActionEventPipelineOverflowPolicy.key());
+                    s_pipeline = new ActionEventPipeline(s_eventDao, ActionEventUtils::getEventBus, queueSize, batchSize,
+                            ActionEventPipeline.OverflowPolicy.fromString(overflowPolicy));
+                    try {
+                        JmxUtil.registerMBean("ActionEvents", "Pipeline", s_pipeline);
+                    } catch (Exception e) {
+                        s_logger.warn("Unable to register action event pipeline MBean", e);
+                    }
+                }
+                s_pipelineConfigured = true;
+            }
+            return s_pipeline;
+        }
+    }
 
-        Event event = persistActionEvent(userId, accountId, domainId, null, type, Event.State.Completed, true, description, null);
+    public static Long onActionEvent(Long userId, Long accountId, Long domainId, String type, String description) {
 
-        return event.getId();
+        return submitActionEvent(userId, accountId, domainId, null, type, Event.State.Completed, true, description, null, false);
     }
 
     /*
@@ -105,11 +153,7 @@ public class ActionEventUtils {
      */
     public static Long onScheduledActionEvent(Long userId, Long accountId, String type, String description, boolean eventDisplayEnabled, long startEventId) {
 
-        publishOnEventBus(userId, accountId, EventCategory.ACTION_EVENT.getName(), type, com.cloud.event.Event.State.Scheduled, description);
-
-        Event event = persistActionEvent(userId, accountId, null, null, type, Event.State.Scheduled, eventDisplayEnabled, description, startEventId);
-
-        return event.getId();
+        return submitActionEvent(userId, accountId, null, null, type, Event.State.Scheduled, eventDisplayEnabled, description, startEventId, true);
     }
 
     public static void startNestedActionEvent(String eventType, String eventDescription) {
@@ -132,11 +176,7 @@ public class ActionEventUtils {
      */
     public static Long onStartedActionEvent(Long userId, Long accountId, String type, String description, boolean eventDisplayEnabled, long startEventId) {
 
-        publishOnEventBus(userId, accountId, EventCategory.ACTION_EVENT.getName(), type, com.cloud.event.Event.State.Started, description);
-
-        Event event = persistActionEvent(userId, accountId, null, null, type, Event.State.Started, eventDisplayEnabled, description, startEventId);
-
-        return event.getId();
+        return submitActionEvent(userId, accountId, null, null, type, Event.State.Started, eventDisplayEnabled, description, startEventId, false);
     }
 
     public static Long onCompletedActionEvent(Long userId, Long accountId, String level, String type, String description, long startEventId) {
@@ -145,108 +185,60 @@ public class ActionEventUtils {
     }
 
     public static Long onCompletedActionEvent(Long userId, Long accountId, String level, String type, boolean eventDisplayEnabled, String description, long startEventId) {
-        publishOnEventBus(userId, accountId, EventCategory.ACTION_EVENT.getName(), type, com.cloud.event.Event.State.Completed, description);
-
-        Event event = persistActionEvent(userId, accountId, null, level, type, Event.State.Completed, eventDisplayEnabled, description, startEventId);
-
-        return event.getId();
-
+        return submitActionEvent(userId, accountId, null, level, type, Event.State.Completed, eventDisplayEnabled, description, startEventId, false);
     }
 
     public static Long onCreatedActionEvent(Long userId, Long accountId, String level, String type, boolean eventDisplayEnabled, String description) {
 
-        publishOnEventBus(userId, accountId, EventCategory.ACTION_EVENT.getName(), type, com.cloud.event.Event.State.Created, description);
-
-        Event event = persistActionEvent(userId, accountId, null, level, type, Event.State.Created, eventDisplayEnabled, description, null);
-
-        return event.getId();
+        return submitActionEvent(userId, accountId, null, level, type, Event.State.Created, eventDisplayEnabled, description, null, true);
     }
 
-    private static Event persistActionEvent(Long userId, Long accountId, Long domainId, String level, String type,
-                                            Event.State state, boolean eventDisplayEnabled, String description, Long startEventId) {
-        EventVO event = new EventVO();
-        event.setUserId(userId);
-        event.setAccountId(accountId);
-        event.setType(type);
-        event.setState(state);
-        event.setDescription(description);
-        event.setDisplay(eventDisplayEnabled);
-
-        if (domainId != null) {
-            event.setDomainId(domainId);
-        } else {
-            event.setDomainId(getDomainId(accountId));
+    /**
+     * Started and completed events go through the event pipeline and return null, their id is not known
+     * yet.  Scheduled and created events are written by the caller as their id is the start id of the
+     * events that follow, only their event bus publication goes through the pipeline.  Events are handed
+     * to the pipeline when the caller's transaction commits and are dropped if it rolls back.
+     */
+    private static Long submitActionEvent(Long userId, Long accountId, Long domainId, String level, String type, Event.State state,
+                                          boolean eventDisplayEnabled, String description, Long startEventId, boolean idRequired) {
+        final PendingActionEvent pendingEvent = new PendingActionEvent(userId, accountId, domainId, level, type, state, eventDisplayEnabled,
+                description, startEventId, CallContext.current());
+
+        final ActionEventPipeline pipeline = getPipeline();
+        if (pipeline == null) {
+            publishOnEventBus(pendingEvent.getBusEvent());
+            return s_eventDao.persist(pendingEvent.createEvent()).getId();
         }
-        if (level != null && !level.isEmpty()) {
-            event.setLevel(level);
+
+        Long eventId = null;
+        if (idRequired) {
+            eventId = s_eventDao.persist(pendingEvent.createEvent()).getId();
+            pendingEvent.persisted = true;
         }
-        if (startEventId != null) {
-            event.setStartId(startEventId);
+        // the pipeline writes the event in a transaction of its own, queue it only once the work it
+        // records is committed so that a rolled back operation leaves no event behind
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn != null) {
+            txn.runAfterCommit(() -> pipeline.submit(pendingEvent));
+        } else {
+            pipeline.submit(pendingEvent);
         }
-        event = s_eventDao.persist(event);
-        return event;
+        return eventId;
     }
 
-    private static void publishOnEventBus(long userId, long accountId, String eventCategory, String eventType, Event.State state, String description) {
-        String configKey = Config.PublishActionEvent.key();
-        String value = s_configDao.getValue(configKey);
-        boolean configValue = Boolean.parseBoolean(value);
-        if(!configValue)
-            return;
+    private static EventBus getEventBus() {
         try {
             s_eventBus = ComponentContext.getComponent(EventBus.class);
         } catch (NoSuchBeanDefinitionException nbe) {
-            return; // no provider is configured to provide events bus, so just return
-        }
-
-        // get the entity details for which ActionEvent is generated
-        String entityType = null;
-        String entityUuid = null;
-        CallContext context = CallContext.current();
-        //Get entity Class(Example - VirtualMachine.class) from the event Type eg. - VM.CREATE
-        Class<?> entityClass = EventTypes.getEntityClassForEvent(eventType);
-        if (entityClass != null){
-            //Get uuid from id
-            Object param = context.getContextParameter(entityClass);
-            if(param != null){
-                try {
-                    entityUuid = getEntityUuid(entityClass, param);
-                    entityType = entityClass.getName();
-                } catch (Exception e){
-                    s_logger.debug("Caught exception while finding entityUUID, moving on");
-                }
-            }
+            return null; // no provider is configured to provide events bus
         }
+        return s_eventBus;
+    }
 
-        org.apache.cloudstack.framework.events.Event event =
-            new org.apache.cloudstack.framework.events.Event(ManagementService.Name, eventCategory, eventType, EventTypes.getEntityForEvent(eventType), entityUuid);
-
-        Map<String, String> eventDescription = new HashMap<String, String>();
-        Project project = s_projectDao.findByProjectAccountId(accountId);
-        Account account = s_accountDao.findById(accountId);
-        User user = s_userDao.findById(userId);
-        // if account has been deleted, this might be called during cleanup of resources and results in null pointer
-        if (account == null)
-            return;
-        if (user == null)
+    private static void publishOnEventBus(org.apache.cloudstack.framework.events.Event event) {
+        if (event == null) {
             return;
-        if (project != null)
-            eventDescription.put("project", project.getUuid());
-        eventDescription.put("user", user.getUuid());
-        eventDescription.put("account", account.getUuid());
-        eventDescription.put("event", eventType);
-        eventDescription.put("status", state.toString());
-        eventDescription.put("entity", entityType);
-        eventDescription.put("entityuuid", entityUuid);
-        //Put all the first class entities that are touched during the action. For now atleast put in the vmid.
-        populateFirstClassEntities(eventDescription);
-        eventDescription.put("description", description);
-
-        String eventDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z").format(new Date());
-        eventDescription.put("eventDateTime", eventDate);
-
-        event.setDescription(eventDescription);
-
+        }
         try {
             s_eventBus.publish(event);
         } catch (EventBusException e) {
@@ -254,6 +246,128 @@ public class ActionEventUtils {
         }
     }
 
+    /**
+     * An action event with everything taken from the call context when it was raised, the event row and
+     * the event bus event are built from it by the thread that writes the event.
+     */
+    private static class PendingActionEvent implements ActionEventPipeline.PendingEvent {
+        final Long userId;
+        final Long accountId;
+        final Long domainId;
+        final String level;
+        final String type;
+        final Event.State state;
+        final boolean eventDisplayEnabled;
+        final String description;
+        final Long startEventId;
+        final Map<Object, Object> contextParameters;
+        final Date created = new Date();
+        volatile boolean persisted;
+
+        PendingActionEvent(Long userId, Long accountId, Long domainId, String level, String type, Event.State state, boolean eventDisplayEnabled,
+                           String description, Long startEventId, CallContext context) {
+            this.userId = userId;
+            this.accountId = accountId;
+            this.domainId = domainId;
+            this.level = level;
+            this.type = type;
+            this.state = state;
+            this.eventDisplayEnabled = eventDisplayEnabled;
+            this.description = description;
+            this.startEventId = startEventId;
+            this.contextParameters = context != null ? new HashMap<Object, Object>(context.getContextParameters()) : new HashMap<Object, Object>();
+        }
+
+        @Override
+        public EventVO getEvent() {
+            return persisted ? null : createEvent();
+        }
+
+        EventVO createEvent() {
+            EventVO event = new EventVO();
+            event.setUserId(userId);
+            event.setAccountId(accountId);
+            event.setType(type);
+            event.setState(state);
+            event.setDescription(description);
+            event.setDisplay(eventDisplayEnabled);
+            event.setCreatedDate(created);
+
+            if (domainId != null) {
+                event.setDomainId(domainId);
+            } else {
+                event.setDomainId(getDomainId(accountId));
+            }
+            if (level != null && !level.isEmpty()) {
+                event.setLevel(level);
+            }
+            if (startEventId != null) {
+                event.setStartId(startEventId);
+            }
+            return event;
+        }
+
+        @Override
+        public org.apache.cloudstack.framework.events.Event getBusEvent() {
+            String configKey = Config.PublishActionEvent.key();
+            String value = s_configDao.getValue(configKey);
+            boolean configValue = Boolean.parseBoolean(value);
+            if(!configValue)
+                return null;
+            if (getEventBus() == null) {
+                return null;
+            }
+
+            // get the entity details for which ActionEvent is generated
+            String entityType = null;
+            String entityUuid = null;
+            //Get entity Class(Example - VirtualMachine.class) from the event Type eg. - VM.CREATE
+            Class<?> entityClass = EventTypes.getEntityClassForEvent(type);
+            if (entityClass != null){
+                //Get uuid from id
+                Object param = contextParameters.get(entityClass);
+                if(param != null){
+                    try {
+                        entityUuid = getEntityUuid(entityClass, param);
+                        entityType = entityClass.getName();
+                    } catch (Exception e){
+                        s_logger.debug("Caught exception while finding entityUUID, moving on");
+                    }
+                }
+            }
+
+            org.apache.cloudstack.framework.events.Event event =
+                new org.apache.cloudstack.framework.events.Event(ManagementService.Name, EventCategory.ACTION_EVENT.getName(), type, EventTypes.getEntityForEvent(type), entityUuid);
+
+            Map<String, String> eventDescription = new HashMap<String, String>();
+            Project project = s_projectDao.findByProjectAccountId(accountId);
+            Account account = s_accountDao.findById(accountId);
+            User user = s_userDao.findById(userId);
+            // if account has been deleted, this might be called during cleanup of resources and results in null pointer
+            if (account == null)
+                return null;
+            if (user == null)
+                return null;
+            if (project != null)
+                eventDescription.put("project", project.getUuid());
+            eventDescription.put("user", user.getUuid());
+            eventDescription.put("account", account.getUuid());
+            eventDescription.put("event", type);
+            eventDescription.put("status", state.toString());
+            eventDescription.put("entity", entityType);
+            eventDescription.put("entityuuid", entityUuid);
+            //Put all the first class entities that are touched during the action. For now atleast put in the vmid.
+            populateFirstClassEntities(eventDescription, contextParameters);
+            eventDescription.put("description", description);
+
+            String eventDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z").format(created);
+            eventDescription.put("eventDateTime", eventDate);
+
+            event.setDescription(eventDescription);
+            return event;
+        }
+    }
+
     private static String getEntityUuid(Class<?> entityType, Object entityId){
 
         // entityId can be internal db id or UUID so accordingly call findbyId or return uuid directly
@@ -286,10 +400,7 @@ public class ActionEventUtils {
         return account.getDomainId();
     }
 
-    private static void populateFirstClassEntities(Map<String, String> eventDescription){
-
-        CallContext context = CallContext.current();
-        Map<Object, Object> contextMap = context.getContextParameters();
+    private static void populateFirstClassEntities(Map<String, String> eventDescription, Map<Object, Object> contextMap){
 
         for(Map.Entry<Object, Object> entry : contextMap.entrySet()){
             try{
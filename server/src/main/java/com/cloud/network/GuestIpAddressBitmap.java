@@ -0,0 +1,138 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * Tracks the used addresses of a guest network cidr with one bit per host address,
+ * the network and broadcast addresses are not part of the bitmap.  The bitmap is
+ * not thread safe, callers synchronize on it.
+ */
+public class GuestIpAddressBitmap {
+    private final String _cidr;
+    private final String _gateway;
+    private final long _firstIp;
+    private final int _size;
+    private final BitSet _used;
+    private final long _created;
+    private int _usedCount;
+
+    public GuestIpAddressBitmap(String cidr, String gateway) {
+        final String[] cidrPair = cidr.split("/");
+        final int cidrSize = Integer.parseInt(cidrPair[1]);
+        final String[] range = NetUtils.getIpRangeFromCidr(cidrPair[0], cidrSize);
+        _cidr = cidr;
+        _gateway = gateway;
+        _firstIp = NetUtils.ip2Long(range[0]);
+        _size = (int)Math.max(0, NetUtils.ip2Long(range[1]) - _firstIp + 1);
+        _used = new BitSet(_size);
+        _created = System.currentTimeMillis();
+        if (gateway != null) {
+            markUsed(NetUtils.ip2Long(gateway));
+        }
+    }
+
+    /**
+     * @return true if the bitmap was built for this cidr and gateway
+     */
+    public boolean matches(String cidr, String gateway) {
+        return _cidr.equals(cidr) && (_gateway == null ? gateway == null : _gateway.equals(gateway));
+    }
+
+    public long getCreated() {
+        return _created;
+    }
+
+    public boolean contains(long ip) {
+        return ip >= _firstIp && ip < _firstIp + _size;
+    }
+
+    public boolean isFree(long ip) {
+        return contains(ip) && !_used.get(index(ip));
+    }
+
+    public int getFreeCount() {
+        return _size - _usedCount;
+    }
+
+    /**
+     * Marks the address as used, addresses outside of the cidr are ignored.
+     *
+     * @return true if the address was free
+     */
+    public boolean markUsed(long ip) {
+        if (!isFree(ip)) {
+            return false;
+        }
+        _used.set(index(ip));
+        _usedCount++;
+        return true;
+    }
+
+    /**
+     * Marks the address as free again, the gateway is never released.
+     */
+    public void release(long ip) {
+        if (!contains(ip) || isFree(ip) || (_gateway != null && ip == NetUtils.ip2Long(_gateway))) {
+            return;
+        }
+        _used.clear(index(ip));
+        _usedCount--;
+    }
+
+    /**
+     * @return the first free address after a random position in the cidr, wrapping around, or -1 if there is none
+     */
+    public long pickRandom(Random random) {
+        if (getFreeCount() == 0) {
+            return -1;
+        }
+        int index = _used.nextClearBit(random.nextInt(_size));
+        if (index >= _size) {
+            index = _used.nextClearBit(0);
+        }
+        return _firstIp + index;
+    }
+
+    /**
+     * @return the lowest free address or -1 if there is none
+     */
+    public long pickFirst() {
+        if (getFreeCount() == 0) {
+            return -1;
+        }
+        return _firstIp + _used.nextClearBit(0);
+    }
+
+    /**
+     * @return the highest free address or -1 if there is none
+     */
+    public long pickLast() {
+        if (getFreeCount() == 0) {
+            return -1;
+        }
+        return _firstIp + _used.previousClearBit(_size - 1);
+    }
+
+    private int index(long ip) {
+        return (int)(ip - _firstIp);
+    }
+}
@@ -26,7 +26,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
@@ -38,6 +39,7 @@ import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationSe
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.lb.dao.ApplicationLoadBalancerRuleDao;
 import org.apache.cloudstack.region.PortableIp;
 import org.apache.cloudstack.region.PortableIpDao;
 import org.apache.cloudstack.region.PortableIpVO;
@@ -277,6 +279,8 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
     @Inject
     NicSecondaryIpDao _nicSecondaryIpDao;
     @Inject
+    ApplicationLoadBalancerRuleDao _appLbRuleDao;
+    @Inject
     UserIpv6AddressDao _ipv6Dao;
     @Inject
     Ipv6AddressManager _ipv6Mgr;
@@ -299,8 +303,16 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             Boolean.class, "system.vm.public.ip.reservation.mode.strictness", "false",
             "If enabled, the use of System VMs public IP reservation is strict, preferred if not.", false, ConfigKey.Scope.Global);
 
+    private static final ConfigKey<Integer> GuestIpAddressBitmapRefreshInterval = new ConfigKey<Integer>("Advanced",
+            Integer.class, "guest.ip.bitmap.refresh.interval", "300",
+            "Interval in seconds after which the free guest ip address bitmap of a network is rebuilt from the database.", true, ConfigKey.Scope.Global);
+
+    private static final int MAX_GUEST_IP_ACQUIRE_ATTEMPTS = 10;
+
     private Random rand = new Random(System.currentTimeMillis());
 
+    private final Map<Long, GuestIpAddressBitmap> guestIpAddressBitmaps = new ConcurrentHashMap<Long, GuestIpAddressBitmap>();
+
     @DB
     private IPAddressVO assignAndAllocateIpAddressEntry(final Account owner, final VlanType vlanUse, final Long guestNetworkId,
                                                         final boolean sourceNat, final boolean allocate, final boolean isSystem,
@@ -1859,30 +1871,10 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             return null;
         }
 
-        Set<Long> availableIps = _networkModel.getAvailableIps(network, requestedIp);
-
-        if (availableIps == null || availableIps.isEmpty()) {
-            s_logger.debug("There are no free ips in the  network " + network);
-            return null;
-        }
-
-        Long[] array = availableIps.toArray(new Long[availableIps.size()]);
-
         if (requestedIp != null) {
-            // check that requested ip has the same cidr
-            String[] cidr = network.getCidr().split("/");
-            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(array[0]), Integer.parseInt(cidr[1]));
-            if (!isSameCidr) {
-                s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
-                return null;
-            } else if (NetUtils.IsIpEqualToNetworkOrBroadCastIp(requestedIp, cidr[0], Integer.parseInt(cidr[1]))) {
-                s_logger.warn("Requested ip address " + requestedIp + " is equal to the to the network/broadcast ip of the network" + network);
-                return null;
-            }
-            return requestedIp;
+            return acquireRequestedGuestIpAddress(network, requestedIp);
         }
-
-        return NetUtils.long2Ip(array[rand.nextInt(array.length)]);
+        return acquireGuestIpAddressFromBitmap(network, IpPlacement.Random);
     }
 
     @Override
@@ -1890,12 +1882,7 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
         if (_networkModel.listNetworkOfferingServices(network.getNetworkOfferingId()).isEmpty() && network.getCidr() == null) {
             return null;
         }
-        Set<Long> availableIps = _networkModel.getAvailableIps(network, null);
-        if (availableIps == null || availableIps.isEmpty()) {
-            s_logger.debug("There are no free ips in the network " + network);
-            return null;
-        }
-        return NetUtils.long2Ip(availableIps.iterator().next());
+        return acquireGuestIpAddressFromBitmap(network, IpPlacement.First);
     }
 
     @Override
@@ -1903,16 +1890,146 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
         if (_networkModel.listNetworkOfferingServices(network.getNetworkOfferingId()).isEmpty() && network.getCidr() == null) {
             return null;
         }
-        Set<Long> availableIps = _networkModel.getAvailableIps(network, null);
-        if (availableIps == null || availableIps.isEmpty()) {
+        return acquireGuestIpAddressFromBitmap(network, IpPlacement.Last);
+    }
+
+    @Override
+    public void releaseGuestIpAddress(Network network, String ipAddress) {
+        if (ipAddress == null || !NetUtils.isValidIp4(ipAddress)) {
+            return;
+        }
+        final GuestIpAddressBitmap bitmap = guestIpAddressBitmaps.get(network.getId());
+        if (bitmap != null) {
+            synchronized (bitmap) {
+                bitmap.release(NetUtils.ip2Long(ipAddress));
+            }
+        }
+    }
+
+    private String acquireRequestedGuestIpAddress(Network network, String requestedIp) {
+        if (network.getCidr() == null) {
+            s_logger.debug("There are no free ips in the  network " + network);
+            return null;
+        }
+
+        // check that requested ip has the same cidr
+        String[] cidr = network.getCidr().split("/");
+        boolean isSameCidr = NetUtils.isValidIp4(requestedIp) && NetUtils.sameSubnetCIDR(requestedIp, cidr[0], Integer.parseInt(cidr[1]));
+        if (!isSameCidr) {
+            s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
+            return null;
+        } else if (NetUtils.IsIpEqualToNetworkOrBroadCastIp(requestedIp, cidr[0], Integer.parseInt(cidr[1]))) {
+            s_logger.warn("Requested ip address " + requestedIp + " is equal to the to the network/broadcast ip of the network" + network);
+            return null;
+        }
+
+        final GuestIpAddressBitmap bitmap = getGuestIpAddressBitmap(network, false);
+        if (isGuestIpAddressInUse(network, requestedIp)) {
+            s_logger.warn("Requested ip address " + requestedIp + " is already in use in network" + network);
+            synchronized (bitmap) {
+                bitmap.markUsed(NetUtils.ip2Long(requestedIp));
+            }
+            return null;
+        }
+        synchronized (bitmap) {
+            bitmap.markUsed(NetUtils.ip2Long(requestedIp));
+        }
+        return requestedIp;
+    }
+
+    /**
+     * Picks a free address from the bitmap of the network and marks it as used.  The bitmap may miss
+     * addresses allocated by other management servers, so the picked address is checked against the
+     * database and the bitmap is rebuilt once when it turns out to be stale or has no free address left.
+     */
+    private String acquireGuestIpAddressFromBitmap(Network network, IpPlacement placement) {
+        if (network.getCidr() == null) {
             s_logger.debug("There are no free ips in the network " + network);
             return null;
         }
 
-        List<Long> availableIpsReverse = new ArrayList(availableIps);
-        Collections.sort(availableIpsReverse, Collections.reverseOrder());
+        GuestIpAddressBitmap bitmap = getGuestIpAddressBitmap(network, false);
+        boolean rebuilt = false;
+        for (int attempt = 0; attempt < MAX_GUEST_IP_ACQUIRE_ATTEMPTS; attempt++) {
+            long ip;
+            synchronized (bitmap) {
+                ip = pickGuestIpAddress(bitmap, placement);
+                if (ip >= 0) {
+                    bitmap.markUsed(ip);
+                }
+            }
+
+            if (ip < 0) {
+                if (rebuilt) {
+                    break;
+                }
+                bitmap = getGuestIpAddressBitmap(network, true);
+                rebuilt = true;
+                continue;
+            }
+
+            final String ipAddress = NetUtils.long2Ip(ip);
+            if (!isGuestIpAddressInUse(network, ipAddress)) {
+                return ipAddress;
+            }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Guest ip address " + ipAddress + " is already in use in network " + network + ", picking another one");
+            }
+            if (!rebuilt) {
+                bitmap = getGuestIpAddressBitmap(network, true);
+                rebuilt = true;
+            }
+        }
 
-        return NetUtils.long2Ip(availableIpsReverse.iterator().next());
+        s_logger.debug("There are no free ips in the network " + network);
+        return null;
+    }
+
+    private long pickGuestIpAddress(GuestIpAddressBitmap bitmap, IpPlacement placement) {
+        switch (placement) {
+            case First:
+                return bitmap.pickFirst();
+            case Last:
+                return bitmap.pickLast();
+            default:
+                return bitmap.pickRandom(rand);
+        }
+    }
+
+    private boolean isGuestIpAddressInUse(Network network, String ipAddress) {
+        return _nicDao.findByIp4AddressAndNetworkId(ipAddress, network.getId()) != null
+                || _nicSecondaryIpDao.findByIp4AddressAndNetworkId(ipAddress, network.getId()) != null
+                || _appLbRuleDao.countBySourceIp(new Ip(ipAddress), network.getId()) > 0;
+    }
+
+    /**
+     * Returns the free address bitmap of the network, it is built from the addresses used by nics,
+     * secondary ips and internal load balancers when there is none yet, when the cidr or gateway of the
+     * network changed or when it is older than guest.ip.bitmap.refresh.interval.
+     */
+    private GuestIpAddressBitmap getGuestIpAddressBitmap(Network network, boolean rebuild) {
+        final long now = System.currentTimeMillis();
+        final long refreshIntervalMs = GuestIpAddressBitmapRefreshInterval.value() * 1000L;
+        GuestIpAddressBitmap bitmap = guestIpAddressBitmaps.get(network.getId());
+        if (!rebuild && bitmap != null && bitmap.matches(network.getCidr(), network.getGateway()) && now - bitmap.getCreated() < refreshIntervalMs) {
+            return bitmap;
+        }
+
+        bitmap = new GuestIpAddressBitmap(network.getCidr(), network.getGateway());
+        for (String ip : _networkModel.getUsedIpsInNetwork(network)) {
+            if (NetUtils.isValidIp4(ip)) {
+                bitmap.markUsed(NetUtils.ip2Long(ip));
+            }
+        }
+        guestIpAddressBitmaps.put(network.getId(), bitmap);
+
+        // drop the bitmaps of networks that were not used for a while, e.g. removed networks
+        for (Iterator<GuestIpAddressBitmap> it = guestIpAddressBitmaps.values().iterator(); it.hasNext();) {
+            if (now - it.next().getCreated() >= 2 * refreshIntervalMs) {
+                it.remove();
+            }
+        }
+        return bitmap;
     }
 
     @Override
@@ -2222,7 +2339,8 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {UseSystemPublicIps, RulesContinueOnError, SystemVmPublicIpReservationModeStrictness, VrouterRedundantTiersPlacement};
+        return new ConfigKey<?>[] {UseSystemPublicIps, RulesContinueOnError, SystemVmPublicIpReservationModeStrictness, VrouterRedundantTiersPlacement,
+                GuestIpAddressBitmapRefreshInterval};
     }
 
     /**
@@ -855,16 +855,17 @@ Configurable, StateListener<VirtualMachine.State, VirtualMachine.Event, VirtualM
                                 // get all stats with delta > 0
                                 final List<UserStatisticsVO> updatedStats = _userStatsDao.listUpdatedStats();
                                 final Date updatedTime = new Date();
+                                final List<UserStatsLogVO> statsLogs = new ArrayList<UserStatsLogVO>(updatedStats.size());
                                 for (final UserStatisticsVO stat : updatedStats) {
                                     // update agg bytes
                                     stat.setAggBytesReceived(stat.getCurrentBytesReceived() + stat.getNetBytesReceived());
                                     stat.setAggBytesSent(stat.getCurrentBytesSent() + stat.getNetBytesSent());
-                                    _userStatsDao.update(stat.getId(), stat);
                                     // insert into op_user_stats_log
-                                    final UserStatsLogVO statsLog = new UserStatsLogVO(stat.getId(), stat.getNetBytesReceived(), stat.getNetBytesSent(), stat
-                                            .getCurrentBytesReceived(), stat.getCurrentBytesSent(), stat.getAggBytesReceived(), stat.getAggBytesSent(), updatedTime);
-                                    _userStatsLogDao.persist(statsLog);
+                                    statsLogs.add(new UserStatsLogVO(stat.getId(), stat.getNetBytesReceived(), stat.getNetBytesSent(), stat
+                                            .getCurrentBytesReceived(), stat.getCurrentBytesSent(), stat.getAggBytesReceived(), stat.getAggBytesSent(), updatedTime));
                                 }
+                                _userStatsDao.updateAll(updatedStats);
+                                _userStatsLogDao.persistAll(statsLogs);
                                 s_logger.debug("Successfully updated aggregate network stats");
                             }
                         });
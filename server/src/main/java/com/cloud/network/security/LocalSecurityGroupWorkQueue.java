@@ -18,7 +18,9 @@ package com.cloud.network.security;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,6 +45,11 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
     private final Condition _notEmpty = _lock.newCondition();
     private final AtomicInteger _count = new AtomicInteger(0);
 
+    // work by host, in the order the hosts were first queued
+    protected Map<Long, HostWork> _hostWork = new LinkedHashMap<Long, HostWork>();
+    private final Condition _hostWorkNotEmpty = _lock.newCondition();
+    private int _hostWorkCount = 0;
+
     public static class LocalSecurityGroupWork implements SecurityGroupWork, Comparable<LocalSecurityGroupWork> {
         Long _logSequenceNumber;
         Long _instanceId;
@@ -165,6 +172,54 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
 
     }
 
+    @Override
+    public int submitWorkForHost(long hostId, Set<Long> vmIds, Set<Long> groupIds) {
+        int newWork = 0;
+        _lock.lock();
+        try {
+            HostWork work = _hostWork.get(hostId);
+            if (work == null) {
+                work = new HostWork(hostId);
+                _hostWork.put(hostId, work);
+            }
+            for (Long vmId : vmIds) {
+                if (work.getVmIds().add(vmId)) {
+                    newWork++;
+                }
+            }
+            for (Long groupId : groupIds) {
+                if (work.getGroupIds().add(groupId)) {
+                    newWork++;
+                }
+            }
+            _hostWorkCount += newWork;
+            _hostWorkNotEmpty.signal();
+        } finally {
+            _lock.unlock();
+        }
+        return newWork;
+    }
+
+    @Override
+    public HostWork getHostWork() throws InterruptedException {
+        _lock.lock();
+        try {
+            while (_hostWork.isEmpty()) {
+                _hostWorkNotEmpty.await();
+            }
+            Iterator<HostWork> iter = _hostWork.values().iterator();
+            HostWork work = iter.next();
+            iter.remove();
+            _hostWorkCount -= work.getVmIds().size() + work.getGroupIds().size();
+            if (!_hostWork.isEmpty()) {
+                _hostWorkNotEmpty.signal();
+            }
+            return work;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
     private void signalNotEmpty() {
         _lock.lock();
         try {
@@ -176,7 +231,12 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
 
     @Override
     public int size() {
-        return _count.get();
+        _lock.lock();
+        try {
+            return _count.get() + _hostWorkCount;
+        } finally {
+            _lock.unlock();
+        }
     }
 
     @Override
@@ -185,6 +245,8 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
         try {
             _currentWork.clear();
             _count.set(0);
+            _hostWork.clear();
+            _hostWorkCount = 0;
         } finally {
             _lock.unlock();
         }
@@ -200,6 +262,9 @@ public class LocalSecurityGroupWorkQueue implements SecurityGroupWorkQueue {
             while (iter.hasNext()) {
                 vmIds.add(iter.next().getInstanceId());
             }
+            for (HostWork work : _hostWork.values()) {
+                vmIds.addAll(work.getVmIds());
+            }
         } finally {
             _lock.unlock();
         }
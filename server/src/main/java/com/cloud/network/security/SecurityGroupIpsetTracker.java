@@ -0,0 +1,119 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.agent.api.SecurityGroupIpsetsCmd;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd.IpsetDelta;
+
+/**
+ * Keeps the members of the security group ipsets last sent to each host so
+ * that only the changes to them are sent.  A set is sent whole the first
+ * time, after the host reconnected or failed to apply a change, and once the
+ * full sync interval passed.
+ *
+ * Changes are only correct against what the host actually has, so only the
+ * management server owning the host tracks it.  The other management servers
+ * replace the sets whole and tell the owner to forget them, otherwise a member
+ * they added and that left later would never be removed by the owner.
+ */
+public class SecurityGroupIpsetTracker {
+    private static class SentIpset {
+        final Set<String> _members;
+        final long _fullSyncTime;
+
+        SentIpset(Set<String> members, long fullSyncTime) {
+            _members = members;
+            _fullSyncTime = fullSyncTime;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Map<Long, SentIpset>> _sent = new ConcurrentHashMap<Long, Map<Long, SentIpset>>();
+    private final ConcurrentHashMap<Long, Object> _hostLocks = new ConcurrentHashMap<Long, Object>();
+
+    /**
+     * Records the members of the ipset of a group on a host.
+     * @param now the current time, in milliseconds
+     * @param fullSyncIntervalMs how long the host is trusted to have the members sent to it
+     * @return the change to send to the host, null if it has the members already
+     */
+    public IpsetDelta update(long hostId, long groupId, Set<String> members, long now, long fullSyncIntervalMs) {
+        Map<Long, SentIpset> sentToHost = _sent.computeIfAbsent(hostId, id -> new ConcurrentHashMap<Long, SentIpset>());
+        String name = SecurityGroupIpsetsCmd.ipsetName(groupId);
+        SentIpset sent = sentToHost.get(groupId);
+        if (sent == null || now - sent._fullSyncTime >= fullSyncIntervalMs) {
+            sentToHost.put(groupId, new SentIpset(new TreeSet<String>(members), now));
+            return replace(groupId, members);
+        }
+
+        List<String> added = new ArrayList<String>();
+        for (String member : members) {
+            if (!sent._members.contains(member)) {
+                added.add(member);
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String member : sent._members) {
+            if (!members.contains(member)) {
+                removed.add(member);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+        sentToHost.put(groupId, new SentIpset(new TreeSet<String>(members), sent._fullSyncTime));
+        return new IpsetDelta(name, false, added, removed);
+    }
+
+    /**
+     * @return the change replacing the members of the ipset of a group on a host whole.
+     */
+    public static IpsetDelta replace(long groupId, Set<String> members) {
+        return new IpsetDelta(SecurityGroupIpsetsCmd.ipsetName(groupId), true, new ArrayList<String>(members), new ArrayList<String>());
+    }
+
+    /**
+     * Forgets what was sent to a host, its ipsets are sent whole next time.
+     */
+    public void forgetHost(long hostId) {
+        _sent.remove(hostId);
+    }
+
+    /**
+     * Forgets what was sent to a host for a group, its ipset is sent whole next time.
+     */
+    public void forgetGroup(long hostId, long groupId) {
+        Map<Long, SentIpset> sentToHost = _sent.get(hostId);
+        if (sentToHost != null) {
+            sentToHost.remove(groupId);
+        }
+    }
+
+    /**
+     * @return the lock to hold while computing and sending the changes to a
+     * host, so that they reach the host in the order they were computed.
+     */
+    public Object getHostLock(long hostId) {
+        return _hostLocks.computeIfAbsent(hostId, id -> new Object());
+    }
+}
@@ -32,6 +32,7 @@ import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.CleanupNetworkRulesCmd;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.SecurityGroupIpsetsAnswer;
 import com.cloud.agent.api.SecurityGroupRuleAnswer;
 import com.cloud.agent.api.SecurityGroupRuleAnswer.FailureReason;
 import com.cloud.agent.api.StartupCommand;
@@ -84,26 +85,19 @@ public class SecurityGroupListener implements Listener {
 
         for (Answer ans : answers) {
             if (ans instanceof SecurityGroupRuleAnswer) {
-                SecurityGroupRuleAnswer ruleAnswer = (SecurityGroupRuleAnswer)ans;
-                if (ans.getResult()) {
-                    s_logger.debug("Successfully programmed rule " + ruleAnswer.toString() + " into host " + agentId);
-                    _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Done);
-                    recordSuccess(ruleAnswer.getVmId());
-                } else {
-                    _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Error);
-                    ;
-                    s_logger.debug("Failed to program rule " + ruleAnswer.toString() + " into host " + agentId + " due to " + ruleAnswer.getDetails() +
-                        " and updated  jobs");
-                    if (ruleAnswer.getReason() == FailureReason.CANNOT_BRIDGE_FIREWALL) {
-                        s_logger.debug("Not retrying security group rules for vm " + ruleAnswer.getVmId() + " on failure since host " + agentId +
-                            " cannot do bridge firewalling");
-                    } else if (ruleAnswer.getReason() == FailureReason.PROGRAMMING_FAILED) {
-                        if (checkShouldRetryOnFailure(ruleAnswer.getVmId())) {
-                            s_logger.debug("Retrying security group rules on failure for vm " + ruleAnswer.getVmId());
-                            affectedVms.add(ruleAnswer.getVmId());
-                        } else {
-                            s_logger.debug("Not retrying security group rules for vm " + ruleAnswer.getVmId() + " on failure: too many retries");
-                        }
+                processRuleAnswer(agentId, (SecurityGroupRuleAnswer)ans, affectedVms);
+
+                if (_workTracker != null)
+                    _workTracker.processAnswers(agentId, seq, answers);
+            } else if (ans instanceof SecurityGroupIpsetsAnswer) {
+                SecurityGroupIpsetsAnswer ipsetsAnswer = (SecurityGroupIpsetsAnswer)ans;
+                if (!ans.getResult()) {
+                    s_logger.debug("Failed to program security group ipsets into host " + agentId + " due to " + ans.getDetails());
+                    _securityGroupManager.resetHostState(agentId);
+                }
+                if (ipsetsAnswer.getRuleAnswers() != null) {
+                    for (SecurityGroupRuleAnswer ruleAnswer : ipsetsAnswer.getRuleAnswers()) {
+                        processRuleAnswer(agentId, ruleAnswer, affectedVms);
                     }
                 }
 
@@ -119,6 +113,29 @@ public class SecurityGroupListener implements Listener {
         return true;
     }
 
+    private void processRuleAnswer(long agentId, SecurityGroupRuleAnswer ruleAnswer, List<Long> affectedVms) {
+        if (ruleAnswer.getResult()) {
+            s_logger.debug("Successfully programmed rule " + ruleAnswer.toString() + " into host " + agentId);
+            _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Done);
+            recordSuccess(ruleAnswer.getVmId());
+        } else {
+            _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Error);
+            s_logger.debug("Failed to program rule " + ruleAnswer.toString() + " into host " + agentId + " due to " + ruleAnswer.getDetails() +
+                " and updated  jobs");
+            if (ruleAnswer.getReason() == FailureReason.CANNOT_BRIDGE_FIREWALL) {
+                s_logger.debug("Not retrying security group rules for vm " + ruleAnswer.getVmId() + " on failure since host " + agentId +
+                    " cannot do bridge firewalling");
+            } else if (ruleAnswer.getReason() == FailureReason.PROGRAMMING_FAILED) {
+                if (checkShouldRetryOnFailure(ruleAnswer.getVmId())) {
+                    s_logger.debug("Retrying security group rules on failure for vm " + ruleAnswer.getVmId());
+                    affectedVms.add(ruleAnswer.getVmId());
+                } else {
+                    s_logger.debug("Not retrying security group rules for vm " + ruleAnswer.getVmId() + " on failure: too many retries");
+                }
+            }
+        }
+    }
+
     protected boolean checkShouldRetryOnFailure(long vmId) {
         Integer currCount = _vmFailureCounts.get(vmId);
         if (currCount == null)
@@ -176,6 +193,7 @@ public class SecurityGroupListener implements Listener {
             if (_workTracker != null) {
                 _workTracker.processConnect(host.getId());
             }
+            _securityGroupManager.resetHostState(host.getId());
         }
     }
 
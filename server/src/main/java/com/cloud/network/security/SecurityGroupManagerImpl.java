@@ -326,7 +326,12 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         }
 
         private int significance(String cidr) {
-            return Integer.parseInt(cidr.substring(cidr.indexOf('/') + 1));
+            // ipsets of the members of a group come after the cidrs
+            int slash = cidr.indexOf('/');
+            if (slash < 0) {
+                return -1;
+            }
+            return Integer.parseInt(cidr.substring(slash + 1));
         }
 
     }
@@ -500,6 +505,17 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
 
     protected SecurityGroupRulesCmd generateRulesetCmd(String vmName, String guestIp, String guestIp6, String guestMac, Long vmId, String signature, long seqnum,
             Map<PortAndProto, Set<String>> ingressRules, Map<PortAndProto, Set<String>> egressRules, List<String> secIps) {
+        SecurityGroupRulesCmd cmd = buildRulesetCmd(vmName, guestIp, guestIp6, guestMac, vmId, signature, seqnum, ingressRules, egressRules, secIps);
+        final VirtualMachineTO to = getVmTO(vmId);
+        cmd.setVmTO(to);
+        return cmd;
+    }
+
+    /**
+     * Same as generateRulesetCmd, without the vm for the host to check its default rules.
+     */
+    protected SecurityGroupRulesCmd buildRulesetCmd(String vmName, String guestIp, String guestIp6, String guestMac, Long vmId, String signature, long seqnum,
+            Map<PortAndProto, Set<String>> ingressRules, Map<PortAndProto, Set<String>> egressRules, List<String> secIps) {
         List<IpPortAndProto> ingressResult = new ArrayList<IpPortAndProto>();
         List<IpPortAndProto> egressResult = new ArrayList<IpPortAndProto>();
         for (PortAndProto pAp : ingressRules.keySet()) {
@@ -520,9 +536,6 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         }
         SecurityGroupRulesCmd cmd = new SecurityGroupRulesCmd(guestIp, guestIp6, guestMac, vmName, vmId, signature, seqnum, ingressResult.toArray(new IpPortAndProto[ingressResult.size()]),
                 egressResult.toArray(new IpPortAndProto[egressResult.size()]), secIps);
-
-        final VirtualMachineTO to = getVmTO(vmId);
-        cmd.setVmTO(to);
         return cmd;
     }
 
@@ -549,6 +562,13 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         return to;
     }
 
+    /**
+     * Called when a host connects, or fails to apply what was sent to it, to
+     * forget what the host is known to have.
+     */
+    protected void resetHostState(long hostId) {
+    }
+
     protected void handleVmStopped(VMInstanceVO vm) {
         if (vm.getType() != VirtualMachine.Type.User || !isVmSecurityGroupEnabled(vm.getId())) {
             return;
@@ -16,7 +16,11 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,13 +31,23 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.managed.context.ManagedContext;
 
+import com.cloud.agent.api.SecurityGroupIpsetsCmd;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd.IpsetDelta;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.manager.Commands;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.exception.AgentUnavailableException;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.network.security.LocalSecurityGroupWorkQueue.LocalSecurityGroupWork;
 import com.cloud.network.security.SecurityGroupWork.Step;
+import com.cloud.network.security.SecurityGroupWorkQueue.HostWork;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.NumbersUtil;
@@ -41,19 +55,40 @@ import com.cloud.utils.Profiler;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.NicVO;
+import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VirtualMachine.State;
 
 /**
  * Same as the base class -- except it uses the abstracted security group work queue
  *
+ * With network.securitygroups.ipsets.enabled the rules of the vms on KVM hosts
+ * match the members of the groups they allow with an ipset per group, and the
+ * work is queued by host: the rules of the vms and the changes to the ipsets of
+ * a host are sent to it in one command.  A vm joining or leaving a group then
+ * changes the ipset of the group on the hosts instead of the rules of every vm
+ * allowing the group.
  */
-public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
+public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl implements Configurable {
+    static final ConfigKey<Boolean> SecurityGroupIpsets = new ConfigKey<Boolean>("Advanced", Boolean.class, "network.securitygroups.ipsets.enabled", "false",
+            "Whether the rules of the vms on KVM hosts match the members of the security groups they allow with an ipset per group, updated on each host as vms join and leave "
+            + "the group, instead of listing every member in the rules of every vm. Needs a restart of the management server.", false);
+    static final ConfigKey<Integer> SecurityGroupIpsetsFullSyncInterval = new ConfigKey<Integer>("Advanced", Integer.class, "network.securitygroups.ipsets.full.sync.interval", "600",
+            "Seconds after which the members of a security group ipset are sent whole to a host again, instead of only the changes to them", true);
+
+    static final String IPSET_NOTIFICATION_TOPIC = "security.group.ipsets";
+
     SecurityGroupWorkQueue _workQueue = new LocalSecurityGroupWorkQueue();
     SecurityGroupWorkTracker _workTracker;
     SecurityManagerMBeanImpl _mBean;
+    SecurityGroupIpsetTracker _ipsetTracker = new SecurityGroupIpsetTracker();
+    boolean _ipsetsEnabled = false;
 
     @Inject
     ManagedContext _managedContext;
+    @Inject
+    HostDao _hostDao;
+    @Inject
+    ClusterManager _clusterMgr;
 
     WorkerThread[] _workers;
     private Set<Long> _disabledVms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
@@ -118,7 +153,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                 throw new CloudRuntimeException("Failed to create ruleset log entries");
             }
         }
-        int newJobs = _workQueue.submitWorkForVms(workItems);
+        int newJobs = _ipsetsEnabled ? submitWorkForHosts(workItems) : _workQueue.submitWorkForVms(workItems);
         _mBean.logScheduledDetails(workItems);
         p.stop();
         if (s_logger.isDebugEnabled()) {
@@ -135,34 +170,285 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return true;
     }
 
+    /**
+     * Queues the vms by the host they run on, the vms that do not run are left out
+     * as there is no host to send their rules to.
+     */
+    protected int submitWorkForHosts(Set<Long> vmIds) {
+        Map<Long, Set<Long>> vmsByHost = new HashMap<Long, Set<Long>>();
+        for (UserVmVO vm : _userVMDao.listByIds(new ArrayList<Long>(vmIds))) {
+            if (vm.getHostId() == null) {
+                continue;
+            }
+            Set<Long> vms = vmsByHost.get(vm.getHostId());
+            if (vms == null) {
+                vms = new TreeSet<Long>();
+                vmsByHost.put(vm.getHostId(), vms);
+            }
+            vms.add(vm.getId());
+        }
+        int newJobs = 0;
+        for (Map.Entry<Long, Set<Long>> entry : vmsByHost.entrySet()) {
+            newJobs += _workQueue.submitWorkForHost(entry.getKey(), entry.getValue(), Collections.<Long> emptySet());
+        }
+        return newJobs;
+    }
+
     @Override
     public void work() {
+        if (_ipsetsEnabled) {
+            workOnHost();
+            return;
+        }
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
             workItems = _workQueue.getWork(1);
             for (SecurityGroupWork work : workItems) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Processing " + work.getInstanceId());
+                processVmWork(work);
+            }
+        } catch (InterruptedException e1) {
+            s_logger.warn("SG work: caught InterruptException", e1);
+        }
+    }
+
+    protected void processVmWork(SecurityGroupWork work) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Processing " + work.getInstanceId());
+        }
+
+        try {
+            VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
+            if (rulesetLog == null) {
+                s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
+                return;
+            }
+            work.setLogsequenceNumber(rulesetLog.getLogsequence());
+            sendRulesetUpdates(work);
+            _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
+        } catch (Exception e) {
+            s_logger.error("Problem during SG work " + work, e);
+            work.setStep(Step.Error);
+        }
+    }
+
+    protected void workOnHost() {
+        s_logger.trace("Checking the host work queue");
+        HostWork work;
+        try {
+            work = _workQueue.getHostWork();
+        } catch (InterruptedException e) {
+            s_logger.warn("SG work: caught InterruptException", e);
+            return;
+        }
+        try {
+            sendHostUpdates(work);
+        } catch (Exception e) {
+            s_logger.error("Problem during SG work for host " + work.getHostId(), e);
+        }
+    }
+
+    /**
+     * Sends the rules of the vms of the work, and the changes to the ipsets of the
+     * groups they allow and of the groups of the work, to the host in one command.
+     * The vms on hosts of other hypervisors get their rules one by one as before.
+     */
+    protected void sendHostUpdates(HostWork work) {
+        long hostId = work.getHostId();
+        synchronized (_ipsetTracker.getHostLock(hostId)) {
+            Set<Long> groupIds = new TreeSet<Long>(work.getGroupIds());
+            List<SecurityGroupRulesCmd> ruleCmds = new ArrayList<SecurityGroupRulesCmd>();
+            List<UserVmVO> vms = work.getVmIds().isEmpty() ? Collections.<UserVmVO> emptyList() : _userVMDao.listByIds(new ArrayList<Long>(work.getVmIds()));
+            for (UserVmVO vm : vms) {
+                if (vm.getHypervisorType() != HypervisorType.KVM) {
+                    processVmWork(new LocalSecurityGroupWork(vm.getId(), null, Step.Processing));
+                    continue;
+                }
+                SecurityGroupRulesCmd cmd = generateIpsetRulesetCmd(vm, hostId, groupIds);
+                if (cmd != null) {
+                    ruleCmds.add(cmd);
                 }
+            }
 
-                try {
-                    VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
-                    if (rulesetLog == null) {
-                        s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
-                        continue;
+            // only the owner of the host knows what the host has, the others replace the sets whole
+            boolean ownsHost = ownsHost(hostId);
+            List<IpsetDelta> ipsets = new ArrayList<IpsetDelta>();
+            long now = System.currentTimeMillis();
+            long fullSyncInterval = SecurityGroupIpsetsFullSyncInterval.value() * 1000L;
+            for (Long groupId : groupIds) {
+                if (!ownsHost) {
+                    _ipsetTracker.forgetGroup(hostId, groupId);
+                    ipsets.add(SecurityGroupIpsetTracker.replace(groupId, getGroupMembers(groupId)));
+                    continue;
+                }
+                IpsetDelta delta = _ipsetTracker.update(hostId, groupId, getGroupMembers(groupId), now, fullSyncInterval);
+                if (delta != null) {
+                    ipsets.add(delta);
+                }
+            }
+            if (ruleCmds.isEmpty() && ipsets.isEmpty()) {
+                return;
+            }
+
+            SecurityGroupIpsetsCmd cmd = new SecurityGroupIpsetsCmd(ipsets, ruleCmds);
+            cmd.setMsId(_serverId);
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("SecurityGroupManager v2: sending ruleset updates for " + ruleCmds.size() + " vms and " + ipsets.size() + " ipsets to host " + hostId);
+            }
+            try {
+                _agentMgr.send(hostId, new Commands(cmd), _answerListener);
+                for (SecurityGroupRulesCmd ruleCmd : ruleCmds) {
+                    _mBean.logUpdateDetails(ruleCmd.getVmId(), ruleCmd.getSeqNum());
+                }
+            } catch (AgentUnavailableException e) {
+                s_logger.debug("Unable to send updates for " + ruleCmds.size() + " vms to host " + hostId);
+                _ipsetTracker.forgetHost(hostId);
+                _workTracker.handleException(hostId);
+            }
+            if (!ownsHost && !groupIds.isEmpty()) {
+                notifyIpsetsReplaced(hostId, groupIds);
+            }
+        }
+    }
+
+    protected boolean ownsHost(long hostId) {
+        HostVO host = _hostDao.findById(hostId);
+        return host != null && host.getManagementServerId() != null && host.getManagementServerId() == _serverId;
+    }
+
+    /**
+     * Tells the owner of the host that the ipsets of the groups were replaced by
+     * another management server, so that it sends them whole next time.
+     */
+    protected void notifyIpsetsReplaced(long hostId, Set<Long> groupIds) {
+        StringBuilder message = new StringBuilder().append(hostId);
+        for (Long groupId : groupIds) {
+            message.append(',').append(groupId);
+        }
+        try {
+            _clusterMgr.notifyPeers(IPSET_NOTIFICATION_TOPIC, message.toString());
+        } catch (Exception e) {
+            s_logger.warn("Unable to notify management servers of the ipsets replaced on host " + hostId, e);
+        }
+    }
+
+    protected void onIpsetsReplaced(String sourcePeer, String message) {
+        try {
+            String[] ids = message.split(",");
+            long hostId = Long.parseLong(ids[0]);
+            synchronized (_ipsetTracker.getHostLock(hostId)) {
+                for (int i = 1; i < ids.length; i++) {
+                    _ipsetTracker.forgetGroup(hostId, Long.parseLong(ids[i]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid security group ipsets notification from management server " + sourcePeer + ": " + message);
+        }
+    }
+
+    /**
+     * @param groupIds the groups whose ipsets the rules refer to are added to it
+     * @return the rules of the vm, null if it is not running on the host
+     */
+    protected SecurityGroupRulesCmd generateIpsetRulesetCmd(UserVmVO vm, long hostId, Set<Long> groupIds) {
+        if (vm.getState() != State.Running || vm.getHostId() == null) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("No rules sent to vm " + vm + "state=" + vm.getState());
+            }
+            return null;
+        }
+        if (vm.getHostId() != hostId) {
+            // moved since it was queued
+            _workQueue.submitWorkForHost(vm.getHostId(), Collections.singleton(vm.getId()), Collections.<Long> emptySet());
+            return null;
+        }
+        VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(vm.getId());
+        if (rulesetLog == null) {
+            s_logger.warn("Could not find ruleset log for vm " + vm.getId());
+            return null;
+        }
+        NicVO nic = _nicDao.findFirstNicForVM(vm.getId());
+        if (nic == null) {
+            return null;
+        }
+        List<String> nicSecIps = null;
+        if (nic.getSecondaryIp()) {
+            nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
+        }
+        Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(vm.getId(), SecurityRuleType.IngressRule, true);
+        Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(vm.getId(), SecurityRuleType.EgressRule, true);
+        for (Map<PortAndProto, Set<String>> rules : Arrays.asList(ingressRules, egressRules)) {
+            for (Set<String> targets : rules.values()) {
+                for (String target : targets) {
+                    Long groupId = SecurityGroupIpsetsCmd.securityGroupIdOf(target);
+                    if (groupId != null) {
+                        groupIds.add(groupId);
                     }
-                    work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
-                    _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
-                } catch (Exception e) {
-                    s_logger.error("Problem during SG work " + work, e);
-                    work.setStep(Step.Error);
                 }
             }
-        } catch (InterruptedException e1) {
-            s_logger.warn("SG work: caught InterruptException", e1);
         }
+        SecurityGroupRulesCmd cmd = buildRulesetCmd(vm.getInstanceName(), nic.getIPv4Address(), nic.getIPv6Address(), vm.getPrivateMacAddress(), vm.getId(), null,
+                rulesetLog.getLogsequence(), ingressRules, egressRules, nicSecIps);
+        cmd.setMsId(_serverId);
+        return cmd;
+    }
+
+    /**
+     * @return the addresses of the running members of the group, as in the rules of the vms allowing it
+     */
+    protected Set<String> getGroupMembers(long groupId) {
+        Set<String> members = new TreeSet<String>();
+        for (SecurityGroupVMMapVO ngmapVO : _securityGroupVMMapDao.listBySecurityGroup(groupId, State.Running)) {
+            if (ngmapVO.getGuestIpAddress() != null) {
+                members.add(ngmapVO.getGuestIpAddress() + "/32");
+            }
+        }
+        return members;
+    }
+
+    /**
+     * With ipsets the rules of the vms on KVM hosts do not change with the members of
+     * the groups they allow, the ipsets of the allowed groups are queued for their
+     * hosts instead and only the vms on other hosts are affected.
+     */
+    @Override
+    protected List<Long> getAffectedVmsForSecurityRules(List<SecurityGroupRuleVO> allowingRules) {
+        if (!_ipsetsEnabled) {
+            return super.getAffectedVmsForSecurityRules(allowingRules);
+        }
+        Set<Long> distinctGroups = new HashSet<Long>();
+        Set<Long> allowedGroups = new HashSet<Long>();
+        for (SecurityGroupRuleVO allowingRule : allowingRules) {
+            distinctGroups.add(allowingRule.getSecurityGroupId());
+            if (allowingRule.getAllowedNetworkId() != null) {
+                allowedGroups.add(allowingRule.getAllowedNetworkId());
+            }
+        }
+        List<Long> vmIds = new ArrayList<Long>();
+        for (Long groupId : distinctGroups) {
+            vmIds.addAll(_securityGroupVMMapDao.listVmIdsBySecurityGroup(groupId));
+        }
+
+        List<Long> affectedVms = new ArrayList<Long>();
+        Set<Long> hostIds = new TreeSet<Long>();
+        for (UserVmVO vm : _userVMDao.listByIds(vmIds)) {
+            if (vm.getHypervisorType() == HypervisorType.KVM) {
+                if (vm.getHostId() != null) {
+                    hostIds.add(vm.getHostId());
+                }
+            } else {
+                affectedVms.add(vm.getId());
+            }
+        }
+        for (Long hostId : hostIds) {
+            _workQueue.submitWorkForHost(hostId, Collections.<Long> emptySet(), allowedGroups);
+        }
+        return affectedVms;
+    }
+
+    @Override
+    protected void resetHostState(long hostId) {
+        _ipsetTracker.forgetHost(hostId);
     }
 
     public void sendRulesetUpdates(SecurityGroupWork work) {
@@ -229,6 +515,13 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
      */
     @Override
     protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type) {
+        return generateRulesForVM(userVmId, type, false);
+    }
+
+    /**
+     * @param useIpsets whether an allowed group is the name of its ipset instead of the addresses of its members
+     */
+    protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type, boolean useIpsets) {
 
         Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
 
@@ -241,7 +534,9 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                 if (cidrs == null) {
                     cidrs = new TreeSet<String>(new CidrComparator());
                 }
-                if (rule.getAllowedNetworkId() != null) {
+                if (rule.getAllowedNetworkId() != null && useIpsets) {
+                    cidrs.add(SecurityGroupRulesCmd.IPSET_PREFIX + SecurityGroupIpsetsCmd.ipsetName(rule.getAllowedNetworkId()));
+                } else if (rule.getAllowedNetworkId() != null) {
                     List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
                     for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
                         //here, we differ from the superclass: instead of creating N more queries to the
@@ -279,6 +574,15 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
             s_logger.error("Failed to register MBean", e);
         }
         boolean result = super.configure(name, params);
+        _ipsetsEnabled = SecurityGroupIpsets.value();
+        if (_ipsetsEnabled) {
+            _clusterMgr.registerNotificationListener(IPSET_NOTIFICATION_TOPIC, new ClusterManager.NotificationListener() {
+                @Override
+                public void onNotification(String sourcePeer, String message) {
+                    onIpsetsReplaced(sourcePeer, message);
+                }
+            });
+        }
         Map<String, String> configs = _configDao.getConfiguration("Network", params);
         int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
         _workTracker = new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
@@ -286,6 +590,16 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return result;
     }
 
+    @Override
+    public String getConfigComponentName() {
+        return SecurityGroupManagerImpl2.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {SecurityGroupIpsets, SecurityGroupIpsetsFullSyncInterval};
+    }
+
     public void disableSchedulerForVm(Long vmId, boolean disable) {
         if (disable) {
             _disabledVms.add(vmId);
@@ -18,6 +18,7 @@ package com.cloud.network.security;
 
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Security Group Work queue
@@ -26,12 +27,49 @@ import java.util.Set;
  */
 public interface SecurityGroupWorkQueue {
 
+    /**
+     * Rules of vms and members of security groups to send to a host together.
+     */
+    class HostWork {
+        private final long _hostId;
+        private final Set<Long> _vmIds = new TreeSet<Long>();
+        private final Set<Long> _groupIds = new TreeSet<Long>();
+
+        public HostWork(long hostId) {
+            _hostId = hostId;
+        }
+
+        public long getHostId() {
+            return _hostId;
+        }
+
+        public Set<Long> getVmIds() {
+            return _vmIds;
+        }
+
+        public Set<Long> getGroupIds() {
+            return _groupIds;
+        }
+    }
+
     void submitWorkForVm(long vmId, long sequenceNumber);
 
     int submitWorkForVms(Set<Long> vmIds);
 
     List<SecurityGroupWork> getWork(int numberOfWorkItems) throws InterruptedException;
 
+    /**
+     * Queues the rules of the vms and the members of the groups for a host, merged
+     * with the work already queued for the same host, vms and groups.
+     * @return the number of vms and groups that were not queued for the host yet
+     */
+    int submitWorkForHost(long hostId, Set<Long> vmIds, Set<Long> groupIds);
+
+    /**
+     * Takes the work queued for a host, waiting for some if there is none.
+     */
+    HostWork getHostWork() throws InterruptedException;
+
     int size();
 
     void clear();
@@ -0,0 +1,200 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Runs one collection cycle of a stats collector over its hosts or pools on a
+ * bounded pool of workers shared by all collectors.  Each item that runs longer
+ * than the item timeout is interrupted and counted as a timeout, so a few
+ * unresponsive hosts cannot hold up the whole cycle.
+ */
+public class StatsCollectionPipeline extends StandardMBean implements StatsCollectionPipelineMBean {
+    private static final Logger s_logger = Logger.getLogger(StatsCollectionPipeline.class);
+
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    public interface ItemCollector<T> {
+        void collect(T item) throws Exception;
+    }
+
+    private final int _parallelism;
+    private final ExecutorService _workers;
+    private final Map<String, CollectorStatistics> _statistics = new ConcurrentHashMap<String, CollectorStatistics>();
+
+    public StatsCollectionPipeline(int parallelism) {
+        super(StatsCollectionPipelineMBean.class, false);
+        _parallelism = Math.max(1, parallelism);
+        _workers = Executors.newFixedThreadPool(_parallelism, new NamedThreadFactory("StatsCollector-Worker"));
+    }
+
+    /**
+     * Collects all items and returns once every item has completed, failed or timed out.
+     */
+    public <T> void run(final String collectorName, final Collection<T> items, final long itemTimeoutMs, final ItemCollector<T> collector) {
+        final CollectorStatistics statistics = _statistics.computeIfAbsent(collectorName, CollectorStatistics::new);
+        final long cycleStart = System.currentTimeMillis();
+
+        final CompletionService<Void> completion = new ExecutorCompletionService<Void>(_workers);
+        final Map<Future<Void>, ItemTask<T>> pending = new HashMap<Future<Void>, ItemTask<T>>();
+        for (final T item : items) {
+            final ItemTask<T> task = new ItemTask<T>(item, collector, statistics);
+            pending.put(completion.submit(task, null), task);
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                final Future<Void> done = completion.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    pending.remove(done);
+                    continue;
+                }
+
+                final long now = System.currentTimeMillis();
+                for (final Map.Entry<Future<Void>, ItemTask<T>> entry : pending.entrySet()) {
+                    final long startedAt = entry.getValue().startedAt;
+                    if (startedAt > 0 && now - startedAt > itemTimeoutMs && entry.getKey().cancel(true)) {
+                        statistics.timeouts.incrementAndGet();
+                        s_logger.warn(collectorName + " timed out after " + (now - startedAt) + "ms collecting stats for " + entry.getValue().item);
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            for (final Future<Void> future : pending.keySet()) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+
+        final long duration = System.currentTimeMillis() - cycleStart;
+        statistics.recordCycle(items.size(), duration);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(collectorName + " collected stats for " + items.size() + " items in " + duration + "ms");
+        }
+    }
+
+    public void shutdown() {
+        _workers.shutdownNow();
+    }
+
+    @Override
+    public int getParallelism() {
+        return _parallelism;
+    }
+
+    @Override
+    public List<Map<String, String>> getCollectorStatistics() {
+        final List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+        for (final CollectorStatistics statistics : _statistics.values()) {
+            result.add(statistics.toMap());
+        }
+        return result;
+    }
+
+    CollectorStatistics getStatistics(String collectorName) {
+        return _statistics.get(collectorName);
+    }
+
+    private static class ItemTask<T> extends ManagedContextRunnable {
+        final T item;
+        final ItemCollector<T> collector;
+        final CollectorStatistics statistics;
+        volatile long startedAt;
+
+        ItemTask(final T item, final ItemCollector<T> collector, final CollectorStatistics statistics) {
+            this.item = item;
+            this.collector = collector;
+            this.statistics = statistics;
+        }
+
+        @Override
+        protected void runInContext() {
+            startedAt = System.currentTimeMillis();
+            try {
+                collector.collect(item);
+            } catch (final Exception e) {
+                statistics.failures.incrementAndGet();
+                s_logger.warn(statistics.name + " failed to collect stats for " + item, e);
+            } finally {
+                statistics.recordItem(System.currentTimeMillis() - startedAt);
+            }
+        }
+    }
+
+    static class CollectorStatistics {
+        final String name;
+        final AtomicLong cycles = new AtomicLong();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong totalItemMs = new AtomicLong();
+        final AtomicLong maxItemMs = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        volatile long lastCycleMs;
+        volatile int lastCycleItems;
+
+        CollectorStatistics(final String name) {
+            this.name = name;
+        }
+
+        void recordItem(final long durationMs) {
+            items.incrementAndGet();
+            totalItemMs.addAndGet(durationMs);
+            maxItemMs.accumulateAndGet(durationMs, Math::max);
+        }
+
+        void recordCycle(final int size, final long durationMs) {
+            cycles.incrementAndGet();
+            lastCycleItems = size;
+            lastCycleMs = durationMs;
+        }
+
+        Map<String, String> toMap() {
+            final long count = items.get();
+            final Map<String, String> map = new HashMap<String, String>();
+            map.put("collector", name);
+            map.put("cycles", Long.toString(cycles.get()));
+            map.put("lastCycleMs", Long.toString(lastCycleMs));
+            map.put("lastCycleItems", Integer.toString(lastCycleItems));
+            map.put("items", Long.toString(count));
+            map.put("avgItemMs", count == 0 ? "0" : String.format("%.2f", (double)totalItemMs.get() / count));
+            map.put("maxItemMs", Long.toString(maxItemMs.get()));
+            map.put("timeouts", Long.toString(timeouts.get()));
+            map.put("failures", Long.toString(failures.get()));
+            return map;
+        }
+    }
+}
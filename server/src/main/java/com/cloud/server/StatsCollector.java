@@ -131,6 +131,7 @@ import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.MacAddress;
 import com.cloud.vm.NicVO;
 import com.cloud.vm.UserVmManager;
@@ -215,10 +216,13 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private static final ConfigKey<String> statsOutputUri = new ConfigKey<String>("Advanced", String.class, "stats.output.uri", "",
             "URI to send StatsCollector statistics to. The collector is defined on the URI scheme. Example: graphite://graphite-hostaddress:port or influxdb://influxdb-hostaddress/dbname. Note that the port is optional, if not added the default port for the respective collector (graphite or influxdb) will be used. Additionally, the database name '/dbname' is  also optional; default db name is 'cloudstack'. You must create and configure the database if using influxdb.",
             true);
+    private static final ConfigKey<Integer> statsCollectionParallelism = new ConfigKey<Integer>("Advanced", Integer.class, "stats.collection.parallelism", "16",
+            "Number of hosts or storage pools the host, VM, volume and storage stats collectors query in parallel. Requires a restart.", false);
 
     private static StatsCollector s_instance = null;
 
     private ScheduledExecutorService _executor = null;
+    private StatsCollectionPipeline _pipeline = null;
     @Inject
     private AgentManager _agentMgr;
     @Inject
@@ -329,8 +333,33 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return true;
     }
 
+    @Override
+    public boolean stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        if (_pipeline != null) {
+            _pipeline.shutdown();
+            try {
+                JmxUtil.unregisterMBean("StatsCollector", "Pipeline");
+            } catch (Exception e) {
+                s_logger.warn("Unable to unregister stats collection pipeline MBean", e);
+            }
+            _pipeline = null;
+        }
+        return true;
+    }
+
     protected void init(Map<String, String> configs) {
         _executor = Executors.newScheduledThreadPool(6, new NamedThreadFactory("StatsCollector"));
+        if (_pipeline == null) {
+            _pipeline = new StatsCollectionPipeline(statsCollectionParallelism.value());
+            try {
+                JmxUtil.registerMBean("StatsCollector", "Pipeline", _pipeline);
+            } catch (Exception e) {
+                s_logger.warn("Unable to register stats collection pipeline MBean", e);
+            }
+        }
 
         hostStatsInterval = NumbersUtil.parseLong(configs.get("host.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
         hostAndVmStatsInterval = NumbersUtil.parseLong(configs.get("vm.stats.interval"), ONE_MINUTE_IN_MILLISCONDS);
@@ -504,10 +533,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
                 SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
 
-                Map<Object, Object> metrics = new HashMap<>();
+                final Map<Object, Object> metrics = new ConcurrentHashMap<>();
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                for (HostVO host : hosts) {
+                _pipeline.run("HostCollector", hosts, getStatsCollectionItemTimeout(), host -> {
                     HostStatsEntry hostStatsEntry = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
                     if (hostStatsEntry != null) {
                         hostStatsEntry.setHostVo(host);
@@ -516,7 +545,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     } else {
                         s_logger.warn("The Host stats is null for host: " + host.getId());
                     }
-                }
+                });
 
                 if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
                     sendMetricsToInfluxdb(metrics);
@@ -565,54 +594,60 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 SearchCriteria<HostVO> sc = createSearchCriteriaForHostTypeRoutingStateUpAndNotInMaintenance();
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                Map<Object, Object> metrics = new HashMap<>();
-
-                for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
-
-                    for (UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
-                    }
-
-                    try {
-                        Map<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+                _pipeline.run("VmStatsCollector", hosts, getStatsCollectionItemTimeout(), host -> collectVmStats(host));
+            } catch (Throwable t) {
+                s_logger.error("Error trying to retrieve VM stats", t);
+            }
+        }
 
-                        if (vmStatsById != null) {
-                            Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsForCurrentIteration.setVmId(vmId);
-                                UserVmVO userVmVo = _userVmDao.findById(vmId);
-                                statsForCurrentIteration.setUserVmVO(userVmVo);
+        /**
+         * Collects the stats of the VMs running on the host; the running VMs are listed once so
+         * the stats entries need no lookup per VM.
+         */
+        private void collectVmStats(HostVO host) {
+            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+            Map<Long, UserVmVO> vmsById = new HashMap<Long, UserVmVO>();
+            for (UserVmVO vm : vms) {
+                vmsById.put(vm.getId(), vm);
+            }
 
-                                storeVirtualMachineStatsInMemory(statsForCurrentIteration);
+            Map<Long, VmStatsEntry> vmStatsById;
+            try {
+                vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), new ArrayList<Long>(vmsById.keySet()));
+            } catch (Exception e) {
+                s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
+                return;
+            }
+            if (vmStatsById == null) {
+                return;
+            }
 
-                                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
-                                    prepareVmMetricsForGraphite(metrics, statsForCurrentIteration);
-                                } else {
-                                    metrics.put(statsForCurrentIteration.getVmId(), statsForCurrentIteration);
-                                }
-                            }
+            Map<Object, Object> metrics = new HashMap<>();
+            for (Map.Entry<Long, VmStatsEntry> entry : vmStatsById.entrySet()) {
+                Long vmId = entry.getKey();
+                VmStatsEntry statsForCurrentIteration = entry.getValue();
+                statsForCurrentIteration.setVmId(vmId);
+                UserVmVO userVmVo = vmsById.get(vmId);
+                if (userVmVo == null) {
+                    userVmVo = _userVmDao.findById(vmId);
+                }
+                statsForCurrentIteration.setUserVmVO(userVmVo);
 
-                            if (!metrics.isEmpty()) {
-                                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
-                                    sendVmMetricsToGraphiteHost(metrics, host);
-                                } else if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
-                                    sendMetricsToInfluxdb(metrics);
-                                }
-                            }
+                storeVirtualMachineStatsInMemory(statsForCurrentIteration);
 
-                            metrics.clear();
-                        }
-                    } catch (Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
-                    }
+                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+                    prepareVmMetricsForGraphite(metrics, statsForCurrentIteration);
+                } else {
+                    metrics.put(statsForCurrentIteration.getVmId(), statsForCurrentIteration);
                 }
+            }
 
-            } catch (Throwable t) {
-                s_logger.error("Error trying to retrieve VM stats", t);
+            if (!metrics.isEmpty()) {
+                if (externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+                    sendVmMetricsToGraphiteHost(metrics, host);
+                } else if (externalStatsType == ExternalStatsProtocol.INFLUXDB) {
+                    sendMetricsToInfluxdb(metrics);
+                }
             }
         }
 
@@ -622,6 +657,14 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         }
     }
 
+    /**
+     * Time a single host or pool may take before the pipeline gives up on it, leaves
+     * room for the agent side stats.timeout to fire first.
+     */
+    protected long getStatsCollectionItemTimeout() {
+        return 2L * StatsTimeout.value();
+    }
+
     public VmStats getVmStats(long id) {
         return _VmStats.get(id);
     }
@@ -646,15 +689,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             public void doInTransactionWithoutResult(TransactionStatus status) {
                                 //get all stats with delta > 0
                                 List<VmDiskStatisticsVO> updatedVmNetStats = _vmDiskStatsDao.listUpdatedStats();
-                                for (VmDiskStatisticsVO stat : updatedVmNetStats) {
-                                    if (_dailyOrHourly) {
+                                if (_dailyOrHourly) {
+                                    for (VmDiskStatisticsVO stat : updatedVmNetStats) {
                                         //update agg bytes
                                         stat.setAggBytesRead(stat.getCurrentBytesRead() + stat.getNetBytesRead());
                                         stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
                                         stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
                                         stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
                                     }
+                                    _vmDiskStatsDao.updateAll(updatedVmNetStats);
                                 }
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
@@ -926,48 +969,49 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             try {
                 List<StoragePoolVO> pools = _storagePoolDao.listAll();
 
-                for (StoragePoolVO pool : pools) {
-                    List<VolumeVO> volumes = _volsDao.findByPoolId(pool.getId(), null);
-                    List<String> volumeLocators = new ArrayList<String>();
-                    for (VolumeVO volume : volumes) {
-                        if (volume.getFormat() == ImageFormat.QCOW2 || volume.getFormat() == ImageFormat.VHD) {
-                            volumeLocators.add(volume.getPath());
-                        } else if (volume.getFormat() == ImageFormat.OVA) {
-                            volumeLocators.add(volume.getChainInfo());
-                        } else {
-                            s_logger.warn("Volume stats not implemented for this format type " + volume.getFormat());
-                            break;
+                _pipeline.run("VolumeStatsTask", pools, getStatsCollectionItemTimeout(), pool -> collectVolumeStats(pool));
+            } catch (Throwable t) {
+                s_logger.error("Error trying to retrieve volume stats", t);
+            }
+        }
+
+        private void collectVolumeStats(StoragePoolVO pool) {
+            List<VolumeVO> volumes = _volsDao.findByPoolId(pool.getId(), null);
+            List<String> volumeLocators = new ArrayList<String>();
+            for (VolumeVO volume : volumes) {
+                if (volume.getFormat() == ImageFormat.QCOW2 || volume.getFormat() == ImageFormat.VHD) {
+                    volumeLocators.add(volume.getPath());
+                } else if (volume.getFormat() == ImageFormat.OVA) {
+                    volumeLocators.add(volume.getChainInfo());
+                } else {
+                    s_logger.warn("Volume stats not implemented for this format type " + volume.getFormat());
+                    break;
+                }
+            }
+            try {
+                Map<String, VolumeStatsEntry> volumeStatsByUuid;
+                if (pool.getScope() == ScopeType.ZONE) {
+                    volumeStatsByUuid = new HashMap<>();
+                    for (final Cluster cluster : _clusterDao.listByZoneId(pool.getDataCenterId())) {
+                        final Map<String, VolumeStatsEntry> volumeStatsForCluster = _userVmMgr.getVolumeStatistics(cluster.getId(), pool.getUuid(), pool.getPoolType(),
+                                volumeLocators, StatsTimeout.value());
+                        if (volumeStatsForCluster != null) {
+                            volumeStatsByUuid.putAll(volumeStatsForCluster);
                         }
                     }
-                    try {
-                        Map<String, VolumeStatsEntry> volumeStatsByUuid;
-                        if (pool.getScope() == ScopeType.ZONE) {
-                            volumeStatsByUuid = new HashMap<>();
-                            for (final Cluster cluster : _clusterDao.listByZoneId(pool.getDataCenterId())) {
-                                final Map<String, VolumeStatsEntry> volumeStatsForCluster = _userVmMgr.getVolumeStatistics(cluster.getId(), pool.getUuid(), pool.getPoolType(),
-                                        volumeLocators, StatsTimeout.value());
-                                if (volumeStatsForCluster != null) {
-                                    volumeStatsByUuid.putAll(volumeStatsForCluster);
-                                }
-                            }
-                        } else {
-                            volumeStatsByUuid = _userVmMgr.getVolumeStatistics(pool.getClusterId(), pool.getUuid(), pool.getPoolType(), volumeLocators, StatsTimeout.value());
-                        }
-                        if (volumeStatsByUuid != null) {
-                            for (final Map.Entry<String, VolumeStatsEntry> entry : volumeStatsByUuid.entrySet()) {
-                                if (entry == null || entry.getKey() == null || entry.getValue() == null) {
-                                    continue;
-                                }
-                                _volumeStats.put(entry.getKey(), entry.getValue());
-                            }
+                } else {
+                    volumeStatsByUuid = _userVmMgr.getVolumeStatistics(pool.getClusterId(), pool.getUuid(), pool.getPoolType(), volumeLocators, StatsTimeout.value());
+                }
+                if (volumeStatsByUuid != null) {
+                    for (final Map.Entry<String, VolumeStatsEntry> entry : volumeStatsByUuid.entrySet()) {
+                        if (entry == null || entry.getKey() == null || entry.getValue() == null) {
+                            continue;
                         }
-                    } catch (Exception e) {
-                        s_logger.warn("Failed to get volume stats for cluster with ID: " + pool.getClusterId(), e);
-                        continue;
+                        _volumeStats.put(entry.getKey(), entry.getValue());
                     }
                 }
-            } catch (Throwable t) {
-                s_logger.error("Error trying to retrieve volume stats", t);
+            } catch (Exception e) {
+                s_logger.warn("Failed to get volume stats for cluster with ID: " + pool.getClusterId(), e);
             }
         }
     }
@@ -988,10 +1032,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 }
 
                 List<DataStore> stores = _dataStoreMgr.listImageStores();
-                ConcurrentHashMap<Long, StorageStats> storageStats = new ConcurrentHashMap<Long, StorageStats>();
-                for (DataStore store : stores) {
+                final ConcurrentHashMap<Long, StorageStats> storageStats = new ConcurrentHashMap<Long, StorageStats>();
+                _pipeline.run("StorageCollector.ImageStores", stores, getStatsCollectionItemTimeout(), store -> {
                     if (store.getUri() == null) {
-                        continue;
+                        return;
                     }
 
                     Integer nfsVersion = imageStoreDetailsUtil.getNfsVersion(store.getId());
@@ -999,7 +1043,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     EndPoint ssAhost = _epSelector.select(store);
                     if (ssAhost == null) {
                         s_logger.debug("There is no secondary storage VM for secondary storage host " + store.getName());
-                        continue;
+                        return;
                     }
                     long storeId = store.getId();
                     Answer answer = ssAhost.sendMessage(command);
@@ -1007,16 +1051,16 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         storageStats.put(storeId, (StorageStats)answer);
                         s_logger.trace("HostId: " + storeId + " Used: " + ((StorageStats)answer).getByteUsed() + " Total Available: " + ((StorageStats)answer).getCapacityBytes());
                     }
-                }
+                });
                 _storageStats = storageStats;
-                ConcurrentHashMap<Long, StorageStats> storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
+                final ConcurrentHashMap<Long, StorageStats> storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
 
                 List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
-                for (StoragePoolVO pool : storagePools) {
+                _pipeline.run("StorageCollector.StoragePools", storagePools, getStatsCollectionItemTimeout(), pool -> {
                     // check if the pool has enabled hosts
                     List<Long> hostIds = _storageManager.getUpHostsInPool(pool.getId());
                     if (hostIds == null || hostIds.isEmpty())
-                        continue;
+                        return;
                     GetStorageStatsCommand command = new GetStorageStatsCommand(pool.getUuid(), pool.getPoolType(), pool.getPath());
                     long poolId = pool.getId();
                     try {
@@ -1035,7 +1079,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     } catch (Exception e) {
                         s_logger.warn("Unable to get stats for " + pool, e);
                     }
-                }
+                });
                 _storagePoolStats = storagePoolStats;
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve storage stats", t);
@@ -1406,7 +1450,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
      * otherwise, it will compromise the map of metrics used by another type of collector (e.g. InfluxDB).
      */
     private void prepareVmMetricsForGraphite(Map<Object, Object> metrics, VmStatsEntry statsForCurrentIteration) {
-        VMInstanceVO vmVO = _vmInstance.findById(statsForCurrentIteration.getVmId());
+        VMInstanceVO vmVO = statsForCurrentIteration.getUserVmVO();
+        if (vmVO == null) {
+            vmVO = _vmInstance.findById(statsForCurrentIteration.getVmId());
+        }
         String vmName = vmVO.getUuid();
 
         metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.num", statsForCurrentIteration.getNumCPUs());
@@ -1426,11 +1473,14 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
      * Stores virtual machine stats in memory (map of {@link VmStatsEntry}).
      */
     private void storeVirtualMachineStatsInMemory(VmStatsEntry statsForCurrentIteration) {
-        VmStatsEntry statsInMemory = (VmStatsEntry)_VmStats.get(statsForCurrentIteration.getVmId());
+        // hosts are collected in parallel, a VM that just migrated may be reported by two of them
+        _VmStats.compute(statsForCurrentIteration.getVmId(), (vmId, stats) -> mergeVirtualMachineStats((VmStatsEntry)stats, statsForCurrentIteration));
+    }
 
+    private VmStatsEntry mergeVirtualMachineStats(VmStatsEntry statsInMemory, VmStatsEntry statsForCurrentIteration) {
         if (statsInMemory == null) {
             //no stats exist for this vm, directly persist
-            _VmStats.put(statsForCurrentIteration.getVmId(), statsForCurrentIteration);
+            return statsForCurrentIteration;
         } else {
             //update each field
             statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
@@ -1445,7 +1495,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             statsInMemory.setIntFreeMemoryKBs(statsForCurrentIteration.getIntFreeMemoryKBs());
             statsInMemory.setTargetMemoryKBs(statsForCurrentIteration.getTargetMemoryKBs());
 
-            _VmStats.put(statsForCurrentIteration.getVmId(), statsInMemory);
+            return statsInMemory;
         }
     }
 
@@ -1591,7 +1641,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri};
+        return new ConfigKey<?>[] {vmDiskStatsInterval, vmDiskStatsIntervalMin, vmNetworkStatsInterval, vmNetworkStatsIntervalMin, StatsTimeout, statsOutputUri, statsCollectionParallelism};
     }
 
     public double getImageStoreCapacityThreshold() {
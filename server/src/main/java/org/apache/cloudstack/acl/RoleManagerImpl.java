@@ -38,6 +38,8 @@ import org.apache.cloudstack.api.command.admin.acl.UpdateRolePermissionCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -68,6 +70,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     private RolePermissionsDao rolePermissionsDao;
     @Inject
     private AccountManager accountManager;
+    @Inject
+    private MessageBus messageBus;
 
     private void checkCallerAccess() {
         if (!isEnabled()) {
@@ -83,6 +87,14 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
     }
 
+    /**
+     * Lets cached role permissions, such as the compiled rules of the dynamic api checker,
+     * know that the permissions of the role changed. Must be called after the change is committed.
+     */
+    private void notifyRolePermissionsChanged(final long roleId) {
+        messageBus.publish(_name, RoleService.ROLE_PERMISSIONS_CHANGED, PublishScope.LOCAL, roleId);
+    }
+
     @Override
     public boolean isEnabled() {
         return RoleService.EnableDynamicApiChecker.value();
@@ -189,7 +201,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
         List<? extends Account> accounts = accountDao.findAccountsByRole(role.getId());
         if (accounts == null || accounts.size() == 0) {
-            return Transaction.execute(new TransactionCallback<Boolean>() {
+            final boolean deleted = Transaction.execute(new TransactionCallback<Boolean>() {
                 @Override
                 public Boolean doInTransaction(TransactionStatus status) {
                     List<? extends RolePermission> rolePermissions = rolePermissionsDao.findAllByRoleIdSorted(role.getId());
@@ -206,6 +218,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                     return false;
                 }
             });
+            notifyRolePermissionsChanged(role.getId());
+            return deleted;
         }
         throw new PermissionDeniedException("Found accounts that have role in use, won't allow to delete role");
     }
@@ -214,32 +228,49 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_CREATE, eventDescription = "creating Role Permission")
     public RolePermission createRolePermission(final Role role, final Rule rule, final RolePermission.Permission permission, final String description) {
         checkCallerAccess();
-        return Transaction.execute(new TransactionCallback<RolePermissionVO>() {
+        final RolePermission rolePermission = Transaction.execute(new TransactionCallback<RolePermissionVO>() {
             @Override
             public RolePermissionVO doInTransaction(TransactionStatus status) {
                 return rolePermissionsDao.persist(new RolePermissionVO(role.getId(), rule.toString(), permission, description));
             }
         });
+        notifyRolePermissionsChanged(role.getId());
+        return rolePermission;
     }
 
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_UPDATE, eventDescription = "updating Role Permission order")
     public boolean updateRolePermission(final Role role, final List<RolePermission> newOrder) {
         checkCallerAccess();
-        return role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        if (role == null || newOrder == null) {
+            return false;
+        }
+        final boolean updated = rolePermissionsDao.update(role, newOrder);
+        notifyRolePermissionsChanged(role.getId());
+        return updated;
     }
 
     @Override
     public boolean updateRolePermission(Role role, RolePermission rolePermission, RolePermission.Permission permission) {
         checkCallerAccess();
-        return role != null && rolePermissionsDao.update(role, rolePermission, permission);
+        if (role == null) {
+            return false;
+        }
+        final boolean updated = rolePermissionsDao.update(role, rolePermission, permission);
+        notifyRolePermissionsChanged(role.getId());
+        return updated;
     }
 
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_DELETE, eventDescription = "deleting Role Permission")
     public boolean deleteRolePermission(final RolePermission rolePermission) {
         checkCallerAccess();
-        return rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        if (rolePermission == null) {
+            return false;
+        }
+        final boolean removed = rolePermissionsDao.remove(rolePermission.getId());
+        notifyRolePermissionsChanged(rolePermission.getRoleId());
+        return removed;
     }
 
     @Override
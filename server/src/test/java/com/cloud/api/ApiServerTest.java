@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.HttpUtils;
+
+public class ApiServerTest {
+
+    private HttpServletResponse resp;
+
+    @Before
+    public void setUp() throws Exception {
+        resp = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(resp.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    }
+
+    /**
+     * A list whose third user fails to serialize, as a response getter throwing would.
+     */
+    private ListResponse<UserResponse> listFailingAtThirdUser() {
+        List<UserResponse> users = new ArrayList<UserResponse>() {
+            @Override
+            public UserResponse get(int index) {
+                if (index == 2) {
+                    throw new IllegalStateException("user 2 cannot be serialized");
+                }
+                return super.get(index);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            UserResponse user = new UserResponse();
+            user.setId("id-" + i);
+            user.setObjectName("user");
+            users.add(user);
+        }
+        ListResponse<UserResponse> response = new ListResponse<UserResponse>();
+        response.setResponses(users, users.size());
+        response.setResponseName("listusersresponse");
+        return response;
+    }
+
+    @Test
+    public void testFailureAfterResponseStartedIsNotRethrown() throws Exception {
+        Mockito.when(resp.isCommitted()).thenReturn(true);
+
+        ApiServer.writeResponse(listFailingAtThirdUser(), HttpUtils.RESPONSE_TYPE_JSON, "listUsers", resp, new StringBuilder(), 0);
+
+        Mockito.verify(resp).setStatus(HttpServletResponse.SC_OK);
+        Mockito.verify(resp, Mockito.never()).resetBuffer();
+    }
+
+    @Test
+    public void testFailureBeforeResponseStartedIsRethrown() throws Exception {
+        Mockito.when(resp.isCommitted()).thenReturn(false);
+
+        try {
+            ApiServer.writeResponse(listFailingAtThirdUser(), HttpUtils.RESPONSE_TYPE_JSON, "listUsers", resp, new StringBuilder(), 0);
+            Assert.fail("the failure should be rethrown while the response can still be replaced by an error");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Mockito.verify(resp).resetBuffer();
+    }
+}
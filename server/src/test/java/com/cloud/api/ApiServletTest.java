@@ -182,7 +182,7 @@ public class ApiServletTest {
         Mockito.verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
         Mockito.verify(apiServer, Mockito.never()).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(HttpServletResponse.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -193,10 +193,10 @@ public class ApiServletTest {
                 apiServer.verifyRequest(nullable(Map.class), nullable(Long.class), nullable(InetAddress.class)))
         .thenReturn(true);
         servlet.processRequestInContext(request, response);
-        Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
+        // the response is written by the api server as it is serialized
         Mockito.verify(apiServer, Mockito.times(1)).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.eq(response));
     }
 
     @SuppressWarnings("unchecked")
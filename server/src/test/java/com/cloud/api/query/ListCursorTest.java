@@ -0,0 +1,60 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class ListCursorTest {
+
+    @Test
+    public void testEncodeDecode() {
+        // 2019-01-02 03:04:05 GMT
+        String cursor = ListCursor.encode(new Date(1546398245000L), 42L);
+
+        Assert.assertArrayEquals(new Object[] {"2019-01-02 03:04:05", "42"}, ListCursor.decode(cursor, 2));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testDecodeWrongNumberOfValues() {
+        ListCursor.decode(ListCursor.encode(42L), 2);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testDecodeInvalid() {
+        ListCursor.decode("not a cursor!", 1);
+    }
+
+    @Test
+    public void testIsSeek() {
+        Assert.assertTrue(ListCursor.isSeek(0L, 20L, null));
+        Assert.assertTrue(ListCursor.isSeek(0L, 20L, ListCursor.encode(42L)));
+        Assert.assertFalse(ListCursor.isSeek(40L, 20L, null));
+        Assert.assertFalse(ListCursor.isSeek(null, null, null));
+    }
+
+    @Test
+    public void testNextOnlyForFullPages() {
+        Assert.assertEquals(ListCursor.encode(42L), ListCursor.next(0L, 2L, null, 2, 42L));
+        Assert.assertNull(ListCursor.next(0L, 2L, null, 1, 42L));
+        Assert.assertNull(ListCursor.next(2L, 2L, null, 2, 42L));
+    }
+}
@@ -16,16 +16,52 @@
 // under the License.
 package com.cloud.api.query.dao;
 
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+
+import org.apache.cloudstack.api.ApiConstants.VMDetails;
+import org.apache.cloudstack.api.ResponseObject.ResponseView;
+import org.apache.cloudstack.api.response.NicResponse;
 import org.apache.cloudstack.api.response.UserVmResponse;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.service.ServiceOfferingDetailsVO;
+import com.cloud.service.dao.ServiceOfferingDetailsDao;
+import com.cloud.user.Account;
+import com.cloud.user.UserVO;
+import com.cloud.user.dao.UserDao;
+import com.cloud.vm.NicExtraDhcpOptionVO;
+import com.cloud.vm.UserVmDetailVO;
+import com.cloud.vm.dao.NicExtraDhcpOptionDao;
+import com.cloud.vm.dao.NicSecondaryIpDao;
+import com.cloud.vm.dao.NicSecondaryIpVO;
+import com.cloud.vm.dao.UserVmDetailsDao;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(ApiDBUtils.class)
@@ -34,6 +70,19 @@ public class UserVmJoinDaoImplTest extends GenericDaoBaseWithTagInformationBaseT
     @InjectMocks
     private UserVmJoinDaoImpl _userVmJoinDaoImpl;
 
+    @Mock
+    private ConfigurationDao _configDao;
+    @Mock
+    private UserVmDetailsDao _userVmDetailsDao;
+    @Mock
+    private UserDao _userDao;
+    @Mock
+    private NicExtraDhcpOptionDao _nicExtraDhcpOptionDao;
+    @Mock
+    private NicSecondaryIpDao _nicSecondaryIpDao;
+    @Mock
+    private ServiceOfferingDetailsDao _serviceOfferingDetailsDao;
+
     private UserVmJoinVO userVm = new UserVmJoinVO();
     private UserVmResponse userVmResponse = new UserVmResponse();
 
@@ -47,4 +96,79 @@ public class UserVmJoinDaoImplTest extends GenericDaoBaseWithTagInformationBaseT
         testUpdateTagInformation(_userVmJoinDaoImpl, userVm, userVmResponse);
     }
 
-}
\ No newline at end of file
+    private UserVmJoinVO mockRow(long vmId, long userId, long nicId) {
+        UserVmJoinVO row = mock(UserVmJoinVO.class);
+        when(row.getId()).thenReturn(vmId);
+        when(row.getUuid()).thenReturn("vm-" + vmId);
+        when(row.getUserId()).thenReturn(userId);
+        when(row.getServiceOfferingId()).thenReturn(7L);
+        when(row.getNicId()).thenReturn(nicId);
+        when(row.getNicUuid()).thenReturn("nic-" + nicId);
+        return row;
+    }
+
+    @Test
+    public void testPrefetchedDetailsAreNotQueriedPerRow() {
+        PowerMockito.stub(PowerMockito.method(ApiDBUtils.class, "getVmStatistics")).toReturn(null);
+        Account caller = mock(Account.class);
+        when(caller.getType()).thenReturn(Account.ACCOUNT_TYPE_ADMIN);
+
+        // vm 1 has two nics, vm 2 belongs to a removed user
+        UserVmJoinVO[] rows = new UserVmJoinVO[] {mockRow(1L, 5L, 11L), mockRow(1L, 5L, 12L), mockRow(2L, 6L, 21L)};
+        UserVO user = new UserVO(5L);
+        user.setUsername("admin");
+        when(_userDao.listByIds(anyList())).thenReturn(Arrays.asList(user));
+        ServiceOfferingDetailsVO vgpuType = new ServiceOfferingDetailsVO(7L, "vgpuType", "GRID K120Q", true);
+        when(_serviceOfferingDetailsDao.listDetails(anyList(), eq("vgpuType"), isNull())).thenReturn(Arrays.asList(vgpuType));
+        when(_nicSecondaryIpDao.listByNicIds(anyList())).thenReturn(Arrays.asList(new NicSecondaryIpVO(12L, "10.1.1.5", 1L, 2L, 1L, 3L)));
+        when(_nicExtraDhcpOptionDao.listByNicIds(anyList())).thenReturn(new ArrayList<NicExtraDhcpOptionVO>());
+        when(_userVmDetailsDao.listDetails(anyList(), isNull(), eq(true))).thenReturn(Arrays.asList(new UserVmDetailVO(2L, "UEFI", "SECURE", true)));
+
+        UserVmResponse first;
+        UserVmResponse second;
+        try (ResponsePrefetch prefetch = ResponsePrefetch.open()) {
+            _userVmJoinDaoImpl.prefetchResponseDetails(prefetch, EnumSet.of(VMDetails.all), rows);
+            first = _userVmJoinDaoImpl.newUserVmResponse(ResponseView.Full, "virtualmachine", rows[0], EnumSet.of(VMDetails.all), caller);
+            _userVmJoinDaoImpl.setUserVmResponse(ResponseView.Full, first, rows[1]);
+            second = _userVmJoinDaoImpl.newUserVmResponse(ResponseView.Full, "virtualmachine", rows[2], EnumSet.of(VMDetails.all), caller);
+        }
+
+        verify(_userDao, times(1)).listByIds(anyList());
+        verify(_serviceOfferingDetailsDao, times(1)).listDetails(anyList(), anyString(), isNull());
+        verify(_nicSecondaryIpDao, times(1)).listByNicIds(anyList());
+        verify(_nicExtraDhcpOptionDao, times(1)).listByNicIds(anyList());
+        verify(_userVmDetailsDao, times(1)).listDetails(anyList(), isNull(), eq(true));
+        verify(_userDao, never()).getUser(anyLong());
+        verify(_nicSecondaryIpDao, never()).listByNicId(anyLong());
+        verify(_nicExtraDhcpOptionDao, never()).listByNicId(anyLong());
+        verify(_userVmDetailsDao, never()).listDetails(anyLong(), anyBoolean());
+
+        Assert.assertEquals("admin", first.getUserName());
+        Assert.assertNull(second.getUserName());
+        Assert.assertEquals("GRID K120Q", first.getVgpu());
+        Assert.assertEquals(2, first.getNics().size());
+        for (NicResponse nic : first.getNics()) {
+            Assert.assertEquals("nic-12".equals(nic.getId()) ? 1 : 0, nic.getSecondaryIps().size());
+        }
+        Assert.assertEquals("Bios", first.getBootType());
+        Assert.assertEquals("Uefi", second.getBootType());
+        Assert.assertEquals("SECURE", ((Map)second.getDetails()).get("UEFI"));
+    }
+
+    @Test
+    public void testDetailsAreQueriedWithoutPrefetch() {
+        PowerMockito.stub(PowerMockito.method(ApiDBUtils.class, "getVmStatistics")).toReturn(null);
+        Account caller = mock(Account.class);
+        when(caller.getType()).thenReturn(Account.ACCOUNT_TYPE_ADMIN);
+        UserVmJoinVO row = mockRow(1L, 5L, 11L);
+        when(_nicExtraDhcpOptionDao.listByNicId(11L)).thenReturn(new ArrayList<NicExtraDhcpOptionVO>());
+        PowerMockito.stub(PowerMockito.method(ApiDBUtils.class, "findServiceOfferingDetail")).toReturn(null);
+        PowerMockito.stub(PowerMockito.method(ApiDBUtils.class, "findNicSecondaryIps")).toReturn(new ArrayList<NicSecondaryIpVO>());
+
+        _userVmJoinDaoImpl.newUserVmResponse(ResponseView.Full, "virtualmachine", row, EnumSet.of(VMDetails.all), caller);
+
+        verify(_userDao, times(1)).getUser(5L);
+        verify(_nicExtraDhcpOptionDao, times(1)).listByNicId(11L);
+        verify(_userVmDetailsDao, times(1)).listDetails(1L, true);
+    }
+}
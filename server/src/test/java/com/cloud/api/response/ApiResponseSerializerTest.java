@@ -0,0 +1,141 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.HttpUtils;
+
+public class ApiResponseSerializerTest {
+
+    private ListResponse<UserResponse> listOfUsers(int count) {
+        List<UserResponse> users = new ArrayList<UserResponse>();
+        for (int i = 0; i < count; i++) {
+            UserResponse user = new UserResponse();
+            user.setId("id-" + i);
+            user.setUsername("user<" + i + ">=");
+            user.setSecretKey("secret-" + i);
+            user.setObjectName("user");
+            users.add(user);
+        }
+        ListResponse<UserResponse> response = new ListResponse<UserResponse>();
+        response.setResponses(users, count);
+        response.setNextCursor("Y3Vyc29y");
+        response.setResponseName("listusersresponse");
+        return response;
+    }
+
+    private String unescape(String escaped) throws IOException {
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.UnescapingWriter writer = new ApiResponseSerializer.UnescapingWriter(out);
+        writer.write(escaped);
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void testStreamedResponseMatchesSerializedString() throws IOException {
+        ListResponse<UserResponse> response = listOfUsers(3);
+        StringBuilder expectedLog = new StringBuilder();
+        String expected = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, expectedLog);
+
+        StringWriter out = new StringWriter();
+        StringBuilder log = new StringBuilder();
+        ApiResponseSerializer.writeSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, out, log, 0);
+
+        Assert.assertEquals(expected, out.toString());
+        Assert.assertEquals(expectedLog.toString(), log.toString());
+        Assert.assertTrue(out.toString().startsWith("{\"listusersresponse\":{\"count\":3,\"nextcursor\":\"Y3Vyc29y\",\"user\":[{"));
+        // gson escapes are turned back into the characters
+        Assert.assertTrue(out.toString().contains("\"user<2>=\""));
+        Assert.assertTrue(out.toString().contains("secret-2"));
+        Assert.assertFalse(log.toString().contains("secret-"));
+    }
+
+    @Test
+    public void testStreamedLogIsLimited() throws IOException {
+        ListResponse<UserResponse> response = listOfUsers(100);
+        String expected = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+
+        StringWriter out = new StringWriter();
+        StringBuilder log = new StringBuilder();
+        ApiResponseSerializer.writeSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, out, log, 500);
+
+        Assert.assertEquals(expected, out.toString());
+        Assert.assertTrue(log.length() < 1000);
+        Assert.assertTrue(log.toString().endsWith(",\"...\"]}}"));
+        Assert.assertTrue(log.toString().contains("id-0"));
+        Assert.assertFalse(log.toString().contains("id-99"));
+    }
+
+    @Test
+    public void testEmptyList() throws IOException {
+        ListResponse<UserResponse> response = listOfUsers(0);
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.writeSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, out, new StringBuilder(), 0);
+        Assert.assertEquals("{\"listusersresponse\":{}}", out.toString());
+    }
+
+    @Test
+    public void testUnescapingWriterMatchesUnescape() throws IOException {
+        String[] samples = new String[] {"a\\u003db", "\\u003c\\u003e", "\\\\u0041", "\\u00zz", "\\u00\\u0041", "ends with \\u00", "\\", "\\\\", "plain"};
+        for (String sample : samples) {
+            Assert.assertEquals(sample, ApiResponseSerializer.unescape(sample), unescape(sample));
+        }
+    }
+
+    @Test
+    public void testUnescapingWriterWritesRunsOfCharacters() throws IOException {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            escaped.append("ab\\u003d");
+        }
+        final StringBuilder written = new StringBuilder();
+        final int[] writes = new int[1];
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                writes[0]++;
+                written.append(cbuf, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        ApiResponseSerializer.UnescapingWriter writer = new ApiResponseSerializer.UnescapingWriter(out);
+        writer.write(escaped.toString());
+        writer.flush();
+
+        Assert.assertEquals(ApiResponseSerializer.unescape(escaped.toString()), written.toString());
+        Assert.assertTrue("expected a few buffered writes, got " + writes[0], writes[0] < 10);
+    }
+}
@@ -0,0 +1,235 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.utils.Pair;
+
+public class CapacityIndexImplTest {
+    private static final long ZONE = 1L;
+
+    private final CapacityDao capacityDao = mock(CapacityDao.class);
+    private final ClusterDetailsDao clusterDetailsDao = mock(ClusterDetailsDao.class);
+    private final DataCenterDao dcDao = mock(DataCenterDao.class);
+    private final List<CapacityVO> rows = new ArrayList<CapacityVO>();
+    private CapacityIndexImpl index;
+
+    @Before
+    public void setUp() {
+        index = new CapacityIndexImpl();
+        index._capacityDao = capacityDao;
+        index._clusterDetailsDao = clusterDetailsDao;
+        index._dcDao = dcDao;
+
+        DataCenterVO zone = mock(DataCenterVO.class);
+        when(zone.getId()).thenReturn(ZONE);
+        when(dcDao.listAllZones()).thenReturn(Arrays.asList(zone));
+        when(capacityDao.listByZoneAndTypes(eq(ZONE), eq(Capacity.CAPACITY_TYPE_CPU), eq(Capacity.CAPACITY_TYPE_MEMORY))).thenReturn(rows);
+
+        ClusterDetailsVO cpuRatio = mock(ClusterDetailsVO.class);
+        when(cpuRatio.getValue()).thenReturn("2");
+        when(clusterDetailsDao.findDetail(10L, "cpuOvercommitRatio")).thenReturn(cpuRatio);
+        ClusterDetailsVO ramRatio = mock(ClusterDetailsVO.class);
+        when(ramRatio.getValue()).thenReturn("1");
+        when(clusterDetailsDao.findDetail(anyLong(), eq("memoryOvercommitRatio"))).thenReturn(ramRatio);
+
+        // cluster 10: 2000 cpu with overcommit on host 1, 1000 on host 2
+        addHost(1L, 100L, 10L, 500, 1000, 1024, 4096);
+        addHost(2L, 100L, 10L, 0, 500, 0, 4096);
+        // cluster 20: no overcommit
+        addHost(3L, 200L, 20L, 100, 1000, 3072, 4096);
+        index.refresh();
+    }
+
+    private CapacityVO[] addHost(long hostId, long podId, long clusterId, long usedCpu, long totalCpu, long usedRam, long totalRam) {
+        CapacityVO cpu = new CapacityVO(hostId, ZONE, podId, clusterId, usedCpu, totalCpu, Capacity.CAPACITY_TYPE_CPU);
+        CapacityVO ram = new CapacityVO(hostId, ZONE, podId, clusterId, usedRam, totalRam, Capacity.CAPACITY_TYPE_MEMORY);
+        rows.add(cpu);
+        rows.add(ram);
+        return new CapacityVO[] {cpu, ram};
+    }
+
+    @Test
+    public void testReserveAppliesOvercommit() {
+        Assert.assertTrue(index.hasCapacity(1L, 1500, 3072, false, true));
+        Assert.assertFalse(index.hasCapacity(1L, 1501, 1, false, true));
+        Assert.assertFalse(index.hasCapacity(3L, 901, 1, false, true));
+
+        Assert.assertNotNull(index.reserve(1L, 1000, 1024, false));
+        Assert.assertNotNull(index.reserve(1L, 500, 1024, false));
+        Assert.assertNull(index.reserve(1L, 1, 1, false));
+    }
+
+    @Test
+    public void testReserveFromReservedCapacity() {
+        rows.get(0).setReservedCapacity(200);
+        rows.get(1).setReservedCapacity(512);
+        index.refresh();
+
+        CapacityIndex.Reservation reservation = index.reserve(1L, 200, 512, true);
+        Assert.assertTrue(reservation.isFromReserved());
+        // moving reserved capacity to used leaves the free capacity as it was
+        Assert.assertTrue(index.hasCapacity(1L, 1300, 2560, false, true));
+        Assert.assertFalse(index.hasCapacity(1L, 1, 1, true, true));
+
+        Assert.assertFalse(index.reserve(1L, 100, 100, true).isFromReserved());
+    }
+
+    @Test
+    public void testCancelGivesBackCapacity() {
+        CapacityIndex.Reservation reservation = index.reserve(1L, 1500, 1024, false);
+        Assert.assertFalse(index.hasCapacity(1L, 1, 1, false, true));
+        index.cancel(reservation);
+        Assert.assertTrue(index.hasCapacity(1L, 1500, 1024, false, true));
+        // only the first of commit and cancel counts
+        index.commit(reservation);
+        index.cancel(reservation);
+        Assert.assertTrue(index.hasCapacity(1L, 1500, 3072, false, true));
+        Assert.assertFalse(index.hasCapacity(1L, 1501, 1, false, true));
+    }
+
+    @Test
+    public void testRefreshKeepsPendingReservations() {
+        CapacityIndex.Reservation reservation = index.reserve(1L, 1500, 1024, false);
+        index.refresh();
+        Assert.assertFalse(index.hasCapacity(1L, 1, 1, false, true));
+
+        // written to the database and committed
+        rows.get(0).setUsedCapacity(2000);
+        rows.get(1).setUsedCapacity(2048);
+        index.commit(reservation);
+        index.refresh();
+        Assert.assertFalse(index.hasCapacity(1L, 1, 1, false, true));
+
+        // released by another management server
+        rows.get(0).setUsedCapacity(500);
+        index.refresh();
+        Assert.assertTrue(index.hasCapacity(1L, 1500, 1, false, true));
+    }
+
+    @Test
+    public void testRefreshSkipsHostChangedWhileRead() {
+        when(capacityDao.listByZoneAndTypes(eq(ZONE), eq(Capacity.CAPACITY_TYPE_CPU), eq(Capacity.CAPACITY_TYPE_MEMORY))).thenAnswer(new Answer<List<CapacityVO>>() {
+            @Override
+            public List<CapacityVO> answer(InvocationOnMock invocation) {
+                // committed after the rows were read, the rows do not have it
+                index.commit(index.reserve(1L, 1500, 1024, false));
+                return rows;
+            }
+        });
+        index.refresh();
+        Assert.assertFalse(index.hasCapacity(1L, 1, 1, false, true));
+    }
+
+    @Test
+    public void testRefreshRemovesHosts() {
+        rows.remove(5);
+        rows.remove(4);
+        index.refresh();
+        Assert.assertFalse(index.isIndexed(3L));
+        Assert.assertNull(index.reserve(3L, 1, 1, false));
+        Assert.assertTrue(index.isIndexed(1L));
+    }
+
+    @Test
+    public void testOrderClustersAndPods() {
+        // cluster 10 uses 500 of 3000 cpu, cluster 20 uses 100 of 1000
+        Pair<List<Long>, Map<Long, Double>> clusters = index.orderClustersByFreeCapacity(ZONE, true, 100, 1024, Capacity.CAPACITY_TYPE_CPU);
+        Assert.assertEquals(Arrays.asList(20L, 10L), clusters.first());
+        Assert.assertEquals(0.1, clusters.second().get(20L), 0.0001);
+
+        // only host 1 and 2 have 2048 ram free
+        clusters = index.orderClustersByFreeCapacity(ZONE, true, 100, 2048, Capacity.CAPACITY_TYPE_CPU);
+        Assert.assertEquals(Arrays.asList(10L), clusters.first());
+
+        clusters = index.orderClustersByFreeCapacity(100L, false, 100, 1024, Capacity.CAPACITY_TYPE_MEMORY);
+        Assert.assertEquals(Arrays.asList(10L), clusters.first());
+
+        Pair<List<Long>, Map<Long, Double>> pods = index.orderPodsByFreeCapacity(ZONE, 100, 1024, Capacity.CAPACITY_TYPE_MEMORY);
+        Assert.assertEquals(Arrays.asList(100L, 200L), pods.first());
+
+        Assert.assertEquals(Arrays.asList(2L, 3L, 1L), index.orderHostsByFreeCapacity(ZONE, null, Capacity.CAPACITY_TYPE_CPU));
+        Assert.assertEquals(Arrays.asList(2L, 1L), index.orderHostsByFreeCapacity(ZONE, 10L, Capacity.CAPACITY_TYPE_MEMORY));
+    }
+
+    @Test
+    public void testConcurrentReservationsDoNotOvercommit() throws Exception {
+        final int threads = 8;
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        if (index.reserve(2L, 10, 1, false) != null) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // host 2 has 1000 cpu with overcommit
+        Assert.assertEquals(100, granted.get());
+        Assert.assertFalse(index.hasCapacity(2L, 1, 0, false, true));
+    }
+
+    @Test
+    public void testMissingOvercommitRatioDefaultsToOne() {
+        when(clusterDetailsDao.findDetail(anyLong(), anyString())).thenReturn(null);
+        rows.clear();
+        addHost(4L, 100L, 30L, 0, 1000, 0, 1024);
+        index.refresh();
+        Assert.assertTrue(index.hasCapacity(4L, 1000, 1024, false, true));
+        Assert.assertFalse(index.hasCapacity(4L, 1001, 1024, false, true));
+    }
+}
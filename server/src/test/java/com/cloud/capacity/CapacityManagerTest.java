@@ -17,10 +17,18 @@
 
 package com.cloud.capacity;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyShort;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.junit.Assert;
@@ -29,8 +37,12 @@ import org.junit.Test;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.vm.VirtualMachine;
 
 public class CapacityManagerTest {
@@ -76,4 +88,114 @@ public class CapacityManagerTest {
         Assert.assertTrue(hasCapacity);
 
     }
+
+    private CapacityIndex.Reservation setUpIndexedAllocation() {
+        capMgr = setUp();
+        HostDao hostDao = mock(HostDao.class);
+        HostVO host = mock(HostVO.class);
+        CapacityIndex capacityIndex = mock(CapacityIndex.class);
+        CapacityIndex.Reservation reservation = mock(CapacityIndex.Reservation.class);
+        capMgr._hostDao = hostDao;
+        capMgr._capacityIndex = capacityIndex;
+
+        when(vm.getId()).thenReturn(3l);
+        when(vm.getHostId()).thenReturn(1l);
+        when(vm.getServiceOfferingId()).thenReturn(2l);
+        when(hostDao.findById(1l)).thenReturn(host);
+        when(host.getId()).thenReturn(1l);
+        when(host.getCpus()).thenReturn(4);
+        when(host.getSpeed()).thenReturn(2000l);
+        when(SOfferingDao.findById(anyLong(), anyLong())).thenReturn(svo);
+        when(svo.getCpu()).thenReturn(1);
+        when(svo.getSpeed()).thenReturn(500);
+        when(svo.getRamSize()).thenReturn(512);
+        when(capacityIndex.isEnabled()).thenReturn(true);
+        when(capacityIndex.isIndexed(1l)).thenReturn(true);
+        when(capacityIndex.reserve(eq(1l), anyLong(), anyLong(), anyBoolean())).thenReturn(reservation);
+        when(host.getClusterId()).thenReturn(5l);
+        when(ClusterDetailsDao.findDetail(5l, "cpuOvercommitRatio")).thenReturn(clusterDetailCpu);
+        when(ClusterDetailsDao.findDetail(5l, "memoryOvercommitRatio")).thenReturn(clusterDetailRam);
+        when(clusterDetailCpu.getValue()).thenReturn("1");
+        when(clusterDetailRam.getValue()).thenReturn("1");
+        when(CDao.allocateCapacityIfAvailable(eq(1l), anyShort(), anyLong(), anyBoolean(), anyFloat())).thenReturn(true);
+        return reservation;
+    }
+
+    @Test
+    public void allocateVmCapacityFromIndexCommitsReservationTest() {
+        CapacityIndex.Reservation reservation = setUpIndexedAllocation();
+
+        capMgr.allocateVmCapacity(vm, false);
+
+        verify(capMgr._capacityIndex).commit(reservation);
+    }
+
+    @Test
+    public void allocateVmCapacityFromIndexCancelsReservationOnRollbackTest() {
+        CapacityIndex.Reservation reservation = setUpIndexedAllocation();
+        doThrow(new CloudRuntimeException("update failed")).when(CDao).allocateCapacityIfAvailable(anyLong(), eq(Capacity.CAPACITY_TYPE_MEMORY), anyLong(), anyBoolean(), anyFloat());
+
+        try {
+            capMgr.allocateVmCapacity(vm, false);
+            Assert.fail("the failed capacity update should be rethrown");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+
+        verify(capMgr._capacityIndex, never()).commit(any(CapacityIndex.Reservation.class));
+        verify(capMgr._capacityIndex, atLeastOnce()).cancel(reservation);
+    }
+
+    @Test
+    public void allocateVmCapacityFromIndexCancelsReservationOnOuterRollbackTest() {
+        CapacityIndex.Reservation reservation = setUpIndexedAllocation();
+
+        TransactionLegacy txn = TransactionLegacy.open("allocateVmCapacityFromIndexCancelsReservationOnOuterRollbackTest");
+        try {
+            txn.start();
+            capMgr.allocateVmCapacity(vm, false);
+            verify(capMgr._capacityIndex, never()).cancel(any(CapacityIndex.Reservation.class));
+            txn.rollback();
+        } finally {
+            txn.close();
+        }
+
+        verify(capMgr._capacityIndex, never()).commit(any(CapacityIndex.Reservation.class));
+        verify(capMgr._capacityIndex).cancel(reservation);
+    }
+
+    @Test
+    public void allocateVmCapacityFromIndexFallsBackWhenHostIsFullerThanIndexTest() {
+        CapacityIndex.Reservation reservation = setUpIndexedAllocation();
+        // another management server took the cpu the index of this one still counts as free
+        when(CDao.allocateCapacityIfAvailable(1l, Capacity.CAPACITY_TYPE_CPU, 500l, false, 1f)).thenReturn(false);
+        CapacityVO cvoCpuCore = mock(CapacityVO.class);
+        when(cvoCpu.getId()).thenReturn(10l);
+        when(cvoRam.getId()).thenReturn(11l);
+        when(cvoCpuCore.getId()).thenReturn(12l);
+        when(CDao.findByHostIdType(1l, Capacity.CAPACITY_TYPE_CPU)).thenReturn(cvoCpu);
+        when(CDao.findByHostIdType(1l, Capacity.CAPACITY_TYPE_MEMORY)).thenReturn(cvoRam);
+        when(CDao.findByHostIdType(1l, Capacity.CAPACITY_TYPE_CPU_CORE)).thenReturn(cvoCpuCore);
+        when(CDao.lockRow(10l, true)).thenReturn(cvoCpu);
+        when(CDao.lockRow(11l, true)).thenReturn(cvoRam);
+        when(CDao.lockRow(12l, true)).thenReturn(cvoCpuCore);
+        when(cvoCpu.getTotalCapacity()).thenReturn(2000l);
+        when(cvoCpu.getUsedCapacity()).thenReturn(2000l);
+        when(cvoRam.getTotalCapacity()).thenReturn(4096l * 1024 * 1024);
+        when(cvoRam.getUsedCapacity()).thenReturn(0l);
+
+        try {
+            capMgr.allocateVmCapacity(vm, false);
+            Assert.fail("the host has no cpu left in op_host_capacity");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+
+        verify(capMgr._capacityIndex).cancel(reservation);
+        verify(capMgr._capacityIndex, never()).commit(any(CapacityIndex.Reservation.class));
+        verify(CDao, never()).allocateCapacityIfAvailable(anyLong(), eq(Capacity.CAPACITY_TYPE_MEMORY), anyLong(), anyBoolean(), anyFloat());
+        verify(capMgr._capacityIndex).refresh(1l);
+        verify(CDao).lockRow(10l, true);
+        verify(CDao, never()).update(anyLong(), isA(CapacityVO.class));
+    }
 }
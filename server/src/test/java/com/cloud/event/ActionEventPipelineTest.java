@@ -0,0 +1,135 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cloudstack.framework.events.Event;
+import org.apache.cloudstack.framework.events.EventBus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.event.dao.EventDao;
+
+public class ActionEventPipelineTest {
+
+    private final EventDao eventDao = Mockito.mock(EventDao.class);
+    private final EventBus eventBus = Mockito.mock(EventBus.class);
+    private final List<String> persisted = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch writerBusy = new CountDownLatch(1);
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private ActionEventPipeline pipeline;
+
+    private ActionEventPipeline createPipeline(int capacity, ActionEventPipeline.OverflowPolicy overflowPolicy, boolean blockWriter) throws Exception {
+        Mockito.doAnswer(invocation -> {
+            for (EventVO event : invocation.<List<EventVO>>getArgument(0)) {
+                persisted.add(event.getType());
+            }
+            writerBusy.countDown();
+            if (blockWriter) {
+                releaseWriter.await(10, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(eventDao).persistEvents(Mockito.anyList());
+        Mockito.doAnswer(invocation -> {
+            for (Event event : invocation.<List<Event>>getArgument(0)) {
+                published.add(event.getEventType());
+            }
+            return null;
+        }).when(eventBus).publish(Mockito.anyList());
+        return new ActionEventPipeline(eventDao, () -> eventBus, capacity, 10, overflowPolicy);
+    }
+
+    private static ActionEventPipeline.PendingEvent pendingEvent(final String type) {
+        return new ActionEventPipeline.PendingEvent() {
+            @Override
+            public EventVO getEvent() {
+                EventVO event = new EventVO();
+                event.setType(type);
+                return event;
+            }
+
+            @Override
+            public Event getBusEvent() {
+                return new Event("test", "ActionEvent", type, null, null);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        releaseWriter.countDown();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testEventsWrittenAndPublishedInOrder() throws Exception {
+        pipeline = createPipeline(100, ActionEventPipeline.OverflowPolicy.CallerRuns, false);
+
+        for (int i = 0; i < 50; i++) {
+            pipeline.submit(pendingEvent("EVENT." + i));
+        }
+        pipeline.shutdown();
+
+        Assert.assertEquals(50, persisted.size());
+        Assert.assertEquals(50, published.size());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("EVENT." + i, persisted.get(i));
+            Assert.assertEquals("EVENT." + i, published.get(i));
+        }
+        Assert.assertEquals(50, pipeline.getPersisted());
+        Assert.assertEquals(50, pipeline.getPublished());
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+        Mockito.verify(eventDao, Mockito.never()).persist(Mockito.any(EventVO.class));
+    }
+
+    @Test
+    public void testFullQueueDropsEvents() throws Exception {
+        pipeline = createPipeline(1, ActionEventPipeline.OverflowPolicy.Drop, true);
+
+        pipeline.submit(pendingEvent("EVENT.1"));
+        Assert.assertTrue(writerBusy.await(10, TimeUnit.SECONDS));
+        pipeline.submit(pendingEvent("EVENT.2"));
+        pipeline.submit(pendingEvent("EVENT.3"));
+
+        Assert.assertEquals(1, pipeline.getQueueDepth());
+        Assert.assertEquals(1, pipeline.getDropped());
+        Mockito.verify(eventDao, Mockito.never()).persist(Mockito.any(EventVO.class));
+    }
+
+    @Test
+    public void testFullQueueRunsEventsOnCaller() throws Exception {
+        pipeline = createPipeline(1, ActionEventPipeline.OverflowPolicy.CallerRuns, true);
+
+        pipeline.submit(pendingEvent("EVENT.1"));
+        Assert.assertTrue(writerBusy.await(10, TimeUnit.SECONDS));
+        pipeline.submit(pendingEvent("EVENT.2"));
+        pipeline.submit(pendingEvent("EVENT.3"));
+
+        Assert.assertEquals(1, pipeline.getCallerRuns());
+        Assert.assertEquals(0, pipeline.getDropped());
+        Mockito.verify(eventDao).persist(Mockito.any(EventVO.class));
+        Assert.assertEquals(Collections.singletonList("EVENT.3"), published);
+    }
+}
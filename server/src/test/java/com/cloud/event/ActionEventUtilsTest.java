@@ -54,6 +54,7 @@ import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserDao;
 import com.cloud.utils.component.ComponentContext;
 import com.cloud.utils.db.EntityManager;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.vm.VirtualMachine;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -141,6 +142,8 @@ public class ActionEventUtilsTest {
     public void setupCommonMocks() throws Exception {
         //Some basic mocks.
         Mockito.when(configDao.getValue(Config.PublishActionEvent.key())).thenReturn("true");
+        //Write and publish the events on the calling thread, ActionEventPipelineTest covers the pipeline.
+        Mockito.when(configDao.getValue(Config.ActionEventPipelineQueueSize.key())).thenReturn("0");
         PowerMockito.mockStatic(ComponentContext.class);
         Mockito.when(ComponentContext.getComponent(EventBus.class)).thenReturn(eventBus);
 
@@ -226,4 +229,45 @@ public class ActionEventUtilsTest {
 
         CallContext.unregister();
     }
+
+    /**
+     * Raises a completed event through the pipeline inside a transaction and waits for the pipeline
+     * to write what it was handed.
+     */
+    private void raiseEventInTransaction(boolean commit) {
+        Mockito.when(configDao.getValue(Config.ActionEventPipelineQueueSize.key())).thenReturn("10");
+        ActionEventUtils utils = new ActionEventUtils();
+        utils.init();
+
+        TransactionLegacy txn = TransactionLegacy.open("raiseEventInTransaction");
+        try {
+            txn.start();
+            ActionEventUtils.onCompletedActionEvent(USER_ID, ACCOUNT_ID, EventVO.LEVEL_INFO, EventTypes.EVENT_VM_START, true, "Test event", 0);
+            if (commit) {
+                txn.commit();
+            } else {
+                txn.rollback();
+            }
+        } finally {
+            txn.close();
+        }
+
+        //Shutting the pipeline down writes the events still in its queue.
+        utils.init();
+    }
+
+    @Test
+    public void testPipelinedEventIsWrittenOnCommit() {
+        raiseEventInTransaction(true);
+
+        Mockito.verify(eventDao).persistEvents(Mockito.anyList());
+    }
+
+    @Test
+    public void testPipelinedEventIsDroppedOnRollback() {
+        raiseEventInTransaction(false);
+
+        Mockito.verify(eventDao, Mockito.never()).persistEvents(Mockito.anyList());
+        Mockito.verify(eventDao, Mockito.never()).persist(Mockito.any(EventVO.class));
+    }
 }
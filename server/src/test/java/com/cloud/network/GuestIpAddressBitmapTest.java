@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.net.NetUtils;
+
+public class GuestIpAddressBitmapTest {
+
+    @Test
+    public void testGatewayIsNotFree() {
+        GuestIpAddressBitmap bitmap = new GuestIpAddressBitmap("10.1.1.0/24", "10.1.1.1");
+
+        Assert.assertEquals(253, bitmap.getFreeCount());
+        Assert.assertFalse(bitmap.isFree(NetUtils.ip2Long("10.1.1.1")));
+        Assert.assertEquals("10.1.1.2", NetUtils.long2Ip(bitmap.pickFirst()));
+        Assert.assertEquals("10.1.1.254", NetUtils.long2Ip(bitmap.pickLast()));
+
+        bitmap.release(NetUtils.ip2Long("10.1.1.1"));
+        Assert.assertFalse(bitmap.isFree(NetUtils.ip2Long("10.1.1.1")));
+    }
+
+    @Test
+    public void testNetworkAndBroadcastAreNotPartOfTheBitmap() {
+        GuestIpAddressBitmap bitmap = new GuestIpAddressBitmap("10.1.1.0/24", null);
+
+        Assert.assertFalse(bitmap.contains(NetUtils.ip2Long("10.1.1.0")));
+        Assert.assertFalse(bitmap.contains(NetUtils.ip2Long("10.1.1.255")));
+        Assert.assertFalse(bitmap.markUsed(NetUtils.ip2Long("10.1.2.1")));
+        Assert.assertEquals(254, bitmap.getFreeCount());
+    }
+
+    @Test
+    public void testMarkUsedAndRelease() {
+        GuestIpAddressBitmap bitmap = new GuestIpAddressBitmap("10.1.1.0/24", "10.1.1.1");
+        long ip = NetUtils.ip2Long("10.1.1.2");
+
+        Assert.assertTrue(bitmap.markUsed(ip));
+        Assert.assertFalse(bitmap.markUsed(ip));
+        Assert.assertEquals(252, bitmap.getFreeCount());
+        Assert.assertEquals("10.1.1.3", NetUtils.long2Ip(bitmap.pickFirst()));
+
+        bitmap.release(ip);
+        bitmap.release(ip);
+        Assert.assertEquals(253, bitmap.getFreeCount());
+        Assert.assertEquals("10.1.1.2", NetUtils.long2Ip(bitmap.pickFirst()));
+    }
+
+    @Test
+    public void testPickRandomReturnsEveryFreeAddressOnce() {
+        GuestIpAddressBitmap bitmap = new GuestIpAddressBitmap("192.168.0.0/28", "192.168.0.1");
+        Random random = new Random(42);
+        Set<Long> picked = new HashSet<Long>();
+
+        long ip;
+        while ((ip = bitmap.pickRandom(random)) >= 0) {
+            Assert.assertTrue(bitmap.markUsed(ip));
+            picked.add(ip);
+        }
+
+        Assert.assertEquals(13, picked.size());
+        Assert.assertEquals(0, bitmap.getFreeCount());
+        Assert.assertEquals(-1, bitmap.pickFirst());
+        Assert.assertEquals(-1, bitmap.pickLast());
+    }
+
+    @Test
+    public void testMatches() {
+        GuestIpAddressBitmap bitmap = new GuestIpAddressBitmap("10.1.1.0/24", "10.1.1.1");
+
+        Assert.assertTrue(bitmap.matches("10.1.1.0/24", "10.1.1.1"));
+        Assert.assertFalse(bitmap.matches("10.1.1.0/25", "10.1.1.1"));
+        Assert.assertFalse(bitmap.matches("10.1.1.0/24", "10.1.1.254"));
+    }
+}
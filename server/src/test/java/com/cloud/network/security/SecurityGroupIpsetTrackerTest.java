@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.agent.api.SecurityGroupIpsetsCmd;
+import com.cloud.agent.api.SecurityGroupIpsetsCmd.IpsetDelta;
+
+public class SecurityGroupIpsetTrackerTest {
+    private static final long INTERVAL = 600000L;
+
+    private final SecurityGroupIpsetTracker tracker = new SecurityGroupIpsetTracker();
+
+    private Set<String> members(String... members) {
+        return new HashSet<String>(Arrays.asList(members));
+    }
+
+    @Test
+    public void testFirstUpdateIsFull() {
+        IpsetDelta delta = tracker.update(1L, 10L, members("10.0.0.1/32", "10.0.0.2/32"), 0L, INTERVAL);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(SecurityGroupIpsetsCmd.ipsetName(10L), delta.getName());
+        Assert.assertEquals(members("10.0.0.1/32", "10.0.0.2/32"), new HashSet<String>(delta.getAdded()));
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testOnlyChangesAreSent() {
+        tracker.update(1L, 10L, members("10.0.0.1/32", "10.0.0.2/32"), 0L, INTERVAL);
+
+        Assert.assertNull(tracker.update(1L, 10L, members("10.0.0.1/32", "10.0.0.2/32"), 1000L, INTERVAL));
+
+        IpsetDelta delta = tracker.update(1L, 10L, members("10.0.0.2/32", "10.0.0.3/32"), 2000L, INTERVAL);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(Arrays.asList("10.0.0.3/32"), delta.getAdded());
+        Assert.assertEquals(Arrays.asList("10.0.0.1/32"), delta.getRemoved());
+
+        // other hosts are tracked on their own
+        Assert.assertTrue(tracker.update(2L, 10L, members("10.0.0.2/32"), 2000L, INTERVAL).isFull());
+    }
+
+    @Test
+    public void testFullAfterIntervalOrReset() {
+        tracker.update(1L, 10L, members("10.0.0.1/32"), 0L, INTERVAL);
+        // the interval counts from the last full update, not from the last change
+        tracker.update(1L, 10L, members("10.0.0.2/32"), INTERVAL - 1, INTERVAL);
+        Assert.assertTrue(tracker.update(1L, 10L, members("10.0.0.2/32"), INTERVAL, INTERVAL).isFull());
+
+        tracker.forgetHost(1L);
+        IpsetDelta delta = tracker.update(1L, 10L, Collections.<String> emptySet(), INTERVAL + 1, INTERVAL);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertTrue(delta.getAdded().isEmpty());
+    }
+
+    @Test
+    public void testForgottenGroupIsSentWhole() {
+        tracker.update(1L, 10L, members("10.0.0.1/32"), 0L, INTERVAL);
+        tracker.update(1L, 11L, members("10.0.0.2/32"), 0L, INTERVAL);
+
+        // another management server replaced the set of group 10 on the host
+        tracker.forgetGroup(1L, 10L);
+
+        IpsetDelta delta = tracker.update(1L, 10L, members("10.0.0.3/32"), 1000L, INTERVAL);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(Arrays.asList("10.0.0.3/32"), delta.getAdded());
+        Assert.assertNull(tracker.update(1L, 11L, members("10.0.0.2/32"), 1000L, INTERVAL));
+
+        // forgetting an unknown host or group is harmless
+        tracker.forgetGroup(2L, 10L);
+        tracker.forgetGroup(1L, 12L);
+    }
+
+    @Test
+    public void testReplaceIsFull() {
+        IpsetDelta delta = SecurityGroupIpsetTracker.replace(10L, members("10.0.0.1/32"));
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(SecurityGroupIpsetsCmd.ipsetName(10L), delta.getName());
+        Assert.assertEquals(Arrays.asList("10.0.0.1/32"), delta.getAdded());
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testSecurityGroupIdOfRuleTarget() {
+        Assert.assertEquals(Long.valueOf(10L), SecurityGroupIpsetsCmd.securityGroupIdOf("ipset:" + SecurityGroupIpsetsCmd.ipsetName(10L)));
+        Assert.assertNull(SecurityGroupIpsetsCmd.securityGroupIdOf("10.0.0.0/8"));
+        Assert.assertNull(SecurityGroupIpsetsCmd.securityGroupIdOf("ipset:other"));
+    }
+}
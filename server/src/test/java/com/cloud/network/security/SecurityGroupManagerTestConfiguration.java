@@ -35,6 +35,7 @@ import org.apache.cloudstack.test.utils.SpringUtils;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.api.query.dao.SecurityGroupJoinDaoImpl;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.agentlb.dao.HostTransferMapDaoImpl;
 import com.cloud.dc.dao.ClusterDaoImpl;
 import com.cloud.dc.dao.DataCenterDaoImpl;
@@ -121,6 +122,11 @@ public class SecurityGroupManagerTestConfiguration {
         return Mockito.mock(ProjectManager.class);
     }
 
+    @Bean
+    public ClusterManager clusterManager() {
+        return Mockito.mock(ClusterManager.class);
+    }
+
     public static class Library implements TypeFilter {
 
         @Override
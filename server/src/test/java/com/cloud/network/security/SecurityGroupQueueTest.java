@@ -17,6 +17,8 @@
 package com.cloud.network.security;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -216,4 +218,28 @@ public class SecurityGroupQueueTest extends TestCase {
         _testDequeueOneJob(10, 1, 10);
     }
 
+    public void testHostWorkIsCoalesced() throws InterruptedException {
+        queue.clear();
+        Set<Long> vms = new HashSet<Long>(Arrays.asList(1L, 2L));
+        Set<Long> groups = new HashSet<Long>(Arrays.asList(10L));
+        assertEquals(3, queue.submitWorkForHost(100L, vms, groups));
+        assertEquals(1, queue.submitWorkForHost(200L, Collections.<Long> emptySet(), groups));
+        // already queued for the host
+        assertEquals(0, queue.submitWorkForHost(100L, vms, groups));
+        assertEquals(1, queue.submitWorkForHost(100L, Collections.<Long> emptySet(), new HashSet<Long>(Arrays.asList(10L, 11L))));
+        assertEquals(5, queue.size());
+
+        SecurityGroupWorkQueue.HostWork work = queue.getHostWork();
+        assertEquals(100L, work.getHostId());
+        assertEquals(vms, work.getVmIds());
+        assertEquals(new HashSet<Long>(Arrays.asList(10L, 11L)), work.getGroupIds());
+        assertEquals(1, queue.size());
+
+        // queued again once taken
+        assertEquals(2, queue.submitWorkForHost(100L, vms, Collections.<Long> emptySet()));
+        assertEquals(200L, queue.getHostWork().getHostId());
+        assertEquals(100L, queue.getHostWork().getHostId());
+        assertEquals(0, queue.size());
+    }
+
 }
@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsCollectionPipelineTest {
+
+    private final StatsCollectionPipeline pipeline = new StatsCollectionPipeline(4);
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    private static List<Integer> items(int count) {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    @Test
+    public void testAllItemsCollectedInParallel() {
+        final Set<Integer> collected = ConcurrentHashMap.newKeySet();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        pipeline.run("test", items(20), 10000, item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            collected.add(item);
+        });
+
+        Assert.assertEquals(20, collected.size());
+        Assert.assertTrue(maxRunning.get() > 1);
+        Assert.assertTrue(maxRunning.get() <= 4);
+
+        Map<String, String> stats = pipeline.getCollectorStatistics().get(0);
+        Assert.assertEquals("test", stats.get("collector"));
+        Assert.assertEquals("1", stats.get("cycles"));
+        Assert.assertEquals("20", stats.get("lastCycleItems"));
+        Assert.assertEquals("20", stats.get("items"));
+        Assert.assertEquals("0", stats.get("timeouts"));
+    }
+
+    @Test
+    public void testFailuresAreCountedAndDoNotStopTheCycle() {
+        final Set<Integer> collected = ConcurrentHashMap.newKeySet();
+
+        pipeline.run("failing", items(10), 10000, item -> {
+            if (item % 2 == 0) {
+                throw new IllegalStateException("host " + item + " is unreachable");
+            }
+            collected.add(item);
+        });
+
+        Assert.assertEquals(5, collected.size());
+        Assert.assertEquals(5, pipeline.getStatistics("failing").failures.get());
+    }
+
+    @Test
+    public void testHungItemTimesOut() throws InterruptedException {
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        final Set<Integer> collected = ConcurrentHashMap.newKeySet();
+
+        long start = System.currentTimeMillis();
+        pipeline.run("hung", items(5), 200, item -> {
+            if (item == 0) {
+                neverReleased.await();
+            }
+            collected.add(item);
+        });
+
+        Assert.assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10));
+        Assert.assertEquals(4, collected.size());
+        Assert.assertEquals(1, pipeline.getStatistics("hung").timeouts.get());
+    }
+}
@@ -39,6 +39,7 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+import org.powermock.reflect.Whitebox;
 
 import com.cloud.agent.api.VmDiskStatsEntry;
 import com.cloud.server.StatsCollector.ExternalStatsProtocol;
@@ -60,6 +61,17 @@ public class StatsCollectorTest {
 
     private static final String DEFAULT_DATABASE_NAME = "cloudstack";
 
+    @Test
+    public void stopShutsDownPipelineTest() {
+        StatsCollectionPipeline pipeline = Mockito.mock(StatsCollectionPipeline.class);
+        Whitebox.setInternalState(statsCollector, "_pipeline", pipeline);
+
+        Assert.assertTrue(statsCollector.stop());
+
+        Mockito.verify(pipeline).shutdown();
+        Assert.assertNull(Whitebox.getInternalState(statsCollector, "_pipeline"));
+    }
+
     @Test
     public void createInfluxDbConnectionTest() {
         configureAndTestCreateInfluxDbConnection(true);
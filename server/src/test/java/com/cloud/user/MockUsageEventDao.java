@@ -17,6 +17,7 @@
 package com.cloud.user;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -191,6 +192,17 @@ public class MockUsageEventDao implements UsageEventDao{
         return entity;
     }
 
+    @Override
+    public List<UsageEventVO> persistAll(Collection<UsageEventVO> entities) {
+        persistedItems.addAll(entities);
+        return new ArrayList<UsageEventVO>(entities);
+    }
+
+    @Override
+    public int updateAll(Collection<UsageEventVO> entities) {
+        return 0;
+    }
+
     @Override
     public boolean remove(Long id) {
         return false;
@@ -62,6 +62,7 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.test.utils.SpringUtils;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
@@ -356,6 +357,11 @@ public class DeploymentPlanningManagerImplTest {
             return Mockito.mock(CapacityManager.class);
         }
 
+        @Bean
+        public CapacityIndex capacityIndex() {
+            return Mockito.mock(CapacityIndex.class);
+        }
+
         @Bean
         public StoragePoolHostDao storagePoolHostDao() {
             return Mockito.mock(StoragePoolHostDao.class);
@@ -0,0 +1,108 @@
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+
+import json
+import logging
+import os
+
+# The management server sends the json files with lists of rules as the
+# changes to the last version the router acknowledged.  A full file has the
+# version and the ids of its elements in delta_version, kept here as the base
+# for the next changes.  A delta file has the version it was made from, the
+# fields of the new file, and for each list the order of the ids of its
+# elements, with only the elements not in the base.
+
+DPATH = "/etc/cloudstack"
+
+
+class DeltaMismatch(Exception):
+    pass
+
+
+def _path(dtype):
+    return os.path.join(DPATH, "delta_" + dtype + ".json")
+
+
+def _load(dtype):
+    try:
+        with open(_path(dtype), 'r') as _fh:
+            return json.load(_fh)
+    except (IOError, ValueError):
+        return {}
+
+
+def _save(dtype, bases):
+    if not os.path.exists(DPATH):
+        os.makedirs(DPATH)
+    with open(_path(dtype), 'w') as _fh:
+        json.dump(bases, _fh)
+
+
+def record(dtype, data):
+    """ Keeps the elements of a full file as the base of the next changes """
+    version = data.pop('delta_version')
+    lists = {}
+    for name, ids in version['ids'].items():
+        lists[name] = dict(zip(ids, data.get(name, [])))
+    bases = _load(dtype)
+    bases[version['key']] = {'version': version['version'], 'lists': lists}
+    _save(dtype, bases)
+    return data
+
+
+def expand(dtype, data):
+    """ Rebuilds the full file from the changes and the base they were made from """
+    delta = data['delta']
+    bases = _load(dtype)
+    base = bases.get(delta['key'])
+    if base is None or base['version'] != delta['base']:
+        raise DeltaMismatch("The %s configuration of %s is version %s, not %s the changes were made from" %
+                            (dtype, delta['key'], base['version'] if base else None, delta['base']))
+
+    full = dict(delta['fields'])
+    full['type'] = data['type']
+    lists = {}
+    for name, change in delta['lists'].items():
+        items = base['lists'].get(name, {})
+        added = change['added']
+        elements = []
+        kept = {}
+        for element_id in change['order']:
+            if element_id in added:
+                element = added[element_id]
+            elif element_id in items:
+                element = items[element_id]
+            else:
+                raise DeltaMismatch("Element %s of %s in the %s configuration of %s is missing" % (element_id, name, dtype, delta['key']))
+            elements.append(element)
+            kept[element_id] = element
+        full[name] = elements
+        lists[name] = kept
+
+    bases[delta['key']] = {'version': delta['version'], 'lists': lists}
+    _save(dtype, bases)
+    logging.info("Applied the changes to the %s configuration of %s, from version %s to %s" % (dtype, delta['key'], delta['base'], delta['version']))
+    return full
+
+
+def process(dtype, data):
+    if 'delta' in data:
+        return expand(dtype, data)
+    if 'delta_version' in data:
+        return record(dtype, data)
+    return data
@@ -37,6 +37,7 @@ import cs_site2sitevpn
 import cs_remoteaccessvpn
 import cs_vpnusers
 import cs_staticroutes
+import cs_delta
 
 
 class DataBag:
@@ -303,6 +304,7 @@ class QueueFile:
             else:
                 logging.debug("Processed file deleted: %s and not kept in /processed", filename)
                 os.remove(filename)
+            self.data = cs_delta.process(self.type, self.data)
             updateDataBag(self)
 
     def setFile(self, name):
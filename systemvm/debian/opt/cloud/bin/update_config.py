@@ -18,6 +18,7 @@
 
 import sys
 from merge import QueueFile
+from cs_delta import DeltaMismatch
 import logging
 import subprocess
 from subprocess import PIPE, STDOUT
@@ -54,7 +55,13 @@ def process_file():
         qf.keep = False
 
     qf.setFile(sys.argv[1])
-    qf.load(None)
+    try:
+        qf.load(None)
+    except DeltaMismatch as e:
+        # The management server sends the whole configuration instead
+        logging.error("update_config.py :: Unable to apply the changes in %s: %s" % (sys.argv[1], e))
+        print("Unable to apply the changes in %s: %s" % (sys.argv[1], e))
+        sys.exit(2)
     # These can be safely deferred, dramatically speeding up loading times
     if not (os.environ.get('DEFER_CONFIG', False) and ('vm_dhcp_entry.json' in sys.argv[1] or 'vm_metadata.json' in sys.argv[1])):
         # Converge
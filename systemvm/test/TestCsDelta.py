@@ -0,0 +1,78 @@
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+import shutil
+import tempfile
+import unittest
+
+import cs_delta
+
+
+class TestCsDelta(unittest.TestCase):
+
+    def setUp(self):
+        cs_delta.DPATH = tempfile.mkdtemp()
+
+    def tearDown(self):
+        shutil.rmtree(cs_delta.DPATH)
+
+    def full(self):
+        return {"type": "networkacl", "device": "eth2",
+                "ingress_rules": [{"cidr": "10.0.0.0/8"}, {"cidr": "192.168.0.0/16"}],
+                "egress_rules": [],
+                "delta_version": {"key": "eth2", "version": "v1",
+                                  "ids": {"ingress_rules": ["a", "b"], "egress_rules": []}}}
+
+    def delta(self, base):
+        return {"type": "networkacl",
+                "delta": {"key": "eth2", "base": base, "version": "v2",
+                          "fields": {"device": "eth2"},
+                          "lists": {"ingress_rules": {"order": ["b", "c"], "added": {"c": {"cidr": "172.16.0.0/12"}}},
+                                    "egress_rules": {"order": [], "added": {}}}}}
+
+    def test_full_is_recorded(self):
+        data = cs_delta.process("networkacl", self.full())
+        self.assertFalse("delta_version" in data)
+        self.assertEqual(2, len(data["ingress_rules"]))
+
+    def test_delta_is_expanded(self):
+        cs_delta.process("networkacl", self.full())
+        data = cs_delta.process("networkacl", self.delta("v1"))
+        self.assertEqual("networkacl", data["type"])
+        self.assertEqual("eth2", data["device"])
+        self.assertEqual([{"cidr": "192.168.0.0/16"}, {"cidr": "172.16.0.0/12"}], data["ingress_rules"])
+        self.assertEqual([], data["egress_rules"])
+
+    def test_delta_of_other_version(self):
+        cs_delta.process("networkacl", self.full())
+        self.assertRaises(cs_delta.DeltaMismatch, cs_delta.process, "networkacl", self.delta("v0"))
+
+    def test_delta_without_base(self):
+        self.assertRaises(cs_delta.DeltaMismatch, cs_delta.process, "networkacl", self.delta("v1"))
+
+    def test_delta_of_applied_delta(self):
+        cs_delta.process("networkacl", self.full())
+        cs_delta.process("networkacl", self.delta("v1"))
+        self.assertRaises(cs_delta.DeltaMismatch, cs_delta.process, "networkacl", self.delta("v1"))
+
+    def test_other_files_untouched(self):
+        data = {"type": "vmpassword", "ip_address": "10.1.1.2", "password": "secret"}
+        self.assertEqual(data, cs_delta.process("vmpassword", dict(data)))
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -86,6 +86,8 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -94,6 +96,7 @@ import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.mgmt.JmxUtil;
 
 @Component
 public class UsageManagerImpl extends ManagerBase implements UsageManager, Runnable {
@@ -106,6 +109,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private static final int HOURLY_TIME = 60;
     private static final int DAILY_TIME = 60 * 24;
     private static final int THREE_DAYS_IN_MINUTES = 60 * 24 * 3;
+    private static final int DEFAULT_PARSING_WORKERS = 4;
+    private static final int USAGE_RECORD_BATCH_SIZE = 500;
 
     @Inject
     private AccountDao _accountDao;
@@ -179,6 +184,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private Future _heartbeat = null;
     private Future _sanity = null;
     private boolean  usageSnapshotSelection = false;
+    private UsageParsingEngine _parsingEngine;
 
     public UsageManagerImpl() {
     }
@@ -276,9 +282,37 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             throw new ConfigurationException("Unhandled exception configuring UsageManager " + e.toString());
         }
         _pid = Integer.parseInt(System.getProperty("pid"));
+
+        int parsingWorkers = NumbersUtil.parseInt(configs.get("usage.parsing.workers"), DEFAULT_PARSING_WORKERS);
+        _parsingEngine = new UsageParsingEngine(_usageDao, parsingWorkers, USAGE_RECORD_BATCH_SIZE, getAccountParsers());
+        try {
+            JmxUtil.registerMBean("UsageManager", "ParsingEngine", _parsingEngine);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register usage parsing engine MBean", e);
+        }
         return true;
     }
 
+    private static List<Pair<String, UsageParsingEngine.AccountParser>> getAccountParsers() {
+        List<Pair<String, UsageParsingEngine.AccountParser>> parsers = new ArrayList<Pair<String, UsageParsingEngine.AccountParser>>();
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("vm usage instances", VMInstanceUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("network", NetworkUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("vm disk", VmDiskUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("volume", VolumeUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("storage", StorageUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("Security Group", SecurityGroupUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("load balancer", LoadBalancerUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("port forwarding", PortForwardingUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("network offering", NetworkOfferingUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("IPAddress", IPAddressUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("VPN user", VPNUserUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("VM Snapshot", VMSnapshotUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("VM Snapshot", VMSnapshotUsageParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("VM Snapshot on primary", VMSanpshotOnPrimaryParser::parse));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("VM Backup", BackupUsageParser::parse));
+        return parsers;
+    }
+
     @Override
     public boolean start() {
         if (s_logger.isInfoEnabled()) {
@@ -326,6 +360,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parsingEngine != null) {
+            _parsingEngine.shutdown();
+        }
         return true;
     }
 
@@ -763,6 +800,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     tempDate = aggregateCal.getTime();
                 }
 
+                _parsingEngine.beginJob();
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
                     Long offset = Long.valueOf(0);
                     Long limit = Long.valueOf(500);
@@ -771,10 +809,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
                         accounts = _accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
+                            numAcctsProcessed += _parsingEngine.parse(accounts, currentStartDate, currentEndDate, null);
+                            parsed = true;
                         }
                         offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
@@ -793,26 +829,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
 
                         if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
-                            }
+                            numAcctsProcessed += _parsingEngine.parse(accounts, currentStartDate, currentEndDate, this::markPublicTemplatesOfDeletedAccount);
+                            parsed = true;
                         }
                         offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
@@ -834,9 +852,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 } else {
                     success = true;
                 }
+                if (s_logger.isInfoEnabled()) {
+                    s_logger.info("Usage parsing took " + (System.currentTimeMillis() - timeStart) + "ms, per parser: " + _parsingEngine.getJobSummary());
+                }
             } catch (Exception ex) {
                 s_logger.error("Exception in usage manager", ex);
                 usageTxn.rollback();
+                _parsingEngine.discardJob();
             } finally {
                 // everything seemed to work...set endDate as the last success date
                 _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
@@ -864,109 +886,23 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
-        boolean parsed = false;
-
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-        parsed = VMSanpshotOnPrimaryParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot on primary usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private void markPublicTemplatesOfDeletedAccount(AccountVO account) {
+        List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+        for (Long templateId : publicTemplates) {
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                        "; marking them all as deleted...");
             }
-        }
-        parsed = BackupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Backup usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved());
+                _usageStorageDao.update(storageVO);
             }
         }
-        return parsed;
     }
 
     private void createHelperRecord(UsageEventVO event) {
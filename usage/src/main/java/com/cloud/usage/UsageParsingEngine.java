@@ -0,0 +1,319 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.parser.UsageRecordBatch;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Runs the usage parsers for a list of accounts on a pool of workers.  The accounts
+ * are split in one partition per worker and every partition is parsed in its own
+ * usage db transaction, with the usage records written in JDBC batches.
+ *
+ * A partition first deletes the records its accounts already have for the period, so
+ * parsing a period again after a failed job does not create duplicate records.  The
+ * partitions committed by a job that fails are deleted again with discardJob().
+ */
+public class UsageParsingEngine extends StandardMBean implements UsageParsingEngineMBean {
+    private static final Logger s_logger = Logger.getLogger(UsageParsingEngine.class);
+
+    public interface AccountParser {
+        boolean parse(AccountVO account, Date startDate, Date endDate);
+    }
+
+    public interface AccountCallback {
+        void parsed(AccountVO account);
+    }
+
+    private final UsageDao _usageDao;
+    private final int _workers;
+    private final int _batchSize;
+    private final List<Pair<String, AccountParser>> _parsers;
+    private final Map<String, ParserStatistics> _statistics = new LinkedHashMap<String, ParserStatistics>();
+    private final List<CommittedPartition> _committed = Collections.synchronizedList(new ArrayList<CommittedPartition>());
+    private final ExecutorService _executor;
+
+    public UsageParsingEngine(UsageDao usageDao, int workers, int batchSize, List<Pair<String, AccountParser>> parsers) {
+        super(UsageParsingEngineMBean.class, false);
+        _usageDao = usageDao;
+        _workers = Math.max(1, workers);
+        _batchSize = batchSize;
+        _parsers = parsers;
+        for (Pair<String, AccountParser> parser : parsers) {
+            if (!_statistics.containsKey(parser.first())) {
+                _statistics.put(parser.first(), new ParserStatistics(parser.first()));
+            }
+        }
+        _executor = Executors.newFixedThreadPool(_workers, new NamedThreadFactory("Usage-Parser"));
+    }
+
+    public void beginJob() {
+        _committed.clear();
+        for (ParserStatistics statistics : _statistics.values()) {
+            statistics.jobMs.set(0);
+        }
+    }
+
+    /**
+     * Parses the accounts for the period and returns once every partition has completed.
+     *
+     * @return the number of accounts parsed
+     * @throws CloudRuntimeException if a partition failed, the partitions that did not fail stay committed
+     */
+    public int parse(List<AccountVO> accounts, Date startDate, Date endDate, AccountCallback callback) {
+        if (accounts.isEmpty()) {
+            return 0;
+        }
+
+        final int partitionSize = (accounts.size() + _workers - 1) / _workers;
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        final List<PartitionTask> tasks = new ArrayList<PartitionTask>();
+        for (int from = 0; from < accounts.size(); from += partitionSize) {
+            final PartitionTask task = new PartitionTask(accounts.subList(from, Math.min(accounts.size(), from + partitionSize)), startDate, endDate, callback);
+            tasks.add(task);
+            futures.add(_executor.submit(task));
+        }
+
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        }
+        for (PartitionTask task : tasks) {
+            if (task.failure != null) {
+                failure = task.failure;
+            }
+        }
+        if (failure != null) {
+            throw new CloudRuntimeException("Failed to parse usage between " + startDate + " and " + endDate, failure);
+        }
+        return accounts.size();
+    }
+
+    /**
+     * Deletes the usage records of every partition committed since beginJob().
+     */
+    public void discardJob() {
+        final List<CommittedPartition> committed;
+        synchronized (_committed) {
+            committed = new ArrayList<CommittedPartition>(_committed);
+            _committed.clear();
+        }
+        if (committed.isEmpty()) {
+            return;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        try {
+            txn.start();
+            for (CommittedPartition partition : committed) {
+                _usageDao.deleteRecordsForAccountsInPeriod(partition.accountIds, partition.startDate, partition.endDate);
+            }
+            txn.commit();
+            s_logger.info("Discarded the usage records of " + committed.size() + " partitions committed by the failed usage job");
+        } catch (RuntimeException e) {
+            txn.rollback();
+            s_logger.error("Unable to discard the usage records committed by the failed usage job, they are replaced when the period is parsed again", e);
+        } finally {
+            txn.close();
+        }
+    }
+
+    /**
+     * @return the time each parser took during the current job, e.g. "VM instance: 1200ms, network: 300ms"
+     */
+    public String getJobSummary() {
+        final StringBuilder summary = new StringBuilder();
+        for (ParserStatistics statistics : _statistics.values()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(statistics.name).append(": ").append(statistics.jobMs.get()).append("ms");
+        }
+        return summary.toString();
+    }
+
+    public void shutdown() {
+        _executor.shutdownNow();
+    }
+
+    @Override
+    public int getWorkers() {
+        return _workers;
+    }
+
+    @Override
+    public List<Map<String, String>> getParserStatistics() {
+        final List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+        for (ParserStatistics statistics : _statistics.values()) {
+            result.add(statistics.toMap());
+        }
+        return result;
+    }
+
+    ParserStatistics getStatistics(String parserName) {
+        return _statistics.get(parserName);
+    }
+
+    private void parsePartition(List<AccountVO> accounts, Date startDate, Date endDate, AccountCallback callback) {
+        final List<Long> accountIds = new ArrayList<Long>(accounts.size());
+        for (AccountVO account : accounts) {
+            accountIds.add(account.getId());
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        final UsageRecordBatch batch = UsageRecordBatch.open(_usageDao, _batchSize);
+        try {
+            txn.start();
+            _usageDao.deleteRecordsForAccountsInPeriod(accountIds, startDate, endDate);
+            for (AccountVO account : accounts) {
+                for (Pair<String, AccountParser> parser : _parsers) {
+                    parseAccount(parser.first(), parser.second(), account, startDate, endDate);
+                }
+                if (callback != null) {
+                    callback.parsed(account);
+                }
+            }
+            batch.flush();
+            txn.commit();
+            _committed.add(new CommittedPartition(accountIds, startDate, endDate));
+        } catch (RuntimeException e) {
+            txn.rollback();
+            throw e;
+        } finally {
+            batch.close();
+            txn.close();
+        }
+    }
+
+    private void parseAccount(String parserName, AccountParser parser, AccountVO account, Date startDate, Date endDate) {
+        final ParserStatistics statistics = _statistics.get(parserName);
+        final long start = System.currentTimeMillis();
+        boolean parsed = false;
+        try {
+            parsed = parser.parse(account, startDate, endDate);
+        } catch (RuntimeException e) {
+            statistics.failures.incrementAndGet();
+            throw e;
+        } finally {
+            statistics.record(System.currentTimeMillis() - start);
+        }
+        if (!parsed && s_logger.isDebugEnabled()) {
+            s_logger.debug(parserName + " usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        }
+    }
+
+    private class PartitionTask extends ManagedContextRunnable {
+        final List<AccountVO> accounts;
+        final Date startDate;
+        final Date endDate;
+        final AccountCallback callback;
+        volatile RuntimeException failure;
+
+        PartitionTask(List<AccountVO> accounts, Date startDate, Date endDate, AccountCallback callback) {
+            this.accounts = accounts;
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.callback = callback;
+        }
+
+        @Override
+        protected void runInContext() {
+            try {
+                parsePartition(accounts, startDate, endDate, callback);
+            } catch (RuntimeException e) {
+                s_logger.error("Failed to parse usage between " + startDate + " and " + endDate + " for " + accounts.size() + " accounts starting at account " +
+                        accounts.get(0).getId(), e);
+                failure = e;
+            }
+        }
+    }
+
+    private static class CommittedPartition {
+        final List<Long> accountIds;
+        final Date startDate;
+        final Date endDate;
+
+        CommittedPartition(List<Long> accountIds, Date startDate, Date endDate) {
+            this.accountIds = accountIds;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+    }
+
+    static class ParserStatistics {
+        final String name;
+        final AtomicLong accounts = new AtomicLong();
+        final AtomicLong totalMs = new AtomicLong();
+        final AtomicLong maxMs = new AtomicLong();
+        final AtomicLong jobMs = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        ParserStatistics(String name) {
+            this.name = name;
+        }
+
+        void record(long durationMs) {
+            accounts.incrementAndGet();
+            totalMs.addAndGet(durationMs);
+            jobMs.addAndGet(durationMs);
+            maxMs.accumulateAndGet(durationMs, Math::max);
+        }
+
+        Map<String, String> toMap() {
+            final long count = accounts.get();
+            final Map<String, String> map = new HashMap<String, String>();
+            map.put("parser", name);
+            map.put("accounts", Long.toString(count));
+            map.put("totalMs", Long.toString(totalMs.get()));
+            map.put("avgMs", count == 0 ? "0" : String.format("%.2f", (double)totalMs.get() / count));
+            map.put("maxMs", Long.toString(maxMs.get()));
+            map.put("lastJobMs", Long.toString(jobMs.get()));
+            map.put("failures", Long.toString(failures.get()));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.usage.dao.UsageDao;
+
+/**
+ * Collects the usage records created by the parsers on the current thread and
+ * writes them with a single JDBC batch insert per batchSize records, instead of
+ * one persist per record.  Without an open batch, records are persisted right away.
+ */
+public final class UsageRecordBatch implements AutoCloseable {
+    private static final ThreadLocal<UsageRecordBatch> s_current = new ThreadLocal<UsageRecordBatch>();
+
+    private final UsageDao _usageDao;
+    private final int _batchSize;
+    private final List<UsageVO> _records;
+    private long _written;
+
+    private UsageRecordBatch(UsageDao usageDao, int batchSize) {
+        _usageDao = usageDao;
+        _batchSize = Math.max(1, batchSize);
+        _records = new ArrayList<UsageVO>(_batchSize);
+    }
+
+    /**
+     * Binds a new batch to the current thread, it has to be flushed before the
+     * transaction it writes in is committed and closed afterwards.
+     */
+    public static UsageRecordBatch open(UsageDao usageDao, int batchSize) {
+        final UsageRecordBatch batch = new UsageRecordBatch(usageDao, batchSize);
+        s_current.set(batch);
+        return batch;
+    }
+
+    public static void persist(UsageDao usageDao, UsageVO usageRecord) {
+        final UsageRecordBatch batch = s_current.get();
+        if (batch == null) {
+            usageDao.persist(usageRecord);
+        } else {
+            batch.add(usageRecord);
+        }
+    }
+
+    private void add(UsageVO usageRecord) {
+        _records.add(usageRecord);
+        if (_records.size() >= _batchSize) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        if (!_records.isEmpty()) {
+            _usageDao.saveUsageRecords(_records);
+            _written += _records.size();
+            _records.clear();
+        }
+    }
+
+    public long getWritten() {
+        return _written;
+    }
+
+    /**
+     * Unbinds the batch from the thread, records that were not flushed are discarded.
+     */
+    @Override
+    public void close() {
+        _records.clear();
+        if (s_current.get() == this) {
+            s_current.remove();
+        }
+    }
+}
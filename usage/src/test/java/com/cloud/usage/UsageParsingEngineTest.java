@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.parser.UsageRecordBatch;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class UsageParsingEngineTest {
+
+    private final UsageDao usageDao = Mockito.mock(UsageDao.class);
+    private final List<UsageVO> saved = Collections.synchronizedList(new ArrayList<UsageVO>());
+    private final Set<Long> parsedAccounts = ConcurrentHashMap.newKeySet();
+    private final Date startDate = new Date(0);
+    private final Date endDate = new Date(3600000L);
+    private UsageParsingEngine engine;
+
+    private UsageParsingEngine createEngine(final long failingAccountId) {
+        Mockito.doAnswer(invocation -> {
+            saved.addAll(invocation.<List<UsageVO>>getArgument(0));
+            return null;
+        }).when(usageDao).saveUsageRecords(Mockito.anyList());
+
+        final List<Pair<String, UsageParsingEngine.AccountParser>> parsers = new ArrayList<Pair<String, UsageParsingEngine.AccountParser>>();
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("vm", (account, start, end) -> {
+            if (account.getId() == failingAccountId) {
+                throw new CloudRuntimeException("unable to parse account " + account.getId());
+            }
+            parsedAccounts.add(account.getId());
+            UsageRecordBatch.persist(usageDao, new UsageVO());
+            UsageRecordBatch.persist(usageDao, new UsageVO());
+            return true;
+        }));
+        parsers.add(new Pair<String, UsageParsingEngine.AccountParser>("volume", (account, start, end) -> true));
+        return new UsageParsingEngine(usageDao, 4, 5, parsers);
+    }
+
+    private static List<AccountVO> accounts(int count) {
+        final List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= count; id++) {
+            accounts.add(new AccountVO(id));
+        }
+        return accounts;
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testAccountsParsedWithBatchedRecords() {
+        engine = createEngine(-1);
+        engine.beginJob();
+
+        Assert.assertEquals(40, engine.parse(accounts(40), startDate, endDate, null));
+
+        Assert.assertEquals(40, parsedAccounts.size());
+        Assert.assertEquals(80, saved.size());
+        Mockito.verify(usageDao, Mockito.never()).persist(Mockito.any(UsageVO.class));
+        Mockito.verify(usageDao, Mockito.times(4)).deleteRecordsForAccountsInPeriod(Mockito.anyList(), Mockito.eq(startDate), Mockito.eq(endDate));
+        Assert.assertEquals(40, engine.getStatistics("vm").accounts.get());
+        Assert.assertEquals(40, engine.getStatistics("volume").accounts.get());
+    }
+
+    @Test
+    public void testRecordsPersistedDirectlyWithoutBatch() {
+        engine = createEngine(-1);
+
+        UsageRecordBatch.persist(usageDao, new UsageVO());
+
+        Mockito.verify(usageDao).persist(Mockito.any(UsageVO.class));
+        Mockito.verify(usageDao, Mockito.never()).saveUsageRecords(Mockito.anyList());
+    }
+
+    @Test
+    public void testFailedJobDiscardsCommittedPartitions() {
+        engine = createEngine(40);
+        engine.beginJob();
+
+        try {
+            engine.parse(accounts(40), startDate, endDate, null);
+            Assert.fail("the partition of account 40 should have failed");
+        } catch (CloudRuntimeException e) {
+            Assert.assertEquals(1, engine.getStatistics("vm").failures.get());
+        }
+        Mockito.reset(usageDao);
+
+        engine.discardJob();
+
+        final ArgumentCaptor<List> accountIds = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(usageDao, Mockito.times(3)).deleteRecordsForAccountsInPeriod(accountIds.capture(), Mockito.eq(startDate), Mockito.eq(endDate));
+        for (List<?> ids : accountIds.getAllValues()) {
+            Assert.assertFalse(ids.contains(40L));
+        }
+    }
+}
@@ -0,0 +1,239 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * HashedWheelTimer runs tasks after a delay. A single thread steps over a
+ * wheel of buckets once per tick and hands the tasks that are due to an
+ * executor, so a slow task does not hold up the wheel. Scheduling and
+ * cancelling do not take a lock and cost the same however many timeouts are
+ * pending, at the price of firing up to one tick late. It suits timeouts,
+ * which are many and rarely fire.
+ */
+public class HashedWheelTimer {
+    private static final Logger s_logger = Logger.getLogger(HashedWheelTimer.class);
+
+    private final String _name;
+    private final long _tickNanos;
+    private final List<List<Timeout>> _wheel;
+    private final int _mask;
+    private final Executor _executor;
+    private final ConcurrentLinkedQueue<Timeout> _pending = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicBoolean _started = new AtomicBoolean();
+    private final long _startTime = System.nanoTime();
+    private volatile boolean _stopped;
+    private volatile Thread _worker;
+    // only written by the wheel thread
+    private volatile int _scheduled;
+
+    /**
+     * @param name name of the wheel thread.
+     * @param tickDuration how often the wheel moves, which is the precision of the timer.
+     * @param unit unit of the tick duration.
+     * @param wheelSize number of buckets, rounded up to a power of two.
+     * @param executor runs the tasks that are due.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int wheelSize, final Executor executor) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+        _name = name;
+        _tickNanos = unit.toNanos(tickDuration);
+        final int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        _wheel = new ArrayList<List<Timeout>>(Math.max(1, size));
+        for (int i = 0; i < Math.max(1, size); i++) {
+            _wheel.add(new ArrayList<Timeout>());
+        }
+        _mask = _wheel.size() - 1;
+        _executor = executor;
+    }
+
+    /**
+     * Schedules the task to run once after the delay. The wheel thread is
+     * started by the first call.
+     */
+    public Timeout newTimeout(final Runnable task, final long delay, final TimeUnit unit) {
+        if (_stopped) {
+            throw new RejectedExecutionException("Timer " + _name + " has been stopped");
+        }
+        start();
+        final Timeout timeout = new Timeout(task, System.nanoTime() - _startTime + unit.toNanos(Math.max(0, delay)));
+        _pending.add(timeout);
+        return timeout;
+    }
+
+    private void start() {
+        if (_started.get() || !_started.compareAndSet(false, true)) {
+            return;
+        }
+        final Thread worker = new Thread(new Worker((System.nanoTime() - _startTime) / _tickNanos), _name);
+        worker.setDaemon(true);
+        _worker = worker;
+        worker.start();
+    }
+
+    /**
+     * Stops the wheel thread. Timeouts that are still pending never run.
+     */
+    public void stop() {
+        _stopped = true;
+        final Thread worker = _worker;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of timeouts that have been scheduled but have not run or been cancelled yet, counted approximately.
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (final Timeout timeout : _pending) {
+            if (!timeout.isCancelled()) {
+                count++;
+            }
+        }
+        return count + _scheduled;
+    }
+
+    private class Worker implements Runnable {
+        private long _tick;
+
+        Worker(final long tick) {
+            _tick = tick;
+        }
+
+        @Override
+        public void run() {
+            while (!_stopped) {
+                if (!waitForNextTick()) {
+                    break;
+                }
+                transferPending();
+                expire(_wheel.get((int)(_tick & _mask)));
+                _tick++;
+            }
+        }
+
+        private boolean waitForNextTick() {
+            final long deadline = _startTime + (_tick + 1) * _tickNanos;
+            while (!_stopped) {
+                final long sleep = deadline - System.nanoTime();
+                if (sleep <= 0) {
+                    return true;
+                }
+                LockSupport.parkNanos(this, sleep);
+            }
+            return false;
+        }
+
+        private void transferPending() {
+            Timeout timeout;
+            while ((timeout = _pending.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                final long due = timeout._deadline / _tickNanos;
+                timeout._remainingRounds = (due - _tick) / _wheel.size();
+                // a timeout that is already late goes into the bucket that is expired next
+                _wheel.get((int)(Math.max(due, _tick) & _mask)).add(timeout);
+                _scheduled++;
+            }
+        }
+
+        private void expire(final List<Timeout> bucket) {
+            // compacts the bucket in place, removing from the middle of an array list would cost a copy per timeout
+            int kept = 0;
+            final int size = bucket.size();
+            for (int i = 0; i < size; i++) {
+                final Timeout timeout = bucket.get(i);
+                if (timeout.isCancelled()) {
+                    _scheduled--;
+                    continue;
+                }
+                if (timeout._remainingRounds <= 0) {
+                    _scheduled--;
+                    if (timeout.expire()) {
+                        run(timeout);
+                    }
+                    continue;
+                }
+                timeout._remainingRounds--;
+                bucket.set(kept++, timeout);
+            }
+            bucket.subList(kept, size).clear();
+        }
+
+        private void run(final Timeout timeout) {
+            try {
+                _executor.execute(timeout._task);
+            } catch (final RejectedExecutionException e) {
+                s_logger.warn("Timer " + _name + " is unable to run an expired task", e);
+            }
+        }
+    }
+
+    public static class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable _task;
+        private final long _deadline;
+        private final AtomicInteger _state = new AtomicInteger(WAITING);
+        private long _remainingRounds;
+
+        private Timeout(final Runnable task, final long deadline) {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        /**
+         * @return true if the task will not run, false if it has already been handed over to run.
+         */
+        public boolean cancel() {
+            return _state.compareAndSet(WAITING, CANCELLED) || _state.get() == CANCELLED;
+        }
+
+        public boolean isCancelled() {
+            return _state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return _state.get() == EXPIRED;
+        }
+
+        private boolean expire() {
+            return _state.compareAndSet(WAITING, EXPIRED);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool keeps the direct buffers used as SSL scratch space by the links,
+ * so a packet written or read does not allocate a new buffer. A buffer is only
+ * held while a packet is wrapped or unwrapped, so the pool holds about one
+ * buffer per thread doing socket I/O. Buffers released beyond the retention
+ * limit are left to the garbage collector.
+ */
+public class BufferPool {
+    private final int _maxRetained;
+    private final ConcurrentLinkedQueue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _retained = new AtomicInteger();
+    private final AtomicLong _allocated = new AtomicLong();
+
+    public BufferPool(final int maxRetained) {
+        _maxRetained = maxRetained;
+    }
+
+    /**
+     * @return a cleared direct buffer of at least the capacity.
+     */
+    public ByteBuffer acquire(final int capacity) {
+        ByteBuffer buffer;
+        while ((buffer = _buffers.poll()) != null) {
+            _retained.decrementAndGet();
+            if (buffer.capacity() >= capacity) {
+                buffer.clear();
+                return buffer;
+            }
+            // the SSL session asks for larger buffers than it used to, drop the small one
+        }
+        _allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        if (_retained.incrementAndGet() > _maxRetained) {
+            _retained.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        _buffers.offer(buffer);
+    }
+
+    /**
+     * @return the number of buffers allocated because the pool had none to give.
+     */
+    public long getAllocated() {
+        return _allocated.get();
+    }
+
+    public int getRetained() {
+        return _retained.get();
+    }
+}
@@ -32,17 +32,18 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLEngine;
 
@@ -67,7 +68,10 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected boolean _isRunning;
     protected boolean _isStartup;
     protected int _port;
-    protected List<ChangeRequest> _todos;
+    protected Queue<ChangeRequest> _todos;
+    protected int _ioSelectorCount;
+    protected IoSelector[] _ioSelectors;
+    private final AtomicInteger _nextIoSelector = new AtomicInteger();
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
@@ -88,11 +92,28 @@ public abstract class NioConnection implements Callable<Boolean> {
         this.caService = caService;
     }
 
+    /**
+     * Moves the I/O of the accepted connections off the selector that accepts
+     * them to this many selectors, each with its own thread, so a single
+     * selector thread does not cap the number of agents that can be served.
+     * Must be called before start; 0, the default, keeps everything on one
+     * selector.
+     */
+    public void setIoSelectorCount(final int ioSelectorCount) {
+        _ioSelectorCount = Math.max(0, ioSelectorCount);
+    }
+
     public void start() throws NioConnectionException {
-        _todos = new ArrayList<ChangeRequest>();
+        _todos = new ConcurrentLinkedQueue<ChangeRequest>();
 
         try {
             init();
+            if (_ioSelectorCount > 0) {
+                _ioSelectors = new IoSelector[_ioSelectorCount];
+                for (int i = 0; i < _ioSelectorCount; i++) {
+                    _ioSelectors[i] = new IoSelector(_name + "-IoSelector-" + i);
+                }
+            }
         } catch (final ConnectException e) {
             s_logger.warn("Unable to connect to remote: is there a server running on port " + _port);
             return;
@@ -117,6 +138,11 @@ public abstract class NioConnection implements Callable<Boolean> {
             _futureTask.cancel(false);
             _threadExecutor.shutdown();
         }
+        if (_ioSelectors != null) {
+            for (final IoSelector ioSelector : _ioSelectors) {
+                ioSelector.stop();
+            }
+        }
     }
 
     public boolean isRunning() {
@@ -133,42 +159,9 @@ public abstract class NioConnection implements Callable<Boolean> {
             try {
                 _selector.select(50);
 
-                // Someone is ready for I/O, get the ready keys
-                final Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                final Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    final SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        final Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
+                processSelectedKeys(_selector);
 
-                s_logger.trace("Keys Done Processing.");
-
-                processTodos();
+                processTodos(_todos);
             } catch (final ClosedSelectorException e) {
                 /*
                  * Exception occurred when calling java.nio.channels.Selector.selectedKeys() method. It means the connection has not yet been established. Let's continue trying
@@ -183,6 +176,43 @@ public abstract class NioConnection implements Callable<Boolean> {
         return true;
     }
 
+    protected void processSelectedKeys(final Selector selector) throws IOException {
+        // Someone is ready for I/O, get the ready keys
+        final Set<SelectionKey> readyKeys = selector.selectedKeys();
+        final Iterator<SelectionKey> i = readyKeys.iterator();
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Keys Processing: " + readyKeys.size());
+        }
+        // Walk through the ready keys collection.
+        while (i.hasNext()) {
+            final SelectionKey sk = i.next();
+            i.remove();
+
+            if (!sk.isValid()) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Selection Key is invalid: " + sk.toString());
+                }
+                final Link link = (Link)sk.attachment();
+                if (link != null) {
+                    link.terminated();
+                } else {
+                    closeConnection(sk);
+                }
+            } else if (sk.isReadable()) {
+                read(sk);
+            } else if (sk.isWritable()) {
+                write(sk);
+            } else if (sk.isAcceptable()) {
+                accept(sk);
+            } else if (sk.isConnectable()) {
+                connect(sk);
+            }
+        }
+
+        s_logger.trace("Keys Done Processing.");
+    }
+
     abstract void init() throws IOException;
 
     abstract void registerLink(InetSocketAddress saddr, Link link);
@@ -207,6 +237,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             sslEngine.setUseClientMode(false);
             sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
             final NioConnection nioConnection = this;
+            final Selector ioSelector = nextIoSelector(key.selector());
             _sslHandshakeExecutor.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -222,7 +253,8 @@ public abstract class NioConnection implements Callable<Boolean> {
                         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
                         final Link link = new Link(saddr, nioConnection);
                         link.setSSLEngine(sslEngine);
-                        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+                        ioSelector.wakeup();
+                        link.setKey(socketChannel.register(ioSelector, SelectionKey.OP_READ, link));
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
                         _executor.submit(task);
@@ -234,6 +266,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                         closeAutoCloseable(socketChannel, "accepting socketChannel");
                     } finally {
                         _selector.wakeup();
+                        ioSelector.wakeup();
                     }
                 }
             });
@@ -319,22 +352,41 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
-    protected void processTodos() {
-        List<ChangeRequest> todos;
-        if (_todos.size() == 0) {
-            return;             // Nothing to do.
+    /**
+     * @return the selector the I/O of a connection accepted on the selector is registered with.
+     */
+    protected Selector nextIoSelector(final Selector acceptSelector) {
+        if (_ioSelectors == null) {
+            return acceptSelector;
         }
+        return _ioSelectors[Math.abs(_nextIoSelector.getAndIncrement() % _ioSelectors.length)]._selector;
+    }
 
-        synchronized (this) {
-            todos = _todos;
-            _todos = new ArrayList<ChangeRequest>();
+    /**
+     * @return the change request queue of the selector the key is registered with.
+     */
+    protected Queue<ChangeRequest> todosOf(final SelectionKey key) {
+        if (_ioSelectors != null && key != null) {
+            for (final IoSelector ioSelector : _ioSelectors) {
+                if (ioSelector._selector == key.selector()) {
+                    return ioSelector._todos;
+                }
+            }
+        }
+        return _todos;
+    }
+
+    protected void processTodos(final Queue<ChangeRequest> todos) {
+        if (todos.isEmpty()) {
+            return;             // Nothing to do.
         }
 
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Todos Processing: " + todos.size());
         }
         SelectionKey key;
-        for (final ChangeRequest todo : todos) {
+        ChangeRequest todo;
+        while ((todo = todos.poll()) != null) {
             switch (todo.type) {
             case ChangeRequest.CHANGEOPS:
                 try {
@@ -466,26 +518,28 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     public void register(final int ops, final SocketChannel key, final Object att) {
         final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.REGISTER, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
+        _todos.add(todo);
         _selector.wakeup();
     }
 
     public void change(final int ops, final SelectionKey key, final Object att) {
         final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        todosOf(key).add(todo);
+        wakeup(key);
     }
 
     public void close(final SelectionKey key) {
         final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
-        synchronized (this) {
-            _todos.add(todo);
+        todosOf(key).add(todo);
+        wakeup(key);
+    }
+
+    private void wakeup(final SelectionKey key) {
+        if (key != null) {
+            key.selector().wakeup();
+        } else {
+            _selector.wakeup();
         }
-        _selector.wakeup();
     }
 
     /* Release the resource used by the instance */
@@ -493,6 +547,49 @@ public abstract class NioConnection implements Callable<Boolean> {
         if (_selector != null) {
             _selector.close();
         }
+        if (_ioSelectors != null) {
+            for (final IoSelector ioSelector : _ioSelectors) {
+                ioSelector._selector.close();
+            }
+        }
+    }
+
+    /**
+     * A selector, with its own thread and change requests, serving the I/O of
+     * a share of the accepted connections.
+     */
+    protected class IoSelector implements Runnable {
+        protected final Selector _selector;
+        protected final Queue<ChangeRequest> _todos = new ConcurrentLinkedQueue<ChangeRequest>();
+        private final ExecutorService _thread;
+        private volatile boolean _running = true;
+
+        protected IoSelector(final String name) throws IOException {
+            _selector = Selector.open();
+            _thread = Executors.newSingleThreadExecutor(new NamedThreadFactory(name));
+            _thread.submit(this);
+        }
+
+        @Override
+        public void run() {
+            while (_running) {
+                try {
+                    _selector.select(50);
+                    processSelectedKeys(_selector);
+                    processTodos(_todos);
+                } catch (final ClosedSelectorException e) {
+                    break;
+                } catch (final Exception e) {
+                    s_logger.warn("Caught exception while serving I/O on " + _name, e);
+                }
+            }
+        }
+
+        protected void stop() {
+            _running = false;
+            _selector.wakeup();
+            _thread.shutdown();
+        }
     }
 
     public class ChangeRequest {
@@ -0,0 +1,146 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.testcase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.ClosedChannelException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+import com.cloud.utils.nio.Task.Type;
+
+/**
+ * NioLoadTest sends messages from a client to a server over loopback and
+ * reports the messages per second and the bytes allocated per message, as a
+ * check that the links reuse their SSL buffers instead of allocating them for
+ * every packet.
+ */
+public class NioLoadTest {
+    private static final Logger LOGGER = Logger.getLogger(NioLoadTest.class);
+
+    private static final int TESTTIMEOUT = 60000;
+    private static final int MESSAGES = 5000;
+    private static final int MESSAGE_SIZE = 1024;
+
+    private final CountDownLatch received = new CountDownLatch(MESSAGES);
+    private final byte[] message = new byte[MESSAGE_SIZE];
+    private NioServer server;
+    private NioClient client;
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.stop();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test(timeout = TESTTIMEOUT)
+    public void testLoopbackThroughput() throws Exception {
+        new Random().nextBytes(message);
+
+        server = new NioServer("NioLoadTestServer", 0, 2, new ServerHandlerFactory(), null);
+        server.setIoSelectorCount(2);
+        server.start();
+
+        final long allocatedBefore = getAllocatedBytes();
+        final long buffersBefore = Link.getBufferPool().getAllocated();
+        final long start = System.nanoTime();
+
+        client = new NioClient("NioLoadTestClient", "127.0.0.1", server.getPort(), 1, new ClientHandlerFactory());
+        client.start();
+        Assert.assertTrue("Not all messages arrived", received.await(TESTTIMEOUT / 2, TimeUnit.MILLISECONDS));
+
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = getAllocatedBytes() - allocatedBefore;
+        final long buffers = Link.getBufferPool().getAllocated() - buffersBefore;
+        LOGGER.info(String.format("Sent %d messages of %d bytes in %d ms: %.0f messages/s, %d bytes allocated per message, %d SSL buffers allocated",
+                MESSAGES, MESSAGE_SIZE, TimeUnit.NANOSECONDS.toMillis(elapsed), MESSAGES * 1e9 / elapsed, allocated < 0 ? -1 : allocated / MESSAGES, buffers));
+
+        // a buffer per thread doing I/O, not one per packet
+        Assert.assertTrue("Allocated " + buffers + " SSL buffers for " + MESSAGES + " messages", buffers < 32);
+    }
+
+    /**
+     * @return the bytes allocated by the live threads of the JVM, or -1 if the JVM does not tell.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (final long allocated : ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private class ClientHandlerFactory implements HandlerFactory {
+        @Override
+        public Task create(final Type type, final Link link, final byte[] data) {
+            return new Task(type, link, data) {
+                @Override
+                protected void doTask(final Task task) {
+                    if (task.getType() == Task.Type.CONNECT) {
+                        try {
+                            for (int i = 0; i < MESSAGES; i++) {
+                                task.getLink().send(message);
+                            }
+                        } catch (final ClosedChannelException e) {
+                            LOGGER.error("Link closed while sending", e);
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    private class ServerHandlerFactory implements HandlerFactory {
+        @Override
+        public Task create(final Type type, final Link link, final byte[] data) {
+            return new Task(type, link, data) {
+                @Override
+                protected void doTask(final Task task) {
+                    if (task.getType() == Task.Type.DATA) {
+                        Assert.assertEquals(MESSAGE_SIZE, task.getData().length);
+                        received.countDown();
+                    }
+                }
+            };
+        }
+    }
+}